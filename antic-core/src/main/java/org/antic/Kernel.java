@@ -24,10 +24,11 @@ import org.antic.consensus.AnticSync;
 import org.antic.core.*;
 import org.antic.crypto.Hex;
 import org.antic.crypto.Key;
+import org.antic.db.CachedDatabaseFactory;
+import org.antic.db.CompositeDatabaseFactory;
 import org.antic.db.DatabaseFactory;
 import org.antic.db.DatabaseName;
 import org.antic.db.LeveldbDatabase;
-import org.antic.db.LeveldbDatabase.LeveldbFactory;
 import org.antic.event.KernelBootingEvent;
 import org.antic.event.PubSub;
 import org.antic.event.PubSubFactory;
@@ -81,6 +82,7 @@ public class Kernel {
 
     protected DatabaseFactory dbFactory;
     protected Blockchain chain;
+    protected SnapshotManager snapshotMgr;
     protected PeerClient client;
 
     protected ChannelManager channelMgr;
@@ -136,11 +138,16 @@ public class Kernel {
         // ====================================
         // initialize blockchain database
         // ====================================
-        dbFactory = new LeveldbFactory(config.databaseDir());
+        dbFactory = new CachedDatabaseFactory(
+                new CompositeDatabaseFactory(config.databaseDir(), config.dbEngines()),
+                config.dbCacheSizes());
         chain = new BlockchainImpl(config, genesis, dbFactory);
         long number = chain.getLatestBlockNumber();
         logger.info("Latest block number = {}", number);
 
+        snapshotMgr = new SnapshotManager(config, chain);
+        chain.addListener(snapshotMgr);
+
         // ====================================
         // set up client
         // ====================================
@@ -287,9 +294,10 @@ public class Kernel {
         api.stop();
         p2p.stop();
 
-        // stop pending manager and node manager
+        // stop pending manager, node manager and snapshot manager
         pendingMgr.stop();
         nodeMgr.stop();
+        snapshotMgr.stop();
 
         // close client
         client.close();
@@ -389,6 +397,15 @@ public class Kernel {
         return config;
     }
 
+    /**
+     * Returns the state snapshot manager.
+     *
+     * @return
+     */
+    public SnapshotManager getSnapshotManager() {
+        return snapshotMgr;
+    }
+
     /**
      * Returns the syncing manager.
      * 
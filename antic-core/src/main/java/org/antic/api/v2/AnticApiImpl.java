@@ -13,6 +13,7 @@ import java.io.File;
 import java.net.UnknownHostException;
 import java.nio.charset.Charset;
 import java.security.spec.InvalidKeySpecException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Set;
@@ -39,6 +40,8 @@ import org.antic.crypto.Hash;
 import org.antic.crypto.Hex;
 import org.antic.crypto.Key;
 import org.antic.crypto.cache.PublicKeyCache;
+import org.antic.db.CachedDatabaseFactory;
+import org.antic.db.DatabaseFactory;
 import org.antic.net.NodeManager;
 import org.antic.net.filter.AnticIpFilter;
 import org.antic.vm.client.AnticBlock;
@@ -64,6 +67,10 @@ public final class AnticApiImpl implements AnticApi {
 
     private static final Charset CHARSET = UTF_8;
 
+    private static final int DEFAULT_PAGE_SIZE = 100;
+    private static final int MAX_PAGE_SIZE = 1000;
+    private static final Pattern CURSOR_PATTERN = Pattern.compile("^(\\d+):(\\d+)$");
+
     private final Kernel kernel;
 
     public AnticApiImpl(Kernel kernel) {
@@ -271,6 +278,48 @@ public final class AnticApiImpl implements AnticApi {
         }
     }
 
+    @Override
+    public Response getAccountTransactionHistory(String address, String cursor, String limit) {
+        try {
+            byte[] addressBytes = parseAddress(address, true);
+            Integer limitInt = parseInt(limit, false, "limit");
+            if (limitInt == null) {
+                limitInt = DEFAULT_PAGE_SIZE;
+            } else if (limitInt <= 0 || limitInt > MAX_PAGE_SIZE) {
+                return badRequest("Parameter `limit` must be between 1 and " + MAX_PAGE_SIZE);
+            }
+
+            long blockNumber = 0;
+            int position = 0;
+            if (cursor != null) {
+                Matcher m = CURSOR_PATTERN.matcher(cursor);
+                if (!m.matches()) {
+                    return badRequest("Parameter `cursor` is invalid");
+                }
+                try {
+                    blockNumber = Long.parseLong(m.group(1));
+                    position = Integer.parseInt(m.group(2));
+                } catch (NumberFormatException e) {
+                    return badRequest("Parameter `cursor` is invalid");
+                }
+            }
+
+            TransactionPage page = kernel.getBlockchain().getTransactions(addressBytes, blockNumber, position,
+                    limitInt);
+
+            GetAccountTransactionHistoryResponse resp = new GetAccountTransactionHistoryResponse();
+            resp.setResult(page.getTransactions().stream()
+                    .map(TypeFactory::transactionType)
+                    .collect(Collectors.toList()));
+            if (page.hasNext()) {
+                resp.setNextCursor(page.getNextBlockNumber() + ":" + page.getNextPosition());
+            }
+            return success(resp);
+        } catch (IllegalArgumentException ex) {
+            return badRequest(ex.getMessage());
+        }
+    }
+
     @Override
     public Response getAccountInternalTransactions(String address, String from, String to) {
         try {
@@ -375,7 +424,8 @@ public final class AnticApiImpl implements AnticApi {
             byte[] addressBytes = parseAddress(address, true);
 
             Blockchain chain = kernel.getBlockchain();
-            Delegate delegate = chain.getDelegateState().getDelegateByAddress(addressBytes);
+            DelegateState ds = chain.getDelegateState();
+            Delegate delegate = ds.getDelegateByAddress(addressBytes);
             if (delegate == null) {
                 return badRequest("The provided address is not a delegate");
             }
@@ -384,7 +434,8 @@ public final class AnticApiImpl implements AnticApi {
             boolean isValidator = chain.getValidators().contains(address.replace("0x", ""));
 
             GetDelegateResponse resp = new GetDelegateResponse();
-            resp.setResult(TypeFactory.delegateType(validatorStats, delegate, isValidator));
+            resp.setResult(
+                    TypeFactory.delegateType(validatorStats, delegate, isValidator, ds.getDelegateRank(addressBytes)));
             return success(resp);
         } catch (IllegalArgumentException e) {
             return badRequest(e.getMessage());
@@ -396,12 +447,14 @@ public final class AnticApiImpl implements AnticApi {
         GetDelegatesResponse resp = new GetDelegatesResponse();
         Blockchain chain = kernel.getBlockchain();
         Set<String> validators = new HashSet<>(chain.getValidators());
+        DelegateState ds = chain.getDelegateState();
 
-        resp.setResult(chain.getDelegateState().getDelegates().parallelStream()
+        resp.setResult(ds.getDelegates().parallelStream()
                 .map(delegate -> TypeFactory.delegateType(
                         chain.getValidatorStats(delegate.getAddress()),
                         delegate,
-                        validators.contains(delegate.getAddressString())))
+                        validators.contains(delegate.getAddressString()),
+                        ds.getDelegateRank(delegate.getAddress())))
                 .collect(Collectors.toList()));
 
         return success(resp);
@@ -750,6 +803,22 @@ public final class AnticApiImpl implements AnticApi {
         return success(resp);
     }
 
+    @Override
+    public Response getDatabaseCacheStats() {
+        GetDatabaseCacheStatsResponse resp = new GetDatabaseCacheStatsResponse();
+
+        DatabaseFactory dbFactory = kernel.getDbFactory();
+        if (dbFactory instanceof CachedDatabaseFactory) {
+            resp.setResult(((CachedDatabaseFactory) dbFactory).getCachedDatabases().entrySet().stream()
+                    .map(e -> TypeFactory.databaseCacheStatsType(e.getKey(), e.getValue()))
+                    .collect(Collectors.toList()));
+        } else {
+            resp.setResult(new ArrayList<>());
+        }
+
+        return success(resp);
+    }
+
     /**
      * Constructs a success response.
      *
@@ -13,10 +13,15 @@ import org.antic.core.*;
 import org.antic.core.state.Account;
 import org.antic.core.state.Delegate;
 import org.antic.crypto.Hex;
+import org.antic.db.CachedDatabase;
+import org.antic.db.DatabaseName;
 import org.antic.net.Peer;
 import org.antic.vm.client.AnticInternalTransaction;
 import org.ethereum.vm.LogInfo;
 
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
@@ -40,7 +45,7 @@ public class TypeFactory {
     }
 
     public static BlockType blockType(Block block, Transaction coinbaseTransaction) {
-        List<Transaction> txs = block.getTransactions();
+        List<Transaction> txs = new ArrayList<>(block.getTransactions());
         if (coinbaseTransaction != null) {
             txs.add(0, coinbaseTransaction);
         }
@@ -59,7 +64,7 @@ public class TypeFactory {
     }
 
     public static DelegateType delegateType(BlockchainImpl.ValidatorStats validatorStats, Delegate delegate,
-                                            boolean isValidator) {
+                                            boolean isValidator, int rank) {
         return new DelegateType()
                 .address(Hex.encode0x(delegate.getAddress()))
                 .name(delegate.getNameString())
@@ -68,7 +73,8 @@ public class TypeFactory {
                 .blocksForged(String.valueOf(validatorStats.getBlocksForged()))
                 .turnsHit(String.valueOf(validatorStats.getTurnsHit()))
                 .turnsMissed(String.valueOf(validatorStats.getTurnsMissed()))
-                .validator(isValidator);
+                .validator(isValidator)
+                .rank(rank + 1);
     }
 
     public static List<AccountVoteType> accountVotes(Blockchain blockchain, byte[] address) {
@@ -88,7 +94,8 @@ public class TypeFactory {
                 .delegate(
                         TypeFactory
                                 .delegateType(blockchain.getValidatorStats(delegate.getAddress()), delegate,
-                                        isValidator))
+                                        isValidator,
+                                        blockchain.getDelegateState().getDelegateRank(delegate.getAddress())))
                 .votes(blockchain.getDelegateState().getVote(address, delegate.getAddress()).toString());
     }
 
@@ -104,6 +111,17 @@ public class TypeFactory {
                 .pendingTransactions(kernel.getPendingManager().getPendingTransactions().size());
     }
 
+    public static DatabaseCacheStatsType databaseCacheStatsType(DatabaseName name, CachedDatabase db) {
+        CacheStats stats = db.getStats();
+        return new DatabaseCacheStatsType()
+                .name(name.name())
+                .capacity(String.valueOf(db.getCapacity()))
+                .size(String.valueOf(db.getSize()))
+                .hitCount(String.valueOf(stats.hitCount()))
+                .missCount(String.valueOf(stats.missCount()))
+                .evictionCount(String.valueOf(stats.evictionCount()));
+    }
+
     public static PeerType peerType(Peer peer) {
         return new PeerType()
                 .ip(peer.getIp())
@@ -23,8 +23,8 @@ import org.antic.core.exception.WalletLockedException;
 import org.antic.crypto.Hex;
 import org.antic.crypto.Key;
 import org.antic.crypto.bip39.MnemonicGenerator;
+import org.antic.db.CompositeDatabaseFactory;
 import org.antic.db.DatabaseFactory;
-import org.antic.db.LeveldbDatabase;
 import org.antic.exception.LauncherException;
 import org.antic.message.CliMessages;
 import org.antic.net.filter.exception.IpFilterJsonParseException;
@@ -172,7 +172,7 @@ public class AnticCli extends Launcher {
 
     protected void reindex(String to) {
         Config config = getConfig();
-        DatabaseFactory dbFactory = new LeveldbDatabase.LeveldbFactory(config.databaseDir());
+        DatabaseFactory dbFactory = new CompositeDatabaseFactory(config.databaseDir(), config.dbEngines());
         BlockchainImpl.upgrade(config, dbFactory, to == null ? Long.MAX_VALUE : Long.parseLong(to));
     }
 
@@ -12,6 +12,9 @@ import org.antic.core.Amount;
 import org.antic.core.Fork;
 import org.antic.core.TransactionType;
 import org.antic.crypto.Hash;
+import org.antic.crypto.Hex;
+import org.antic.db.DatabaseEngine;
+import org.antic.db.DatabaseName;
 import org.antic.net.Capability;
 import org.antic.net.CapabilityTreeSet;
 import org.antic.net.NodeManager.Node;
@@ -58,6 +61,21 @@ public abstract class AbstractConfig implements Config, ChainSpec {
     protected Network network;
     protected short networkVersion;
 
+    // =========================
+    // Database
+    // =========================
+    protected DatabaseEngine dbEngine = DatabaseEngine.LEVELDB;
+    protected Map<DatabaseName, DatabaseEngine> dbEngineOverrides = new EnumMap<>(DatabaseName.class);
+    protected Map<DatabaseName, Long> dbCacheSizes = new EnumMap<>(DatabaseName.class);
+    {
+        // the blocks are cached decoded by the blockchain instead
+        dbCacheSizes.put(DatabaseName.INDEX, 32L * 1024L * 1024L);
+        dbCacheSizes.put(DatabaseName.BLOCK, 0L);
+        dbCacheSizes.put(DatabaseName.ACCOUNT, 32L * 1024L * 1024L);
+        dbCacheSizes.put(DatabaseName.DELEGATE, 8L * 1024L * 1024L);
+        dbCacheSizes.put(DatabaseName.VOTE, 8L * 1024L * 1024L);
+    }
+
     // =========================
     // P2P
     // =========================
@@ -86,7 +104,12 @@ public abstract class AbstractConfig implements Config, ChainSpec {
             MessageCode.BFT_NEW_HEIGHT,
             MessageCode.BFT_NEW_VIEW,
             MessageCode.BFT_PROPOSAL,
-            MessageCode.BFT_VOTE));
+            MessageCode.BFT_VOTE,
+            MessageCode.BFT_COMPACT_PROPOSAL,
+            MessageCode.BFT_GET_PROPOSAL_TRANSACTIONS,
+            MessageCode.BFT_PROPOSAL_TRANSACTIONS));
+    protected Map<MessageCode, Integer> netMessageRateLimits = new EnumMap<>(
+            Collections.singletonMap(MessageCode.TRANSACTION, 1000));
     protected List<String> netDnsSeedsMainNet = Collections
             .unmodifiableList(Arrays.asList("106.53.207.179","49.233.18.153","118.25.102.73","49.234.60.14","106.53.203.105"));
     protected List<String> netDnsSeedsTestNet = Collections
@@ -101,6 +124,8 @@ public abstract class AbstractConfig implements Config, ChainSpec {
     protected int syncMaxPendingBlocks = 512;
     protected boolean syncDisconnectOnInvalidBlock = false;
     protected boolean syncFastSync = false;
+    protected long syncSnapshotInterval = 0L;
+    protected Map<Long, byte[]> syncSnapshotCheckpoints = new HashMap<>();
 
     // =========================
     // API
@@ -336,7 +361,8 @@ public abstract class AbstractConfig implements Config, ChainSpec {
 
     @Override
     public CapabilityTreeSet getClientCapabilities() {
-        return CapabilityTreeSet.of(Capability.ANTIC, Capability.FAST_SYNC);
+        return CapabilityTreeSet.of(Capability.ANTIC, Capability.FAST_SYNC, Capability.COMPACT_PROPOSAL,
+                Capability.BLOCK_RANGE);
     }
 
     @Override
@@ -359,6 +385,20 @@ public abstract class AbstractConfig implements Config, ChainSpec {
         return maxUnVoteCount;
     }
 
+    @Override
+    public Map<DatabaseName, DatabaseEngine> dbEngines() {
+        Map<DatabaseName, DatabaseEngine> engines = new EnumMap<>(DatabaseName.class);
+        for (DatabaseName name : DatabaseName.values()) {
+            engines.put(name, dbEngineOverrides.getOrDefault(name, dbEngine));
+        }
+        return engines;
+    }
+
+    @Override
+    public Map<DatabaseName, Long> dbCacheSizes() {
+        return dbCacheSizes;
+    }
+
     @Override
     public Optional<String> p2pDeclaredIp() {
         return StringUtil.isNullOrEmpty(p2pDeclaredIp) ? Optional.empty() : Optional.of(p2pDeclaredIp);
@@ -429,6 +469,11 @@ public abstract class AbstractConfig implements Config, ChainSpec {
         return netPrioritizedMessages;
     }
 
+    @Override
+    public Map<MessageCode, Integer> netMessageRateLimits() {
+        return netMessageRateLimits;
+    }
+
     @Override
     public List<String> netDnsSeedsMainNet() {
         return netDnsSeedsMainNet;
@@ -469,6 +514,16 @@ public abstract class AbstractConfig implements Config, ChainSpec {
         return syncFastSync;
     }
 
+    @Override
+    public long syncSnapshotInterval() {
+        return syncSnapshotInterval;
+    }
+
+    @Override
+    public Map<Long, byte[]> syncSnapshotCheckpoints() {
+        return syncSnapshotCheckpoints;
+    }
+
     @Override
     public boolean apiEnabled() {
         return apiEnabled;
@@ -604,6 +659,32 @@ public abstract class AbstractConfig implements Config, ChainSpec {
                 String name = (String) k;
 
                 switch (name) {
+                    case "db.engine":
+                        dbEngine = DatabaseEngine.valueOf(props.getProperty(name).trim().toUpperCase(Locale.ROOT));
+                        break;
+                    case "db.engine.index":
+                    case "db.engine.block":
+                    case "db.engine.account":
+                    case "db.engine.delegate":
+                    case "db.engine.vote": {
+                        DatabaseName db = DatabaseName
+                                .valueOf(name.substring("db.engine.".length()).toUpperCase(Locale.ROOT));
+                        dbEngineOverrides.put(db,
+                                DatabaseEngine.valueOf(props.getProperty(name).trim().toUpperCase(Locale.ROOT)));
+                        break;
+                    }
+                    case "db.cacheSize.index":
+                    case "db.cacheSize.block":
+                    case "db.cacheSize.account":
+                    case "db.cacheSize.delegate":
+                    case "db.cacheSize.vote": {
+                        // in megabytes
+                        DatabaseName db = DatabaseName
+                                .valueOf(name.substring("db.cacheSize.".length()).toUpperCase(Locale.ROOT));
+                        dbCacheSizes.put(db, Long.parseLong(props.getProperty(name).trim()) * 1024L * 1024L);
+                        break;
+                    }
+
                     case "p2p.declaredIp":
                         p2pDeclaredIp = props.getProperty(name).trim();
                         break;
@@ -642,6 +723,18 @@ public abstract class AbstractConfig implements Config, ChainSpec {
                     case "net.relayRedundancy":
                         netRelayRedundancy = Integer.parseInt(props.getProperty(name).trim());
                         break;
+                    case "net.messageRateLimits": {
+                        netMessageRateLimits.clear();
+                        String[] limits = props.getProperty(name).trim().split(",");
+                        for (String limit : limits) {
+                            if (!limit.trim().isEmpty()) {
+                                String[] tokens = limit.trim().split(":");
+                                netMessageRateLimits.put(MessageCode.valueOf(tokens[0].trim()),
+                                        Integer.parseInt(tokens[1].trim()));
+                            }
+                        }
+                        break;
+                    }
                     case "net.channelIdleTimeout":
                         netChannelIdleTimeout = Integer.parseInt(props.getProperty(name).trim());
                         break;
@@ -670,6 +763,21 @@ public abstract class AbstractConfig implements Config, ChainSpec {
                     case "sync.fastSync":
                         syncFastSync = Boolean.parseBoolean(props.getProperty(name).trim());
                         break;
+                    case "sync.snapshotInterval":
+                        syncSnapshotInterval = Long.parseLong(props.getProperty(name).trim());
+                        break;
+                    case "sync.snapshotCheckpoints": {
+                        syncSnapshotCheckpoints.clear();
+                        String[] checkpoints = props.getProperty(name).trim().split(",");
+                        for (String checkpoint : checkpoints) {
+                            if (!checkpoint.trim().isEmpty()) {
+                                String[] tokens = checkpoint.trim().split(":");
+                                syncSnapshotCheckpoints.put(Long.parseLong(tokens[0].trim()),
+                                        Hex.decode0x(tokens[1].trim()));
+                            }
+                        }
+                        break;
+                    }
 
                     case "api.enabled":
                         apiEnabled = Boolean.parseBoolean(props.getProperty(name).trim());
@@ -16,6 +16,8 @@ import java.util.Set;
 import org.antic.Network;
 import org.antic.core.Amount;
 import org.antic.core.Fork;
+import org.antic.db.DatabaseEngine;
+import org.antic.db.DatabaseName;
 import org.antic.net.CapabilityTreeSet;
 import org.antic.net.NodeManager.Node;
 import org.antic.net.msg.MessageCode;
@@ -124,6 +126,27 @@ public interface Config {
      */
     CapabilityTreeSet getClientCapabilities();
 
+    // =========================
+    // Database
+    // =========================
+
+    /**
+     * Returns the storage engine of each database.
+     *
+     * @return
+     */
+    Map<DatabaseName, DatabaseEngine> dbEngines();
+
+    /**
+     * Returns the read cache budget of each database, in bytes. The budgets add
+     * up to 80 MB by default, on top of the 112 MB of decoded blocks,
+     * transactions and results cached by the blockchain, which is why the block
+     * database is not cached by default.
+     *
+     * @return
+     */
+    Map<DatabaseName, Long> dbCacheSizes();
+
     // =========================
     // P2P
     // =========================
@@ -227,6 +250,15 @@ public interface Config {
      */
     Set<MessageCode> netPrioritizedMessages();
 
+    /**
+     * Returns the max number of messages per second that can be sent to a peer,
+     * by message code. Messages beyond the limit are dropped; codes not listed
+     * are unlimited.
+     *
+     * @return
+     */
+    Map<MessageCode, Integer> netMessageRateLimits();
+
     /**
      * Returns a list of DNS seeds for main network
      *
@@ -288,6 +320,21 @@ public interface Config {
      */
     boolean syncFastSync();
 
+    /**
+     * Returns the interval of state snapshots in blocks, or 0 if no snapshot is
+     * exported. Snapshots are only taken at the validator update blocks.
+     *
+     * @return
+     */
+    long syncSnapshotInterval();
+
+    /**
+     * Returns the trusted state snapshots, which a new node can bootstrap from.
+     *
+     * @return a map of state snapshots [block height] => [snapshot root]
+     */
+    Map<Long, byte[]> syncSnapshotCheckpoints();
+
     // =========================
     // API
     // =========================
@@ -51,6 +51,11 @@ public class Constants {
      */
     public static final String DATABASE_DIR = "database";
 
+    /**
+     * Name of the state snapshot directory.
+     */
+    public static final String SNAPSHOT_DIR = "snapshot";
+
     /**
      * The default IP port for p2p protocol
      */
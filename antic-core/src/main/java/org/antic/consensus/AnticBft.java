@@ -11,11 +11,14 @@ import static org.antic.core.Fork.UNIFORM_DISTRIBUTION;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import org.ethereum.vm.client.BlockStore;
 import org.antic.Kernel;
@@ -38,14 +41,19 @@ import org.antic.crypto.Hash;
 import org.antic.crypto.Hex;
 import org.antic.crypto.Key;
 import org.antic.crypto.Key.Signature;
+import org.antic.net.Capability;
 import org.antic.net.Channel;
 import org.antic.net.ChannelManager;
+import org.antic.net.Peer;
 import org.antic.net.msg.Message;
 import org.antic.net.msg.MessageCode;
 import org.antic.net.msg.ReasonCode;
+import org.antic.net.msg.consensus.CompactProposalMessage;
+import org.antic.net.msg.consensus.GetProposalTransactionsMessage;
 import org.antic.net.msg.consensus.NewHeightMessage;
 import org.antic.net.msg.consensus.NewViewMessage;
 import org.antic.net.msg.consensus.ProposalMessage;
+import org.antic.net.msg.consensus.ProposalTransactionsMessage;
 import org.antic.net.msg.consensus.VoteMessage;
 import org.antic.util.ArrayUtil;
 import org.antic.util.ByteArray;
@@ -55,6 +63,7 @@ import org.antic.util.SystemUtil;
 import org.antic.util.TimeUtil;
 import org.antic.vm.client.AnticBlock;
 import org.antic.vm.client.AnticBlockStore;
+import org.apache.commons.lang3.tuple.Pair;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -91,6 +100,12 @@ import com.github.benmanes.caffeine.cache.Caffeine;
 public class AnticBft implements BftManager {
     private static final Logger logger = LoggerFactory.getLogger(AnticBft.class);
 
+    /**
+     * The time to wait for the missing transactions of a compact proposal, in
+     * milliseconds, before requesting them from another relaying peer.
+     */
+    private static final long MISSING_TRANSACTIONS_TIMEOUT = 1000L;
+
     protected Kernel kernel;
     protected Config config;
 
@@ -117,6 +132,16 @@ public class AnticBft implements BftManager {
 
     protected Cache<ByteArray, Block> validBlocks = Caffeine.newBuilder().maximumSize(8).build();
 
+    // Proposals relayed by this node, by height and view, for serving the
+    // transactions missing at peers
+    protected Cache<ByteArray, Proposal> relayedProposals = Caffeine.newBuilder().maximumSize(8).build();
+
+    // Compact proposals being rebuilt, by height, view and block hash, so that
+    // missing transactions are requested once per proposal rather than once per
+    // relaying peer
+    protected Cache<ByteArray, PartialProposal> partialProposals = Caffeine.newBuilder().maximumSize(64)
+            .expireAfterWrite(MISSING_TRANSACTIONS_TIMEOUT, TimeUnit.MILLISECONDS).build();
+
     protected List<String> validators;
     protected List<Channel> activeValidators;
     protected long lastUpdate;
@@ -320,7 +345,7 @@ public class AnticBft implements BftManager {
             }
 
             logger.debug("Proposing: {}", proposal);
-            broadcaster.broadcast(new ProposalMessage(proposal));
+            relay(proposal);
         }
 
         // broadcast NEW_VIEW messages.
@@ -518,8 +543,7 @@ public class AnticBft implements BftManager {
             logger.trace("Proposal accepted: height = {}, view = {}", p.getHeight(), p.getView());
 
             // forward proposal
-            ProposalMessage msg = new ProposalMessage(p);
-            broadcaster.broadcast(msg);
+            relay(p);
 
             if (view == p.getView()) {
                 proposal = p;
@@ -531,6 +555,89 @@ public class AnticBft implements BftManager {
         }
     }
 
+    /**
+     * Relays a proposal in the compact form to the peers supporting it, keeping
+     * it for serving the transactions that peers don't have, and in the full
+     * form to the others.
+     *
+     * @param p
+     */
+    protected void relay(Proposal p) {
+        relayedProposals.put(proposalKey(p.getHeight(), p.getView()), p);
+        broadcaster.broadcast(new CompactProposalMessage(new CompactProposal(p)), new ProposalMessage(p));
+    }
+
+    protected ByteArray proposalKey(long height, int view) {
+        return ByteArray.of(Bytes.merge(Bytes.of(height), Bytes.of(view)));
+    }
+
+    protected ByteArray partialProposalKey(CompactProposal cp) {
+        return ByteArray.of(Bytes.merge(Bytes.of(cp.getHeight()), Bytes.of(cp.getView()), cp.getHash()));
+    }
+
+    protected boolean isCompactProposalSupported(Peer peer) {
+        return Stream.of(peer.getCapabilities()).anyMatch(c -> Capability.COMPACT_PROPOSAL.name().equals(c));
+    }
+
+    /**
+     * Rebuilds a compact proposal whose transactions are all filled in, and
+     * submits it as a PROPOSAL event.
+     *
+     * @param channel
+     *            the channel which relayed the proposal
+     * @param cp
+     *            the compact proposal
+     * @param fromPeer
+     *            whether all the transactions were received from the peer,
+     *            rather than partly taken from the local pool
+     */
+    protected void onCompactProposal(Channel channel, CompactProposal cp, boolean fromPeer) {
+        Proposal p = cp.toProposal();
+        if (p != null && p.validate()) {
+            // later relays of the same proposal are ignored
+            partialProposals.put(partialProposalKey(cp), new PartialProposal(null, cp));
+            events.add(new Event(Type.PROPOSAL, p));
+        } else if (!fromPeer) {
+            // a short id collision in the local pool, request all transactions
+            cp.clear();
+            requestProposalTransactions(channel, cp);
+        } else {
+            // another relaying peer may be asked
+            partialProposals.invalidate(partialProposalKey(cp));
+            logger.debug("Invalid proposal from {}", channel.getRemotePeer().getPeerId());
+            channel.getMessageQueue().disconnect(ReasonCode.BAD_PEER);
+        }
+    }
+
+    protected void requestProposalTransactions(Channel channel, CompactProposal cp) {
+        int[] missing = cp.getMissing();
+        String peerId = channel.getRemotePeer().getPeerId();
+        logger.trace("Requesting {} proposal transactions from {}", missing.length, peerId);
+
+        partialProposals.put(partialProposalKey(cp), new PartialProposal(peerId, cp));
+        channel.getMessageQueue()
+                .sendMessage(new GetProposalTransactionsMessage(cp.getHeight(), cp.getView(), missing));
+    }
+
+    /**
+     * Returns the compact proposal of the given height and view whose missing
+     * transactions were requested from a peer.
+     *
+     * @param peerId
+     * @param height
+     * @param view
+     * @return the entry, or null if not found
+     */
+    protected Map.Entry<ByteArray, PartialProposal> getPartialProposal(String peerId, long height, int view) {
+        for (Map.Entry<ByteArray, PartialProposal> e : partialProposals.asMap().entrySet()) {
+            PartialProposal pp = e.getValue();
+            if (peerId.equals(pp.peerId) && pp.proposal.getHeight() == height && pp.proposal.getView() == view) {
+                return e;
+            }
+        }
+        return null;
+    }
+
     protected void onVote(Vote v) {
         logger.trace("On vote: {}", v);
 
@@ -639,6 +746,54 @@ public class AnticBft implements BftManager {
             }
             break;
         }
+        case BFT_COMPACT_PROPOSAL: {
+            CompactProposalMessage m = (CompactProposalMessage) msg;
+            CompactProposal cp = m.getProposal();
+
+            // skip the proposals being rebuilt from another relay
+            if (cp.getHeight() == height && partialProposals.asMap().putIfAbsent(partialProposalKey(cp),
+                    new PartialProposal(channel.getRemotePeer().getPeerId(), cp)) == null) {
+                // fill in the transactions known locally
+                cp.fill(cp.getMissing(), pendingMgr.getTransactions(cp.getShortIds()));
+
+                if (cp.getMissing().length == 0) {
+                    onCompactProposal(channel, cp, false);
+                } else {
+                    requestProposalTransactions(channel, cp);
+                }
+            }
+            break;
+        }
+        case BFT_GET_PROPOSAL_TRANSACTIONS: {
+            GetProposalTransactionsMessage m = (GetProposalTransactionsMessage) msg;
+            Proposal p = relayedProposals.getIfPresent(proposalKey(m.getHeight(), m.getView()));
+
+            if (p != null) {
+                List<Transaction> txs = new CompactProposal(p).getTransactions(m.getIndices());
+                if (txs != null) {
+                    channel.getMessageQueue().sendMessage(
+                            new ProposalTransactionsMessage(m.getHeight(), m.getView(), m.getIndices(), txs));
+                }
+            }
+            break;
+        }
+        case BFT_PROPOSAL_TRANSACTIONS: {
+            ProposalTransactionsMessage m = (ProposalTransactionsMessage) msg;
+            String peerId = channel.getRemotePeer().getPeerId();
+            Map.Entry<ByteArray, PartialProposal> e = getPartialProposal(peerId, m.getHeight(), m.getView());
+
+            if (e != null) {
+                CompactProposal cp = e.getValue().proposal;
+                if (cp.fill(m.getIndices(), m.getTransactions()) && cp.getMissing().length == 0) {
+                    onCompactProposal(channel, cp, m.getIndices().length == cp.getShortIds().length);
+                } else {
+                    partialProposals.invalidate(e.getKey());
+                    logger.debug("Invalid proposal transactions from {}", peerId);
+                    channel.getMessageQueue().disconnect(ReasonCode.BAD_PEER);
+                }
+            }
+            break;
+        }
         case BFT_VOTE: {
             VoteMessage m = (VoteMessage) msg;
             Vote vote = m.getVote();
@@ -772,8 +927,37 @@ public class AnticBft implements BftManager {
         // only propose gas used up to configured block gas limit
         long remainingBlockGas = config.poolBlockGasLimit();
         long gasUsedInBlock = 0;
-        for (PendingManager.PendingTransaction pendingTx : pendingTxs) {
-            Transaction tx = pendingTx.transaction;
+        int i = 0;
+        while (i < pendingTxs.size()) {
+            // a run of transfers and votes which fits in the remaining gas is executed
+            // as one list, in parallel, with the same results as one by one
+            long nonVMGas = config.spec().nonVMTransactionGasCost();
+            int end = i;
+            while (end < pendingTxs.size() && TransactionExecutor.isParallelizable(pendingTxs.get(end).transaction)
+                    && (end - i + 1) * nonVMGas <= remainingBlockGas) {
+                end++;
+            }
+            if (end - i > 1) {
+                List<Transaction> run = new ArrayList<>(end - i);
+                for (int k = i; k < end; k++) {
+                    run.add(pendingTxs.get(k).transaction);
+                }
+
+                List<TransactionResult> results = exec.execute(run, asTrack, dsTrack, anticBlock, gasUsedInBlock);
+                for (int k = 0; k < run.size(); k++) {
+                    if (results.get(k).getCode().isAcceptable()) {
+                        includedTxs.add(run.get(k));
+                        includedResults.add(results.get(k));
+
+                        remainingBlockGas -= nonVMGas;
+                        gasUsedInBlock += nonVMGas;
+                    }
+                }
+                i = end;
+                continue;
+            }
+
+            Transaction tx = pendingTxs.get(i++).transaction;
 
             // check if the remaining gas covers the declared gas limit
             long gas = tx.isVMTransaction() ? tx.getGas() : config.spec().nonVMTransactionGasCost();
@@ -962,7 +1146,7 @@ public class AnticBft implements BftManager {
     }
 
     public class Broadcaster implements Runnable {
-        private final BlockingQueue<Message> queue = new LinkedBlockingQueue<>();
+        private final BlockingQueue<Pair<Message, Message>> queue = new LinkedBlockingQueue<>();
 
         private Thread t;
 
@@ -970,7 +1154,7 @@ public class AnticBft implements BftManager {
         public void run() {
             while (!Thread.currentThread().isInterrupted()) {
                 try {
-                    Message msg = queue.take();
+                    Pair<Message, Message> msg = queue.take();
 
                     // thread-safety via volatile
                     List<Channel> channels = activeValidators;
@@ -979,7 +1163,9 @@ public class AnticBft implements BftManager {
                         for (int i = 0; i < indices.length && i < config.netRelayRedundancy(); i++) {
                             Channel c = channels.get(indices[i]);
                             if (c.isActive()) {
-                                c.getMessageQueue().sendMessage(msg);
+                                c.getMessageQueue().sendMessage(isCompactProposalSupported(c.getRemotePeer())
+                                        ? msg.getLeft()
+                                        : msg.getRight());
                             }
                         }
                     }
@@ -1011,12 +1197,37 @@ public class AnticBft implements BftManager {
         }
 
         public void broadcast(Message msg) {
-            if (!queue.offer(msg)) {
+            broadcast(msg, msg);
+        }
+
+        /**
+         * Broadcasts a message, or the fallback one to the peers without the
+         * {@link Capability#COMPACT_PROPOSAL} capability.
+         *
+         * @param msg
+         * @param fallback
+         */
+        public void broadcast(Message msg, Message fallback) {
+            if (!queue.offer(Pair.of(msg, fallback))) {
                 logger.error("Failed to add a message to the broadcast queue: msg = {}", msg);
             }
         }
     }
 
+    /**
+     * A compact proposal being rebuilt, with the peer its missing transactions
+     * were requested from, or null if rebuilt already.
+     */
+    protected static class PartialProposal {
+        final String peerId;
+        final CompactProposal proposal;
+
+        PartialProposal(String peerId, CompactProposal proposal) {
+            this.peerId = peerId;
+            this.proposal = proposal;
+        }
+    }
+
     public static class Event {
         public enum Type {
             /**
@@ -6,25 +6,30 @@
  */
 package org.antic.consensus;
 
+import java.io.File;
 import java.math.BigDecimal;
 import java.math.BigInteger;
 import java.math.MathContext;
 import java.net.InetSocketAddress;
 import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.Random;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.ThreadFactory;
@@ -32,6 +37,7 @@ import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -41,16 +47,19 @@ import org.antic.core.Block;
 import org.antic.core.BlockPart;
 import org.antic.core.Blockchain;
 import org.antic.core.SyncManager;
+import org.antic.net.AnticP2pHandler;
 import org.antic.net.Capability;
 import org.antic.net.Channel;
 import org.antic.net.ChannelManager;
 import org.antic.net.Peer;
+import org.antic.net.PeerStats;
 import org.antic.net.msg.Message;
 import org.antic.net.msg.ReasonCode;
 import org.antic.net.msg.consensus.BlockMessage;
 import org.antic.net.msg.consensus.BlockPartsMessage;
 import org.antic.net.msg.consensus.GetBlockMessage;
 import org.antic.net.msg.consensus.GetBlockPartsMessage;
+import org.antic.net.msg.consensus.GetBlockRangeMessage;
 import org.antic.util.TimeUtil;
 import org.apache.commons.lang3.tuple.Pair;
 import org.slf4j.Logger;
@@ -64,6 +73,27 @@ import org.slf4j.LoggerFactory;
  * synchronized and need to be executed by one single thread at anytime.
  * <p>
  * The download/unfinished/pending queues are protected by lock.
+ * <p>
+ * Transaction signatures and the transactions root of each received block, and
+ * the vote signatures of the blocks whose votes are checked, are verified on a
+ * worker pool, ahead of the serial import, so that blocks N+1..N+k are verified
+ * while block N is being executed.
+ * <p>
+ * Blocks are requested in ranges of consecutive blocks, which peers stream back
+ * one block at a time. The size of a range is set by the throughput measured
+ * from the peer, so that each range takes about {@link #RANGE_DURATION} to
+ * download, and the next range is requested while the current one is halfway
+ * through. Peers which don't advertise {@link Capability#BLOCK_RANGE} are asked
+ * one block at a time, and so are the ones which ignored a ranged request, for
+ * a backoff doubling with each ignored request in a row.
+ * <p>
+ * Peers are ranked by the {@link PeerStats} kept by the channel manager, the
+ * best one getting the lowest block numbers. Requests expire after twice their
+ * expected time, and the blocks at the head of the queue which are overdue are
+ * requested again from another peer, the first response winning.
+ * <p>
+ * An empty chain is first bootstrapped from the latest trusted state snapshot
+ * below the target, if any, see {@link SnapshotSync}.
  */
 public class AnticSync implements SyncManager {
 
@@ -81,27 +111,77 @@ public class AnticSync implements SyncManager {
     private static final ScheduledExecutorService timer1 = Executors.newSingleThreadScheduledExecutor(factory);
     private static final ScheduledExecutorService timer2 = Executors.newSingleThreadScheduledExecutor(factory);
 
+    private static final ThreadFactory verifierFactory = new ThreadFactory() {
+        private AtomicInteger cnt = new AtomicInteger(0);
+
+        @Override
+        public Thread newThread(Runnable r) {
+            // idle workers must not keep the JVM alive once syncing is stopped
+            Thread t = new Thread(r, "sync-verifier-" + cnt.getAndIncrement());
+            t.setDaemon(true);
+            return t;
+        }
+    };
+
+    private static final ExecutorService verifier = Executors.newFixedThreadPool(
+            Math.max(1, Runtime.getRuntime().availableProcessors() / 2), verifierFactory);
+
+    /**
+     * The max number of blocks in one ranged request.
+     */
+    private static final int MAX_RANGE_SIZE = AnticP2pHandler.MAX_BLOCK_RANGE;
+
+    /**
+     * The time a range should take to download, in milliseconds.
+     */
+    private static final long RANGE_DURATION = 2000L;
+
+    /**
+     * The min time before a request expires, in milliseconds.
+     */
+    private static final long MIN_DOWNLOAD_TIMEOUT = 2000L;
+
+    /**
+     * The min time before a block is requested again from a second peer, in
+     * milliseconds.
+     */
+    private static final long MIN_HEDGE_DELAY = 1000L;
+
+    /**
+     * The max number of blocks, at the head of the queue, which can be requested
+     * from a second peer.
+     */
+    private static final int MAX_HEDGED_BLOCKS = 4;
+
     private final long DOWNLOAD_TIMEOUT;
 
     private final int MAX_QUEUED_JOBS;
     private final int MAX_PENDING_JOBS;
     private final int MAX_PENDING_BLOCKS;
 
-    private static final Random random = new Random();
-
+    private Kernel kernel;
     private Config config;
 
     private Blockchain chain;
     private ChannelManager channelMgr;
 
+    // the state snapshot being downloaded, if any
+    private volatile SnapshotSync snapshotSync;
+
     // task queues
     private AtomicLong latestQueuedTask = new AtomicLong();
 
     // Blocks to download
     private TreeSet<Long> toDownload = new TreeSet<>();
 
-    // Blocks which were requested but haven't been received
-    private Map<Long, Long> toReceive = new HashMap<>();
+    // Blocks which were requested but haven't been received, with their requests
+    private TreeMap<Long, Range> toReceive = new TreeMap<>();
+
+    // Blocks which were requested again from a second peer, with the second requests
+    private Map<Long, Range> hedged = new HashMap<>();
+
+    // The number of blocks requested but not received, by peer id
+    private Map<String, Integer> inflight = new HashMap<>();
 
     // Blocks which were received but haven't been validated
     private TreeSet<Pair<Block, Channel>> toValidate = new TreeSet<>(
@@ -110,6 +190,12 @@ public class AnticSync implements SyncManager {
     // Blocks which were validated but haven't been imported
     private TreeMap<Long, Pair<Block, Channel>> toImport = new TreeMap<>();
 
+    // Transaction verification of the received blocks, keyed by block identity
+    private Map<Block, Future<Boolean>> verifications = new IdentityHashMap<>();
+
+    // Vote signature verification of the received blocks whose votes are checked
+    private Map<Block, Future<Boolean>> voteVerifications = new IdentityHashMap<>();
+
     private final Object lock = new Object();
 
     // current and target heights
@@ -124,6 +210,7 @@ public class AnticSync implements SyncManager {
     private Set<String> badPeers = new HashSet<>();
 
     public AnticSync(Kernel kernel) {
+        this.kernel = kernel;
         this.config = kernel.getConfig();
 
         this.chain = kernel.getBlockchain();
@@ -144,12 +231,23 @@ public class AnticSync implements SyncManager {
 
             logger.info("Syncing started, best known block = {}", targetHeight - 1);
 
+            // [0] bootstrap an empty chain from a trusted state snapshot
+            if (chain.getLatestBlockNumber() == 0) {
+                config.syncSnapshotCheckpoints().entrySet().stream()
+                        .filter(e -> e.getKey() < targetHeight)
+                        .max(Entry.comparingByKey())
+                        .ifPresent(e -> importSnapshot(e.getKey(), e.getValue()));
+            }
+
             // [1] set up queues
             synchronized (lock) {
                 toDownload.clear();
                 toReceive.clear();
                 toValidate.clear();
                 toImport.clear();
+                hedged.clear();
+                inflight.clear();
+                cancelVerifications();
 
                 begin.set(chain.getLatestBlockNumber() + 1);
                 current.set(chain.getLatestBlockNumber() + 1);
@@ -179,12 +277,34 @@ public class AnticSync implements SyncManager {
             // [4] cancel tasks
             download.cancel(true);
             process.cancel(false);
+            cancelVerifications();
 
             Instant end = Instant.now();
             logger.info("Syncing finished, took {}", TimeUtil.formatDuration(Duration.between(beginningInstant, end)));
         }
     }
 
+    /**
+     * Downloads and imports a state snapshot.
+     *
+     * @param number
+     *            the block number of the snapshot
+     * @param root
+     *            the trusted root of the snapshot
+     */
+    private void importSnapshot(long number, byte[] root) {
+        File dir = new File(kernel.getSnapshotManager().getDirectory(), "download-" + number);
+        snapshotSync = new SnapshotSync(kernel, number, root, dir);
+        try {
+            if (snapshotSync.run(isRunning::get)) {
+                // the pending transactions were validated against the genesis state
+                kernel.getPendingManager().reset();
+            }
+        } finally {
+            snapshotSync = null;
+        }
+    }
+
     @Override
     public void stop() {
         if (isRunning.compareAndSet(true, false)) {
@@ -199,13 +319,134 @@ public class AnticSync implements SyncManager {
         return isRunning.get();
     }
 
-    protected void addBlock(Block block, Channel channel) {
+    protected void addBlock(Block block, Channel channel, int size) {
         synchronized (lock) {
             if (toDownload.remove(block.getNumber())) {
                 growToDownloadQueue();
             }
-            toReceive.remove(block.getNumber());
-            toValidate.add(Pair.of(block, channel));
+
+            // the first response wins, the other request is cancelled
+            long now = TimeUtil.currentTimeMillis();
+            String peerId = channel.getRemotePeer().getPeerId();
+            for (Range range : Arrays.asList(toReceive.remove(block.getNumber()), hedged.remove(block.getNumber()))) {
+                if (range == null) {
+                    continue;
+                }
+                if (range.peerId.equals(peerId)) {
+                    onReceived(range, size, now);
+                } else {
+                    onCancelled(range);
+                }
+            }
+            if (toValidate.add(Pair.of(block, channel))) {
+                verifications.put(block, verifier.submit(() -> verifyTransactions(block)));
+                if (!skipVotes(block.getNumber())) {
+                    voteVerifications.put(block, verifier.submit(() -> verifyVotes(block)));
+                }
+            }
+        }
+    }
+
+    /**
+     * Verifies the transaction signatures and the transactions root of a block,
+     * which don't depend on the blockchain state.
+     *
+     * @param block
+     * @return
+     */
+    protected boolean verifyTransactions(Block block) {
+        try {
+            return block.validateTransactions(block.getHeader(), block.getTransactions(), config.network());
+        } catch (Exception e) {
+            logger.debug("Failed to verify the transactions of block #{}", block.getNumber(), e);
+            return false;
+        }
+    }
+
+    /**
+     * Verifies the vote signatures of a block, which don't depend on the
+     * blockchain state either.
+     *
+     * @param block
+     * @return
+     */
+    protected boolean verifyVotes(Block block) {
+        try {
+            return block.validateVoteSignatures();
+        } catch (Exception e) {
+            logger.debug("Failed to verify the votes of block #{}", block.getNumber(), e);
+            return false;
+        }
+    }
+
+    /**
+     * Waits for the transaction verification of a block, or verifies it in
+     * place if it has not been scheduled. The caller must not hold the lock.
+     *
+     * @param block
+     * @return
+     */
+    protected boolean isVerified(Block block) {
+        return await(verifications, block, this::verifyTransactions);
+    }
+
+    /**
+     * Waits for the vote signature verification of a block, or verifies it in
+     * place if it has not been scheduled. The caller must not hold the lock.
+     *
+     * @param block
+     * @return
+     */
+    protected boolean isVotesVerified(Block block) {
+        return await(voteVerifications, block, this::verifyVotes);
+    }
+
+    private boolean await(Map<Block, Future<Boolean>> futures, Block block, Predicate<Block> verify) {
+        Future<Boolean> future;
+        synchronized (lock) {
+            future = futures.remove(block);
+        }
+        if (future == null) {
+            return verify.test(block);
+        }
+
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException e) {
+            return verify.test(block);
+        }
+    }
+
+    /**
+     * Cancels the scheduled verifications of a block.
+     *
+     * @param block
+     */
+    private void cancelVerifications(Block block) {
+        synchronized (lock) {
+            for (Map<Block, Future<Boolean>> futures : Arrays.asList(verifications, voteVerifications)) {
+                Future<Boolean> future = futures.remove(block);
+                if (future != null) {
+                    future.cancel(false);
+                }
+            }
+        }
+    }
+
+    /**
+     * Cancels all the scheduled verifications.
+     */
+    private void cancelVerifications() {
+        synchronized (lock) {
+            for (Map<Block, Future<Boolean>> futures : Arrays.asList(verifications, voteVerifications)) {
+                for (Future<Boolean> future : futures.values()) {
+                    future.cancel(false);
+                }
+                futures.clear();
+            }
         }
     }
 
@@ -219,7 +460,7 @@ public class AnticSync implements SyncManager {
         case BLOCK: {
             BlockMessage blockMsg = (BlockMessage) msg;
             Block block = blockMsg.getBlock();
-            addBlock(block, channel);
+            addBlock(block, channel, msg.getBody().length);
             break;
         }
         case BLOCK_PARTS: {
@@ -253,12 +494,20 @@ public class AnticSync implements SyncManager {
             // import block
             try {
                 Block block = Block.fromComponents(header, transactions, results, votes);
-                addBlock(block, channel);
+                addBlock(block, channel, msg.getBody().length);
             } catch (Exception e) {
                 logger.debug("Failed to parse a block from components", e);
             }
             break;
         }
+        case STATE_SNAPSHOT:
+        case STATE_CHUNK: {
+            SnapshotSync s = snapshotSync;
+            if (s != null) {
+                s.onMessage(channel, msg);
+            }
+            break;
+        }
         case BLOCK_HEADER: // deprecated
         default: {
             break;
@@ -270,6 +519,10 @@ public class AnticSync implements SyncManager {
         return Stream.of(peer.getCapabilities()).anyMatch(c -> Capability.FAST_SYNC.name().equals(c));
     }
 
+    private boolean isBlockRangeSupported(Peer peer) {
+        return Stream.of(peer.getCapabilities()).anyMatch(c -> Capability.BLOCK_RANGE.name().equals(c));
+    }
+
     private boolean skipVotes(long blockNumber) {
         long interval = config.spec().getValidatorUpdateInterval();
 
@@ -287,84 +540,240 @@ public class AnticSync implements SyncManager {
         synchronized (lock) {
             // filter all expired tasks
             long now = TimeUtil.currentTimeMillis();
-            Iterator<Entry<Long, Long>> itr = toReceive.entrySet().iterator();
+            Iterator<Entry<Long, Range>> itr = toReceive.entrySet().iterator();
             while (itr.hasNext()) {
-                Entry<Long, Long> entry = itr.next();
+                Entry<Long, Range> entry = itr.next();
+                Range range = entry.getValue();
 
-                if (entry.getValue() + DOWNLOAD_TIMEOUT < now) {
+                if (range.deadline < now) {
                     logger.debug("Failed to download block #{}, expired", entry.getKey());
                     toDownload.add(entry.getKey());
                     itr.remove();
+                    onFailed(range, true, now);
                 }
             }
+            itr = hedged.entrySet().iterator();
+            while (itr.hasNext()) {
+                Range range = itr.next().getValue();
 
-            // quit if too many unfinished jobs
-            if (toReceive.size() > MAX_PENDING_JOBS) {
-                logger.trace("Max pending jobs reached");
-                return;
+                if (range.deadline < now) {
+                    itr.remove();
+                    onFailed(range, true, now);
+                }
             }
 
-            // quit if no more tasks
-            if (toDownload.isEmpty()) {
-                return;
+            // get the qualified peers, the best first
+            Map<Channel, Double> scores = new HashMap<>();
+            for (Channel channel : channelMgr.getActiveChannels()) {
+                Peer peer = channel.getRemotePeer();
+                // the peer is not banned
+                if (!badPeers.contains(peer.getPeerId())
+                        // AND supports FAST_SYNC if we enabled this protocol
+                        && (!config.syncFastSync() || isFastSyncSupported(peer))) {
+                    scores.put(channel, peer.getStats().getScore());
+                }
             }
-            Long task = toDownload.first();
+            List<Channel> channels = scores.keySet().stream()
+                    .sorted(Comparator.comparing(scores::get, Comparator.reverseOrder()))
+                    .collect(Collectors.toList());
+            logger.trace("Qualified peers = {}", channels.size());
 
-            // quit if too many pending blocks
-            int pendingBlocks = toValidate.size() + toImport.size();
-            if (pendingBlocks > MAX_PENDING_BLOCKS && task > toValidate.first().getKey().getNumber()) {
-                logger.trace("Max pending blocks reached");
-                return;
+            // request the overdue blocks at the head of the queue from another peer
+            int hedgeable = MAX_HEDGED_BLOCKS;
+            for (Entry<Long, Range> entry : toReceive.entrySet()) {
+                if (hedgeable-- == 0) {
+                    break;
+                }
+                long number = entry.getKey();
+                Range range = entry.getValue();
+                if (hedged.containsKey(number) || now < range.requestedAt + getHedgeDelay(range, number)) {
+                    continue;
+                }
+
+                channels.stream()
+                        .filter(c -> !c.getRemotePeer().getPeerId().equals(range.peerId)
+                                && c.getRemotePeer().getLatestBlockNumber() >= number
+                                && getInflight(c) < getRangeSize(c.getRemotePeer().getStats()))
+                        .findFirst()
+                        .ifPresent(c -> {
+                            logger.debug("Block #{} is overdue, requesting it again from {}:{}", number,
+                                    c.getRemoteIp(), c.getRemotePort());
+                            hedged.put(number, send(c, number, 1, false, now));
+                        });
             }
 
-            // get idle channels
-            List<Channel> channels = channelMgr.getIdleChannels().stream()
-                    .filter(channel -> {
-                        Peer peer = channel.getRemotePeer();
-                        // the peer has the block
-                        return peer.getLatestBlockNumber() >= task
-                                // AND is not banned
-                                && !badPeers.contains(peer.getPeerId())
-                                // AND supports FAST_SYNC if we enabled this protocol
-                                && (!config.syncFastSync() || isFastSyncSupported(peer));
-                    })
-                    .collect(Collectors.toList());
-            logger.trace("Qualified idle peers = {}", channels.size());
+            for (Channel c : channels) {
+                // skip if the peer is not halfway through its current range
+                if (getInflight(c) > getRangeSize(c.getRemotePeer().getStats()) / 2) {
+                    continue;
+                }
 
-            // quit if no idle channels.
-            if (channels.isEmpty()) {
-                return;
-            }
+                // quit if too many unfinished jobs
+                if (toReceive.size() > MAX_PENDING_JOBS) {
+                    logger.trace("Max pending jobs reached");
+                    return;
+                }
 
-            // otherwise, pick a random channel
-            Channel c = channels.get(random.nextInt(channels.size()));
+                // quit if no more tasks
+                if (toDownload.isEmpty()) {
+                    return;
+                }
+                Long task = toDownload.first();
 
-            if (config.syncFastSync()) { // use FAST_SYNC protocol
-                if (skipVotes(task)) {
-                    logger.trace("Requesting block #{} from {}:{}, HEADER + TRANSACTIONS", task,
-                            c.getRemoteIp(),
-                            c.getRemotePort());
-                    c.getMessageQueue().sendMessage(new GetBlockPartsMessage(task,
-                            BlockPart.encode(BlockPart.HEADER, BlockPart.TRANSACTIONS)));
-                } else {
-                    logger.trace("Requesting block #{} from {}:{}, HEADER + TRANSACTIONS + VOTES", task,
-                            c.getRemoteIp(), c.getRemotePort());
-                    c.getMessageQueue().sendMessage(new GetBlockPartsMessage(task,
-                            BlockPart.encode(BlockPart.HEADER, BlockPart.TRANSACTIONS, BlockPart.VOTES)));
+                // quit if too many pending blocks
+                int pendingBlocks = toValidate.size() + toImport.size();
+                if (pendingBlocks > MAX_PENDING_BLOCKS && task > toValidate.first().getKey().getNumber()) {
+                    logger.trace("Max pending blocks reached");
+                    return;
+                }
+
+                // skip if the peer doesn't have the block
+                if (c.getRemotePeer().getLatestBlockNumber() >= task) {
+                    request(c, task, now);
                 }
-            } else { // use old protocol
-                logger.trace("Requesting block #{} from {}:{}, FULL BLOCK", task, c.getRemoteIp(),
-                        c.getRemotePort());
-                c.getMessageQueue().sendMessage(new GetBlockMessage(task));
             }
+        }
+    }
 
-            if (toDownload.remove(task)) {
-                growToDownloadQueue();
+    /**
+     * Requests a range of blocks starting from the given one, sized by the
+     * throughput of the peer.
+     *
+     * @param c
+     *            the channel
+     * @param from
+     *            the first block number
+     * @param now
+     *            the current time
+     */
+    private void request(Channel c, long from, long now) {
+        Peer peer = c.getRemotePeer();
+        PeerStats stats = peer.getStats();
+        boolean ranged = isBlockRangeSupported(peer) && !stats.isRangeDeferred(now);
+
+        // consecutive blocks of the same parts, known to the peer
+        int max = ranged ? (int) Math.min(getRangeSize(stats), peer.getLatestBlockNumber() - from + 1) : 1;
+        int count = 1;
+        while (count < max && toDownload.contains(from + count)
+                && (!config.syncFastSync() || skipVotes(from + count) == skipVotes(from))) {
+            count++;
+        }
+
+        Range range = send(c, from, count, ranged, now);
+        for (long n = from; n < from + count; n++) {
+            toDownload.remove(n);
+            toReceive.put(n, range);
+        }
+        growToDownloadQueue();
+    }
+
+    /**
+     * Sends a block request to the peer.
+     *
+     * @param c
+     *            the channel
+     * @param from
+     *            the first block number
+     * @param count
+     *            the number of blocks
+     * @param ranged
+     *            whether to send a ranged request, otherwise count must be 1
+     * @param now
+     *            the current time
+     * @return the request
+     */
+    private Range send(Channel c, long from, int count, boolean ranged, long now) {
+        int parts;
+        if (!config.syncFastSync()) {
+            parts = BlockPart.encode(BlockPart.HEADER, BlockPart.TRANSACTIONS, BlockPart.RESULTS, BlockPart.VOTES);
+        } else if (skipVotes(from)) {
+            parts = BlockPart.encode(BlockPart.HEADER, BlockPart.TRANSACTIONS);
+        } else {
+            parts = BlockPart.encode(BlockPart.HEADER, BlockPart.TRANSACTIONS, BlockPart.VOTES);
+        }
+
+        if (ranged) {
+            logger.trace("Requesting blocks #{} to #{} from {}:{}, parts = {}", from, from + count - 1,
+                    c.getRemoteIp(), c.getRemotePort(), BlockPart.decode(parts));
+            c.getMessageQueue().sendMessage(new GetBlockRangeMessage(from, count, parts));
+        } else if (config.syncFastSync()) { // use FAST_SYNC protocol
+            logger.trace("Requesting block #{} from {}:{}, parts = {}", from, c.getRemoteIp(), c.getRemotePort(),
+                    BlockPart.decode(parts));
+            c.getMessageQueue().sendMessage(new GetBlockPartsMessage(from, parts));
+        } else { // use old protocol
+            logger.trace("Requesting block #{} from {}:{}, FULL BLOCK", from, c.getRemoteIp(), c.getRemotePort());
+            c.getMessageQueue().sendMessage(new GetBlockMessage(from));
+        }
+
+        // the peer answers the pending requests first
+        Peer peer = c.getRemotePeer();
+        int pending = getInflight(c);
+        long timeout = Math.max(MIN_DOWNLOAD_TIMEOUT,
+                Math.min(DOWNLOAD_TIMEOUT, 2 * peer.getStats().getExpectedTime(pending + count)));
+        inflight.put(peer.getPeerId(), pending + count);
+
+        return new Range(peer.getPeerId(), peer.getStats(), ranged, from, count, now, now + timeout, pending == 0);
+    }
+
+    private int getInflight(Channel c) {
+        return inflight.getOrDefault(c.getRemotePeer().getPeerId(), 0);
+    }
+
+    /**
+     * Returns the number of blocks a peer is expected to send within
+     * {@link #RANGE_DURATION}.
+     *
+     * @param stats
+     * @return
+     */
+    private static int getRangeSize(PeerStats stats) {
+        return (int) Math.max(1, Math.min(MAX_RANGE_SIZE,
+                Math.round(stats.getBlocksPerSecond() * RANGE_DURATION / 1000.0)));
+    }
+
+    /**
+     * Returns the time after which a block of a request is considered overdue.
+     *
+     * @param range
+     * @param number
+     * @return
+     */
+    private static long getHedgeDelay(Range range, long number) {
+        return Math.max(MIN_HEDGE_DELAY, 2 * range.stats.getExpectedTime((int) (number - range.from + 1)));
+    }
+
+    private void onReceived(Range range, int size, long now) {
+        inflight.merge(range.peerId, -1, Integer::sum);
+        range.bytes += size;
+        if (++range.received == 1 && range.idle) {
+            range.stats.onResponse(now - range.requestedAt);
+        }
+        if (range.received == 1 && range.ranged) {
+            range.stats.onRangeServed();
+        }
+        if (range.received == range.count && !range.failed) {
+            range.stats.onCompleted(range.count, range.bytes, range.requestedAt, now);
+        }
+    }
+
+    private void onFailed(Range range, boolean expired, long now) {
+        inflight.merge(range.peerId, -1, Integer::sum);
+        if (!range.failed) {
+            range.failed = true;
+            if (expired) {
+                range.stats.onTimeout();
+                if (range.ranged && range.received == 0) {
+                    range.stats.onRangeIgnored(now);
+                }
             }
-            toReceive.put(task, TimeUtil.currentTimeMillis());
         }
     }
 
+    private void onCancelled(Range range) {
+        inflight.merge(range.peerId, -1, Integer::sum);
+        range.failed = true;
+    }
+
     /**
      * Queue new tasks sequentially starting from
      * ${@link AnticSync#latestQueuedTask} until the size of
@@ -411,6 +820,8 @@ public class AnticSync implements SyncManager {
             checkpoint++;
         }
 
+        // [1] collect the blocks up to the checkpoint, once they are all received
+        List<Pair<Block, Channel>> batch = new ArrayList<>();
         synchronized (lock) {
             // Move blocks from validate queue to import queue if within range
             Iterator<Pair<Block, Channel>> iterator = toValidate.iterator();
@@ -420,6 +831,7 @@ public class AnticSync implements SyncManager {
 
                 if (n <= latest) {
                     iterator.remove();
+                    cancelVerifications(p.getKey());
                 } else if (n <= checkpoint) {
                     iterator.remove();
                     toImport.put(n, p);
@@ -428,25 +840,48 @@ public class AnticSync implements SyncManager {
                 }
             }
 
-            if (toImport.size() >= checkpoint - latest) {
-                // Validate the block hashes
-                boolean valid = validateBlockHashes(latest + 1, checkpoint);
+            if (toImport.size() < checkpoint - latest) {
+                return;
+            }
+            for (long n = latest + 1; n <= checkpoint; n++) {
+                Pair<Block, Channel> p = toImport.get(n);
+                if (p == null) {
+                    return;
+                }
+                batch.add(p);
+            }
+        }
+
+        // [2] wait for the signatures verified ahead by the worker pool, without
+        // the lock, which the network threads take to add the received blocks
+        boolean votesVerified = isVotesVerified(batch.get(batch.size() - 1).getKey());
+        boolean[] verified = new boolean[batch.size()];
+        for (int i = 0; votesVerified && i < batch.size(); i++) {
+            verified[i] = isVerified(batch.get(i).getKey());
+        }
+
+        // [3] validate and import the blocks, unless they were replaced meanwhile
+        synchronized (lock) {
+            for (int i = 0; i < batch.size(); i++) {
+                if (toImport.get(latest + 1 + i) != batch.get(i)) {
+                    return;
+                }
+            }
 
-                if (valid) {
-                    for (long n = latest + 1; n <= checkpoint; n++) {
-                        Pair<Block, Channel> p = toImport.remove(n);
-                        boolean imported = chain.importBlock(p.getKey(), false);
-                        if (!imported) {
-                            handleInvalidBlock(p.getKey(), p.getValue());
-                            break;
-                        }
+            if (validateBlockHashes(latest + 1, checkpoint, votesVerified)) {
+                for (int i = 0; i < batch.size(); i++) {
+                    Pair<Block, Channel> p = toImport.remove(latest + 1 + i);
+                    boolean imported = verified[i] && chain.importBlock(p.getKey(), false, false);
+                    if (!imported) {
+                        handleInvalidBlock(p.getKey(), p.getValue());
+                        break;
+                    }
 
-                        if (n == checkpoint) {
-                            logger.info("{}", p.getLeft());
-                        }
+                    if (i == batch.size() - 1) {
+                        logger.info("{}", p.getLeft());
                     }
-                    current.set(chain.getLatestBlockNumber() + 1);
                 }
+                current.set(chain.getLatestBlockNumber() + 1);
             }
         }
     }
@@ -460,13 +895,16 @@ public class AnticSync implements SyncManager {
      *            the start block number, inclusive
      * @param to
      *            the end block number, inclusive
+     * @param votesVerified
+     *            whether the vote signatures of the last block are valid, see
+     *            {@link #isVotesVerified(Block)}
      */
-    protected boolean validateBlockHashes(long from, long to) {
+    protected boolean validateBlockHashes(long from, long to, boolean votesVerified) {
         synchronized (lock) {
-            // Validate votes for the last block in set
+            // Validate votes for the last block in set, signatures verified ahead
             Pair<Block, Channel> checkpoint = toImport.get(to);
             Block block = checkpoint.getKey();
-            if (!chain.validateBlockVotes(block)) {
+            if (!votesVerified || !chain.validateBlockVotes(block, false)) {
                 handleInvalidBlock(block, checkpoint.getValue());
                 return false;
             }
@@ -500,11 +938,21 @@ public class AnticSync implements SyncManager {
             // add to the request queue
             toDownload.add(block.getNumber());
 
-            toReceive.remove(block.getNumber());
+            Range range = toReceive.remove(block.getNumber());
+            if (range != null) {
+                onFailed(range, false, TimeUtil.currentTimeMillis());
+            }
+            range = hedged.remove(block.getNumber());
+            if (range != null) {
+                onCancelled(range);
+            }
             toValidate.remove(Pair.of(block, channel));
             toImport.remove(block.getNumber());
+
+            cancelVerifications(block);
         }
 
+        channel.getRemotePeer().getStats().onInvalidBlock();
         badPeers.add(channel.getRemotePeer().getPeerId());
 
         if (config.syncDisconnectOnInvalidBlock()) {
@@ -513,6 +961,37 @@ public class AnticSync implements SyncManager {
         }
     }
 
+    /**
+     * A request of consecutive blocks from a peer.
+     */
+    private static class Range {
+        private final String peerId;
+        private final PeerStats stats;
+        private final boolean ranged;
+        private final long from;
+        private final int count;
+        private final long requestedAt;
+        private final long deadline;
+        // whether the peer had no pending request
+        private final boolean idle;
+        private int received;
+        private long bytes;
+        // whether any block won't be received
+        private boolean failed;
+
+        Range(String peerId, PeerStats stats, boolean ranged, long from, int count, long requestedAt, long deadline,
+                boolean idle) {
+            this.peerId = peerId;
+            this.stats = stats;
+            this.ranged = ranged;
+            this.from = from;
+            this.count = count;
+            this.requestedAt = requestedAt;
+            this.deadline = deadline;
+            this.idle = idle;
+        }
+    }
+
     @Override
     public AnticSyncProgress getProgress() {
         return new AnticSyncProgress(
@@ -0,0 +1,206 @@
+/**
+ * Copyright (c) 2019 The Antic Developers
+ *
+ * Distributed under the MIT software license, see the accompanying file
+ * LICENSE or https://opensource.org/licenses/mit-license.php
+ */
+package org.antic.consensus;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.antic.core.BlockHeader;
+import org.antic.core.Transaction;
+import org.antic.crypto.Key.Signature;
+import org.antic.util.Bytes;
+import org.antic.util.MerkleUtil;
+import org.antic.util.SimpleDecoder;
+import org.antic.util.SimpleEncoder;
+
+/**
+ * A proposal with the transactions replaced by short ids, which are the first
+ * 8 bytes of the transaction hashes.
+ * <br>
+ * <br>
+ * The receiver fills in the transactions it already has in its pending
+ * manager, and requests the missing ones from the sender. Once complete, the
+ * transactions are checked against the transactions root of the block header,
+ * and the full {@link Proposal} is rebuilt, whose signature is then verified as
+ * usual.
+ */
+public class CompactProposal {
+
+    private final Proof proof;
+    private final BlockHeader blockHeader;
+    private final long[] shortIds;
+    private final Signature signature;
+
+    // the reconstructed transactions, null if missing
+    private final Transaction[] transactions;
+
+    public CompactProposal(Proposal proposal) {
+        this.proof = proposal.getProof();
+        this.blockHeader = proposal.getBlockHeader();
+        this.signature = proposal.getSignature();
+
+        List<Transaction> txs = proposal.getTransactions();
+        this.shortIds = new long[txs.size()];
+        this.transactions = new Transaction[txs.size()];
+        for (int i = 0; i < txs.size(); i++) {
+            shortIds[i] = shortId(txs.get(i).getHash());
+            transactions[i] = txs.get(i);
+        }
+    }
+
+    private CompactProposal(Proof proof, BlockHeader blockHeader, long[] shortIds, Signature signature) {
+        this.proof = proof;
+        this.blockHeader = blockHeader;
+        this.shortIds = shortIds;
+        this.signature = signature;
+        this.transactions = new Transaction[shortIds.length];
+    }
+
+    /**
+     * Returns the short id of a transaction.
+     *
+     * @param hash
+     *            the transaction hash
+     * @return
+     */
+    public static long shortId(byte[] hash) {
+        return Bytes.toLong(hash);
+    }
+
+    public long getHeight() {
+        return proof.getHeight();
+    }
+
+    public int getView() {
+        return proof.getView();
+    }
+
+    public byte[] getHash() {
+        return blockHeader.getHash();
+    }
+
+    public long[] getShortIds() {
+        return shortIds;
+    }
+
+    /**
+     * Fills in the transactions of the given indices.
+     *
+     * @param indices
+     * @param txs
+     *            the transactions, null for unknown ones
+     * @return false if an index is out of range or a transaction doesn't match
+     *         its short id, otherwise true
+     */
+    public boolean fill(int[] indices, List<Transaction> txs) {
+        for (int i = 0; i < indices.length; i++) {
+            Transaction tx = txs.get(i);
+            if (indices[i] < 0 || indices[i] >= shortIds.length
+                    || tx != null && shortId(tx.getHash()) != shortIds[indices[i]]) {
+                return false;
+            }
+            if (tx != null) {
+                transactions[indices[i]] = tx;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the indices of the missing transactions.
+     *
+     * @return
+     */
+    public int[] getMissing() {
+        int[] missing = new int[transactions.length];
+        int n = 0;
+        for (int i = 0; i < transactions.length; i++) {
+            if (transactions[i] == null) {
+                missing[n++] = i;
+            }
+        }
+        return Arrays.copyOf(missing, n);
+    }
+
+    /**
+     * Forgets all the filled transactions, when they turn out not to be the
+     * proposed ones.
+     */
+    public void clear() {
+        Arrays.fill(transactions, null);
+    }
+
+    /**
+     * Returns the transactions of the given indices.
+     *
+     * @param indices
+     * @return the transactions, or null if an index is out of range or missing
+     */
+    public List<Transaction> getTransactions(int[] indices) {
+        List<Transaction> list = new ArrayList<>(indices.length);
+        for (int i : indices) {
+            if (i < 0 || i >= transactions.length || transactions[i] == null) {
+                return null;
+            }
+            list.add(transactions[i]);
+        }
+        return list;
+    }
+
+    /**
+     * Rebuilds the full proposal from the filled transactions.
+     *
+     * @return the proposal, or null if any transaction is missing or the
+     *         transactions don't match the block header
+     */
+    public Proposal toProposal() {
+        List<Transaction> txs = Arrays.asList(transactions);
+        if (txs.contains(null)
+                || !Arrays.equals(MerkleUtil.computeTransactionsRoot(txs), blockHeader.getTransactionsRoot())) {
+            return null;
+        }
+
+        return new Proposal(proof, blockHeader, new ArrayList<>(txs), signature);
+    }
+
+    public byte[] toBytes() {
+        SimpleEncoder enc = new SimpleEncoder();
+        enc.writeBytes(proof.toBytes());
+        enc.writeBytes(blockHeader.toBytes());
+        enc.writeInt(shortIds.length);
+        for (long id : shortIds) {
+            enc.writeLong(id);
+        }
+        enc.writeBytes(signature.toBytes());
+
+        return enc.toBytes();
+    }
+
+    public static CompactProposal fromBytes(byte[] bytes) {
+        SimpleDecoder dec = new SimpleDecoder(bytes);
+        Proof proof = Proof.fromBytes(dec.readBytes());
+        BlockHeader blockHeader = BlockHeader.fromBytes(dec.readBytes());
+        int n = dec.readInt();
+        if (n < 0 || n > bytes.length / 8) {
+            throw new IllegalArgumentException("Invalid number of short ids: " + n);
+        }
+        long[] shortIds = new long[n];
+        for (int i = 0; i < shortIds.length; i++) {
+            shortIds[i] = dec.readLong();
+        }
+        Signature signature = Signature.fromBytes(dec.readBytes());
+
+        return new CompactProposal(proof, blockHeader, shortIds, signature);
+    }
+
+    @Override
+    public String toString() {
+        return "CompactProposal [height=" + getHeight() + ", view = " + getView() + ", # txs = " + shortIds.length
+                + ", # missing = " + getMissing().length + "]";
+    }
+}
@@ -42,6 +42,11 @@ public class Proposal {
         this.encoded = enc.toBytes();
     }
 
+    public Proposal(Proof proof, BlockHeader blockHeader, List<Transaction> transactions, Signature signature) {
+        this(proof, blockHeader, transactions);
+        this.signature = signature;
+    }
+
     public Proposal(byte[] encoded, byte[] signature) {
         SimpleDecoder dec = new SimpleDecoder(encoded);
         this.proof = Proof.fromBytes(dec.readBytes());
@@ -0,0 +1,301 @@
+/**
+ * Copyright (c) 2019 The Antic Developers
+ *
+ * Distributed under the MIT software license, see the accompanying file
+ * LICENSE or https://opensource.org/licenses/mit-license.php
+ */
+package org.antic.consensus;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.BooleanSupplier;
+
+import org.antic.Kernel;
+import org.antic.config.Config;
+import org.antic.core.Block;
+import org.antic.core.Blockchain;
+import org.antic.core.StateSnapshot;
+import org.antic.crypto.Hex;
+import org.antic.net.Channel;
+import org.antic.net.ChannelManager;
+import org.antic.net.msg.Message;
+import org.antic.net.msg.consensus.GetStateChunkMessage;
+import org.antic.net.msg.consensus.GetStateSnapshotMessage;
+import org.antic.net.msg.consensus.StateChunkMessage;
+import org.antic.net.msg.consensus.StateSnapshotMessage;
+import org.antic.util.FileUtil;
+import org.antic.util.TimeUtil;
+import org.apache.commons.lang3.tuple.Pair;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Bootstraps an empty chain from a trusted state snapshot, see
+ * {@link Config#syncSnapshotCheckpoints()}.
+ * <br>
+ * <br>
+ * The manifest is requested from all the peers, and accepted from the ones
+ * whose manifest has the trusted root. The chunks are then downloaded from
+ * these peers in parallel, each verified against its hash in the manifest and
+ * kept on disk, so that an interrupted download resumes where it stopped. The
+ * snapshot is imported once complete, and the blocks after it are synced as
+ * usual.
+ */
+public class SnapshotSync {
+
+    private static final Logger logger = LoggerFactory.getLogger(SnapshotSync.class);
+
+    /**
+     * The time to wait for a peer with the snapshot, in milliseconds.
+     */
+    private static final long LOOKUP_TIMEOUT = 60_000L;
+
+    /**
+     * The interval between two manifest requests to a peer, in milliseconds.
+     */
+    private static final long MANIFEST_REQUEST_INTERVAL = 10_000L;
+
+    /**
+     * The max number of chunks requested from a peer at a time.
+     */
+    private static final int MAX_PENDING_CHUNKS_PER_PEER = 2;
+
+    private final Config config;
+    private final Blockchain chain;
+    private final ChannelManager channelMgr;
+
+    private final long number;
+    private final byte[] root;
+    private final File dir;
+
+    private StateSnapshot snapshot;
+    private Block block;
+    private boolean isPrepared;
+
+    // the peers with the trusted snapshot
+    private final Set<String> sources = new HashSet<>();
+
+    // the time of the latest manifest request, by peer id
+    private final Map<String, Long> manifestRequests = new HashMap<>();
+
+    // the chunks to download
+    private final TreeSet<Integer> toDownload = new TreeSet<>();
+
+    // the chunks requested but not received, with the peer id and request time
+    private final Map<Integer, Pair<String, Long>> toReceive = new HashMap<>();
+
+    /**
+     * Creates a snapshot sync.
+     *
+     * @param kernel
+     * @param number
+     *            the block number of the snapshot
+     * @param root
+     *            the trusted root of the snapshot
+     * @param dir
+     *            the directory to keep the chunks in
+     */
+    public SnapshotSync(Kernel kernel, long number, byte[] root, File dir) {
+        this.config = kernel.getConfig();
+        this.chain = kernel.getBlockchain();
+        this.channelMgr = kernel.getChannelManager();
+
+        this.number = number;
+        this.root = root;
+        this.dir = dir;
+    }
+
+    /**
+     * Downloads and imports the snapshot.
+     *
+     * @param isRunning
+     *            whether to keep running
+     * @return true if the snapshot is imported, otherwise false
+     */
+    public boolean run(BooleanSupplier isRunning) {
+        logger.info("Looking for state snapshot #{}, root = {}", number, Hex.encode0x(root));
+        long begin = TimeUtil.currentTimeMillis();
+
+        try {
+            Files.createDirectories(dir.toPath());
+
+            while (isRunning.getAsBoolean()) {
+                long now = TimeUtil.currentTimeMillis();
+                synchronized (this) {
+                    if (snapshot == null && now - begin > LOOKUP_TIMEOUT) {
+                        logger.info("No peer has state snapshot #{}, syncing from the latest block", number);
+                        return false;
+                    }
+                    if (isPrepared && toDownload.isEmpty() && toReceive.isEmpty()) {
+                        break;
+                    }
+                    download(now);
+                }
+
+                Thread.sleep(100);
+            }
+            if (!isRunning.getAsBoolean()) {
+                return false;
+            }
+
+            if (chain.importSnapshot(snapshot, block, dir)) {
+                FileUtil.recursiveDelete(dir);
+                return true;
+            }
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (IOException e) {
+            logger.error("Failed to import state snapshot #{}", number, e);
+            return false;
+        }
+    }
+
+    private void download(long now) {
+        // [1] request the manifest
+        for (Channel c : channelMgr.getActiveChannels()) {
+            String peerId = c.getRemotePeer().getPeerId();
+            if (!sources.contains(peerId) && c.getRemotePeer().getLatestBlockNumber() >= number
+                    && now - manifestRequests.getOrDefault(peerId, 0L) > MANIFEST_REQUEST_INTERVAL) {
+                manifestRequests.put(peerId, now);
+                c.getMessageQueue().sendMessage(new GetStateSnapshotMessage(number));
+            }
+        }
+
+        if (snapshot == null) {
+            return;
+        }
+
+        // [2] find the chunks downloaded before
+        if (!isPrepared) {
+            for (int i = 0; i < snapshot.getNumberOfChunks(); i++) {
+                File file = StateSnapshot.getChunkFile(dir, i);
+                if (!file.exists() || !snapshot.validateChunk(i, readChunk(file))) {
+                    toDownload.add(i);
+                }
+            }
+            isPrepared = true;
+            logger.info("State snapshot #{} found, # chunks = {}, to download = {}", number,
+                    snapshot.getNumberOfChunks(), toDownload.size());
+        }
+
+        // [3] expire the chunk requests
+        Map<String, Integer> pending = new HashMap<>();
+        Iterator<Entry<Integer, Pair<String, Long>>> itr = toReceive.entrySet().iterator();
+        while (itr.hasNext()) {
+            Entry<Integer, Pair<String, Long>> entry = itr.next();
+            if (entry.getValue().getRight() + config.syncDownloadTimeout() < now) {
+                logger.debug("Failed to download state chunk #{}, expired", entry.getKey());
+                toDownload.add(entry.getKey());
+                itr.remove();
+            } else {
+                pending.merge(entry.getValue().getLeft(), 1, Integer::sum);
+            }
+        }
+
+        // [4] request chunks from the peers with the snapshot
+        for (Channel c : channelMgr.getActiveChannels()) {
+            String peerId = c.getRemotePeer().getPeerId();
+            if (!sources.contains(peerId)) {
+                continue;
+            }
+
+            int n = pending.getOrDefault(peerId, 0);
+            while (n++ < MAX_PENDING_CHUNKS_PER_PEER && !toDownload.isEmpty()) {
+                int index = toDownload.pollFirst();
+                toReceive.put(index, Pair.of(peerId, now));
+                c.getMessageQueue().sendMessage(new GetStateChunkMessage(number, index));
+            }
+        }
+    }
+
+    /**
+     * Handles a snapshot message.
+     *
+     * @param channel
+     * @param msg
+     */
+    public synchronized void onMessage(Channel channel, Message msg) {
+        String peerId = channel.getRemotePeer().getPeerId();
+
+        switch (msg.getCode()) {
+        case STATE_SNAPSHOT: {
+            StateSnapshotMessage m = (StateSnapshotMessage) msg;
+            if (m.getNumber() != number || m.getManifest().length == 0) {
+                break;
+            }
+
+            try {
+                StateSnapshot s = StateSnapshot.fromBytes(m.getManifest());
+                if (s.getNumber() != number || !Arrays.equals(s.getRoot(), root)) {
+                    logger.warn("Untrusted state snapshot #{} from {}, root = {}", number, channel.getRemoteIp(),
+                            Hex.encode0x(s.getRoot()));
+                    break;
+                }
+
+                if (snapshot == null) {
+                    Block b = Block.fromBytes(m.getBlock());
+                    if (!b.getHeader().validate()
+                            || !Arrays.equals(b.getHash(), s.getBlockHash())
+                            || !b.validateTransactions(b.getHeader(), b.getTransactions(), config.network())
+                            || !b.validateResults(b.getHeader(), b.getResults())) {
+                        logger.warn("Invalid state snapshot block #{} from {}", number, channel.getRemoteIp());
+                        break;
+                    }
+                    snapshot = s;
+                    block = b;
+                }
+                sources.add(peerId);
+            } catch (RuntimeException e) {
+                logger.debug("Failed to parse state snapshot #{} from {}", number, channel.getRemoteIp(), e);
+            }
+            break;
+        }
+        case STATE_CHUNK: {
+            StateChunkMessage m = (StateChunkMessage) msg;
+            Pair<String, Long> request = toReceive.get(m.getIndex());
+            if (m.getNumber() != number || request == null || !request.getLeft().equals(peerId)) {
+                break;
+            }
+            toReceive.remove(m.getIndex());
+
+            if (!snapshot.validateChunk(m.getIndex(), m.getData())) {
+                logger.debug("Invalid state chunk #{} from {}", m.getIndex(), channel.getRemoteIp());
+                sources.remove(peerId);
+                toDownload.add(m.getIndex());
+                break;
+            }
+
+            try {
+                Files.write(StateSnapshot.getChunkFile(dir, m.getIndex()).toPath(), m.getData());
+                logger.debug("Received state chunk #{}, remaining = {}", m.getIndex(),
+                        toDownload.size() + toReceive.size());
+            } catch (IOException e) {
+                logger.error("Failed to write state chunk #{}", m.getIndex(), e);
+                toDownload.add(m.getIndex());
+            }
+            break;
+        }
+        default:
+            break;
+        }
+    }
+
+    private static byte[] readChunk(File file) {
+        try {
+            return Files.readAllBytes(file.toPath());
+        } catch (IOException e) {
+            return null;
+        }
+    }
+}
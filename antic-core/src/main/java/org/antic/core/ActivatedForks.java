@@ -56,14 +56,17 @@ public class ActivatedForks {
     }
 
     /**
-     * Tries to activate a fork.
+     * Tries to activate a fork after a block, which may not be the latest one of
+     * the chain yet while it is being committed.
      *
      * @param fork
+     * @param number
+     *            the block number, whose header is readable from the chain
+     * @return whether the fork is activated by the block
      */
-    public boolean activateFork(Fork fork) {
+    public boolean activateFork(Fork fork, long number) {
         long[] period = config.spec().getForkSignalingPeriod(fork);
 
-        long number = chain.getLatestBlockNumber();
         if (number >= period[0]
                 && number <= period[1]
                 && !isActivated(fork, number)
@@ -124,11 +127,11 @@ public class ActivatedForks {
             // O(1) dynamic-programming lookup
             activatedBlocks = previous.activatedBlocks
                     - (lowerBound > 0 && previous.lowerBoundActivated ? 1 : 0)
-                    + (chain.getBlockHeader(higherBound).getDecodedData().parseForkSignals().contains(fork) ? 1 : 0);
+                    + (isSignaled(fork, higherBound) ? 1 : 0);
         } else {
             // O(m) traversal lookup
             for (long i = higherBound; i >= lowerBound; i--) {
-                activatedBlocks += chain.getBlockHeader(i).getDecodedData().parseForkSignals().contains(fork) ? 1 : 0;
+                activatedBlocks += isSignaled(fork, i) ? 1 : 0;
             }
         }
 
@@ -137,7 +140,7 @@ public class ActivatedForks {
         // memorizes
         cache.put(ImmutablePair.of(fork, height),
                 new ForkActivationMemory(
-                        chain.getBlockHeader(lowerBound).getDecodedData().parseForkSignals().contains(fork),
+                        isSignaled(fork, lowerBound),
                         activatedBlocks));
 
         // returns
@@ -159,6 +162,20 @@ public class ActivatedForks {
         return new HashMap<>(activatedForks);
     }
 
+    /**
+     * Returns whether a block signals a fork. A state snapshot carries the headers
+     * of the blocks to check after it, the blocks before them are missing and
+     * don't signal any fork.
+     *
+     * @param fork
+     * @param number
+     * @return
+     */
+    private boolean isSignaled(Fork fork, long number) {
+        BlockHeader header = chain.getBlockHeader(number);
+        return header != null && header.getDecodedData().parseForkSignals().contains(fork);
+    }
+
     /**
      * <code>
      * ForkActivationMemory[height].lowerBoundActivated =
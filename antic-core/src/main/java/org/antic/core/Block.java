@@ -8,15 +8,21 @@ package org.antic.core;
 
 import static org.antic.core.Amount.ZERO;
 
+import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 import org.antic.Network;
 import org.antic.config.Config;
 import org.antic.config.Constants;
+import org.antic.consensus.Vote;
+import org.antic.consensus.VoteType;
 import org.antic.crypto.Hex;
 import org.antic.crypto.Key;
 import org.antic.crypto.Key.Signature;
@@ -29,6 +35,11 @@ import org.slf4j.LoggerFactory;
 
 /**
  * Represents a block in the blockchain.
+ * <br>
+ * <br>
+ * A block parsed from bytes keeps the encoded transactions, results and votes,
+ * and decodes each entry only when it's accessed; the encoded parts are served
+ * as is rather than being re-encoded.
  */
 public class Block {
 
@@ -55,6 +66,14 @@ public class Block {
     private int view;
     private List<Signature> votes;
 
+    /**
+     * The encoded transactions, results and votes, which are either the parsed
+     * bytes or the memoized encoding.
+     */
+    private volatile Pair<byte[], List<Integer>> encodedTransactions;
+    private volatile Pair<byte[], List<Integer>> encodedResults;
+    private volatile byte[] encodedVotes;
+
     // =========================
     // Auxiliary data
     // =========================
@@ -92,16 +111,34 @@ public class Block {
         this(header, transactions, results, 0, new ArrayList<>());
     }
 
+    private Block(BlockHeader header, Pair<byte[], List<Integer>> encodedTransactions,
+            Pair<byte[], List<Integer>> encodedResults, int view, byte[] encodedVotes, List<Signature> votes) {
+        this.header = header;
+
+        this.encodedTransactions = encodedTransactions;
+        this.transactions = new LazyList<>(encodedTransactions, Transaction::fromBytes);
+        this.encodedResults = encodedResults;
+        this.results = (encodedResults == null) ? new ArrayList<>()
+                : new LazyList<>(encodedResults, TransactionResult::fromBytes);
+
+        this.view = view;
+        this.encodedVotes = encodedVotes;
+        this.votes = votes;
+    }
+
     public void setResults(List<TransactionResult> results) {
         this.results = results;
+        this.encodedResults = null;
     }
 
     public void setView(int view) {
         this.view = view;
+        this.encodedVotes = null;
     }
 
     public void setVotes(List<Signature> votes) {
         this.votes = votes;
+        this.encodedVotes = null;
     }
 
     /**
@@ -196,6 +233,24 @@ public class Block {
         return Arrays.equals(root, header.getTransactionsRoot());
     }
 
+    /**
+     * Validates the signatures of the votes, which must all be PRECOMMIT votes
+     * approving this block. Whether the voters are validators is checked
+     * against the blockchain state, see {@link Blockchain#validateBlockVotes}.
+     *
+     * @return
+     */
+    public boolean validateVoteSignatures() {
+        Vote vote = new Vote(VoteType.PRECOMMIT, Vote.VALUE_APPROVE, getNumber(), getView(), getHash());
+        byte[] encoded = vote.getEncoded();
+
+        if (!Key.isVerifyBatchSupported()) {
+            return getVotes().stream().allMatch(sig -> Key.verify(encoded, sig));
+        } else {
+            return Key.verifyBatch(Collections.nCopies(getVotes().size(), encoded), getVotes());
+        }
+    }
+
     /**
      * Validates results.
      *
@@ -261,21 +316,21 @@ public class Block {
     }
 
     /**
-     * Returns a shallow copy of the transactions.
+     * Returns an unmodifiable view of the transactions.
      *
      * @return
      */
     public List<Transaction> getTransactions() {
-        return new ArrayList<>(transactions);
+        return Collections.unmodifiableList(transactions);
     }
 
     /**
-     * Returns a shallow copy of the transactions results.
+     * Returns an unmodifiable view of the transactions results.
      *
      * @return
      */
     public List<TransactionResult> getResults() {
-        return new ArrayList<>(results);
+        return Collections.unmodifiableList(results);
     }
 
     /**
@@ -288,12 +343,12 @@ public class Block {
     }
 
     /**
-     * Returns a shallow copy of the votes.
+     * Returns an unmodifiable view of the votes.
      *
      * @return
      */
     public List<Signature> getVotes() {
-        return new ArrayList<>(votes);
+        return Collections.unmodifiableList(votes);
     }
 
     /**
@@ -396,17 +451,11 @@ public class Block {
     }
 
     public Pair<byte[], List<Integer>> getEncodedTransactionsAndIndices() {
-        List<Integer> indices = new ArrayList<>();
-
-        SimpleEncoder enc = new SimpleEncoder();
-        enc.writeInt(transactions.size());
-        for (Transaction transaction : transactions) {
-            int index = enc.getWriteIndex();
-            enc.writeBytes(transaction.toBytes());
-            indices.add(index);
+        Pair<byte[], List<Integer>> encoded = encodedTransactions;
+        if (encoded == null) {
+            encoded = encodedTransactions = encode(transactions, Transaction::toBytes);
         }
-
-        return Pair.of(enc.toBytes(), indices);
+        return encoded;
     }
 
     /**
@@ -419,34 +468,84 @@ public class Block {
     }
 
     public Pair<byte[], List<Integer>> getEncodedResultsAndIndices() {
-        List<Integer> indices = new ArrayList<>();
+        Pair<byte[], List<Integer>> encoded = encodedResults;
+        if (encoded == null) {
+            encoded = encodedResults = encode(results, TransactionResult::toBytes);
+        }
+        return encoded;
+    }
+
+    /**
+     * Serializes the BFT votes into byte array.
+     *
+     * @return
+     */
+    public byte[] getEncodedVotes() {
+        byte[] encoded = encodedVotes;
+        if (encoded == null) {
+            SimpleEncoder enc = new SimpleEncoder(4 + 4 + votes.size() * Signature.LENGTH);
+
+            enc.writeInt(view);
+            enc.writeInt(votes.size());
+            for (Signature vote : votes) {
+                enc.writeBytes(vote.toBytes());
+            }
+
+            encoded = encodedVotes = enc.toBytes();
+        }
+        return encoded;
+    }
+
+    /**
+     * Encodes a list of entries, and records the offset of each entry.
+     *
+     * @param list
+     * @param encoder
+     * @return
+     */
+    private static <T> Pair<byte[], List<Integer>> encode(List<T> list, Function<T, byte[]> encoder) {
+        List<Integer> indices = new ArrayList<>(list.size());
 
         SimpleEncoder enc = new SimpleEncoder();
-        enc.writeInt(results.size());
-        for (TransactionResult result : results) {
+        enc.writeInt(list.size());
+        for (T t : list) {
             int index = enc.getWriteIndex();
-            enc.writeBytes(result.toBytes());
+            enc.writeBytes(encoder.apply(t));
             indices.add(index);
         }
 
-        return Pair.of(enc.toBytes(), indices);
+        return Pair.of(enc.toBytes(), Collections.unmodifiableList(indices));
     }
 
     /**
-     * Serializes the BFT votes into byte array.
+     * Scans an encoded list of entries for the offset of each entry, without
+     * decoding the entries.
      *
+     * @param bytes
+     * @param from
+     *            the offset of the entry count
      * @return
      */
-    public byte[] getEncodedVotes() {
-        SimpleEncoder enc = new SimpleEncoder(4 + 4 + votes.size() * Signature.LENGTH);
-
-        enc.writeInt(view);
-        enc.writeInt(votes.size());
-        for (Signature vote : votes) {
-            enc.writeBytes(vote.toBytes());
+    private static Pair<byte[], List<Integer>> scan(byte[] bytes, int from) {
+        SimpleDecoder dec = new SimpleDecoder(bytes, from);
+        int n = dec.readInt();
+        int[] offsets = new int[n];
+        for (int i = 0; i < n; i++) {
+            offsets[i] = dec.getReadIndex();
+            dec.skipBytes();
         }
 
-        return enc.toBytes();
+        return Pair.of(bytes, new AbstractList<Integer>() {
+            @Override
+            public Integer get(int index) {
+                return offsets[index];
+            }
+
+            @Override
+            public int size() {
+                return offsets.length;
+            }
+        });
     }
 
     /**
@@ -472,34 +571,17 @@ public class Block {
 
         BlockHeader header = BlockHeader.fromBytes(h);
 
-        SimpleDecoder dec = new SimpleDecoder(t);
-        List<Transaction> transactions = new ArrayList<>();
-        int n = dec.readInt();
-        for (int i = 0; i < n; i++) {
-            transactions.add(Transaction.fromBytes(dec.readBytes()));
-        }
-
-        List<TransactionResult> results = new ArrayList<>();
-        if (r != null) {
-            dec = new SimpleDecoder(r);
-            n = dec.readInt();
-            for (int i = 0; i < n; i++) {
-                results.add(TransactionResult.fromBytes(dec.readBytes()));
-            }
-        }
+        Pair<byte[], List<Integer>> transactions = scan(t, 0);
+        Pair<byte[], List<Integer>> results = (r == null) ? null : scan(r, 0);
 
         int view = 0;
         List<Signature> votes = new ArrayList<>();
         if (v != null) {
-            dec = new SimpleDecoder(v);
-            view = dec.readInt();
-            n = dec.readInt();
-            for (int i = 0; i < n; i++) {
-                votes.add(Signature.fromBytes(dec.readBytes()));
-            }
+            view = new SimpleDecoder(v).readInt();
+            votes = new LazyList<>(scan(v, 4), Signature::fromBytes);
         }
 
-        return new Block(header, transactions, results, view, votes);
+        return new Block(header, transactions, results, view, v, votes);
     }
 
     public byte[] toBytes() {
@@ -537,4 +619,40 @@ public class Block {
                 + ", # txs = " + transactions.size() + ", # votes = " + votes.size() + "]";
     }
 
+    /**
+     * A read-only list backed by an encoded list of entries, which decodes each
+     * entry on first access.
+     */
+    private static class LazyList<T> extends AbstractList<T> {
+
+        private final byte[] encoded;
+        private final List<Integer> offsets;
+        private final Function<byte[], T> decoder;
+        private final AtomicReferenceArray<T> decoded;
+
+        LazyList(Pair<byte[], List<Integer>> encoded, Function<byte[], T> decoder) {
+            this.encoded = encoded.getLeft();
+            this.offsets = encoded.getRight();
+            this.decoder = decoder;
+            this.decoded = new AtomicReferenceArray<>(offsets.size());
+        }
+
+        @Override
+        public T get(int index) {
+            T t = decoded.get(index);
+            if (t == null) {
+                t = decoder.apply(new SimpleDecoder(encoded, offsets.get(index)).readBytes());
+                if (!decoded.compareAndSet(index, null, t)) {
+                    t = decoded.get(index);
+                }
+            }
+            return t;
+        }
+
+        @Override
+        public int size() {
+            return offsets.size();
+        }
+    }
+
 }
@@ -6,6 +6,8 @@
  */
 package org.antic.core;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.List;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
@@ -68,6 +70,17 @@ public interface Blockchain {
      */
     Block getBlock(byte[] hash);
 
+    /**
+     * Returns a part of a block as stored, which is the same encoding as
+     * {@link Block#getEncodedHeader()}, {@link Block#getEncodedTransactions()},
+     * {@link Block#getEncodedResults()} or {@link Block#getEncodedVotes()}.
+     * 
+     * @param number
+     * @param part
+     * @return the encoded part, or null if the block doesn't exist
+     */
+    byte[] getBlockPart(long number, BlockPart part);
+
     /**
      * Returns block header by block number.
      * 
@@ -156,6 +169,22 @@ public interface Blockchain {
      */
     List<Transaction> getTransactions(byte[] address, int from, int to);
 
+    /**
+     * Returns a page of the transactions from/to an address, starting from the
+     * given position.
+     *
+     * @param address
+     *            account address
+     * @param blockNumber
+     *            block number of the first transaction
+     * @param position
+     *            position in block of the first transaction
+     * @param limit
+     *            the max number of transactions
+     * @return
+     */
+    TransactionPage getTransactions(byte[] address, long blockNumber, int position, int limit);
+
     /**
      * Returns the total number of internal transactions from/to the given address.
      *
@@ -262,6 +291,21 @@ public interface Blockchain {
      */
     boolean importBlock(Block block, boolean validateVotes);
 
+    /**
+     * Imports a new block.
+     *
+     * @param block
+     *            the block to import
+     * @param validateVotes
+     *            whether to validate the block votes
+     * @param validateTransactions
+     *            whether to validate the transaction signatures and the
+     *            transactions root, which can be skipped if the caller has
+     *            already done so
+     * @return true if the block is successfully imported; otherwise, false
+     */
+    boolean importBlock(Block block, boolean validateVotes, boolean validateTransactions);
+
     /**
      * Validate the block votes only.
      *
@@ -269,6 +313,51 @@ public interface Blockchain {
      */
     boolean validateBlockVotes(Block block);
 
+    /**
+     * Validate the block votes only.
+     *
+     * @param block
+     * @param validateSignatures
+     *            whether to validate the vote signatures, see
+     *            {@link Block#validateVoteSignatures()}, which can be skipped if
+     *            the caller has already done so
+     * @return true if the votes are valid, otherwise false
+     */
+    boolean validateBlockVotes(Block block, boolean validateSignatures);
+
+    /**
+     * Exports a snapshot of the state after the given block into the given
+     * directory. The state lock is only held while opening the database
+     * iterators, which read a consistent view of the state.
+     *
+     * @param number
+     *            the block number, which must be the latest one
+     * @param dir
+     *            the snapshot directory
+     * @return the snapshot manifest, or null if the latest block is not the
+     *         given one
+     * @throws IOException
+     *             or an {@link java.io.InterruptedIOException} once the calling
+     *             thread is interrupted
+     */
+    StateSnapshot exportSnapshot(long number, File dir) throws IOException;
+
+    /**
+     * Replaces the genesis state with a snapshot, and the genesis block with the
+     * block the snapshot was taken after. The blocks before are not imported.
+     *
+     * @param snapshot
+     *            the snapshot manifest
+     * @param block
+     *            the block of the snapshot
+     * @param dir
+     *            the directory of the chunks, which have been validated
+     * @return true if the snapshot is imported, or false if the chain is not
+     *         empty or the block doesn't match the snapshot
+     * @throws IOException
+     */
+    boolean importSnapshot(StateSnapshot snapshot, Block block, File dir) throws IOException;
+
     boolean isVMEnabled();
 
     boolean isVotingPrecompiledUpgraded();
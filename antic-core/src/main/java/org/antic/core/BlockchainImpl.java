@@ -6,7 +6,9 @@
  */
 package org.antic.core;
 
+import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -16,7 +18,8 @@ import java.time.Duration;
 import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -28,8 +31,6 @@ import java.util.stream.Collectors;
 
 import org.antic.config.Config;
 import org.antic.config.Constants;
-import org.antic.consensus.Vote;
-import org.antic.consensus.VoteType;
 import org.antic.core.Genesis.Premine;
 import org.antic.core.event.BlockchainDatabaseUpgradingEvent;
 import org.antic.core.exception.BlockchainException;
@@ -38,26 +39,35 @@ import org.antic.core.state.AccountStateImpl;
 import org.antic.core.state.Delegate;
 import org.antic.core.state.DelegateState;
 import org.antic.core.state.DelegateStateImpl;
+import org.antic.crypto.Hash;
 import org.antic.crypto.Hex;
 import org.antic.crypto.Key;
+import org.antic.db.CompositeDatabaseFactory;
 import org.antic.db.Database;
 import org.antic.db.DatabaseFactory;
 import org.antic.db.DatabaseName;
-import org.antic.db.LeveldbDatabase;
+import org.antic.db.StagedDatabase;
 import org.antic.event.PubSubFactory;
 import org.antic.util.ByteArray;
 import org.antic.util.Bytes;
+import org.antic.util.ClosableIterator;
 import org.antic.util.SimpleDecoder;
 import org.antic.util.SimpleEncoder;
+import org.antic.util.SystemUtil;
 import org.antic.util.TimeUtil;
+import org.antic.util.exception.UnreachableException;
 import org.antic.vm.client.AnticBlock;
 import org.antic.vm.client.AnticBlockStore;
 import org.antic.vm.client.AnticInternalTransaction;
 import org.apache.commons.lang3.tuple.Pair;
+import org.apache.commons.lang3.tuple.Triple;
 import org.ethereum.vm.client.BlockStore;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
 import static org.antic.core.Fork.*;
 
 /**
@@ -72,9 +82,12 @@ import static org.antic.core.Fork.*;
  *
  * [3, block_hash] => [block_number]
  * [4, transaction_hash] => [block_number, from, to] | [coinbase_transaction]
- * [5, address, n] => [transaction_hash]
  * [7] => [activated forks]
+ * [9, address] => [transaction_count]
+ * [9, address, block_number, position] => [transaction_offset] | [coinbase_transaction_hash]
+ * [10, address, n] => [block_number, position] // of the n-th transaction of the account
  *
+ * [0xfe] => [block_number] // present only while a block commit is in progress
  * [0xff] => [database version]
  * </pre>
  *
@@ -85,13 +98,14 @@ import static org.antic.core.Fork.*;
  * [1, block_number] => [block_transactions]
  * [2, block_number] => [block_results]
  * [3, block_number] => [block_votes]
+ * [4, block_number] => [block_header] // the headers before an imported state snapshot
  * </pre>
  */
 public class BlockchainImpl implements Blockchain {
 
     private static final Logger logger = LoggerFactory.getLogger(BlockchainImpl.class);
 
-    protected static final int DATABASE_VERSION = 3;
+    protected static final int DATABASE_VERSION = 5;
 
     protected static final byte TYPE_LATEST_BLOCK_NUMBER = 0x00;
     protected static final byte TYPE_VALIDATORS = 0x01;
@@ -99,17 +113,28 @@ public class BlockchainImpl implements Blockchain {
     protected static final byte TYPE_BLOCK_NUMBER_BY_HASH = 0x03;
     protected static final byte TYPE_BLOCK_COINBASE_BY_NUMBER = 0x07;
     protected static final byte TYPE_TRANSACTION_INDEX_BY_HASH = 0x04;
-    protected static final byte TYPE_TRANSACTION_COUNT_BY_ADDRESS = 0x05;
-    protected static final byte TYPE_TRANSACTION_HASH_BY_ADDRESS_AND_INDEX = 0x05;
+    protected static final byte TYPE_LEGACY_TRANSACTION_BY_ADDRESS = 0x05; // dropped in version 4
     protected static final byte TYPE_ACTIVATED_FORKS = 0x06;
     protected static final byte TYPE_INTERNAL_TRANSACTION_COUNT_BY_ADDRESS = 0x07;
     protected static final byte TYPE_INTERNAL_TRANSACTION_BY_ADDRESS_AND_INDEX = 0x08;
+    protected static final byte TYPE_TRANSACTION_BY_ADDRESS = 0x09;
+    protected static final byte TYPE_TRANSACTION_POSITION_BY_ADDRESS_AND_INDEX = 0x0a;
+    protected static final byte TYPE_PENDING_COMMIT = (byte) 0xfe;
     protected static final byte TYPE_DATABASE_VERSION = (byte) 0xff;
 
     protected static final byte TYPE_BLOCK_HEADER_BY_NUMBER = 0x00;
     protected static final byte TYPE_BLOCK_TRANSACTIONS_BY_NUMBER = 0x01;
     protected static final byte TYPE_BLOCK_RESULTS_BY_NUMBER = 0x02;
     protected static final byte TYPE_BLOCK_VOTES_BY_NUMBER = 0x03;
+    protected static final byte TYPE_SNAPSHOT_HEADER_BY_NUMBER = 0x04;
+
+    /**
+     * Heap budgets of the decoded-object caches, in bytes.
+     */
+    private static final long BLOCK_CACHE_WEIGHT = 64L * 1024L * 1024L;
+    private static final long TRANSACTION_CACHE_WEIGHT = 32L * 1024L * 1024L;
+    private static final long RESULT_CACHE_WEIGHT = 16L * 1024L * 1024L;
+    private static final int HEADER_CACHE_SIZE = 4096;
 
     private final BlockStore blockStore = new AnticBlockStore(this);
     private final ReentrantReadWriteLock stateLock = new ReentrantReadWriteLock();
@@ -124,6 +149,7 @@ public class BlockchainImpl implements Blockchain {
 
     private Database indexDB;
     private Database blockDB;
+    private final Map<DatabaseName, Database> stateDBs = new EnumMap<>(DatabaseName.class);
 
     private AccountState accountState;
     private DelegateState delegateState;
@@ -132,6 +158,27 @@ public class BlockchainImpl implements Blockchain {
 
     private ActivatedForks forks;
 
+    /**
+     * Recently added or read blocks, headers, transactions and results, which
+     * saves reading and decoding the whole block part on every lookup. The
+     * blocks are immutable once added, so these entries are never invalidated.
+     */
+    private final Cache<Long, Sized<Block>> blockCache = Caffeine.newBuilder()
+            .maximumWeight(BLOCK_CACHE_WEIGHT)
+            .weigher((Long k, Sized<Block> v) -> v.weight)
+            .build();
+    private final Cache<Long, BlockHeader> headerCache = Caffeine.newBuilder()
+            .maximumSize(HEADER_CACHE_SIZE)
+            .build();
+    private final Cache<ByteArray, Sized<Transaction>> transactionCache = Caffeine.newBuilder()
+            .maximumWeight(TRANSACTION_CACHE_WEIGHT)
+            .weigher((ByteArray k, Sized<Transaction> v) -> v.weight)
+            .build();
+    private final Cache<ByteArray, Sized<TransactionResult>> resultCache = Caffeine.newBuilder()
+            .maximumWeight(RESULT_CACHE_WEIGHT)
+            .weigher((ByteArray k, Sized<TransactionResult> v) -> v.weight)
+            .build();
+
     public BlockchainImpl(Config config, DatabaseFactory dbFactory) {
         this(config, Genesis.load(config.network()), dbFactory);
     }
@@ -153,9 +200,21 @@ public class BlockchainImpl implements Blockchain {
         this.indexDB = dbFactory.getDB(DatabaseName.INDEX);
         this.blockDB = dbFactory.getDB(DatabaseName.BLOCK);
 
-        this.accountState = new AccountStateImpl(dbFactory.getDB(DatabaseName.ACCOUNT));
-        this.delegateState = new DelegateStateImpl(this, dbFactory.getDB(DatabaseName.DELEGATE),
-                dbFactory.getDB(DatabaseName.VOTE));
+        for (DatabaseName name : StateSnapshot.DATABASES) {
+            stateDBs.put(name, dbFactory.getDB(name));
+        }
+        this.accountState = new AccountStateImpl(stateDBs.get(DatabaseName.ACCOUNT));
+        this.delegateState = new DelegateStateImpl(this, stateDBs.get(DatabaseName.DELEGATE),
+                stateDBs.get(DatabaseName.VOTE));
+
+        // checks if the last block commit was interrupted
+        byte[] pending = indexDB.get(Bytes.of(TYPE_PENDING_COMMIT));
+        if (pending != null) {
+            logger.error("The commit of block #{} was interrupted, the database is inconsistent and must be rebuilt",
+                    Bytes.toLong(pending));
+            SystemUtil.exitAsync(SystemUtil.Code.INCONSISTENT_DB);
+            return;
+        }
 
         // checks if the database needs to be initialized
         byte[] number = indexDB.get(Bytes.of(TYPE_LATEST_BLOCK_NUMBER));
@@ -176,6 +235,7 @@ public class BlockchainImpl implements Blockchain {
     private void initializeDb() {
         // initialize database version
         indexDB.put(Bytes.of(TYPE_DATABASE_VERSION), Bytes.of(DATABASE_VERSION));
+        beginCommit(genesis.getNumber());
 
         // pre-allocation
         for (Premine p : genesis.getPremines().values()) {
@@ -226,7 +286,23 @@ public class BlockchainImpl implements Blockchain {
 
     @Override
     public Block getBlock(long number) {
-        return getBlock(blockDB, number, false);
+        Sized<Block> cached = blockCache.getIfPresent(number);
+        if (cached != null) {
+            return cached.value;
+        }
+
+        byte[] header = blockDB.get(Bytes.merge(TYPE_BLOCK_HEADER_BY_NUMBER, Bytes.of(number)));
+        if (header == null) {
+            return null;
+        }
+        byte[] transactions = blockDB.get(Bytes.merge(TYPE_BLOCK_TRANSACTIONS_BY_NUMBER, Bytes.of(number)));
+        byte[] results = blockDB.get(Bytes.merge(TYPE_BLOCK_RESULTS_BY_NUMBER, Bytes.of(number)));
+        byte[] votes = blockDB.get(Bytes.merge(TYPE_BLOCK_VOTES_BY_NUMBER, Bytes.of(number)));
+
+        Block block = Block.fromComponents(header, transactions, results, votes);
+        blockCache.put(number, new Sized<>(block,
+                header.length + transactions.length + results.length + votes.length));
+        return block;
     }
 
     @Override
@@ -235,10 +311,55 @@ public class BlockchainImpl implements Blockchain {
         return (number == -1) ? null : getBlock(number);
     }
 
+    @Override
+    public byte[] getBlockPart(long number, BlockPart part) {
+        switch (part) {
+        case HEADER:
+            return blockDB.get(Bytes.merge(TYPE_BLOCK_HEADER_BY_NUMBER, Bytes.of(number)));
+        case TRANSACTIONS:
+            return blockDB.get(Bytes.merge(TYPE_BLOCK_TRANSACTIONS_BY_NUMBER, Bytes.of(number)));
+        case RESULTS:
+            return blockDB.get(Bytes.merge(TYPE_BLOCK_RESULTS_BY_NUMBER, Bytes.of(number)));
+        case VOTES:
+            return blockDB.get(Bytes.merge(TYPE_BLOCK_VOTES_BY_NUMBER, Bytes.of(number)));
+        default:
+            throw new UnreachableException();
+        }
+    }
+
     @Override
     public BlockHeader getBlockHeader(long number) {
+        BlockHeader cached = headerCache.getIfPresent(number);
+        if (cached != null) {
+            return cached;
+        }
+
+        Sized<Block> block = blockCache.getIfPresent(number);
+        if (block != null) {
+            return block.value.getHeader();
+        }
+
+        byte[] bytes = getEncodedHeader(number);
+        if (bytes == null) {
+            return null;
+        }
+
+        BlockHeader header = BlockHeader.fromBytes(bytes);
+        headerCache.put(number, header);
+        return header;
+    }
+
+    /**
+     * Returns the encoded header of a block, falling back to the headers imported
+     * with a state snapshot, whose blocks are not stored.
+     *
+     * @param number
+     * @return
+     */
+    private byte[] getEncodedHeader(long number) {
         byte[] header = blockDB.get(Bytes.merge(TYPE_BLOCK_HEADER_BY_NUMBER, Bytes.of(number)));
-        return (header == null) ? null : BlockHeader.fromBytes(header);
+        return (header != null) ? header
+                : blockDB.get(Bytes.merge(TYPE_SNAPSHOT_HEADER_BY_NUMBER, Bytes.of(number)));
     }
 
     @Override
@@ -252,6 +373,20 @@ public class BlockchainImpl implements Blockchain {
         return blockDB.get(Bytes.merge(TYPE_BLOCK_HEADER_BY_NUMBER, Bytes.of(number))) != null;
     }
 
+    /**
+     * A decoded object weighted by the estimated heap size. Decoded objects keep
+     * their encoding besides the decoded fields, hence twice the encoded size.
+     */
+    private static class Sized<T> {
+        final T value;
+        final int weight;
+
+        Sized(T value, int encodedSize) {
+            this.value = value;
+            this.weight = 64 + 2 * encodedSize;
+        }
+    }
+
     private static class TransactionIndex {
         long blockNumber;
         int transactionOffset;
@@ -282,18 +417,29 @@ public class BlockchainImpl implements Blockchain {
 
     @Override
     public Transaction getTransaction(byte[] hash) {
+        Sized<Transaction> cached = transactionCache.getIfPresent(ByteArray.of(hash));
+        if (cached != null) {
+            return cached.value;
+        }
+
         byte[] bytes = indexDB.get(Bytes.merge(TYPE_TRANSACTION_INDEX_BY_HASH, hash));
         if (bytes != null) {
             // coinbase transaction
             if (bytes.length > 64) {
-                return Transaction.fromBytes(bytes);
+                Transaction tx = Transaction.fromBytes(bytes);
+                transactionCache.put(ByteArray.of(hash), new Sized<>(tx, bytes.length));
+                return tx;
             }
 
             TransactionIndex index = TransactionIndex.fromBytes(bytes);
             byte[] transactions = blockDB
                     .get(Bytes.merge(TYPE_BLOCK_TRANSACTIONS_BY_NUMBER, Bytes.of(index.blockNumber)));
             SimpleDecoder dec = new SimpleDecoder(transactions, index.transactionOffset);
-            return Transaction.fromBytes(dec.readBytes());
+            byte[] encoded = dec.readBytes();
+
+            Transaction tx = Transaction.fromBytes(encoded);
+            transactionCache.put(ByteArray.of(hash), new Sized<>(tx, encoded.length));
+            return tx;
         }
 
         return null;
@@ -313,6 +459,11 @@ public class BlockchainImpl implements Blockchain {
 
     @Override
     public TransactionResult getTransactionResult(byte[] hash) {
+        Sized<TransactionResult> cached = resultCache.getIfPresent(ByteArray.of(hash));
+        if (cached != null) {
+            return cached.value;
+        }
+
         byte[] bytes = indexDB.get(Bytes.merge(TYPE_TRANSACTION_INDEX_BY_HASH, hash));
         if (bytes != null) {
             // coinbase transaction
@@ -323,7 +474,11 @@ public class BlockchainImpl implements Blockchain {
             TransactionIndex index = TransactionIndex.fromBytes(bytes);
             byte[] results = blockDB.get(Bytes.merge(TYPE_BLOCK_RESULTS_BY_NUMBER, Bytes.of(index.blockNumber)));
             SimpleDecoder dec = new SimpleDecoder(results, index.resultOffset);
-            return TransactionResult.fromBytes(dec.readBytes());
+            byte[] encoded = dec.readBytes();
+
+            TransactionResult result = TransactionResult.fromBytes(encoded);
+            resultCache.put(ByteArray.of(hash), new Sized<>(result, encoded.length));
+            return result;
         }
 
         return null;
@@ -355,39 +510,48 @@ public class BlockchainImpl implements Blockchain {
             throw new BlockchainException("Blocks can only be added sequentially");
         }
 
+        // stage all the updates, then write each database with one batch
+        StagedDatabase blocks = new StagedDatabase(blockDB);
+        StagedDatabase index = new StagedDatabase(indexDB);
+
         // [1] update block
-        blockDB.put(Bytes.merge(TYPE_BLOCK_HEADER_BY_NUMBER, Bytes.of(number)), block.getEncodedHeader());
-        blockDB.put(Bytes.merge(TYPE_BLOCK_TRANSACTIONS_BY_NUMBER, Bytes.of(number)), block.getEncodedTransactions());
-        blockDB.put(Bytes.merge(TYPE_BLOCK_RESULTS_BY_NUMBER, Bytes.of(number)), block.getEncodedResults());
-        blockDB.put(Bytes.merge(TYPE_BLOCK_VOTES_BY_NUMBER, Bytes.of(number)), block.getEncodedVotes());
+        byte[] encodedHeader = block.getEncodedHeader();
+        Pair<byte[], List<Integer>> transactionIndices = block.getEncodedTransactionsAndIndices();
+        Pair<byte[], List<Integer>> resultIndices = block.getEncodedResultsAndIndices();
+        byte[] encodedVotes = block.getEncodedVotes();
 
-        indexDB.put(Bytes.merge(TYPE_BLOCK_NUMBER_BY_HASH, hash), Bytes.of(number));
+        blocks.put(Bytes.merge(TYPE_BLOCK_HEADER_BY_NUMBER, Bytes.of(number)), encodedHeader);
+        blocks.put(Bytes.merge(TYPE_BLOCK_TRANSACTIONS_BY_NUMBER, Bytes.of(number)), transactionIndices.getLeft());
+        blocks.put(Bytes.merge(TYPE_BLOCK_RESULTS_BY_NUMBER, Bytes.of(number)), resultIndices.getLeft());
+        blocks.put(Bytes.merge(TYPE_BLOCK_VOTES_BY_NUMBER, Bytes.of(number)), encodedVotes);
+
+        index.put(Bytes.merge(TYPE_BLOCK_NUMBER_BY_HASH, hash), Bytes.of(number));
 
         // [2] update transaction indices
         List<Transaction> txs = block.getTransactions();
-        Pair<byte[], List<Integer>> transactionIndices = block.getEncodedTransactionsAndIndices();
-        Pair<byte[], List<Integer>> resultIndices = block.getEncodedResultsAndIndices();
+        List<TransactionResult> results = block.getResults();
         Amount reward = Block.getBlockReward(block, config);
 
         for (int i = 0; i < txs.size(); i++) {
             Transaction tx = txs.get(i);
-            TransactionResult result = block.getResults().get(i);
+            TransactionResult result = results.get(i);
 
-            TransactionIndex index = new TransactionIndex(number, transactionIndices.getRight().get(i),
+            TransactionIndex txIndex = new TransactionIndex(number, transactionIndices.getRight().get(i),
                     resultIndices.getRight().get(i));
-            indexDB.put(Bytes.merge(TYPE_TRANSACTION_INDEX_BY_HASH, tx.getHash()), index.toBytes());
+            index.put(Bytes.merge(TYPE_TRANSACTION_INDEX_BY_HASH, tx.getHash()), txIndex.toBytes());
 
             // [3] update transaction_by_account index
-            addTransactionToAccount(tx, tx.getFrom());
+            byte[] locator = Bytes.of(transactionIndices.getRight().get(i));
+            addTransactionToAccount(index, tx, tx.getFrom(), number, i, locator);
             if (!Arrays.equals(tx.getFrom(), tx.getTo())) {
-                addTransactionToAccount(tx, tx.getTo());
+                addTransactionToAccount(index, tx, tx.getTo(), number, i, locator);
             }
 
             // index internal transactions
             for (AnticInternalTransaction internalTx : result.getInternalTransactions()) {
-                addInternalTransactionToAccount(tx, internalTx, internalTx.getFrom());
+                addInternalTransactionToAccount(index, tx, internalTx, internalTx.getFrom());
                 if (!Arrays.equals(internalTx.getFrom(), internalTx.getTo())) {
-                    addInternalTransactionToAccount(tx, internalTx, internalTx.getTo());
+                    addInternalTransactionToAccount(index, tx, internalTx, internalTx.getTo());
                 }
             }
         }
@@ -403,36 +567,84 @@ public class BlockchainImpl implements Blockchain {
                     block.getTimestamp(),
                     Bytes.EMPTY_BYTES);
             tx.sign(Constants.COINBASE_KEY);
-            indexDB.put(Bytes.merge(TYPE_TRANSACTION_INDEX_BY_HASH, tx.getHash()), tx.toBytes());
-            indexDB.put(Bytes.merge(TYPE_BLOCK_COINBASE_BY_NUMBER, Bytes.of(block.getNumber())), tx.getHash());
-            addTransactionToAccount(tx, block.getCoinbase());
+            byte[] encoded = tx.toBytes();
+            index.put(Bytes.merge(TYPE_TRANSACTION_INDEX_BY_HASH, tx.getHash()), encoded);
+            transactionCache.put(ByteArray.of(tx.getHash()), new Sized<>(tx, encoded.length));
+            index.put(Bytes.merge(TYPE_BLOCK_COINBASE_BY_NUMBER, Bytes.of(block.getNumber())), tx.getHash());
+            addTransactionToAccount(index, tx, block.getCoinbase(), number, txs.size(), tx.getHash());
 
             // [5] update validator statistics
             List<String> validators = getValidators();
             String primary = config.spec().getPrimaryValidator(validators, number, 0,
                     this.isForkActivated(UNIFORM_DISTRIBUTION));
-            adjustValidatorStats(block.getCoinbase(), StatsType.FORGED, 1);
+            adjustValidatorStats(index, block.getCoinbase(), StatsType.FORGED, 1);
             if (primary.equals(Hex.encode(block.getCoinbase()))) {
-                adjustValidatorStats(Hex.decode0x(primary), StatsType.HIT, 1);
+                adjustValidatorStats(index, Hex.decode0x(primary), StatsType.HIT, 1);
             } else {
-                adjustValidatorStats(Hex.decode0x(primary), StatsType.MISSED, 1);
+                adjustValidatorStats(index, Hex.decode0x(primary), StatsType.MISSED, 1);
             }
         }
 
         // [6] update validator set
         if (number % config.spec().getValidatorUpdateInterval() == 0) {
-            updateValidators(block.getNumber());
+            updateValidators(index, block.getNumber());
         }
 
-        // [7] update latest_block
+        // [7] update latest_block and complete the commit
+        index.put(Bytes.of(TYPE_LATEST_BLOCK_NUMBER), Bytes.of(number));
+        index.delete(Bytes.of(TYPE_PENDING_COMMIT));
+
+        // [8] write the block before the index that refers to it, the forks it
+        // activates being staged into the index
+        blocks.flush();
+        activateForks(index, number);
+        index.flush();
         latestBlock = block;
-        indexDB.put(Bytes.of(TYPE_LATEST_BLOCK_NUMBER), Bytes.of(number));
+
+        // [9] cache the decoded block, which is likely to be read soon
+        cacheBlock(block, encodedHeader, transactionIndices, resultIndices, encodedVotes);
 
         for (BlockchainListener listener : listeners) {
             listener.onBlockAdded(block);
         }
+    }
+
+    /**
+     * Populates the decoded-object caches with a newly added block.
+     *
+     * @param block
+     * @param encodedHeader
+     * @param transactionIndices
+     * @param resultIndices
+     * @param encodedVotes
+     */
+    protected void cacheBlock(Block block, byte[] encodedHeader, Pair<byte[], List<Integer>> transactionIndices,
+            Pair<byte[], List<Integer>> resultIndices, byte[] encodedVotes) {
+        long number = block.getNumber();
+        blockCache.put(number, new Sized<>(block, encodedHeader.length + transactionIndices.getLeft().length
+                + resultIndices.getLeft().length + encodedVotes.length));
+        headerCache.put(number, block.getHeader());
+
+        List<Transaction> txs = block.getTransactions();
+        List<TransactionResult> results = block.getResults();
+        for (int i = 0; i < txs.size(); i++) {
+            ByteArray key = ByteArray.of(txs.get(i).getHash());
+            transactionCache.put(key, new Sized<>(txs.get(i), partSize(transactionIndices, i)));
+            resultCache.put(key, new Sized<>(results.get(i), partSize(resultIndices, i)));
+        }
+    }
 
-        activateForks();
+    /**
+     * Returns the size of the n-th entry of an encoded block part.
+     *
+     * @param indices
+     * @param n
+     * @return
+     */
+    private static int partSize(Pair<byte[], List<Integer>> indices, int n) {
+        List<Integer> offsets = indices.getRight();
+        int end = (n + 1 < offsets.size()) ? offsets.get(n + 1) : indices.getLeft().length;
+        return end - offsets.get(n);
     }
 
     @Override
@@ -447,22 +659,20 @@ public class BlockchainImpl implements Blockchain {
 
     @Override
     public int getTransactionCount(byte[] address) {
-        byte[] cnt = indexDB.get(Bytes.merge(TYPE_TRANSACTION_COUNT_BY_ADDRESS, address));
+        byte[] cnt = indexDB.get(Bytes.merge(TYPE_TRANSACTION_BY_ADDRESS, address));
         return (cnt == null) ? 0 : Bytes.toInt(cnt);
     }
 
     @Override
     public List<Transaction> getTransactions(byte[] address, int from, int to) {
-        List<Transaction> list = new ArrayList<>();
-
-        int total = getTransactionCount(address);
-        for (int i = from; i < total && i < to; i++) {
-            byte[] key = getNthTransactionIndexKey(address, i);
-            byte[] value = indexDB.get(key);
-            list.add(getTransaction(value));
+        // seeks the history entry of the first transaction by its index
+        byte[] position = (from < to) ? indexDB.get(getTransactionIndexKey(address, from)) : null;
+        if (position == null) {
+            return new ArrayList<>();
         }
 
-        return list;
+        SimpleDecoder dec = new SimpleDecoder(position);
+        return getTransactions(address, dec.readLong(), dec.readInt(), to - from).getTransactions();
     }
 
     @Override
@@ -495,12 +705,20 @@ public class BlockchainImpl implements Blockchain {
      * @param number
      */
     public void updateValidators(long number) {
+        updateValidators(indexDB, number);
+    }
+
+    /**
+     * Updates the validator set, writing to the given index database.
+     *
+     * @param index
+     * @param number
+     */
+    protected void updateValidators(Database index, long number) {
         List<String> validators = new ArrayList<>();
 
-        List<Delegate> delegates = delegateState.getDelegates();
-        int max = Math.min(delegates.size(), config.spec().getNumberOfValidators(number));
-        for (int i = 0; i < max; i++) {
-            Delegate d = delegates.get(i);
+        List<Delegate> delegates = delegateState.getTopDelegates(config.spec().getNumberOfValidators(number));
+        for (Delegate d : delegates) {
             validators.add(Hex.encode(d.getAddress()));
         }
 
@@ -509,12 +727,14 @@ public class BlockchainImpl implements Blockchain {
         for (String v : validators) {
             enc.writeString(v);
         }
-        indexDB.put(Bytes.of(TYPE_VALIDATORS), enc.toBytes());
+        index.put(Bytes.of(TYPE_VALIDATORS), enc.toBytes());
     }
 
     /**
      * Adjusts validator statistics.
      *
+     * @param index
+     *            index database
      * @param address
      *            validator address
      * @param type
@@ -522,9 +742,9 @@ public class BlockchainImpl implements Blockchain {
      * @param delta
      *            difference
      */
-    protected void adjustValidatorStats(byte[] address, StatsType type, long delta) {
+    protected void adjustValidatorStats(Database index, byte[] address, StatsType type, long delta) {
         byte[] key = Bytes.merge(TYPE_VALIDATOR_STATS_BY_ADDRESS, address);
-        byte[] value = indexDB.get(key);
+        byte[] value = index.get(key);
 
         ValidatorStats stats = (value == null) ? new ValidatorStats(0, 0, 0) : ValidatorStats.fromBytes(value);
 
@@ -542,40 +762,130 @@ public class BlockchainImpl implements Blockchain {
             break;
         }
 
-        indexDB.put(key, stats.toBytes());
+        index.put(key, stats.toBytes());
+    }
+
+    @Override
+    public TransactionPage getTransactions(byte[] address, long blockNumber, int position, int limit) {
+        byte[] prefix = Bytes.merge(TYPE_TRANSACTION_BY_ADDRESS, address);
+        return readTransactions(prefix, getTransactionPositionKey(address, blockNumber, position), limit);
     }
 
     /**
-     * Sets the total number of transaction of an account.
+     * Reads the transactions of an account, in the order of the history index.
      *
-     * @param address
-     * @param total
+     * @param prefix
+     *            the history prefix of the account
+     * @param start
+     *            the key to start from
+     * @param limit
+     *            the max number of transactions
+     * @return
      */
-    protected void setTransactionCount(byte[] address, int total) {
-        indexDB.put(Bytes.merge(TYPE_TRANSACTION_COUNT_BY_ADDRESS, address), Bytes.of(total));
+    private TransactionPage readTransactions(byte[] prefix, byte[] start, int limit) {
+        List<Transaction> list = new ArrayList<>();
+        long nextBlockNumber = -1;
+        int nextPosition = -1;
+
+        // the entries of an account are contiguous and ordered by position
+        byte[] transactions = null;
+        long transactionsNumber = -1;
+
+        ClosableIterator<Entry<byte[], byte[]>> itr = indexDB.iterator(start);
+        try {
+            while (itr.hasNext()) {
+                Entry<byte[], byte[]> e = itr.next();
+                byte[] key = e.getKey();
+                if (key.length < prefix.length || !Arrays.equals(prefix, Arrays.copyOf(key, prefix.length))) {
+                    break;
+                }
+                if (key.length != prefix.length + 12) {
+                    // the transaction count
+                    continue;
+                }
+
+                SimpleDecoder dec = new SimpleDecoder(key, prefix.length);
+                long number = dec.readLong();
+                int pos = dec.readInt();
+                if (list.size() >= limit) {
+                    nextBlockNumber = number;
+                    nextPosition = pos;
+                    break;
+                }
+
+                byte[] value = e.getValue();
+                if (value.length != 4) {
+                    // coinbase transaction, by hash
+                    list.add(getTransaction(value));
+                    continue;
+                }
+
+                // transactions of the same block are read with one lookup
+                Sized<Block> cached = blockCache.getIfPresent(number);
+                if (cached != null) {
+                    list.add(cached.value.getTransactions().get(pos));
+                    continue;
+                }
+                if (transactionsNumber != number) {
+                    transactions = blockDB.get(Bytes.merge(TYPE_BLOCK_TRANSACTIONS_BY_NUMBER, Bytes.of(number)));
+                    transactionsNumber = number;
+                }
+                list.add(Transaction.fromBytes(new SimpleDecoder(transactions, Bytes.toInt(value)).readBytes()));
+            }
+        } finally {
+            itr.close();
+        }
+
+        return new TransactionPage(list, nextBlockNumber, nextPosition);
     }
 
     /**
      * Adds a transaction to an account.
      *
+     * @param index
      * @param tx
      * @param address
+     * @param number
+     *            the number of the including block
+     * @param position
+     *            the position in block
+     * @param locator
+     *            the offset in the block transactions, or the hash of a coinbase
+     *            transaction
+     */
+    protected void addTransactionToAccount(Database index, Transaction tx, byte[] address, long number,
+            int position, byte[] locator) {
+        byte[] countKey = Bytes.merge(TYPE_TRANSACTION_BY_ADDRESS, address);
+        byte[] cnt = index.get(countKey);
+        int total = (cnt == null) ? 0 : Bytes.toInt(cnt);
+
+        index.put(countKey, Bytes.of(total + 1));
+        index.put(getTransactionPositionKey(address, number, position), locator);
+        index.put(getTransactionIndexKey(address, total), Bytes.merge(Bytes.of(number), Bytes.of(position)));
+    }
+
+    /**
+     * Returns the transaction position key of an account. Keys are fixed-length
+     * and big-endian, thus sorted by block number and then by position.
+     *
+     * @param address
+     * @param number
+     * @param position
+     * @return
      */
-    protected void addTransactionToAccount(Transaction tx, byte[] address) {
-        int total = getTransactionCount(address);
-        indexDB.put(getNthTransactionIndexKey(address, total), tx.getHash());
-        setTransactionCount(address, total + 1);
+    protected static byte[] getTransactionPositionKey(byte[] address, long number, int position) {
+        return Bytes.merge(Bytes.of(TYPE_TRANSACTION_BY_ADDRESS), address, Bytes.of(number), Bytes.of(position));
     }
 
     /**
-     * Returns the N-th transaction index key of an account.
+     * Returns the key of the position of the n-th transaction of an account.
      *
      * @param address
      * @param n
      * @return
      */
-    protected byte[] getNthTransactionIndexKey(byte[] address, int n) {
-        return Bytes.merge(Bytes.of(TYPE_TRANSACTION_HASH_BY_ADDRESS_AND_INDEX), address, Bytes.of(n));
+    protected static byte[] getTransactionIndexKey(byte[] address, int n) {
+        return Bytes.merge(Bytes.of(TYPE_TRANSACTION_POSITION_BY_ADDRESS_AND_INDEX), address, Bytes.of(n));
     }
     @Override
     public int getInternalTransactionCount(byte[] address) {
@@ -597,26 +907,22 @@ public class BlockchainImpl implements Blockchain {
         return list;
     }
 
-    /**
-     * Sets the total number of internal transaction of an account.
-     *
-     * @param address
-     * @param total
-     */
-    protected void setInternalTransactionCount(byte[] address, int total) {
-        indexDB.put(Bytes.merge(TYPE_INTERNAL_TRANSACTION_COUNT_BY_ADDRESS, address), Bytes.of(total));
-    }
-
     /**
      * Adds an internal transaction to an account.
      *
+     * @param index
+     * @param root
      * @param tx
      * @param address
      */
-    protected void addInternalTransactionToAccount(Transaction root, AnticInternalTransaction tx, byte[] address) {
-        int total = getInternalTransactionCount(address);
-        indexDB.put(getNthInternalTransactionIndexKey(address, total), tx.toBytes());
-        setInternalTransactionCount(address, total + 1);
+    protected void addInternalTransactionToAccount(Database index, Transaction root, AnticInternalTransaction tx,
+            byte[] address) {
+        byte[] countKey = Bytes.merge(TYPE_INTERNAL_TRANSACTION_COUNT_BY_ADDRESS, address);
+        byte[] cnt = index.get(countKey);
+        int total = (cnt == null) ? 0 : Bytes.toInt(cnt);
+
+        index.put(getNthInternalTransactionIndexKey(address, total), tx.toBytes());
+        index.put(countKey, Bytes.of(total + 1));
     }
 
     /**
@@ -749,9 +1055,15 @@ public class BlockchainImpl implements Blockchain {
 
     @Override
     public boolean importBlock(Block block, boolean validateVotes) {
+        return importBlock(block, validateVotes, true);
+    }
+
+    @Override
+    public boolean importBlock(Block block, boolean validateVotes, boolean validateTransactions) {
         AccountState asTrack = this.getAccountState().track();
         DelegateState dsTrack = this.getDelegateState().track();
-        return validateBlock(block, asTrack, dsTrack, validateVotes) && applyBlock(block, asTrack, dsTrack);
+        return validateBlock(block, asTrack, dsTrack, validateVotes, validateTransactions)
+                && applyBlock(block, asTrack, dsTrack);
     }
 
     /**
@@ -765,6 +1077,23 @@ public class BlockchainImpl implements Blockchain {
      */
     protected boolean validateBlock(Block block, AccountState asTrack, DelegateState dsTrack,
             boolean validateVotes) {
+        return validateBlock(block, asTrack, dsTrack, validateVotes, true);
+    }
+
+    /**
+     * Validate the block. Votes are validated only if validateVotes is true;
+     * transaction signatures and the transactions root are validated only if
+     * validateTransactions is true.
+     *
+     * @param block
+     * @param asTrack
+     * @param dsTrack
+     * @param validateVotes
+     * @param validateTransactions
+     * @return
+     */
+    protected boolean validateBlock(Block block, AccountState asTrack, DelegateState dsTrack,
+            boolean validateVotes, boolean validateTransactions) {
         try {
             BlockHeader header = block.getHeader();
             List<Transaction> transactions = block.getTransactions();
@@ -787,7 +1116,7 @@ public class BlockchainImpl implements Blockchain {
             }
 
             // [2] check transactions
-            if (!block.validateTransactions(header, transactions, config.network())) {
+            if (validateTransactions && !block.validateTransactions(header, transactions, config.network())) {
                 logger.error("Invalid transactions");
                 return false;
             }
@@ -821,6 +1150,11 @@ public class BlockchainImpl implements Blockchain {
 
     @Override
     public boolean validateBlockVotes(Block block) {
+        return validateBlockVotes(block, true);
+    }
+
+    @Override
+    public boolean validateBlockVotes(Block block, boolean validateSignatures) {
         int maxValidators = config.spec().getNumberOfValidators(block.getNumber());
 
         List<String> validatorList = this.getValidators();
@@ -832,27 +1166,15 @@ public class BlockchainImpl implements Blockchain {
 
         int twoThirds = (int) Math.ceil(validators.size() * 2.0 / 3.0);
 
-        Vote vote = new Vote(VoteType.PRECOMMIT, Vote.VALUE_APPROVE, block.getNumber(), block.getView(),
-                block.getHash());
-        byte[] encoded = vote.getEncoded();
-
         // check validity of votes
         if (block.getVotes().stream().anyMatch(sig -> !validators.contains(Hex.encode(sig.getAddress())))) {
             logger.warn("Block votes are invalid");
             return false;
         }
 
-        if (!Key.isVerifyBatchSupported()) {
-            if (!block.getVotes().stream()
-                    .allMatch(sig -> Key.verify(encoded, sig))) {
-                logger.warn("Block votes are invalid");
-                return false;
-            }
-        } else {
-            if (!Key.verifyBatch(Collections.nCopies(block.getVotes().size(), encoded), block.getVotes())) {
-                logger.warn("Block votes are invalid");
-                return false;
-            }
+        if (validateSignatures && !block.validateVoteSignatures()) {
+            logger.warn("Block votes are invalid");
+            return false;
         }
 
         // at least two thirds voters
@@ -881,7 +1203,8 @@ public class BlockchainImpl implements Blockchain {
         ReentrantReadWriteLock.WriteLock writeLock = this.stateLock.writeLock();
         writeLock.lock();
         try {
-            // [7] flush state to disk
+            // [7] flush state to disk, the marker is cleared by the last batch of addBlock
+            beginCommit(block.getNumber());
             this.getAccountState().commit();
             this.getDelegateState().commit();
 
@@ -895,20 +1218,229 @@ public class BlockchainImpl implements Blockchain {
     }
 
     /**
-     * Attempt to activate pending forks at current height.
+     * Marks the beginning of a block commit. Finding this marker on startup means
+     * the databases were partially written.
+     *
+     * @param number
+     */
+    protected void beginCommit(long number) {
+        indexDB.put(Bytes.of(TYPE_PENDING_COMMIT), Bytes.of(number));
+    }
+
+    @Override
+    public StateSnapshot exportSnapshot(long number, File dir) throws IOException {
+        // [1] open the iterators under the read lock, each of which reads the
+        // database as of its creation, so that the scan doesn't block the commits
+        Block block;
+        Map<Fork, Fork.Activation> activatedForks;
+        Map<DatabaseName, ClosableIterator<Entry<byte[], byte[]>>> iterators = new EnumMap<>(DatabaseName.class);
+        ReentrantReadWriteLock.ReadLock readLock = this.stateLock.readLock();
+        readLock.lock();
+        try {
+            block = getLatestBlock();
+            if (block.getNumber() != number) {
+                return null;
+            }
+            activatedForks = forks.getActivatedForks();
+            for (DatabaseName name : StateSnapshot.DATABASES) {
+                iterators.put(name, stateDBs.get(name).iterator());
+            }
+        } finally {
+            readLock.unlock();
+        }
+
+        try {
+            Files.createDirectories(dir.toPath());
+            ChunkWriter writer = new ChunkWriter(dir);
+
+            // [2] write the state entries in key order, giving up once interrupted so
+            // that the databases can be closed
+            for (DatabaseName name : StateSnapshot.DATABASES) {
+                ClosableIterator<Entry<byte[], byte[]>> itr = iterators.get(name);
+                while (itr.hasNext()) {
+                    checkInterrupted();
+                    Entry<byte[], byte[]> e = itr.next();
+                    writer.write(name, e.getKey(), e.getValue());
+                }
+            }
+
+            // [3] write the headers before the block, which never change
+            for (long n = Math.max(0, number - StateSnapshot.NUMBER_OF_HEADERS); n < number; n++) {
+                checkInterrupted();
+                byte[] header = getEncodedHeader(n);
+                if (header != null) {
+                    writer.write(DatabaseName.BLOCK, Bytes.of(n), header);
+                }
+            }
+
+            StateSnapshot snapshot = new StateSnapshot(number, block.getHash(), encodeActivatedForks(activatedForks),
+                    writer.finish());
+            Files.write(StateSnapshot.getManifestFile(dir).toPath(), snapshot.toBytes());
+
+            return snapshot;
+        } finally {
+            for (ClosableIterator<Entry<byte[], byte[]>> itr : iterators.values()) {
+                itr.close();
+            }
+        }
+    }
+
+    private static void checkInterrupted() throws InterruptedIOException {
+        if (Thread.currentThread().isInterrupted()) {
+            throw new InterruptedIOException("State snapshot export interrupted");
+        }
+    }
+
+    /**
+     * Writes the entries of a snapshot, cutting a chunk before it gets too large.
      */
-    protected void activateForks() {
-        if (config.forkUniformDistributionEnabled()
-                && forks.activateFork(UNIFORM_DISTRIBUTION)) {
-            setActivatedForks(forks.getActivatedForks());
+    private static class ChunkWriter {
+        private final File dir;
+        private final List<byte[]> chunkHashes = new ArrayList<>();
+        private SimpleEncoder chunk = new SimpleEncoder();
+
+        ChunkWriter(File dir) {
+            this.dir = dir;
         }
-        if (config.forkVirtualMachineEnabled()
-                && forks.activateFork(VIRTUAL_MACHINE)) {
-            setActivatedForks(forks.getActivatedForks());
+
+        void write(DatabaseName name, byte[] key, byte[] value) throws IOException {
+            int size = 1 + key.length + value.length + 2 * Integer.BYTES;
+            if (chunk.getWriteIndex() > 0 && chunk.getWriteIndex() + size > StateSnapshot.MAX_CHUNK_SIZE) {
+                flush();
+            }
+            StateSnapshot.writeEntry(chunk, name, key, value);
+        }
+
+        List<byte[]> finish() throws IOException {
+            if (chunk.getWriteIndex() > 0) {
+                flush();
+            }
+            return chunkHashes;
+        }
+
+        private void flush() throws IOException {
+            byte[] bytes = chunk.toBytes();
+            Files.write(StateSnapshot.getChunkFile(dir, chunkHashes.size()).toPath(), bytes);
+            chunkHashes.add(Hash.h256(bytes));
+            chunk = new SimpleEncoder();
+        }
+    }
+
+    @Override
+    public synchronized boolean importSnapshot(StateSnapshot snapshot, Block block, File dir) throws IOException {
+        long number = block.getNumber();
+        if (latestBlock.getNumber() != genesis.getNumber() || number != snapshot.getNumber()
+                || !Arrays.equals(block.getHash(), snapshot.getBlockHash())) {
+            return false;
         }
-        if (config.forkVotingPrecompiledUpgradeEnabled()
-                && forks.activateFork(VOTING_PRECOMPILED_UPGRADE)) {
-            setActivatedForks(forks.getActivatedForks());
+
+        // check the chunks before touching the database
+        for (int i = 0; i < snapshot.getNumberOfChunks(); i++) {
+            if (!snapshot.validateChunk(i, Files.readAllBytes(StateSnapshot.getChunkFile(dir, i).toPath()))) {
+                throw new IOException("Invalid snapshot chunk #" + i);
+            }
+        }
+
+        ReentrantReadWriteLock.WriteLock writeLock = this.stateLock.writeLock();
+        writeLock.lock();
+        try {
+            beginCommit(number);
+
+            // [1] replace the genesis state, and add the headers before the block
+            for (Database db : stateDBs.values()) {
+                clear(db);
+            }
+            for (int i = 0; i < snapshot.getNumberOfChunks(); i++) {
+                byte[] chunk = Files.readAllBytes(StateSnapshot.getChunkFile(dir, i).toPath());
+                Map<DatabaseName, List<Pair<byte[], byte[]>>> batches = new EnumMap<>(DatabaseName.class);
+                for (Triple<DatabaseName, byte[], byte[]> e : StateSnapshot.readEntries(chunk)) {
+                    batches.computeIfAbsent(e.getLeft(), k -> new ArrayList<>())
+                            .add(Pair.of(e.getMiddle(), e.getRight()));
+                }
+                for (Entry<DatabaseName, List<Pair<byte[], byte[]>>> e : batches.entrySet()) {
+                    if (e.getKey() == DatabaseName.BLOCK) {
+                        blockDB.updateBatch(e.getValue().stream()
+                                .map(h -> Pair.of(Bytes.merge(TYPE_SNAPSHOT_HEADER_BY_NUMBER, h.getLeft()),
+                                        h.getRight()))
+                                .collect(Collectors.toList()));
+                    } else {
+                        stateDBs.get(e.getKey()).updateBatch(e.getValue());
+                    }
+                }
+            }
+            accountState = new AccountStateImpl(stateDBs.get(DatabaseName.ACCOUNT));
+            delegateState = new DelegateStateImpl(this, stateDBs.get(DatabaseName.DELEGATE),
+                    stateDBs.get(DatabaseName.VOTE));
+
+            // [2] replace the fork activations, written with the block
+            forks = new ActivatedForks(this, config, decodeActivatedForks(snapshot.getActivatedForks()));
+
+            // [3] add the block, without indexing its transactions
+            StagedDatabase blocks = new StagedDatabase(blockDB);
+            StagedDatabase index = new StagedDatabase(indexDB);
+            blocks.put(Bytes.merge(TYPE_BLOCK_HEADER_BY_NUMBER, Bytes.of(number)), block.getEncodedHeader());
+            blocks.put(Bytes.merge(TYPE_BLOCK_TRANSACTIONS_BY_NUMBER, Bytes.of(number)),
+                    block.getEncodedTransactions());
+            blocks.put(Bytes.merge(TYPE_BLOCK_RESULTS_BY_NUMBER, Bytes.of(number)), block.getEncodedResults());
+            blocks.put(Bytes.merge(TYPE_BLOCK_VOTES_BY_NUMBER, Bytes.of(number)), block.getEncodedVotes());
+            index.put(Bytes.merge(TYPE_BLOCK_NUMBER_BY_HASH, block.getHash()), Bytes.of(number));
+            index.put(Bytes.of(TYPE_ACTIVATED_FORKS), snapshot.getActivatedForks());
+            updateValidators(index, number);
+            index.put(Bytes.of(TYPE_LATEST_BLOCK_NUMBER), Bytes.of(number));
+            index.delete(Bytes.of(TYPE_PENDING_COMMIT));
+
+            blocks.flush();
+            index.flush();
+            latestBlock = block;
+        } finally {
+            writeLock.unlock();
+        }
+
+        logger.info("State snapshot imported: number = {}, # chunks = {}", number, snapshot.getNumberOfChunks());
+        return true;
+    }
+
+    /**
+     * Deletes all the entries of a database.
+     *
+     * @param db
+     */
+    private static void clear(Database db) {
+        List<Pair<byte[], byte[]>> batch = new ArrayList<>();
+        ClosableIterator<Entry<byte[], byte[]>> itr = db.iterator();
+        try {
+            while (itr.hasNext()) {
+                batch.add(Pair.of(itr.next().getKey(), null));
+            }
+        } finally {
+            itr.close();
+        }
+        db.updateBatch(batch);
+    }
+
+    /**
+     * Attempt to activate pending forks after a block, whose header is written
+     * already.
+     *
+     * @param index
+     *            the staged index of the block commit
+     * @param number
+     *            the block number
+     */
+    protected void activateForks(StagedDatabase index, long number) {
+        boolean activated = false;
+        if (config.forkUniformDistributionEnabled()) {
+            activated |= forks.activateFork(UNIFORM_DISTRIBUTION, number);
+        }
+        if (config.forkVirtualMachineEnabled()) {
+            activated |= forks.activateFork(VIRTUAL_MACHINE, number);
+        }
+        if (config.forkVotingPrecompiledUpgradeEnabled()) {
+            activated |= forks.activateFork(VOTING_PRECOMPILED_UPGRADE, number);
+        }
+
+        if (activated) {
+            index.put(Bytes.of(TYPE_ACTIVATED_FORKS), encodeActivatedForks(forks.getActivatedForks()));
         }
     }
 
@@ -918,8 +1450,26 @@ public class BlockchainImpl implements Blockchain {
      * @return
      */
     protected Map<Fork, Fork.Activation> getActivatedForks() {
+        return decodeActivatedForks(indexDB.get(Bytes.of(TYPE_ACTIVATED_FORKS)));
+    }
+
+    /**
+     * Encodes fork activations, ordered by fork id.
+     *
+     * @param activatedForks
+     * @return
+     */
+    protected static byte[] encodeActivatedForks(Map<Fork, Fork.Activation> activatedForks) {
+        SimpleEncoder simpleEncoder = new SimpleEncoder();
+        simpleEncoder.writeInt(activatedForks.size());
+        activatedForks.values().stream()
+                .sorted(Comparator.comparingInt(a -> a.fork.id()))
+                .forEach(a -> simpleEncoder.writeBytes(a.toBytes()));
+        return simpleEncoder.toBytes();
+    }
+
+    protected static Map<Fork, Fork.Activation> decodeActivatedForks(byte[] value) {
         Map<Fork, Fork.Activation> activations = new HashMap<>();
-        byte[] value = indexDB.get(Bytes.of(TYPE_ACTIVATED_FORKS));
         if (value != null) {
             SimpleDecoder simpleDecoder = new SimpleDecoder(value);
             final int numberOfForks = simpleDecoder.readInt();
@@ -931,25 +1481,134 @@ public class BlockchainImpl implements Blockchain {
         return activations;
     }
 
+    private static void upgradeDatabase(Config config, DatabaseFactory dbFactory) {
+        if (getLatestBlockNumber(dbFactory.getDB(DatabaseName.INDEX)) == null) {
+            return;
+        }
+
+        int version = getDatabaseVersion(dbFactory.getDB(DatabaseName.INDEX));
+        if (version == 3 || version == 4) {
+            migrateTransactionHistory(dbFactory);
+        } else if (version < BlockchainImpl.DATABASE_VERSION) {
+            upgrade(config, dbFactory, Long.MAX_VALUE);
+        }
+    }
+
     /**
-     * Sets the set of activate forks.
+     * Migrates a version 3 or 4 database in place: builds the account history
+     * index from the stored blocks, numbers and counts its entries, and drops the
+     * legacy [5] index. Every step overwrites or deletes the same keys when
+     * repeated, so an interrupted migration is simply run again.
      *
-     * @return
+     * @param dbFactory
      */
-    protected void setActivatedForks(Map<Fork, Fork.Activation> activatedForks) {
-        SimpleEncoder simpleEncoder = new SimpleEncoder();
-        simpleEncoder.writeInt(activatedForks.size());
-        for (Entry<Fork, Fork.Activation> entry : activatedForks.entrySet()) {
-            simpleEncoder.writeBytes(entry.getValue().toBytes());
+    private static void migrateTransactionHistory(DatabaseFactory dbFactory) {
+        logger.info("Migrating the transaction history... DO NOT CLOSE THE WALLET!");
+        Instant begin = Instant.now();
+
+        Database indexDB = dbFactory.getDB(DatabaseName.INDEX);
+        Database blockDB = dbFactory.getDB(DatabaseName.BLOCK);
+        long latestBlockNumber = Bytes.toLong(getLatestBlockNumber(indexDB));
+        List<Pair<byte[], byte[]>> batch = new ArrayList<>();
+
+        // [1] index the transactions of every block
+        for (long number = 0; number <= latestBlockNumber; number++) {
+            Block block = getBlock(blockDB, number, true);
+            if (block == null) {
+                continue;
+            }
+
+            List<Transaction> txs = block.getTransactions();
+            List<Integer> offsets = block.getEncodedTransactionsAndIndices().getRight();
+            for (int i = 0; i < txs.size(); i++) {
+                Transaction tx = txs.get(i);
+                byte[] locator = Bytes.of(offsets.get(i));
+                batch.add(Pair.of(getTransactionPositionKey(tx.getFrom(), number, i), locator));
+                if (!Arrays.equals(tx.getFrom(), tx.getTo())) {
+                    batch.add(Pair.of(getTransactionPositionKey(tx.getTo(), number, i), locator));
+                }
+            }
+
+            byte[] coinbase = indexDB.get(Bytes.merge(TYPE_BLOCK_COINBASE_BY_NUMBER, Bytes.of(number)));
+            if (coinbase != null) {
+                batch.add(Pair.of(getTransactionPositionKey(block.getCoinbase(), number, txs.size()), coinbase));
+            }
+
+            if (number % 1000 == 0) {
+                indexDB.updateBatch(batch);
+                batch.clear();
+                PubSubFactory.getDefault().publish(new BlockchainDatabaseUpgradingEvent(number, latestBlockNumber));
+                logger.info("Indexed {} / {} blocks", number, latestBlockNumber);
+            }
         }
-        indexDB.put(Bytes.of(TYPE_ACTIVATED_FORKS), simpleEncoder.toBytes());
-    }
+        indexDB.updateBatch(batch);
+        batch.clear();
 
-    private static void upgradeDatabase(Config config, DatabaseFactory dbFactory) {
-        if (getLatestBlockNumber(dbFactory.getDB(DatabaseName.INDEX)) != null
-                && getDatabaseVersion(dbFactory.getDB(DatabaseName.INDEX)) < BlockchainImpl.DATABASE_VERSION) {
-            upgrade(config, dbFactory, Long.MAX_VALUE);
+        // [2] number and count the entries of each account, which are in order
+        byte[] address = null;
+        int count = 0;
+        ClosableIterator<Entry<byte[], byte[]>> itr = indexDB.iterator(Bytes.of(TYPE_TRANSACTION_BY_ADDRESS));
+        try {
+            while (itr.hasNext()) {
+                byte[] key = itr.next().getKey();
+                if (key[0] != TYPE_TRANSACTION_BY_ADDRESS) {
+                    break;
+                }
+                if (key.length != 1 + Key.ADDRESS_LEN + 12) {
+                    // the transaction count, rewritten below
+                    continue;
+                }
+
+                byte[] addr = Arrays.copyOfRange(key, 1, 1 + Key.ADDRESS_LEN);
+                if (!Arrays.equals(addr, address)) {
+                    if (address != null) {
+                        batch.add(Pair.of(Bytes.merge(TYPE_TRANSACTION_BY_ADDRESS, address), Bytes.of(count)));
+                    }
+                    address = addr;
+                    count = 0;
+                }
+                batch.add(Pair.of(getTransactionIndexKey(address, count++),
+                        Arrays.copyOfRange(key, 1 + Key.ADDRESS_LEN, key.length)));
+
+                if (batch.size() >= 10_000) {
+                    indexDB.updateBatch(batch);
+                    batch.clear();
+                }
+            }
+        } finally {
+            itr.close();
+        }
+        if (address != null) {
+            batch.add(Pair.of(Bytes.merge(TYPE_TRANSACTION_BY_ADDRESS, address), Bytes.of(count)));
         }
+        indexDB.updateBatch(batch);
+        batch.clear();
+
+        // [3] drop the legacy index
+        itr = indexDB.iterator(Bytes.of(TYPE_LEGACY_TRANSACTION_BY_ADDRESS));
+        try {
+            while (itr.hasNext()) {
+                byte[] key = itr.next().getKey();
+                if (key[0] != TYPE_LEGACY_TRANSACTION_BY_ADDRESS) {
+                    break;
+                }
+                batch.add(Pair.of(key, null));
+
+                if (batch.size() >= 10_000) {
+                    indexDB.updateBatch(batch);
+                    batch.clear();
+                }
+            }
+        } finally {
+            itr.close();
+        }
+        indexDB.updateBatch(batch);
+
+        indexDB.put(Bytes.of(TYPE_DATABASE_VERSION), Bytes.of(DATABASE_VERSION));
+
+        Instant end = Instant.now();
+        logger.info("Transaction history migrated: blocks = {}, took = {}", latestBlockNumber,
+                TimeUtil.formatDuration(Duration.between(begin, end)));
     }
 
     public static void upgrade(Config config, DatabaseFactory dbFactory,long to) {
@@ -963,7 +1622,7 @@ public class BlockchainImpl implements Blockchain {
             // setup temp chain
             Path tempPath = dataDir.resolveSibling(dataDirName + "-temp");
             delete(tempPath);
-            LeveldbDatabase.LeveldbFactory tempDbFactory = new LeveldbDatabase.LeveldbFactory(tempPath.toFile());
+            DatabaseFactory tempDbFactory = new CompositeDatabaseFactory(tempPath.toFile(), config.dbEngines());
             BlockchainImpl tempChain = new BlockchainImpl(config, tempDbFactory);
 
             // import all blocks
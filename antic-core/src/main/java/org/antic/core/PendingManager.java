@@ -6,15 +6,20 @@
  */
 package org.antic.core;
 
+import java.math.BigInteger;
 import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
 
 import org.antic.Kernel;
+import org.antic.Network;
+import org.antic.core.state.Account;
 import org.antic.core.state.AccountState;
 import org.antic.core.state.DelegateState;
 import org.antic.crypto.Key;
@@ -26,6 +31,7 @@ import org.antic.util.Bytes;
 import org.antic.util.TimeUtil;
 import org.antic.vm.client.AnticBlock;
 import org.antic.vm.client.AnticBlockStore;
+import org.antic.vm.client.AnticInternalTransaction;
 import org.ethereum.vm.client.BlockStore;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -42,7 +48,16 @@ import com.github.benmanes.caffeine.cache.Caffeine;
  * transactions included by the pending manager are eligible for inclusion in
  * block proposing phase.
  *
- * TODO: sort transaction queue by fee, and other metrics
+ * Both the queue and the pool are prioritized by the fee per gas of a
+ * transaction, and then by arrival. Valid transactions are kept in per-sender
+ * lanes ordered by nonce; a block is packed by repeatedly taking the best lane
+ * head. A pending transaction can be replaced by one of the same nonce paying
+ * enough more, and the cheapest lane tails are evicted when the pool is full.
+ * Both re-execute only the transactions sharing accounts with the changed lane.
+ *
+ * Incoming transactions are admitted in batches by the background worker:
+ * duplicates are dropped before any crypto, signatures are verified in
+ * parallel, and a batch of queued transactions is executed per round.
  */
 public class PendingManager implements Runnable, BlockchainListener {
 
@@ -65,22 +80,65 @@ public class PendingManager implements Runnable, BlockchainListener {
     private static final int LARGE_NONCE_TXS_LIMIT = 32 * 1024;
     private static final int PROCESSED_TXS_LIMIT = 128 * 1024;
 
+    /**
+     * The max number of incoming transactions verified at a time.
+     */
+    private static final int ADMISSION_BATCH_SIZE = 1024;
+
+    /**
+     * The max number of transactions included into the pool per round.
+     */
+    private static final int PROCESSING_BATCH_SIZE = 64;
+
+    /**
+     * The number of transactions evicted at a time when the pool is full, as each
+     * eviction requires re-evaluating the pool.
+     */
+    private static final int EVICTION_BATCH_SIZE = VALID_TXS_LIMIT / 16;
+
+    /**
+     * The minimum increase of fee per gas for replacing a pending transaction, in
+     * percentage.
+     */
+    private static final int REPLACEMENT_PRICE_BUMP = 10;
+
     private final Kernel kernel;
     private final BlockStore blockStore;
     private AccountState pendingAS;
     private DelegateState pendingDS;
     private AnticBlock dummyBlock;
 
-    // Transactions that haven't been processed
-    private final LinkedHashMap<ByteArray, Transaction> queue = new LinkedHashMap<>();
+    // Transactions that haven't been verified
+    private final Queue<Transaction> incoming = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger incomingSize = new AtomicInteger(0);
+
+    // Arrival counter, for ordering transactions of the same priority
+    private long seq = 0;
 
-    // Transactions that have been processed and are valid for block production
-    private final ArrayList<PendingTransaction> validTxs = new ArrayList<>();
+    // Transactions that haven't been processed, by priority
+    private final TreeMap<Priority, Transaction> queue = new TreeMap<>();
+    private final Set<ByteArray> queuedTxs = new HashSet<>();
+
+    // Transactions that have been processed and are valid for block production,
+    // in the order they were executed against the pending state
+    private final LinkedHashMap<ByteArray, PooledTransaction> validTxs = new LinkedHashMap<>();
+
+    // Valid transactions by sender and nonce
+    private final Map<ByteArray, TreeMap<Long, PooledTransaction>> lanes = new HashMap<>();
+
+    // The lowest priority of the lane tails, or null if not computed
+    private Priority evictionFloor;
 
     // Transactions whose nonce is too large, compared to the sender's nonce
     private final Cache<ByteArray, Transaction> largeNonceTxs = Caffeine.newBuilder().maximumSize(LARGE_NONCE_TXS_LIMIT)
             .build();
 
+    // Transactions seen recently, by short id, for rebuilding compact proposals.
+    // Entries are left to expire, as rebuilt proposals are checked against the
+    // transactions root anyway.
+    private final Cache<Long, Transaction> shortIdTxs = Caffeine.newBuilder()
+            .maximumSize(QUEUE_SIZE_LIMIT + VALID_TXS_LIMIT + LARGE_NONCE_TXS_LIMIT).build();
+
     // Transactions that have been processed, including both valid and invalid ones
     private final Cache<ByteArray, Long> processedTxs = Caffeine.newBuilder().maximumSize(PROCESSED_TXS_LIMIT).build();
 
@@ -156,18 +214,45 @@ public class PendingManager implements Runnable, BlockchainListener {
     /**
      * Adds a transaction to the queue, which will be validated later by the
      * background worker. Transaction may get rejected if the queue is full.
+     * <br>
+     * <br>
+     * This method doesn't block, as it's called from the network threads.
      *
      * @param tx
      */
-    public synchronized void addTransaction(Transaction tx) {
+    public void addTransaction(Transaction tx) {
+        if (incomingSize.get() < QUEUE_SIZE_LIMIT && processedTxs.getIfPresent(ByteArray.of(tx.getHash())) == null) {
+            incoming.add(tx);
+            incomingSize.incrementAndGet();
+        }
+    }
+
+    /**
+     * Adds a verified transaction to the queue.
+     *
+     * @param tx
+     */
+    protected synchronized void enqueue(Transaction tx) {
         ByteArray hash = ByteArray.of(tx.getHash());
 
-        if (queue.size() < QUEUE_SIZE_LIMIT
-                && processedTxs.getIfPresent(hash) == null
-                && tx.validate(kernel.getConfig().network())) {
-            // NOTE: re-insertion doesn't affect item order
-            queue.put(ByteArray.of(tx.getHash()), tx);
+        if (queuedTxs.contains(hash) || processedTxs.getIfPresent(hash) != null) {
+            return;
+        }
+
+        Priority priority = getPriority(tx);
+        if (queue.size() >= QUEUE_SIZE_LIMIT) {
+            // make room by dropping the cheapest queued transaction
+            Map.Entry<Priority, Transaction> last = queue.lastEntry();
+            if (priority.compareTo(last.getKey()) > 0) {
+                return;
+            }
+            queue.pollLastEntry();
+            queuedTxs.remove(ByteArray.of(last.getValue().getHash()));
         }
+
+        queue.put(priority, tx);
+        queuedTxs.add(hash);
+        shortIdTxs.put(Bytes.toLong(tx.getHash()), tx);
     }
 
     /**
@@ -178,8 +263,9 @@ public class PendingManager implements Runnable, BlockchainListener {
      * @return The processing result
      */
     public synchronized ProcessingResult addTransactionSync(Transaction tx) {
-        // nonce check for transactions from this client
-        if (tx.getNonce() != getNonce(tx.getFrom())) {
+        // nonce check for transactions from this client, which may also replace a
+        // pending transaction
+        if (tx.getNonce() != getNonce(tx.getFrom()) && getPooled(tx.getFrom(), tx.getNonce()) == null) {
             return new ProcessingResult(0, TransactionResult.Code.INVALID_NONCE);
         }
 
@@ -202,23 +288,39 @@ public class PendingManager implements Runnable, BlockchainListener {
     }
 
     /**
-     * Returns pending transactions, limited by the given total size in bytes.
-     *
+     * Returns pending transactions, limited by the given total gas, with the most
+     * valuable first. The transactions of one sender are always in nonce order.
      *
+     * @param blockGasLimit
+     *            the max total gas
      * @return
      */
     public synchronized List<PendingTransaction> getPendingTransactions(long blockGasLimit) {
         List<PendingTransaction> txs = new ArrayList<>();
-        Iterator<PendingTransaction> it = validTxs.iterator();
 
-        while (it.hasNext() && blockGasLimit > 0) {
-            PendingTransaction tx = it.next();
+        // the best pending transaction of each sender
+        PriorityQueue<PooledTransaction> heads = new PriorityQueue<>(
+                Comparator.comparing((PooledTransaction p) -> p.priority));
+        for (TreeMap<Long, PooledTransaction> lane : lanes.values()) {
+            heads.add(lane.firstEntry().getValue());
+        }
+
+        while (!heads.isEmpty() && blockGasLimit > 0) {
+            PooledTransaction head = heads.poll();
+            PendingTransaction tx = head.pending;
 
             long gasUsage = tx.transaction.isVMTransaction() ? tx.result.getGasUsed()
                     : kernel.getConfig().spec().nonVMTransactionGasCost();
             if (blockGasLimit > gasUsage) {
                 txs.add(tx);
                 blockGasLimit -= gasUsage;
+
+                // the following transactions of a sender become eligible
+                Map.Entry<Long, PooledTransaction> next = lanes.get(ByteArray.of(tx.transaction.getFrom()))
+                        .higherEntry(tx.transaction.getNonce());
+                if (next != null) {
+                    heads.add(next.getValue());
+                }
             }
         }
 
@@ -234,6 +336,22 @@ public class PendingManager implements Runnable, BlockchainListener {
         return getPendingTransactions(Long.MAX_VALUE);
     }
 
+    /**
+     * Looks up recently seen transactions by short id, which are the first 8
+     * bytes of the transaction hashes. These include the pool, the queue and
+     * the large-nonce transactions.
+     *
+     * @param shortIds
+     * @return the transactions, with null for the unknown ones
+     */
+    public List<Transaction> getTransactions(long[] shortIds) {
+        List<Transaction> txs = new ArrayList<>(shortIds.length);
+        for (long id : shortIds) {
+            txs.add(shortIdTxs.getIfPresent(id));
+        }
+        return txs;
+    }
+
     /**
      * Resets the pending state and returns all pending transactions.
      *
@@ -246,54 +364,363 @@ public class PendingManager implements Runnable, BlockchainListener {
         dummyBlock = kernel.createEmptyBlock();
 
         // clear transaction pool
-        List<PendingTransaction> txs = new ArrayList<>(validTxs);
+        List<PendingTransaction> txs = new ArrayList<>(validTxs.size());
+        for (PooledTransaction p : validTxs.values()) {
+            txs.add(p.pending);
+        }
         validTxs.clear();
+        lanes.clear();
+        evictionFloor = null;
 
         return txs;
     }
 
     @Override
-    public synchronized void onBlockAdded(Block block) {
+    public void onBlockAdded(Block block) {
         if (isRunning) {
-            long t1 = TimeUtil.currentTimeMillis();
+            // reconcile on the background worker, off the block import path
+            exec.execute(() -> {
+                try {
+                    reconcile(block);
+                } catch (Exception e) {
+                    logger.error("Failed to reconcile pending transactions", e);
+                }
+            });
+        }
+    }
+
+    /**
+     * Reconciles the pool with a new block. The included transactions are
+     * dropped, and only the transactions sharing accounts with the block are
+     * re-executed; the state updates of the others are carried over.
+     *
+     * @param block
+     */
+    protected synchronized void reconcile(Block block) {
+        long t1 = TimeUtil.currentTimeMillis();
+
+        // [1] find the accounts touched by the block
+        Set<ByteArray> included = new HashSet<>();
+        Set<ByteArray> touched = new HashSet<>();
+        touched.add(ByteArray.of(block.getCoinbase()));
+        boolean resetDelegates = false;
+
+        List<Transaction> blockTxs = block.getTransactions();
+        List<TransactionResult> blockResults = block.getResults();
+        for (int i = 0; i < blockTxs.size(); i++) {
+            Transaction tx = blockTxs.get(i);
+            included.add(ByteArray.of(tx.getHash()));
+            touched.addAll(getAccounts(tx, blockResults.get(i)));
+            resetDelegates |= isDelegateOperation(tx);
+        }
+
+        // [2] rebuild the pool with the remaining transactions
+        List<PendingTransaction> txs = new ArrayList<>();
+        for (PooledTransaction p : validTxs.values()) {
+            if (!included.contains(ByteArray.of(p.pending.transaction.getHash()))) {
+                txs.add(p.pending);
+            }
+        }
+        List<PendingTransaction> reexecuted = rebuild(txs, touched, resetDelegates);
+        int accepted = reprocess(reexecuted);
 
-            // clear transaction pool
-            List<PendingTransaction> txs = reset();
+        long t2 = TimeUtil.currentTimeMillis();
+        logger.debug("Reconcile pending transactions: # txs = {} / {}, re-executed = {}, time = {} ms",
+                validTxs.size(), txs.size(), reexecuted.size(), t2 - t1);
+        logger.trace("Re-executed pending transactions accepted: {} / {}", accepted, reexecuted.size());
+    }
+
+    /**
+     * Resets the pending state and carries over the given transactions, except
+     * for those to re-execute, which are returned.
+     * <br>
+     * <br>
+     * Pending transactions are grouped by the accounts they touch. A group is
+     * re-executed if it touches one of the given accounts, contains a VM
+     * transaction, or contains a delegate operation while the delegate state
+     * has to be rebuilt.
+     *
+     * @param txs
+     *            the pending transactions, in execution order
+     * @param touched
+     *            the accounts changed apart from the given transactions
+     * @param resetDelegates
+     *            whether the delegate state has to be rebuilt
+     * @return the transactions to re-execute, in execution order
+     */
+    private List<PendingTransaction> rebuild(List<PendingTransaction> txs, Set<ByteArray> touched,
+            boolean resetDelegates) {
+        // [1] group the transactions by accounts
+        Map<ByteArray, ByteArray> groups = new HashMap<>();
+        for (PendingTransaction tx : txs) {
+            ByteArray first = null;
+            for (ByteArray account : getAccounts(tx.transaction, tx.result)) {
+                if (first == null) {
+                    first = find(groups, account);
+                } else {
+                    groups.put(find(groups, account), first);
+                }
+            }
+        }
 
-            // update pending state
-            long accepted = 0;
+        // [2] find the groups to re-execute
+        Set<ByteArray> dirty = new HashSet<>();
+        for (ByteArray account : touched) {
+            if (groups.containsKey(account)) {
+                dirty.add(find(groups, account));
+            }
+        }
+        for (PendingTransaction tx : txs) {
+            if (tx.transaction.isVMTransaction()) {
+                dirty.add(find(groups, ByteArray.of(tx.transaction.getFrom())));
+            }
+        }
+        if (!resetDelegates) {
+            // delegate operations can't be re-executed on top of their own updates
             for (PendingTransaction tx : txs) {
-                accepted += processTransaction(tx.transaction, true, false).accepted;
+                resetDelegates |= isDelegateOperation(tx.transaction)
+                        && dirty.contains(find(groups, ByteArray.of(tx.transaction.getFrom())));
             }
+        }
+        if (resetDelegates) {
+            for (PendingTransaction tx : txs) {
+                if (isDelegateOperation(tx.transaction)) {
+                    dirty.add(find(groups, ByteArray.of(tx.transaction.getFrom())));
+                }
+            }
+        }
 
-            long t2 = TimeUtil.currentTimeMillis();
-            logger.debug("Execute pending transactions: # txs = {} / {},  time = {} ms", accepted, txs.size(), t2 - t1);
+        // [3] carry over the clean groups
+        AccountState previousAS = pendingAS;
+        pendingAS = kernel.getBlockchain().getAccountState().track();
+        if (resetDelegates) {
+            pendingDS = kernel.getBlockchain().getDelegateState().track();
         }
+        dummyBlock = kernel.createEmptyBlock();
+        validTxs.clear();
+        lanes.clear();
+        evictionFloor = null;
+
+        List<PendingTransaction> reexecuted = new ArrayList<>();
+        Set<ByteArray> copied = new HashSet<>();
+        for (PendingTransaction tx : txs) {
+            if (dirty.contains(find(groups, ByteArray.of(tx.transaction.getFrom())))) {
+                reexecuted.add(tx);
+            } else {
+                for (ByteArray account : getAccounts(tx.transaction, tx.result)) {
+                    if (copied.add(account)) {
+                        copyAccount(previousAS, pendingAS, account.getData());
+                    }
+                }
+                addPooled(new PooledTransaction(tx, getPriority(tx.transaction)));
+            }
+        }
+        return reexecuted;
     }
 
     @Override
-    public synchronized void run() {
-        Iterator<Map.Entry<ByteArray, Transaction>> iterator = queue.entrySet().iterator();
+    public void run() {
+        admit();
+        process();
+    }
+
+    /**
+     * Verifies a batch of incoming transactions and adds the valid ones to the
+     * queue.
+     */
+    protected void admit() {
+        // drop the duplicates before any crypto
+        Map<ByteArray, Transaction> batch = new LinkedHashMap<>();
+        Transaction tx;
+        while (batch.size() < ADMISSION_BATCH_SIZE && (tx = incoming.poll()) != null) {
+            incomingSize.decrementAndGet();
+
+            // NOTE: the hash is not verified yet, a copy with a different signature
+            // is kept so that a forged one doesn't shadow the original
+            if (tx.getSignature() != null && processedTxs.getIfPresent(ByteArray.of(tx.getHash())) == null) {
+                batch.putIfAbsent(ByteArray.of(Bytes.merge(tx.getHash(), tx.getSignature().toBytes())), tx);
+            }
+        }
+
+        if (!batch.isEmpty()) {
+            List<Transaction> txs = validateTransactions(batch.values());
+            synchronized (this) {
+                for (Transaction t : txs) {
+                    enqueue(t);
+                }
+            }
+        }
+    }
 
-        while (validTxs.size() < VALID_TXS_LIMIT && iterator.hasNext()) {
-            // the eldest entry
-            Map.Entry<ByteArray, Transaction> entry = iterator.next();
-            iterator.remove();
+    /**
+     * Validates transactions in parallel, with batch signature verification if
+     * supported.
+     *
+     * @param txs
+     * @return the valid transactions
+     */
+    protected List<Transaction> validateTransactions(Collection<Transaction> txs) {
+        Network network = kernel.getConfig().network();
+
+        if (!Key.isVerifyBatchSupported() || txs.size() < 3) {
+            return txs.parallelStream().filter(tx -> tx.validate(network)).collect(Collectors.toList());
+        }
+
+        List<Transaction> list = txs.parallelStream()
+                .filter(tx -> tx.validate(network, false))
+                .collect(Collectors.toList());
+        if (!list.isEmpty() && !Key.verifyBatch(
+                list.stream().map(Transaction::getHash).collect(Collectors.toList()),
+                list.stream().map(Transaction::getSignature).collect(Collectors.toList()))) {
+            // find out the invalid signatures
+            list = list.parallelStream()
+                    .filter(tx -> Key.verify(tx.getHash(), tx.getSignature()))
+                    .collect(Collectors.toList());
+        }
+        return list;
+    }
+
+    /**
+     * Executes a batch of queued transactions against the pending state.
+     */
+    protected synchronized void process() {
+        int included = 0;
+
+        while (!queue.isEmpty()) {
+            // the best entry
+            Map.Entry<Priority, Transaction> entry = queue.firstEntry();
+
+            // when the pool is full, wait for the next block unless the transaction
+            // pays more than the cheapest pending ones
+            if (validTxs.size() >= VALID_TXS_LIMIT && entry.getKey().compareTo(getEvictionFloor()) >= 0) {
+                break;
+            }
+
+            queue.pollFirstEntry();
+            ByteArray hash = ByteArray.of(entry.getValue().getHash());
+            queuedTxs.remove(hash);
 
             // reject already executed transactions
-            if (processedTxs.getIfPresent(entry.getKey()) != null) {
+            if (processedTxs.getIfPresent(hash) != null) {
                 continue;
             }
 
             // process the transaction
             int accepted = processTransaction(entry.getValue(), false, false).accepted;
-            processedTxs.put(entry.getKey(), TimeUtil.currentTimeMillis());
+            processedTxs.put(hash, TimeUtil.currentTimeMillis());
 
-            // include one tx per call
             if (accepted > 0) {
-                break;
+                if (validTxs.size() > VALID_TXS_LIMIT) {
+                    evict(entry.getKey());
+                }
+
+                // include a limited number of txs per call
+                included += accepted;
+                if (included >= PROCESSING_BATCH_SIZE) {
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Re-evaluates the given transactions against the pending state.
+     *
+     * @param txs
+     * @return the number of accepted transactions
+     */
+    protected int reprocess(List<PendingTransaction> txs) {
+        int accepted = 0;
+        for (PendingTransaction tx : txs) {
+            accepted += processTransaction(tx.transaction, true, false).accepted;
+        }
+        return accepted;
+    }
+
+    /**
+     * Evicts a batch of the cheapest lane tails, all of a lower priority than the
+     * given one, and re-evaluates the transactions sharing accounts with them.
+     *
+     * @param priority
+     */
+    protected void evict(Priority priority) {
+        // the last pending transaction of each sender, cheapest first
+        PriorityQueue<PooledTransaction> tails = new PriorityQueue<>(
+                Comparator.comparing((PooledTransaction p) -> p.priority).reversed());
+        for (TreeMap<Long, PooledTransaction> lane : lanes.values()) {
+            tails.add(lane.lastEntry().getValue());
+        }
+
+        // the lowest evicted nonce of each sender
+        Map<ByteArray, Long> limits = new HashMap<>();
+        int evicted = 0;
+        while (evicted < EVICTION_BATCH_SIZE && !tails.isEmpty() && tails.peek().priority.compareTo(priority) > 0) {
+            PooledTransaction tail = tails.poll();
+            evicted++;
+
+            // evicted transactions can be received again
+            processedTxs.invalidate(ByteArray.of(tail.pending.transaction.getHash()));
+
+            ByteArray from = ByteArray.of(tail.pending.transaction.getFrom());
+            long nonce = tail.pending.transaction.getNonce();
+            limits.put(from, nonce);
+            Map.Entry<Long, PooledTransaction> prev = lanes.get(from).lowerEntry(nonce);
+            if (prev != null) {
+                tails.add(prev.getValue());
+            }
+        }
+
+        if (evicted > 0) {
+            Set<ByteArray> touched = new HashSet<>();
+            boolean resetDelegates = false;
+            List<PendingTransaction> txs = new ArrayList<>();
+            for (PooledTransaction p : validTxs.values()) {
+                Transaction tx = p.pending.transaction;
+                Long limit = limits.get(ByteArray.of(tx.getFrom()));
+                if (limit != null && tx.getNonce() >= limit) {
+                    touched.addAll(getAccounts(tx, p.pending.result));
+                    resetDelegates |= isDelegateOperation(tx);
+                } else {
+                    txs.add(p.pending);
+                }
+            }
+            reprocess(rebuild(txs, touched, resetDelegates));
+
+            logger.debug("Evicted {} pending transactions", evicted);
+        }
+    }
+
+    /**
+     * Replaces a pending transaction with one of the same sender and nonce, which
+     * pays enough more, and re-evaluates the transactions sharing accounts with
+     * the lane of the sender.
+     *
+     * @param replaced
+     * @param tx
+     * @param isFromThisNode
+     * @return
+     */
+    protected ProcessingResult replaceTransaction(PooledTransaction replaced, Transaction tx, boolean isFromThisNode) {
+        if (!getPriority(tx).isBumped(replaced.priority, REPLACEMENT_PRICE_BUMP)) {
+            return new ProcessingResult(0, TransactionResult.Code.INVALID_FEE);
+        }
+
+        Set<ByteArray> touched = new HashSet<>(getAccounts(replaced.pending.transaction, replaced.pending.result));
+        touched.add(ByteArray.of(tx.getTo()));
+        List<PendingTransaction> txs = new ArrayList<>(validTxs.size());
+        for (PooledTransaction p : validTxs.values()) {
+            txs.add(p.pending);
+        }
+
+        ProcessingResult result = null;
+        for (PendingTransaction p : rebuild(txs, touched, false)) {
+            if (p == replaced.pending) {
+                result = processTransaction(tx, false, isFromThisNode);
+            } else {
+                processTransaction(p.transaction, true, false);
             }
         }
+        return result;
     }
 
     /**
@@ -334,6 +761,14 @@ public class PendingManager implements Runnable, BlockchainListener {
             return new ProcessingResult(0, TransactionResult.Code.INVALID_TIMESTAMP);
         }
 
+        // replace the pending transaction of the same nonce
+        if (tx.getNonce() < getNonce(tx.getFrom())) {
+            PooledTransaction replaced = getPooled(tx.getFrom(), tx.getNonce());
+            if (replaced != null) {
+                return replaceTransaction(replaced, tx, isFromThisNode);
+            }
+        }
+
         // report INVALID_NONCE error to prevent the transaction from being
         // silently ignored due to a low nonce
         if (tx.getNonce() < getNonce(tx.getFrom())) {
@@ -360,7 +795,7 @@ public class PendingManager implements Runnable, BlockchainListener {
                 // Add the successfully processed transaction into the pool of transactions
                 // which are ready to be proposed to the network.
                 PendingTransaction pendingTransaction = new PendingTransaction(tx, result);
-                validTxs.add(pendingTransaction);
+                addPooled(new PooledTransaction(pendingTransaction, getPriority(tx)));
                 cnt++;
 
                 // If a transaction is not included before, send it to the network now
@@ -382,6 +817,7 @@ public class PendingManager implements Runnable, BlockchainListener {
         // all of its preceding transactions from the same address.
         if (tx != null && tx.getNonce() > getNonce(tx.getFrom())) {
             largeNonceTxs.put(createKey(tx), tx);
+            shortIdTxs.put(Bytes.toLong(tx.getHash()), tx);
         }
 
         return new ProcessingResult(cnt);
@@ -397,15 +833,117 @@ public class PendingManager implements Runnable, BlockchainListener {
             channels = channels.subList(0, n);
         }
 
-        // Send the message
+        // Send the message, skipping the peers whose queue is filling up, which get
+        // the transaction from other peers or with the block
         TransactionMessage msg = new TransactionMessage(tx);
+        int maxQueueSize = kernel.getConfig().netMaxMessageQueueSize() / 2;
         for (Channel c : channels) {
-            if (c.isActive()) {
+            if (c.isActive() && c.getMessageQueue().size() < maxQueueSize) {
                 c.getMessageQueue().sendMessage(msg);
             }
         }
     }
 
+    /**
+     * Returns the priority of a transaction, by its fee per gas and arrival.
+     *
+     * @param tx
+     * @return
+     */
+    private Priority getPriority(Transaction tx) {
+        return tx.isVMTransaction() ? new Priority(tx.getGasPrice().toLong(), 1, seq++)
+                : new Priority(tx.getFee().toLong(), kernel.getConfig().spec().nonVMTransactionGasCost(), seq++);
+    }
+
+    /**
+     * Returns the accounts whose balance or nonce a transaction may change.
+     *
+     * @param tx
+     * @param result
+     * @return
+     */
+    private List<ByteArray> getAccounts(Transaction tx, TransactionResult result) {
+        List<ByteArray> list = new ArrayList<>();
+        list.add(ByteArray.of(tx.getFrom()));
+        list.add(ByteArray.of(tx.getTo()));
+        for (AnticInternalTransaction itx : result.getInternalTransactions()) {
+            list.add(ByteArray.of(itx.getFrom()));
+            list.add(ByteArray.of(itx.getTo()));
+        }
+        return list;
+    }
+
+    /**
+     * Returns whether a transaction may change the delegate state, including VM
+     * transactions which may vote with the precompiled contracts.
+     *
+     * @param tx
+     * @return
+     */
+    private boolean isDelegateOperation(Transaction tx) {
+        TransactionType type = tx.getType();
+        return type == TransactionType.DELEGATE || type == TransactionType.VOTE || type == TransactionType.UNVOTE
+                || tx.isVMTransaction();
+    }
+
+    private ByteArray find(Map<ByteArray, ByteArray> groups, ByteArray account) {
+        ByteArray parent = groups.computeIfAbsent(account, k -> k);
+        while (!parent.equals(account)) {
+            ByteArray grandparent = groups.get(parent);
+            groups.put(account, grandparent);
+            account = parent;
+            parent = grandparent;
+        }
+        return account;
+    }
+
+    /**
+     * Sets an account of the target state to its value in the source state.
+     *
+     * @param source
+     * @param target
+     * @param address
+     */
+    private void copyAccount(AccountState source, AccountState target, byte[] address) {
+        Account from = source.getAccount(address);
+        Account to = target.getAccount(address);
+
+        if (!from.getAvailable().equals(to.getAvailable())) {
+            target.adjustAvailable(address, from.getAvailable().subtract(to.getAvailable()));
+        }
+        if (!from.getLocked().equals(to.getLocked())) {
+            target.adjustLocked(address, from.getLocked().subtract(to.getLocked()));
+        }
+        if (from.getNonce() != to.getNonce()) {
+            target.setNonce(address, from.getNonce());
+        }
+    }
+
+    private PooledTransaction getPooled(byte[] from, long nonce) {
+        TreeMap<Long, PooledTransaction> lane = lanes.get(ByteArray.of(from));
+        return lane == null ? null : lane.get(nonce);
+    }
+
+    private void addPooled(PooledTransaction p) {
+        Transaction tx = p.pending.transaction;
+        validTxs.put(ByteArray.of(tx.getHash()), p);
+        shortIdTxs.put(Bytes.toLong(tx.getHash()), tx);
+        lanes.computeIfAbsent(ByteArray.of(tx.getFrom()), k -> new TreeMap<>()).put(tx.getNonce(), p);
+        evictionFloor = null;
+    }
+
+    private Priority getEvictionFloor() {
+        if (evictionFloor == null) {
+            for (TreeMap<Long, PooledTransaction> lane : lanes.values()) {
+                Priority p = lane.lastEntry().getValue().priority;
+                if (evictionFloor == null || p.compareTo(evictionFloor) > 0) {
+                    evictionFloor = p;
+                }
+            }
+        }
+        return evictionFloor;
+    }
+
     private ByteArray createKey(Transaction tx) {
         return ByteArray.of(Bytes.merge(tx.getFrom(), Bytes.of(tx.getNonce())));
     }
@@ -430,6 +968,64 @@ public class PendingManager implements Runnable, BlockchainListener {
         }
     }
 
+    /**
+     * The priority of a transaction: a higher fee per gas comes first, then an
+     * earlier arrival. Prices are compared as exact ratios.
+     */
+    protected static class Priority implements Comparable<Priority> {
+
+        final long fee;
+
+        final long gas;
+
+        final long seq;
+
+        Priority(long fee, long gas, long seq) {
+            this.fee = fee;
+            this.gas = gas;
+            this.seq = seq;
+        }
+
+        /**
+         * Returns whether the fee per gas exceeds the one of another priority by
+         * at least the given percentage.
+         *
+         * @param o
+         * @param percent
+         * @return
+         */
+        boolean isBumped(Priority o, int percent) {
+            BigInteger price = BigInteger.valueOf(fee).multiply(BigInteger.valueOf(o.gas))
+                    .multiply(BigInteger.valueOf(100));
+            BigInteger other = BigInteger.valueOf(o.fee).multiply(BigInteger.valueOf(gas))
+                    .multiply(BigInteger.valueOf(100 + percent));
+            return price.compareTo(other) >= 0;
+        }
+
+        @Override
+        public int compareTo(Priority o) {
+            int cmp = (gas == o.gas) ? Long.compare(o.fee, fee)
+                    : BigInteger.valueOf(o.fee).multiply(BigInteger.valueOf(gas))
+                            .compareTo(BigInteger.valueOf(fee).multiply(BigInteger.valueOf(o.gas)));
+            return (cmp != 0) ? cmp : Long.compare(seq, o.seq);
+        }
+    }
+
+    /**
+     * A valid transaction in the pool, with its priority.
+     */
+    protected static class PooledTransaction {
+
+        final PendingTransaction pending;
+
+        final Priority priority;
+
+        PooledTransaction(PendingTransaction pending, Priority priority) {
+            this.pending = pending;
+            this.priority = priority;
+        }
+    }
+
     /**
      * This object represents the number of accepted transactions and the cause of
      * rejection by ${@link PendingManager}.
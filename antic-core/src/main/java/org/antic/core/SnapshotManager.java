@@ -0,0 +1,221 @@
+/**
+ * Copyright (c) 2019 The Antic Developers
+ *
+ * Distributed under the MIT software license, see the accompanying file
+ * LICENSE or https://opensource.org/licenses/mit-license.php
+ */
+package org.antic.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Locale;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.antic.config.Config;
+import org.antic.config.Constants;
+import org.antic.crypto.Hex;
+import org.antic.util.FileUtil;
+import org.antic.util.TimeUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Exports a state snapshot every {@link Config#syncSnapshotInterval()} blocks,
+ * and serves the exported snapshots to the peers.
+ * <br>
+ * <br>
+ * A snapshot is exported on a background thread from a consistent view of the
+ * state databases, the read lock of the state being held only to open it, so
+ * that the commit of the next block is not delayed by the export. Only the
+ * latest {@link #MAX_SNAPSHOTS} snapshots are kept.
+ * <br>
+ * <br>
+ * {@link #stop()} interrupts the export in progress and waits for it to give
+ * up, and must be called before the databases are closed.
+ */
+public class SnapshotManager implements BlockchainListener {
+
+    private static final Logger logger = LoggerFactory.getLogger(SnapshotManager.class);
+
+    /**
+     * The number of snapshots to keep.
+     */
+    private static final int MAX_SNAPSHOTS = 2;
+
+    private static final ThreadFactory factory = new ThreadFactory() {
+        private final AtomicInteger cnt = new AtomicInteger(0);
+
+        @Override
+        public Thread newThread(Runnable r) {
+            return new Thread(r, "snapshot-" + cnt.getAndIncrement());
+        }
+    };
+
+    private final ExecutorService exec = Executors.newSingleThreadExecutor(factory);
+
+    private final Config config;
+    private final Blockchain chain;
+    private final File dir;
+
+    // the exported snapshots, by block number
+    private final NavigableMap<Long, StateSnapshot> snapshots = new ConcurrentSkipListMap<>();
+
+    public SnapshotManager(Config config, Blockchain chain) {
+        this.config = config;
+        this.chain = chain;
+        this.dir = new File(config.dataDir(),
+                Constants.SNAPSHOT_DIR + File.separator + config.network().name().toLowerCase(Locale.ROOT));
+
+        load();
+    }
+
+    /**
+     * Stops exporting snapshots, and waits for the export in progress to stop
+     * reading the databases.
+     */
+    public void stop() {
+        exec.shutdownNow();
+        try {
+            if (!exec.awaitTermination(1, TimeUnit.MINUTES)) {
+                logger.warn("Timed out waiting for the state snapshot export to stop");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Returns the directory of the snapshots.
+     *
+     * @return
+     */
+    public File getDirectory() {
+        return dir;
+    }
+
+    /**
+     * Returns an exported snapshot.
+     *
+     * @param number
+     *            the block number
+     * @return the snapshot, or null if not exported
+     */
+    public StateSnapshot getSnapshot(long number) {
+        return snapshots.get(number);
+    }
+
+    /**
+     * Returns a chunk of an exported snapshot.
+     *
+     * @param number
+     *            the block number
+     * @param index
+     *            the chunk index
+     * @return the chunk, or null if not exported
+     */
+    public byte[] getChunk(long number, int index) {
+        StateSnapshot snapshot = snapshots.get(number);
+        if (snapshot == null || index < 0 || index >= snapshot.getNumberOfChunks()) {
+            return null;
+        }
+
+        try {
+            return Files.readAllBytes(StateSnapshot.getChunkFile(getDirectory(number), index).toPath());
+        } catch (IOException e) {
+            logger.debug("Failed to read snapshot chunk: number = {}, index = {}", number, index, e);
+            return null;
+        }
+    }
+
+    @Override
+    public void onBlockAdded(Block block) {
+        long number = block.getNumber();
+        long interval = config.syncSnapshotInterval();
+
+        // the validator set is recomputed from the state at these blocks
+        if (interval > 0 && number > 0 && number % interval == 0
+                && number % config.spec().getValidatorUpdateInterval() == 0) {
+            exec.execute(() -> export(number));
+        }
+    }
+
+    /**
+     * Exports a snapshot of the state after the given block.
+     *
+     * @param number
+     */
+    protected void export(long number) {
+        File temp = new File(dir, number + "-temp");
+        try {
+            Instant begin = Instant.now();
+            delete(temp);
+            StateSnapshot snapshot = chain.exportSnapshot(number, temp);
+            if (snapshot == null) {
+                logger.warn("Skipped state snapshot #{}, the next block was imported first", number);
+                delete(temp);
+                return;
+            }
+
+            File target = getDirectory(number);
+            delete(target);
+            Files.move(temp.toPath(), target.toPath());
+            snapshots.put(number, snapshot);
+
+            logger.info("State snapshot exported: number = {}, root = {}, # chunks = {}, took = {}", number,
+                    Hex.encode0x(snapshot.getRoot()), snapshot.getNumberOfChunks(),
+                    TimeUtil.formatDuration(Duration.between(begin, Instant.now())));
+        } catch (InterruptedIOException e) {
+            logger.info("State snapshot #{} export interrupted", number);
+            delete(temp);
+            return;
+        } catch (IOException e) {
+            logger.error("Failed to export state snapshot #{}", number, e);
+            delete(temp);
+        }
+
+        // remove the old snapshots
+        while (snapshots.size() > MAX_SNAPSHOTS) {
+            delete(getDirectory(snapshots.pollFirstEntry().getKey()));
+        }
+    }
+
+    /**
+     * Loads the snapshots exported before.
+     */
+    protected void load() {
+        File[] files = dir.listFiles(File::isDirectory);
+        if (files == null) {
+            return;
+        }
+
+        for (File file : files) {
+            try {
+                long number = Long.parseLong(file.getName());
+                byte[] manifest = Files.readAllBytes(StateSnapshot.getManifestFile(file).toPath());
+                snapshots.put(number, StateSnapshot.fromBytes(manifest));
+            } catch (IOException | RuntimeException e) {
+                logger.debug("Ignoring snapshot directory {}", file, e);
+            }
+        }
+    }
+
+    private File getDirectory(long number) {
+        return new File(dir, Long.toString(number));
+    }
+
+    private static void delete(File file) {
+        if (file.exists()) {
+            FileUtil.recursiveDelete(file);
+        }
+    }
+}
@@ -0,0 +1,215 @@
+/**
+ * Copyright (c) 2019 The Antic Developers
+ *
+ * Distributed under the MIT software license, see the accompanying file
+ * LICENSE or https://opensource.org/licenses/mit-license.php
+ */
+package org.antic.core;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.antic.crypto.Hash;
+import org.antic.db.DatabaseName;
+import org.antic.util.SimpleDecoder;
+import org.antic.util.SimpleEncoder;
+import org.apache.commons.lang3.tuple.Triple;
+
+/**
+ * The manifest of a snapshot of the state after a block, which a new node can
+ * import instead of replaying all the blocks up to it.
+ * <br>
+ * <br>
+ * The entries of the ACCOUNT, DELEGATE and VOTE databases are written in key
+ * order into chunks of at most {@link #MAX_CHUNK_SIZE} bytes, each identified by
+ * its hash, followed by the headers of the last {@link #NUMBER_OF_HEADERS}
+ * blocks before the snapshot. The root of a snapshot is the hash of its
+ * manifest, which commits to the block, the activated forks and every chunk, so
+ * that the chunks can be downloaded from any peer and verified one by one
+ * against a trusted root.
+ */
+public class StateSnapshot {
+
+    /**
+     * The max size of a chunk, in bytes.
+     */
+    public static final int MAX_CHUNK_SIZE = 1024 * 1024;
+
+    /**
+     * The databases in a snapshot, in chunk order.
+     */
+    public static final List<DatabaseName> DATABASES = Collections.unmodifiableList(
+            Arrays.asList(DatabaseName.ACCOUNT, DatabaseName.DELEGATE, DatabaseName.VOTE));
+
+    /**
+     * The number of block headers before the snapshot, which are needed by the
+     * BLOCKHASH opcode and by the fork signal counting of the blocks after it.
+     */
+    public static final int NUMBER_OF_HEADERS = Math.max(256,
+            Stream.of(Fork.values()).mapToInt(Fork::blocksToCheck).max().orElse(0));
+
+    /**
+     * The databases of the chunk entries, the block headers being keyed by their
+     * number.
+     */
+    private static final List<DatabaseName> ENTRY_DATABASES = Collections.unmodifiableList(
+            Arrays.asList(DatabaseName.ACCOUNT, DatabaseName.DELEGATE, DatabaseName.VOTE, DatabaseName.BLOCK));
+
+    private final long number;
+    private final byte[] blockHash;
+    private final byte[] activatedForks;
+    private final List<byte[]> chunkHashes;
+
+    private final byte[] encoded;
+    private final byte[] root;
+
+    /**
+     * Creates a snapshot manifest.
+     *
+     * @param number
+     *            the number of the block
+     * @param blockHash
+     *            the hash of the block
+     * @param activatedForks
+     *            the encoded fork activations, ordered by fork id
+     * @param chunkHashes
+     *            the hashes of the chunks
+     */
+    public StateSnapshot(long number, byte[] blockHash, byte[] activatedForks, List<byte[]> chunkHashes) {
+        this.number = number;
+        this.blockHash = blockHash;
+        this.activatedForks = activatedForks;
+        this.chunkHashes = chunkHashes;
+
+        SimpleEncoder enc = new SimpleEncoder();
+        enc.writeLong(number);
+        enc.writeBytes(blockHash);
+        enc.writeBytes(activatedForks);
+        enc.writeInt(chunkHashes.size());
+        for (byte[] hash : chunkHashes) {
+            enc.writeBytes(hash);
+        }
+        this.encoded = enc.toBytes();
+        this.root = Hash.h256(encoded);
+    }
+
+    public long getNumber() {
+        return number;
+    }
+
+    public byte[] getBlockHash() {
+        return blockHash;
+    }
+
+    public byte[] getActivatedForks() {
+        return activatedForks;
+    }
+
+    public int getNumberOfChunks() {
+        return chunkHashes.size();
+    }
+
+    /**
+     * Returns the root of this snapshot, the hash of the manifest.
+     *
+     * @return
+     */
+    public byte[] getRoot() {
+        return root;
+    }
+
+    /**
+     * Returns whether a chunk is the one of the given index.
+     *
+     * @param index
+     * @param chunk
+     * @return
+     */
+    public boolean validateChunk(int index, byte[] chunk) {
+        return index >= 0 && index < chunkHashes.size() && chunk != null
+                && Arrays.equals(Hash.h256(chunk), chunkHashes.get(index));
+    }
+
+    /**
+     * Returns the manifest file of a snapshot directory.
+     *
+     * @param dir
+     * @return
+     */
+    public static File getManifestFile(File dir) {
+        return new File(dir, "manifest");
+    }
+
+    /**
+     * Returns a chunk file of a snapshot directory.
+     *
+     * @param dir
+     * @param index
+     * @return
+     */
+    public static File getChunkFile(File dir, int index) {
+        return new File(dir, String.format("%06d.chunk", index));
+    }
+
+    /**
+     * Encodes an entry of a chunk.
+     *
+     * @param enc
+     * @param db
+     * @param key
+     * @param value
+     */
+    public static void writeEntry(SimpleEncoder enc, DatabaseName db, byte[] key, byte[] value) {
+        enc.writeByte((byte) ENTRY_DATABASES.indexOf(db));
+        enc.writeBytes(key);
+        enc.writeBytes(value);
+    }
+
+    /**
+     * Decodes the entries of a chunk.
+     *
+     * @param chunk
+     * @return the database, key and value of the entries
+     */
+    public static List<Triple<DatabaseName, byte[], byte[]>> readEntries(byte[] chunk) {
+        List<Triple<DatabaseName, byte[], byte[]>> entries = new ArrayList<>();
+        SimpleDecoder dec = new SimpleDecoder(chunk);
+        while (dec.getReadIndex() < chunk.length) {
+            DatabaseName db = ENTRY_DATABASES.get(dec.readByte());
+            byte[] key = dec.readBytes();
+            byte[] value = dec.readBytes();
+            entries.add(Triple.of(db, key, value));
+        }
+        return entries;
+    }
+
+    public byte[] toBytes() {
+        return encoded;
+    }
+
+    public static StateSnapshot fromBytes(byte[] bytes) {
+        SimpleDecoder dec = new SimpleDecoder(bytes);
+        long number = dec.readLong();
+        byte[] blockHash = dec.readBytes();
+        byte[] activatedForks = dec.readBytes();
+        int n = dec.readInt();
+        if (n < 0 || n > bytes.length / Hash.HASH_LEN) {
+            throw new IllegalArgumentException("Invalid number of chunks: " + n);
+        }
+        List<byte[]> chunkHashes = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            chunkHashes.add(dec.readBytes());
+        }
+
+        return new StateSnapshot(number, blockHash, activatedForks, chunkHashes);
+    }
+
+    @Override
+    public String toString() {
+        return "StateSnapshot [number=" + number + ", # chunks=" + chunkHashes.size() + "]";
+    }
+}
@@ -103,18 +103,24 @@ public class Transaction {
     private Transaction(byte[] hash, byte[] encoded, byte[] signature) {
         this.hash = hash;
 
-        Transaction decodedTx = fromEncoded(encoded);
-        this.networkId = decodedTx.networkId;
-        this.type = decodedTx.type;
-        this.to = decodedTx.to;
-        this.value = decodedTx.value;
-        this.fee = decodedTx.fee;
-        this.nonce = decodedTx.nonce;
-        this.timestamp = decodedTx.timestamp;
-        this.data = decodedTx.data;
-
-        this.gas = decodedTx.gas;
-        this.gasPrice = decodedTx.gasPrice;
+        // decode the fields in place, the encoding and hash are already known
+        SimpleDecoder decoder = new SimpleDecoder(encoded);
+        this.networkId = decoder.readByte();
+        this.type = TransactionType.of(decoder.readByte());
+        this.to = decoder.readBytes();
+        this.value = decoder.readAmount();
+        this.fee = decoder.readAmount();
+        this.nonce = decoder.readLong();
+        this.timestamp = decoder.readLong();
+        this.data = decoder.readBytes();
+
+        if (TransactionType.CALL == type || TransactionType.CREATE == type) {
+            this.gas = decoder.readLong();
+            this.gasPrice = decoder.readAmount();
+        } else {
+            this.gas = 0;
+            this.gasPrice = Amount.ZERO;
+        }
 
         this.encoded = encoded;
         this.signature = Signature.fromBytes(signature);
@@ -14,6 +14,7 @@ import org.antic.core.state.Account;
 import org.antic.core.state.AccountState;
 import org.antic.core.state.DelegateState;
 import org.antic.crypto.Hex;
+import org.antic.util.ByteArray;
 import org.antic.util.Bytes;
 import org.antic.util.SystemUtil;
 import org.antic.vm.client.*;
@@ -33,9 +34,12 @@ import java.io.PrintStream;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 /**
  * Transaction executor
@@ -81,6 +85,11 @@ public class TransactionExecutor {
         return true;
     }
 
+    /**
+     * Runs of parallelizable transactions shorter than this are executed serially.
+     */
+    private static final int MIN_PARALLEL_TRANSACTIONS = 16;
+
     private ChainSpec spec;
     private BlockStore blockStore;
     private boolean isVMEnabled;
@@ -120,203 +129,149 @@ public class TransactionExecutor {
      */
     public List<TransactionResult> execute(List<Transaction> txs, AccountState as, DelegateState ds,
             AnticBlock block, long gasUsedInBlock) {
-        List<TransactionResult> results = new ArrayList<>();
-
-        for (Transaction tx : txs) {
-            TransactionResult result = new TransactionResult();
-            results.add(result);
-
-            TransactionType type = tx.getType();
-            byte[] from = tx.getFrom();
-            byte[] to = tx.getTo();
-            Amount value = tx.getValue();
-            long nonce = tx.getNonce();
-            Amount fee = tx.getFee();
-            byte[] data = tx.getData();
-
-            Account acc = as.getAccount(from);
-            Amount available = acc.getAvailable();
-            Amount locked = acc.getLocked();
+        TransactionResult[] results = new TransactionResult[txs.size()];
+
+        int i = 0;
+        while (i < txs.size()) {
+            // find the run of transactions starting from i which can be executed in parallel
+            int end = i;
+            while (end < txs.size() && isParallelizable(txs.get(end))) {
+                end++;
+            }
 
-            try {
-                // check nonce
-                if (nonce != acc.getNonce()) {
-                    logger.debug("nonce not equals. tx nonce: {}, account nonce: {}", nonce, acc.getNonce());
-                    result.setCode(Code.INVALID_NONCE);
-                    continue;
+            // the run is executed in parallel only if it can't exceed the block gas limit,
+            // otherwise the outcome of one transaction depends on the others
+            int n = end - i;
+            if (n >= MIN_PARALLEL_TRANSACTIONS
+                    && gasUsedInBlock + n * spec.nonVMTransactionGasCost() <= block.getGasLimit()) {
+                gasUsedInBlock = executeParallel(txs, i, end, results, as, ds, block, gasUsedInBlock);
+                i = end;
+            } else {
+                for (end = Math.max(end, i + 1); i < end; i++) {
+                    Transaction tx = txs.get(i);
+                    results[i] = execute(tx, as, ds, block, gasUsedInBlock);
+                    gasUsedInBlock += getGasUsed(tx, results[i]);
                 }
+            }
+        }
 
-                // check fee (CREATE and CALL use gas instead)
-                if (tx.isVMTransaction()) {
-                    // applying a very strict check to avoid mistakes
-                    boolean valid = fee.equals(Amount.ZERO)
-                            && tx.getGas() >= 21_000 && tx.getGas() <= spec.maxBlockGasLimit()
-                            && tx.getGasPrice().greaterThanOrEqual(Amount.ONE)
-                            && tx.getGasPrice().lessThanOrEqual(Amount.of(Integer.MAX_VALUE));
-                    if (!valid) {
-                        logger.debug("vm transaction fee check. fee: {} ,gas: {}, gas price: {}, block maxBlockGasLimit: {}",
-                                fee, tx.getGas(), tx.getGasPrice(), spec.maxBlockGasLimit());
-                        result.setCode(Code.INVALID_FEE);
-                        continue;
-                    }
-                } else {
-                    if (fee.lessThan(spec.minTransactionFee())) {
-                        logger.debug("not vm transaction fee check. fee: {}, block minTransactionFee: {}", fee, spec.minTransactionFee());
-                        result.setCode(Code.INVALID_FEE);
-                        continue;
-                    }
-                }
+        return new ArrayList<>(Arrays.asList(results));
+    }
 
-                // check data length
-                if (data.length > spec.maxTransactionDataSize(type)) {
-                    logger.debug("data length check. data size: {}, block maxTransactionDataSize: {}", data.length, spec.maxTransactionDataSize(type));
-                    result.setCode(Code.INVALID_DATA);
-                    continue;
-                }
+    /**
+     * Executes a run of parallelizable transactions, <code>txs[from..to)</code>.
+     * The transactions are partitioned into groups which touch disjoint accounts
+     * and delegates; each group is executed in order on its own tracks, and the
+     * tracks are committed in the order of the groups' first transaction. The
+     * outcome is identical to executing the transactions serially.
+     *
+     * @return the gas used in block after the run
+     */
+    private long executeParallel(List<Transaction> txs, int from, int to, TransactionResult[] results,
+            AccountState as, DelegateState ds, AnticBlock block, long gasUsedInBlock) {
+        List<List<Integer>> groups = partition(txs, from, to);
+
+        AccountState[] asTracks = new AccountState[groups.size()];
+        DelegateState[] dsTracks = new DelegateState[groups.size()];
+        for (int k = 0; k < groups.size(); k++) {
+            asTracks[k] = as.track();
+            dsTracks[k] = ds.track();
+        }
 
-                // check remaining gas
-                if (!tx.isVMTransaction()) {
-                    if (spec.nonVMTransactionGasCost() + gasUsedInBlock > block.getGasLimit()) {
-                        logger.debug("not vm transaction remaining gas check. block nonVMTransactionGasCost: {}, gasUsedInBlock: {}, block Gas Limit: {}",
-                                spec.nonVMTransactionGasCost(), gasUsedInBlock, block.getGasLimit());
-                        result.setCode(Code.INVALID);
-                        continue;
-                    }
+        IntStream.range(0, groups.size()).parallel().forEach(k -> {
+            for (int i : groups.get(k)) {
+                results[i] = execute(txs.get(i), asTracks[k], dsTracks[k], block, gasUsedInBlock);
+            }
+        });
 
-                    // Note: although we count gas usage for non-vm-transactions, the gas usage
-                    // is not recorded in the TransactionResult.
-                }
+        for (int k = 0; k < groups.size(); k++) {
+            asTracks[k].commit();
+            dsTracks[k].commit();
+        }
 
-                switch (type) {
-                case TRANSFER: {
-                    if (fee.lessThanOrEqual(available) && value.lessThanOrEqual(available)
-                            && value.add(fee).lessThanOrEqual(available)) {
-                        as.adjustAvailable(from, value.add(fee).negate());
-                        as.adjustAvailable(to, value);
-                    } else {
-                        logger.debug("type TRANSFER: Insufficient available balance. fee: {}, available: {}, value: {}",
-                                fee, available, value);
-                        result.setCode(Code.INSUFFICIENT_AVAILABLE);
-                    }
-                    break;
-                }
-                case DELEGATE: {
-                    if (!validateDelegateName(data)) {
-                        logger.debug("type DELEGATE: invalid delegate name. data: {}", data);
-                        result.setCode(Code.INVALID_DELEGATE_NAME);
-                        break;
-                    }
-                    if (value.lessThan(spec.minDelegateBurnAmount())) {
-                        logger.debug("type DELEGATE: value lessThan minDelegateBurnAmount. value: {}, block minDelegateBurnAmount: {} ",
-                                value, spec.minDelegateBurnAmount());
-                        result.setCode(Code.INVALID_DELEGATE_BURN_AMOUNT);
-                        break;
-                    }
-                    if (!Arrays.equals(Constants.DELEGATE_BURN_ADDRESS, to)) {
-                        logger.debug("type DELEGATE: invalid burn delegate address: {}, ", Hex.encode0x(to));
-                        result.setCode(Code.INVALID_DELEGATE_BURN_ADDRESS);
-                        break;
-                    }
-                    if (fee.lessThanOrEqual(available) && value.lessThanOrEqual(available)
-                            && value.add(fee).lessThanOrEqual(available)) {
-                        if (ds.register(from, data)) {
-                            as.adjustAvailable(from, value.add(fee).negate());
-                            as.adjustAvailable(to, value);
-                        } else {
-                            logger.debug("type DELEGATE: The DELEGATE operation is invalid. operation: {}", "Registers a delegate");
-                            result.setCode(Code.INVALID_DELEGATING);
-                        }
-                    } else {
-                        logger.debug("type DELEGATE: Insufficient available balance. fee: {}, available: {}, value: {}",
-                                fee, available, value);
-                        result.setCode(Code.INSUFFICIENT_AVAILABLE);
-                    }
-                    break;
-                }
-                case VOTE: {
-                    if (fee.lessThanOrEqual(available) && value.lessThanOrEqual(available)
-                            && value.add(fee).lessThanOrEqual(available)) {
-                        if (ds.vote(from, to, value)) {
-                            as.adjustAvailable(from, value.add(fee).negate());
-                            as.adjustLocked(from, value);
-                        } else {
-                            logger.debug("type VOTE: The VOTE operation is invalid. operation: {}", "Adds vote to a delegate.");
-                            result.setCode(Code.INVALID_VOTING);
-                        }
-                    } else {
-                        logger.debug("type VOTE: Insufficient available balance. fee: {}, available: {}, value: {}",
-                                fee, available, value);
-                        result.setCode(Code.INSUFFICIENT_AVAILABLE);
-                    }
-                    break;
-                }
-                case UNVOTE: {
-                    if (available.lessThan(fee)) {
-                        logger.debug("type UNVOTE: available lessThan fee. available: {}, fee: {}", available, fee);
-                        result.setCode(Code.INSUFFICIENT_AVAILABLE);
-                        break;
-                    }
-                    if (locked.lessThan(value)) {
-                        logger.debug("type UNVOTE: locked lessThan value. locked: {}, value: {}", locked, value);
-                        result.setCode(Code.INSUFFICIENT_LOCKED);
-                        break;
-                    }
+        long gasUsed = gasUsedInBlock;
+        for (int i = from; i < to; i++) {
+            gasUsed += getGasUsed(txs.get(i), results[i]);
+        }
+        return gasUsed;
+    }
 
-                    if (ds.unvote(from, to, value)) {
-                        as.adjustAvailable(from, value.subtract(fee));
-                        as.adjustLocked(from, value.negate());
-                    } else {
-                        logger.debug("type UNVOTE: The UNVOTE operation is invalid. operation: {}", "Removes vote of a delegate.");
-                        result.setCode(Code.INVALID_UNVOTING);
-                    }
-                    break;
-                }
-                case CALL:
-                case CREATE:
-                    //if (!isVMEnabled) {
-                    //    logger.debug("type CREATE or CALL: check a fork has been activated. result: {}", "The transaction type is invalid.");
-                    //    result.setCode(Code.INVALID_TYPE);
-                    //    break;
-                    //}
-
-                    // the VM transaction executor will check balance and gas cost.
-                    // do proper refunds afterwards.
-                    executeVmTransaction(tx, as, ds, block, gasUsedInBlock, result);
-
-                    // Note: we're assuming the VM will not make changes to the account
-                    // and delegate state if the transaction is INVALID; the storage changes
-                    // will be discarded if is FAILURE.
-                    //
-                    // TODO: add unit test for this
-                    break;
-                default:
-                    logger.debug("unsupported transaction type. type: {}", type);
-                    // unsupported transaction type
-                    result.setCode(Code.INVALID_TYPE);
-                    break;
-                }
-            } catch (ArithmeticException ae) {
-                logger.warn("An arithmetic exception occurred during transaction execution: {}", tx);
-                result.setCode(Code.INVALID);
-            }
+    /**
+     * Returns whether a transaction touches no state other than the accounts and
+     * the delegate of its sender and recipient.
+     *
+     * @param tx
+     * @return
+     */
+    public static boolean isParallelizable(Transaction tx) {
+        // DELEGATE reads the global name index, VM transactions may touch any state
+        switch (tx.getType()) {
+        case TRANSFER:
+        case VOTE:
+        case UNVOTE:
+            return true;
+        default:
+            return false;
+        }
+    }
 
-            if (result.getCode().isAcceptable()) {
-                if (!tx.isVMTransaction()) {
-                    // CREATEs and CALLs manages the nonce inside the VM
-                    as.increaseNonce(from);
-                }
+    /**
+     * Partitions transactions into groups connected by their sender and recipient
+     * addresses; the transaction order is preserved within each group.
+     *
+     * @param txs
+     * @param from
+     * @param to
+     * @return
+     */
+    private static List<List<Integer>> partition(List<Transaction> txs, int from, int to) {
+        Map<ByteArray, Integer> ids = new HashMap<>();
+        int[] parent = new int[2 * (to - from)];
+        for (int i = from; i < to; i++) {
+            int a = find(parent, getId(ids, parent, txs.get(i).getFrom()));
+            int b = find(parent, getId(ids, parent, txs.get(i).getTo()));
+            parent[a] = b;
+        }
 
-                if (tx.isVMTransaction()) {
-                    gasUsedInBlock += result.getGasUsed();
-                } else {
-                    gasUsedInBlock += spec.nonVMTransactionGasCost();
-                }
-            }
+        Map<Integer, List<Integer>> groups = new LinkedHashMap<>();
+        for (int i = from; i < to; i++) {
+            int root = find(parent, ids.get(ByteArray.of(txs.get(i).getFrom())));
+            groups.computeIfAbsent(root, k -> new ArrayList<>()).add(i);
+        }
+        return new ArrayList<>(groups.values());
+    }
 
-            result.setBlockNumber(block.getNumber());
+    private static int getId(Map<ByteArray, Integer> ids, int[] parent, byte[] address) {
+        ByteArray key = ByteArray.of(address);
+        Integer id = ids.get(key);
+        if (id == null) {
+            id = ids.size();
+            ids.put(key, id);
+            parent[id] = id;
         }
+        return id;
+    }
 
-        return results;
+    private static int find(int[] parent, int id) {
+        while (parent[id] != id) {
+            parent[id] = parent[parent[id]];
+            id = parent[id];
+        }
+        return id;
+    }
+
+    /**
+     * Returns the gas that a transaction adds to the gas used in block.
+     *
+     * @param tx
+     * @param result
+     * @return
+     */
+    private long getGasUsed(Transaction tx, TransactionResult result) {
+        if (!result.getCode().isAcceptable()) {
+            return 0;
+        }
+        return tx.isVMTransaction() ? result.getGasUsed() : spec.nonVMTransactionGasCost();
     }
 
     private void executeVmTransaction(Transaction tx, AccountState as, DelegateState ds,
@@ -407,6 +362,188 @@ public class TransactionExecutor {
      */
     public TransactionResult execute(Transaction tx, AccountState as, DelegateState ds, AnticBlock block,
             long gasUsedInBlock) {
-        return execute(Collections.singletonList(tx), as, ds, block, gasUsedInBlock).get(0);
+        TransactionResult result = new TransactionResult();
+
+        TransactionType type = tx.getType();
+        byte[] from = tx.getFrom();
+        byte[] to = tx.getTo();
+        Amount value = tx.getValue();
+        long nonce = tx.getNonce();
+        Amount fee = tx.getFee();
+        byte[] data = tx.getData();
+
+        Account acc = as.getAccount(from);
+        Amount available = acc.getAvailable();
+        Amount locked = acc.getLocked();
+
+        try {
+            // check nonce
+            if (nonce != acc.getNonce()) {
+                logger.debug("nonce not equals. tx nonce: {}, account nonce: {}", nonce, acc.getNonce());
+                result.setCode(Code.INVALID_NONCE);
+                return result;
+            }
+
+            // check fee (CREATE and CALL use gas instead)
+            if (tx.isVMTransaction()) {
+                // applying a very strict check to avoid mistakes
+                boolean valid = fee.equals(Amount.ZERO)
+                        && tx.getGas() >= 21_000 && tx.getGas() <= spec.maxBlockGasLimit()
+                        && tx.getGasPrice().greaterThanOrEqual(Amount.ONE)
+                        && tx.getGasPrice().lessThanOrEqual(Amount.of(Integer.MAX_VALUE));
+                if (!valid) {
+                    logger.debug("vm transaction fee check. fee: {} ,gas: {}, gas price: {}, block maxBlockGasLimit: {}",
+                            fee, tx.getGas(), tx.getGasPrice(), spec.maxBlockGasLimit());
+                    result.setCode(Code.INVALID_FEE);
+                    return result;
+                }
+            } else {
+                if (fee.lessThan(spec.minTransactionFee())) {
+                    logger.debug("not vm transaction fee check. fee: {}, block minTransactionFee: {}", fee, spec.minTransactionFee());
+                    result.setCode(Code.INVALID_FEE);
+                    return result;
+                }
+            }
+
+            // check data length
+            if (data.length > spec.maxTransactionDataSize(type)) {
+                logger.debug("data length check. data size: {}, block maxTransactionDataSize: {}", data.length, spec.maxTransactionDataSize(type));
+                result.setCode(Code.INVALID_DATA);
+                return result;
+            }
+
+            // check remaining gas
+            if (!tx.isVMTransaction()) {
+                if (spec.nonVMTransactionGasCost() + gasUsedInBlock > block.getGasLimit()) {
+                    logger.debug("not vm transaction remaining gas check. block nonVMTransactionGasCost: {}, gasUsedInBlock: {}, block Gas Limit: {}",
+                            spec.nonVMTransactionGasCost(), gasUsedInBlock, block.getGasLimit());
+                    result.setCode(Code.INVALID);
+                    return result;
+                }
+
+                // Note: although we count gas usage for non-vm-transactions, the gas usage
+                // is not recorded in the TransactionResult.
+            }
+
+            switch (type) {
+            case TRANSFER: {
+                if (fee.lessThanOrEqual(available) && value.lessThanOrEqual(available)
+                        && value.add(fee).lessThanOrEqual(available)) {
+                    as.adjustAvailable(from, value.add(fee).negate());
+                    as.adjustAvailable(to, value);
+                } else {
+                    logger.debug("type TRANSFER: Insufficient available balance. fee: {}, available: {}, value: {}",
+                            fee, available, value);
+                    result.setCode(Code.INSUFFICIENT_AVAILABLE);
+                }
+                break;
+            }
+            case DELEGATE: {
+                if (!validateDelegateName(data)) {
+                    logger.debug("type DELEGATE: invalid delegate name. data: {}", data);
+                    result.setCode(Code.INVALID_DELEGATE_NAME);
+                    break;
+                }
+                if (value.lessThan(spec.minDelegateBurnAmount())) {
+                    logger.debug("type DELEGATE: value lessThan minDelegateBurnAmount. value: {}, block minDelegateBurnAmount: {} ",
+                            value, spec.minDelegateBurnAmount());
+                    result.setCode(Code.INVALID_DELEGATE_BURN_AMOUNT);
+                    break;
+                }
+                if (!Arrays.equals(Constants.DELEGATE_BURN_ADDRESS, to)) {
+                    logger.debug("type DELEGATE: invalid burn delegate address: {}, ", Hex.encode0x(to));
+                    result.setCode(Code.INVALID_DELEGATE_BURN_ADDRESS);
+                    break;
+                }
+                if (fee.lessThanOrEqual(available) && value.lessThanOrEqual(available)
+                        && value.add(fee).lessThanOrEqual(available)) {
+                    if (ds.register(from, data)) {
+                        as.adjustAvailable(from, value.add(fee).negate());
+                        as.adjustAvailable(to, value);
+                    } else {
+                        logger.debug("type DELEGATE: The DELEGATE operation is invalid. operation: {}", "Registers a delegate");
+                        result.setCode(Code.INVALID_DELEGATING);
+                    }
+                } else {
+                    logger.debug("type DELEGATE: Insufficient available balance. fee: {}, available: {}, value: {}",
+                            fee, available, value);
+                    result.setCode(Code.INSUFFICIENT_AVAILABLE);
+                }
+                break;
+            }
+            case VOTE: {
+                if (fee.lessThanOrEqual(available) && value.lessThanOrEqual(available)
+                        && value.add(fee).lessThanOrEqual(available)) {
+                    if (ds.vote(from, to, value)) {
+                        as.adjustAvailable(from, value.add(fee).negate());
+                        as.adjustLocked(from, value);
+                    } else {
+                        logger.debug("type VOTE: The VOTE operation is invalid. operation: {}", "Adds vote to a delegate.");
+                        result.setCode(Code.INVALID_VOTING);
+                    }
+                } else {
+                    logger.debug("type VOTE: Insufficient available balance. fee: {}, available: {}, value: {}",
+                            fee, available, value);
+                    result.setCode(Code.INSUFFICIENT_AVAILABLE);
+                }
+                break;
+            }
+            case UNVOTE: {
+                if (available.lessThan(fee)) {
+                    logger.debug("type UNVOTE: available lessThan fee. available: {}, fee: {}", available, fee);
+                    result.setCode(Code.INSUFFICIENT_AVAILABLE);
+                    break;
+                }
+                if (locked.lessThan(value)) {
+                    logger.debug("type UNVOTE: locked lessThan value. locked: {}, value: {}", locked, value);
+                    result.setCode(Code.INSUFFICIENT_LOCKED);
+                    break;
+                }
+
+                if (ds.unvote(from, to, value)) {
+                    as.adjustAvailable(from, value.subtract(fee));
+                    as.adjustLocked(from, value.negate());
+                } else {
+                    logger.debug("type UNVOTE: The UNVOTE operation is invalid. operation: {}", "Removes vote of a delegate.");
+                    result.setCode(Code.INVALID_UNVOTING);
+                }
+                break;
+            }
+            case CALL:
+            case CREATE:
+                //if (!isVMEnabled) {
+                //    logger.debug("type CREATE or CALL: check a fork has been activated. result: {}", "The transaction type is invalid.");
+                //    result.setCode(Code.INVALID_TYPE);
+                //    break;
+                //}
+
+                // the VM transaction executor will check balance and gas cost.
+                // do proper refunds afterwards.
+                executeVmTransaction(tx, as, ds, block, gasUsedInBlock, result);
+
+                // Note: we're assuming the VM will not make changes to the account
+                // and delegate state if the transaction is INVALID; the storage changes
+                // will be discarded if is FAILURE.
+                //
+                // TODO: add unit test for this
+                break;
+            default:
+                logger.debug("unsupported transaction type. type: {}", type);
+                // unsupported transaction type
+                result.setCode(Code.INVALID_TYPE);
+                break;
+            }
+        } catch (ArithmeticException ae) {
+            logger.warn("An arithmetic exception occurred during transaction execution: {}", tx);
+            result.setCode(Code.INVALID);
+        }
+
+        if (result.getCode().isAcceptable() && !tx.isVMTransaction()) {
+            // CREATEs and CALLs manages the nonce inside the VM
+            as.increaseNonce(from);
+        }
+
+        result.setBlockNumber(block.getNumber());
+        return result;
     }
 }
@@ -0,0 +1,67 @@
+/**
+ * Copyright (c) 2019 The Antic Developers
+ *
+ * Distributed under the MIT software license, see the accompanying file
+ * LICENSE or https://opensource.org/licenses/mit-license.php
+ */
+package org.antic.core;
+
+import java.util.List;
+
+/**
+ * Represents a page of the transaction history of an account.
+ * <br>
+ * <br>
+ * Transactions are positioned by the number of the including block and their
+ * position in the block, the coinbase transaction coming last. The position of
+ * the first transaction of the next page is the cursor of that page.
+ */
+public class TransactionPage {
+
+    private final List<Transaction> transactions;
+    private final long nextBlockNumber;
+    private final int nextPosition;
+
+    public TransactionPage(List<Transaction> transactions, long nextBlockNumber, int nextPosition) {
+        this.transactions = transactions;
+        this.nextBlockNumber = nextBlockNumber;
+        this.nextPosition = nextPosition;
+    }
+
+    /**
+     * Returns the transactions of this page, in history order.
+     *
+     * @return
+     */
+    public List<Transaction> getTransactions() {
+        return transactions;
+    }
+
+    /**
+     * Returns whether there are more transactions after this page.
+     *
+     * @return
+     */
+    public boolean hasNext() {
+        return nextBlockNumber >= 0;
+    }
+
+    /**
+     * Returns the block number of the next page, or -1 if this is the last page.
+     *
+     * @return
+     */
+    public long getNextBlockNumber() {
+        return nextBlockNumber;
+    }
+
+    /**
+     * Returns the position in block of the next page, or -1 if this is the last
+     * page.
+     *
+     * @return
+     */
+    public int getNextPosition() {
+        return nextPosition;
+    }
+}
@@ -6,6 +6,8 @@
  */
 package org.antic.core.state;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.concurrent.ConcurrentHashMap;
@@ -14,6 +16,11 @@ import org.antic.core.Amount;
 import org.antic.db.Database;
 import org.antic.util.ByteArray;
 import org.antic.util.Bytes;
+import org.antic.util.PersistentHashMap;
+import org.apache.commons.lang3.tuple.Pair;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
 
 /**
  * Account state implementation.
@@ -25,6 +32,14 @@ import org.antic.util.Bytes;
  * [1, address] => [code]
  * [2, address, storage_key] = [storage_value]
  * </pre>
+ *
+ * A track keeps the updates of all the tracks between itself and the
+ * database-backed root state in one persistent map, so that a lookup costs the
+ * same regardless of the nesting depth, and creating a track is O(1). Accounts
+ * are kept decoded and serialized only when the root state is committed.
+ * <br>
+ * <br>
+ * The committed contract code is cached, as it is read by every contract call.
  */
 public class AccountStateImpl implements Cloneable, AccountState {
 
@@ -32,13 +47,36 @@ public class AccountStateImpl implements Cloneable, AccountState {
     protected static final byte TYPE_CODE = 1;
     protected static final byte TYPE_STORAGE = 2;
 
+    /**
+     * Marks a deleted entry.
+     */
+    protected static final byte[] DELETED = new byte[0];
+
+    /**
+     * The max total size of the cached code, in bytes.
+     */
+    protected static final long CODE_CACHE_SIZE = 64L * 1024 * 1024;
+
     protected Database accountDB;
     protected AccountStateImpl prev;
+    protected AccountStateImpl root;
+
+    /**
+     * The committed code, shared by the root state and its clones.
+     */
+    protected Cache<ByteArray, byte[]> codeCache;
+
+    /**
+     * All updates of this state, or deletes if the value is {@link #DELETED}.
+     * Values are either {@link Account} objects or bytes.
+     */
+    protected final Map<ByteArray, Object> updates = new ConcurrentHashMap<>();
 
     /**
-     * All updates, or deletes if the value is null.
+     * The updates of this track and its ancestors up to, but excluding, the root
+     * state; always empty for the root state.
      */
-    protected final Map<ByteArray, byte[]> updates = new ConcurrentHashMap<>();
+    protected volatile PersistentHashMap<ByteArray, Object> view = PersistentHashMap.empty();
 
     /**
      * Create an {@link AccountState} that work directly on a database.
@@ -47,6 +85,11 @@ public class AccountStateImpl implements Cloneable, AccountState {
      */
     public AccountStateImpl(Database accountDB) {
         this.accountDB = accountDB;
+        this.root = this;
+        this.codeCache = Caffeine.newBuilder()
+                .maximumWeight(CODE_CACHE_SIZE)
+                .weigher((ByteArray k, byte[] v) -> v.length)
+                .build();
     }
 
     /**
@@ -56,95 +99,69 @@ public class AccountStateImpl implements Cloneable, AccountState {
      */
     public AccountStateImpl(AccountStateImpl prev) {
         this.prev = prev;
+        this.root = prev.root;
+        this.view = prev.view;
+        this.codeCache = prev.codeCache;
     }
 
     @Override
     public Account getAccount(byte[] address) {
-        ByteArray k = getKey(TYPE_ACCOUNT, address);
-        Amount noAmount = Amount.ZERO;
-
-        if (updates.containsKey(k)) {
-            byte[] v = updates.get(k);
-            return v == null ? new Account(address, noAmount, noAmount, 0) : Account.fromBytes(address, v);
-        } else if (prev != null) {
-            return prev.getAccount(address);
+        Object v = get(getKey(TYPE_ACCOUNT, address));
+
+        if (v instanceof Account) {
+            return (Account) v;
+        } else if (v == null || v == DELETED) {
+            return new Account(address, Amount.ZERO, Amount.ZERO, 0);
         } else {
-            byte[] v = accountDB.get(k.getData());
-            return v == null ? new Account(address, noAmount, noAmount, 0) : Account.fromBytes(address, v);
+            return Account.fromBytes(address, (byte[]) v);
         }
     }
 
     @Override
     public long increaseNonce(byte[] address) {
-        ByteArray k = getKey(TYPE_ACCOUNT, address);
-
         Account acc = getAccount(address);
         long nonce = acc.getNonce() + 1;
-        acc.setNonce(nonce);
-        updates.put(k, acc.toBytes());
+        put(getKey(TYPE_ACCOUNT, address), new Account(address, acc.getAvailable(), acc.getLocked(), nonce));
         return nonce;
     }
 
     @Override
     public void adjustAvailable(byte[] address, Amount delta) {
-        ByteArray k = getKey(TYPE_ACCOUNT, address);
-
         Account acc = getAccount(address);
-        acc.setAvailable(acc.getAvailable().add(delta));
-        updates.put(k, acc.toBytes());
+        put(getKey(TYPE_ACCOUNT, address),
+                new Account(address, acc.getAvailable().add(delta), acc.getLocked(), acc.getNonce()));
     }
 
     @Override
     public void adjustLocked(byte[] address, Amount delta) {
-        ByteArray k = getKey(TYPE_ACCOUNT, address);
-
         Account acc = getAccount(address);
-        acc.setLocked(acc.getLocked().add(delta));
-        updates.put(k, acc.toBytes());
+        put(getKey(TYPE_ACCOUNT, address),
+                new Account(address, acc.getAvailable(), acc.getLocked().add(delta), acc.getNonce()));
     }
 
     @Override
     public byte[] getCode(byte[] address) {
-        ByteArray k = getKey(TYPE_CODE, address);
-
-        if (updates.containsKey(k)) {
-            return updates.get(k);
-        } else if (prev != null) {
-            return prev.getCode(address);
-        } else {
-            return accountDB.get(k.getData());
-        }
+        return getBytes(getKey(TYPE_CODE, address));
     }
 
     @Override
     public void setCode(byte[] address, byte[] code) {
-        ByteArray k = getKey(TYPE_CODE, address);
-        updates.put(k, code);
+        put(getKey(TYPE_CODE, address), code == null ? DELETED : code);
     }
 
     @Override
     public byte[] getStorage(byte[] address, byte[] key) {
-        ByteArray k = getStorageKey(address, key);
-
-        if (updates.containsKey(k)) {
-            return updates.get(k);
-        } else if (prev != null) {
-            return prev.getStorage(address, key);
-        } else {
-            return accountDB.get(k.getData());
-        }
+        return getBytes(getStorageKey(address, key));
     }
 
     @Override
     public void putStorage(byte[] address, byte[] key, byte[] value) {
-        ByteArray storeKey = getStorageKey(address, key);
-        updates.put(storeKey, value);
+        put(getStorageKey(address, key), value == null ? DELETED : value);
     }
 
     @Override
     public void removeStorage(byte[] address, byte[] key) {
-        ByteArray storeKey = getStorageKey(address, key);
-        updates.put(storeKey, null);
+        put(getStorageKey(address, key), DELETED);
     }
 
     @Override
@@ -154,19 +171,19 @@ public class AccountStateImpl implements Cloneable, AccountState {
 
     @Override
     public void commit() {
-        synchronized (updates) {
+        synchronized (this) {
             if (prev == null) {
-                for (Entry<ByteArray, byte[]> entry : updates.entrySet()) {
-                    if (entry.getValue() == null) {
-                        accountDB.delete(entry.getKey().getData());
-                    } else {
-                        accountDB.put(entry.getKey().getData(), entry.getValue());
+                accountDB.updateBatch(toBatch(updates));
+
+                // evict after the write, so that a concurrent load can't cache the old code
+                for (ByteArray k : updates.keySet()) {
+                    if (isCodeKey(k)) {
+                        codeCache.invalidate(k);
                     }
                 }
             } else {
-                for (Entry<ByteArray, byte[]> e : updates.entrySet()) {
-                    prev.updates.put(e.getKey(), e.getValue());
-                }
+                prev.putAll(updates);
+                view = prev.view;
             }
 
             updates.clear();
@@ -175,30 +192,24 @@ public class AccountStateImpl implements Cloneable, AccountState {
 
     @Override
     public void rollback() {
-        updates.clear();
+        synchronized (this) {
+            updates.clear();
+            if (prev != null) {
+                view = prev.view;
+            }
+        }
     }
 
     @Override
     public boolean exists(byte[] address) {
-        ByteArray k = getKey(TYPE_ACCOUNT, address);
-
-        if (updates.containsKey(k)) {
-            return true;
-        } else if (prev != null) {
-            return prev.exists(address);
-        } else {
-            byte[] v = accountDB.get(k.getData());
-            return v != null;
-        }
+        Object v = get(getKey(TYPE_ACCOUNT, address));
+        return v != null && v != DELETED;
     }
 
     @Override
     public long setNonce(byte[] address, long nonce) {
-        ByteArray k = getKey(TYPE_ACCOUNT, address);
-
         Account acc = getAccount(address);
-        acc.setNonce(nonce);
-        updates.put(k, acc.toBytes());
+        put(getKey(TYPE_ACCOUNT, address), new Account(address, acc.getAvailable(), acc.getLocked(), nonce));
         return nonce;
     }
 
@@ -206,11 +217,78 @@ public class AccountStateImpl implements Cloneable, AccountState {
     public AccountState clone() {
         AccountStateImpl clone = new AccountStateImpl(accountDB);
         clone.prev = prev;
+        clone.root = (prev == null) ? clone : root;
         clone.updates.putAll(updates);
+        clone.view = view;
+        clone.codeCache = codeCache;
 
         return clone;
     }
 
+    /**
+     * Returns the value of a key, which is either an {@link Account} object,
+     * bytes, {@link #DELETED} or null if not found.
+     *
+     * @param k
+     * @return
+     */
+    protected Object get(ByteArray k) {
+        if (prev == null) {
+            Object v = updates.get(k);
+            if (v != null) {
+                return v;
+            }
+            return isCodeKey(k) ? codeCache.get(k, key -> accountDB.get(key.getData())) : accountDB.get(k.getData());
+        } else {
+            Object v = view.get(k);
+            return (v != null) ? v : root.get(k);
+        }
+    }
+
+    protected byte[] getBytes(ByteArray k) {
+        Object v = get(k);
+        return (v == DELETED) ? null : (byte[]) v;
+    }
+
+    protected synchronized void put(ByteArray k, Object v) {
+        updates.put(k, v);
+        if (prev != null) {
+            view = view.plus(k, v);
+        }
+    }
+
+    protected synchronized void putAll(Map<ByteArray, Object> map) {
+        PersistentHashMap<ByteArray, Object> v = view;
+        for (Entry<ByteArray, Object> e : map.entrySet()) {
+            updates.put(e.getKey(), e.getValue());
+            if (prev != null) {
+                v = v.plus(e.getKey(), e.getValue());
+            }
+        }
+        view = v;
+    }
+
+    /**
+     * Converts the updates into a write batch, serializing the accounts and
+     * with {@link #DELETED} as deletes.
+     *
+     * @param updates
+     * @return
+     */
+    protected static List<Pair<byte[], byte[]>> toBatch(Map<ByteArray, ?> updates) {
+        List<Pair<byte[], byte[]>> pairs = new ArrayList<>(updates.size());
+        for (Entry<ByteArray, ?> e : updates.entrySet()) {
+            Object v = e.getValue();
+            byte[] bytes = (v == DELETED) ? null : (v instanceof Account) ? ((Account) v).toBytes() : (byte[]) v;
+            pairs.add(Pair.of(e.getKey().getData(), bytes));
+        }
+        return pairs;
+    }
+
+    protected static boolean isCodeKey(ByteArray k) {
+        return k.getData()[0] == TYPE_CODE;
+    }
+
     protected ByteArray getKey(byte type, byte[] address) {
         return ByteArray.of(Bytes.merge(type, address));
     }
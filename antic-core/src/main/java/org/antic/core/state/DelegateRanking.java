@@ -0,0 +1,146 @@
+/**
+ * Copyright (c) 2019 The Antic Developers
+ *
+ * Distributed under the MIT software license, see the accompanying file
+ * LICENSE or https://opensource.org/licenses/mit-license.php
+ */
+package org.antic.core.state;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+
+import org.antic.util.ByteArray;
+
+/**
+ * Delegates ranked by votes, then by name, in a sorted tree. Each update moves
+ * one delegate in O(log n); the rank of a delegate is found by binary search in
+ * an array copy of the tree, which is taken again on the first rank query after
+ * an update.
+ * <br>
+ * <br>
+ * Queries take a map of overriding delegates, which are the uncommitted updates
+ * of a track, and merge them into the ranking on the fly.
+ */
+class DelegateRanking {
+
+    /**
+     * The ranking order: by votes descending, then by name ascending, then by
+     * address. Names are unique, the address only makes the order total.
+     */
+    static final Comparator<Delegate> ORDER = (d1, d2) -> {
+        int cmp = d2.getVotes().compareTo(d1.getVotes());
+        if (cmp == 0) {
+            cmp = d1.getNameString().compareTo(d2.getNameString());
+        }
+        return (cmp != 0) ? cmp : ByteArray.of(d1.getAddress()).compareTo(ByteArray.of(d2.getAddress()));
+    };
+
+    private final NavigableSet<Delegate> ranked = new TreeSet<>(ORDER);
+    private final Map<ByteArray, Delegate> delegates = new HashMap<>();
+
+    /**
+     * The ranked delegates as an array, or null if outdated.
+     */
+    private Delegate[] rankedArray;
+
+    /**
+     * Adds a delegate, or replaces the delegate of the same address.
+     *
+     * @param d
+     */
+    synchronized void update(Delegate d) {
+        Delegate old = delegates.put(ByteArray.of(d.getAddress()), d);
+        if (old != null) {
+            ranked.remove(old);
+        }
+        ranked.add(d);
+        rankedArray = null;
+    }
+
+    /**
+     * Returns the top delegates.
+     *
+     * @param limit
+     *            the max number of delegates
+     * @param overrides
+     *            delegates replacing the ranked ones of the same address
+     * @return
+     */
+    synchronized List<Delegate> getTop(int limit, Map<ByteArray, Delegate> overrides) {
+        List<Delegate> list = new ArrayList<>();
+        Iterator<Delegate> it = ranked.iterator();
+        if (overrides.isEmpty()) {
+            while (list.size() < limit && it.hasNext()) {
+                list.add(it.next());
+            }
+            return list;
+        }
+
+        List<Delegate> extra = new ArrayList<>(overrides.values());
+        extra.sort(ORDER);
+
+        Delegate next = nextNotOverridden(it, overrides);
+        int j = 0;
+        while (list.size() < limit && (next != null || j < extra.size())) {
+            if (j >= extra.size() || (next != null && ORDER.compare(next, extra.get(j)) < 0)) {
+                list.add(next);
+                next = nextNotOverridden(it, overrides);
+            } else {
+                list.add(extra.get(j++));
+            }
+        }
+        return list;
+    }
+
+    /**
+     * Returns the rank of a delegate, starting from 0.
+     *
+     * @param address
+     * @param overrides
+     *            delegates replacing the ranked ones of the same address
+     * @return the rank, or -1 if the delegate is not found
+     */
+    synchronized int getRank(byte[] address, Map<ByteArray, Delegate> overrides) {
+        ByteArray k = ByteArray.of(address);
+        Delegate d = overrides.containsKey(k) ? overrides.get(k) : delegates.get(k);
+        if (d == null) {
+            return -1;
+        }
+
+        // the ranked delegates before it
+        if (rankedArray == null) {
+            rankedArray = ranked.toArray(new Delegate[0]);
+        }
+        int i = Arrays.binarySearch(rankedArray, d, ORDER);
+        int rank = (i < 0) ? -(i + 1) : i;
+
+        // adjusted by the overriding delegates
+        for (Map.Entry<ByteArray, Delegate> e : overrides.entrySet()) {
+            Delegate old = delegates.get(e.getKey());
+            if (old != null && ORDER.compare(old, d) < 0) {
+                rank--;
+            }
+            if (!e.getKey().equals(k) && ORDER.compare(e.getValue(), d) < 0) {
+                rank++;
+            }
+        }
+        return rank;
+    }
+
+    private static Delegate nextNotOverridden(Iterator<Delegate> it, Map<ByteArray, Delegate> overrides) {
+        while (it.hasNext()) {
+            Delegate d = it.next();
+            if (!overrides.containsKey(ByteArray.of(d.getAddress()))) {
+                return d;
+            }
+        }
+        return null;
+    }
+}
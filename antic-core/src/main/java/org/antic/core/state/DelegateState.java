@@ -94,6 +94,23 @@ public interface DelegateState {
      */
     List<Delegate> getDelegates();
 
+    /**
+     * Returns the top delegates, ordered by votes and then by name.
+     *
+     * @param limit
+     *            the max number of delegates
+     * @return
+     */
+    List<Delegate> getTopDelegates(int limit);
+
+    /**
+     * Returns the rank of a delegate, starting from 0.
+     *
+     * @param address
+     * @return the rank, or -1 if the delegate is not registered
+     */
+    int getDelegateRank(byte[] address);
+
     /**
      * Returns a snapshot and starts tracking updates.
      */
@@ -8,7 +8,6 @@ package org.antic.core.state;
 
 import static org.antic.core.Amount.ZERO;
 
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
@@ -22,6 +21,7 @@ import org.antic.db.Database;
 import org.antic.util.ByteArray;
 import org.antic.util.Bytes;
 import org.antic.util.ClosableIterator;
+import org.antic.util.PersistentHashMap;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -41,6 +41,15 @@ import org.slf4j.LoggerFactory;
  * [delegate, voter] => vote
  * </pre>
  *
+ * Like {@link AccountStateImpl}, a track keeps the updates of itself and its
+ * ancestors up to the root state in persistent maps, for lookups that don't
+ * depend on the nesting depth.
+ * <br>
+ * <br>
+ * The root state keeps the registered delegates ranked in a
+ * {@link DelegateRanking}, built from the database once and then updated along
+ * with each delegate entry, so that the top delegates don't require a full
+ * database scan.
  */
 public class DelegateStateImpl implements Cloneable, DelegateState {
 
@@ -53,6 +62,7 @@ public class DelegateStateImpl implements Cloneable, DelegateState {
     protected Database delegateDB;
     protected Database voteDB;
     protected DelegateStateImpl prev;
+    protected DelegateStateImpl root;
 
     /**
      * Delegate updates
@@ -64,6 +74,18 @@ public class DelegateStateImpl implements Cloneable, DelegateState {
      */
     protected final Map<ByteArray, byte[]> voteUpdates = new ConcurrentHashMap<>();
 
+    /**
+     * The delegate and vote updates of this track and its ancestors up to, but
+     * excluding, the root state; always empty for the root state.
+     */
+    protected volatile PersistentHashMap<ByteArray, byte[]> delegateView = PersistentHashMap.empty();
+    protected volatile PersistentHashMap<ByteArray, byte[]> voteView = PersistentHashMap.empty();
+
+    /**
+     * The delegate ranking of the root state, lazily built.
+     */
+    private volatile DelegateRanking ranking;
+
     /**
      * Create a DelegateState that work directly on a database.
      * 
@@ -74,6 +96,7 @@ public class DelegateStateImpl implements Cloneable, DelegateState {
         this.chain = chain;
         this.delegateDB = delegateDB;
         this.voteDB = voteDB;
+        this.root = this;
     }
 
     /**
@@ -84,6 +107,9 @@ public class DelegateStateImpl implements Cloneable, DelegateState {
     public DelegateStateImpl(DelegateStateImpl prev) {
         this.chain = prev.chain;
         this.prev = prev;
+        this.root = prev.root;
+        this.delegateView = prev.delegateView;
+        this.voteView = prev.voteView;
     }
 
     @Override
@@ -92,8 +118,8 @@ public class DelegateStateImpl implements Cloneable, DelegateState {
             return false;
         } else {
             Delegate d = new Delegate(address, name, registeredAt, ZERO);
-            delegateUpdates.put(ByteArray.of(name), address);
-            delegateUpdates.put(ByteArray.of(address), d.toBytes());
+            putDelegate(ByteArray.of(name), address);
+            putDelegate(ByteArray.of(address), d.toBytes());
 
             return true;
         }
@@ -113,9 +139,9 @@ public class DelegateStateImpl implements Cloneable, DelegateState {
         if (d == null) {
             return false;
         } else {
-            voteUpdates.put(key, encodeAmount(value.add(v)));
+            putVote(key, encodeAmount(value.add(v)));
             d.setVotes(d.getVotes().add(v));
-            delegateUpdates.put(ByteArray.of(delegate), d.toBytes());
+            putDelegate(ByteArray.of(delegate), d.toBytes());
             return true;
         }
     }
@@ -128,11 +154,11 @@ public class DelegateStateImpl implements Cloneable, DelegateState {
         if (v.greaterThan(value)) {
             return false;
         } else {
-            voteUpdates.put(key, encodeAmount(value.subtract(v)));
+            putVote(key, encodeAmount(value.subtract(v)));
 
             Delegate d = getDelegateByAddress(delegate);
             d.setVotes(d.getVotes().subtract(v));
-            delegateUpdates.put(ByteArray.of(delegate), d.toBytes());
+            putDelegate(ByteArray.of(delegate), d.toBytes());
 
             return true;
         }
@@ -145,54 +171,37 @@ public class DelegateStateImpl implements Cloneable, DelegateState {
 
     @Override
     public Delegate getDelegateByName(byte[] name) {
-        ByteArray k = ByteArray.of(name);
-
-        if (delegateUpdates.containsKey(k)) {
-            byte[] v = delegateUpdates.get(k);
-            return v == null ? null : getDelegateByAddress(v);
-        } else if (prev != null) {
-            return prev.getDelegateByName(name);
-        } else {
-            byte[] v = delegateDB.get(k.getData());
-            return v == null ? null : getDelegateByAddress(v);
-        }
+        byte[] v = getDelegate(ByteArray.of(name));
+        return v == null ? null : getDelegateByAddress(v);
     }
 
     @Override
     public Delegate getDelegateByAddress(byte[] address) {
-        ByteArray k = ByteArray.of(address);
-
-        if (delegateUpdates.containsKey(k)) {
-            byte[] v = delegateUpdates.get(k);
-            return v == null ? null : Delegate.fromBytes(k.getData(), v);
-        } else if (prev != null) {
-            return prev.getDelegateByAddress(address);
-        } else {
-            byte[] v = delegateDB.get(k.getData());
-            return v == null ? null : Delegate.fromBytes(k.getData(), v);
-        }
+        byte[] v = getDelegate(ByteArray.of(address));
+        return v == null ? null : Delegate.fromBytes(address, v);
     }
 
     @Override
     public List<Delegate> getDelegates() {
-        long t1 = System.nanoTime();
+        return getTopDelegates(Integer.MAX_VALUE);
+    }
 
-        // traverse all cached update, all the way to database.
-        Map<ByteArray, Delegate> map = new HashMap<>();
-        getDelegates(map);
+    @Override
+    public List<Delegate> getTopDelegates(int limit) {
+        long t1 = System.nanoTime();
 
-        // sort the results
-        List<Delegate> list = new ArrayList<>(map.values());
-        list.sort((d1, d2) -> {
-            int cmp = d2.getVotes().compareTo(d1.getVotes());
-            return (cmp != 0) ? cmp : d1.getNameString().compareTo(d2.getNameString());
-        });
+        List<Delegate> list = root.getRanking().getTop(limit, getOverrides());
 
         long t2 = System.nanoTime();
         logger.trace("Get delegates duration: {} μs", (t2 - t1) / 1000L);
         return list;
     }
 
+    @Override
+    public int getDelegateRank(byte[] address) {
+        return root.getRanking().getRank(address, getOverrides());
+    }
+
     @Override
     public DelegateState track() {
         return new DelegateStateImpl(this);
@@ -200,39 +209,17 @@ public class DelegateStateImpl implements Cloneable, DelegateState {
 
     @Override
     public void commit() {
-        synchronized (delegateUpdates) {
+        synchronized (this) {
             if (prev == null) {
-                for (Entry<ByteArray, byte[]> entry : delegateUpdates.entrySet()) {
-                    if (entry.getValue() == null) {
-                        delegateDB.delete(entry.getKey().getData());
-                    } else {
-                        delegateDB.put(entry.getKey().getData(), entry.getValue());
-                    }
-                }
+                delegateDB.updateBatch(AccountStateImpl.toBatch(delegateUpdates));
+                voteDB.updateBatch(AccountStateImpl.toBatch(voteUpdates));
             } else {
-                for (Entry<ByteArray, byte[]> e : delegateUpdates.entrySet()) {
-                    prev.delegateUpdates.put(e.getKey(), e.getValue());
-                }
+                prev.putAll(delegateUpdates, voteUpdates);
+                delegateView = prev.delegateView;
+                voteView = prev.voteView;
             }
 
             delegateUpdates.clear();
-        }
-
-        synchronized (voteUpdates) {
-            if (prev == null) {
-                for (Entry<ByteArray, byte[]> entry : voteUpdates.entrySet()) {
-                    if (entry.getValue() == null) {
-                        voteDB.delete(entry.getKey().getData());
-                    } else {
-                        voteDB.put(entry.getKey().getData(), entry.getValue());
-                    }
-                }
-            } else {
-                for (Entry<ByteArray, byte[]> e : voteUpdates.entrySet()) {
-                    prev.voteUpdates.put(e.getKey(), e.getValue());
-                }
-            }
-
             voteUpdates.clear();
         }
     }
@@ -241,49 +228,126 @@ public class DelegateStateImpl implements Cloneable, DelegateState {
     public DelegateState clone() {
         DelegateStateImpl clone = new DelegateStateImpl(this.chain, this.delegateDB, this.voteDB);
         clone.prev = this.prev;
+        clone.root = (this.prev == null) ? clone : this.root;
         clone.voteUpdates.putAll(this.voteUpdates);
         clone.delegateUpdates.putAll(this.delegateUpdates);
+        clone.delegateView = this.delegateView;
+        clone.voteView = this.voteView;
         return clone;
     }
 
     @Override
     public void rollback() {
-        delegateUpdates.clear();
-        voteUpdates.clear();
+        synchronized (this) {
+            delegateUpdates.clear();
+            voteUpdates.clear();
+            if (prev != null) {
+                delegateView = prev.delegateView;
+                voteView = prev.voteView;
+            } else {
+                // the ranking includes the discarded updates
+                ranking = null;
+            }
+        }
     }
 
     /**
-     * Recursively compute the delegates.
-     * 
-     * @param map
+     * Returns the delegate entry of a name or an address.
+     *
+     * @param k
+     * @return
      */
-    protected void getDelegates(Map<ByteArray, Delegate> map) {
-        for (Entry<ByteArray, byte[]> entry : delegateUpdates.entrySet()) {
-            /* filter address */
-            if (entry.getKey().length() == ADDRESS_LEN && !map.containsKey(entry.getKey())) {
-                if (entry.getValue() == null) {
-                    map.put(entry.getKey(), null);
-                } else {
-                    map.put(entry.getKey(), Delegate.fromBytes(entry.getKey().getData(), entry.getValue()));
-                }
-            }
+    protected byte[] getDelegate(ByteArray k) {
+        if (prev == null) {
+            byte[] v = delegateUpdates.get(k);
+            return (v != null) ? v : delegateDB.get(k.getData());
+        } else {
+            byte[] v = delegateView.get(k);
+            return (v != null) ? v : root.getDelegate(k);
         }
+    }
 
+    protected synchronized void putDelegate(ByteArray k, byte[] v) {
+        delegateUpdates.put(k, v);
         if (prev != null) {
-            prev.getDelegates(map);
-        } else {
-            ClosableIterator<Entry<byte[], byte[]>> itr = delegateDB.iterator();
-            while (itr.hasNext()) {
-                Entry<byte[], byte[]> entry = itr.next();
-                ByteArray k = ByteArray.of(entry.getKey());
-                byte[] v = entry.getValue();
+            delegateView = delegateView.plus(k, v);
+        } else if (ranking != null && k.length() == ADDRESS_LEN) {
+            ranking.update(Delegate.fromBytes(k.getData(), v));
+        }
+    }
 
-                if (k.length() == ADDRESS_LEN && !map.containsKey(k)) {
+    protected synchronized void putVote(ByteArray k, byte[] v) {
+        voteUpdates.put(k, v);
+        if (prev != null) {
+            voteView = voteView.plus(k, v);
+        }
+    }
+
+    protected synchronized void putAll(Map<ByteArray, byte[]> delegates, Map<ByteArray, byte[]> votes) {
+        for (Entry<ByteArray, byte[]> e : delegates.entrySet()) {
+            putDelegate(e.getKey(), e.getValue());
+        }
+        for (Entry<ByteArray, byte[]> e : votes.entrySet()) {
+            putVote(e.getKey(), e.getValue());
+        }
+    }
+
+    /**
+     * Returns the delegates updated by this track and its ancestors, which
+     * override the ones of the root ranking.
+     *
+     * @return
+     */
+    protected Map<ByteArray, Delegate> getOverrides() {
+        Map<ByteArray, Delegate> map = new HashMap<>();
+        if (prev != null) {
+            delegateView.forEach((k, v) -> {
+                /* filter address */
+                if (k.length() == ADDRESS_LEN) {
                     map.put(k, Delegate.fromBytes(k.getData(), v));
                 }
+            });
+        }
+        return map;
+    }
+
+    /**
+     * Returns the delegate ranking of this root state, which is built from the
+     * database and the pending updates on first use.
+     *
+     * @return
+     */
+    private DelegateRanking getRanking() {
+        DelegateRanking r = ranking;
+        if (r == null) {
+            synchronized (this) {
+                r = ranking;
+                if (r == null) {
+                    r = new DelegateRanking();
+
+                    ClosableIterator<Entry<byte[], byte[]>> itr = delegateDB.iterator();
+                    while (itr.hasNext()) {
+                        Entry<byte[], byte[]> entry = itr.next();
+                        ByteArray k = ByteArray.of(entry.getKey());
+
+                        /* filter address */
+                        if (k.length() == ADDRESS_LEN && !delegateUpdates.containsKey(k)) {
+                            r.update(Delegate.fromBytes(k.getData(), entry.getValue()));
+                        }
+                    }
+                    itr.close();
+
+                    for (Entry<ByteArray, byte[]> entry : delegateUpdates.entrySet()) {
+                        if (entry.getKey().length() == ADDRESS_LEN) {
+                            r.update(Delegate.fromBytes(entry.getKey().getData(), entry.getValue()));
+                        }
+                    }
+
+                    ranking = r;
+                }
             }
-            itr.close();
         }
+        return r;
     }
 
     /**
@@ -294,17 +358,19 @@ public class DelegateStateImpl implements Cloneable, DelegateState {
      * @return
      */
     protected Amount getVote(ByteArray key) {
-        if (voteUpdates.containsKey(key)) {
-            byte[] bytes = voteUpdates.get(key);
-            return decodeAmount(bytes);
-        }
-
-        if (prev != null) {
-            return prev.getVote(key);
+        byte[] bytes;
+        if (prev == null) {
+            bytes = voteUpdates.get(key);
+            if (bytes == null) {
+                bytes = voteDB.get(key.getData());
+            }
         } else {
-            byte[] bytes = voteDB.get(key.getData());
-            return decodeAmount(bytes);
+            bytes = voteView.get(key);
+            if (bytes == null) {
+                return root.getVote(key);
+            }
         }
+        return decodeAmount(bytes);
     }
 
     @Override
@@ -0,0 +1,149 @@
+/**
+ * Copyright (c) 2019 The Antic Developers
+ *
+ * Distributed under the MIT software license, see the accompanying file
+ * LICENSE or https://opensource.org/licenses/mit-license.php
+ */
+package org.antic.db;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map.Entry;
+
+import org.antic.util.ByteArray;
+import org.antic.util.ClosableIterator;
+import org.apache.commons.lang3.tuple.Pair;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+
+/**
+ * A database decorator which caches the values, including absent ones, of
+ * point lookups within a byte-size budget. Updates are written through to the
+ * underlying database and then invalidate the cached entries.
+ * <br>
+ * <br>
+ * NOTE: the returned values are shared and must not be modified.
+ */
+public class CachedDatabase implements Database {
+
+    /**
+     * Marker of keys known to be absent, compared by identity.
+     */
+    private static final byte[] ABSENT = new byte[0];
+
+    /**
+     * Estimated per-entry overhead of the cache and the key/value objects.
+     */
+    private static final int ENTRY_OVERHEAD = 96;
+
+    private final Database db;
+    private final long capacity;
+    private final Cache<ByteArray, byte[]> cache;
+
+    /**
+     * Creates a cached database.
+     *
+     * @param db
+     *            the underlying database
+     * @param capacity
+     *            the cache budget, in bytes
+     */
+    public CachedDatabase(Database db, long capacity) {
+        this.db = db;
+        this.capacity = capacity;
+        this.cache = Caffeine.newBuilder()
+                .maximumWeight(capacity)
+                .weigher((ByteArray k, byte[] v) -> ENTRY_OVERHEAD + k.length() + v.length)
+                .recordStats()
+                .build();
+    }
+
+    @Override
+    public byte[] get(byte[] key) {
+        byte[] value = cache.get(ByteArray.of(key), k -> {
+            byte[] v = db.get(k.getData());
+            return v == null ? ABSENT : v;
+        });
+        return value == ABSENT ? null : value;
+    }
+
+    @Override
+    public void put(byte[] key, byte[] value) {
+        db.put(key, value);
+        cache.invalidate(ByteArray.of(key));
+    }
+
+    @Override
+    public void delete(byte[] key) {
+        db.delete(key);
+        cache.invalidate(ByteArray.of(key));
+    }
+
+    @Override
+    public void updateBatch(List<Pair<byte[], byte[]>> pairs) {
+        db.updateBatch(pairs);
+
+        List<ByteArray> keys = new ArrayList<>(pairs.size());
+        for (Pair<byte[], byte[]> p : pairs) {
+            keys.add(ByteArray.of(p.getLeft()));
+        }
+        cache.invalidateAll(keys);
+    }
+
+    @Override
+    public ClosableIterator<Entry<byte[], byte[]>> iterator() {
+        return db.iterator();
+    }
+
+    @Override
+    public ClosableIterator<Entry<byte[], byte[]>> iterator(byte[] prefix) {
+        return db.iterator(prefix);
+    }
+
+    @Override
+    public void close() {
+        cache.invalidateAll();
+        db.close();
+    }
+
+    @Override
+    public void destroy() {
+        cache.invalidateAll();
+        db.destroy();
+    }
+
+    @Override
+    public Path getDataDir() {
+        return db.getDataDir();
+    }
+
+    /**
+     * Returns the cache budget, in bytes.
+     *
+     * @return
+     */
+    public long getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Returns the estimated size of cached entries, in bytes.
+     *
+     * @return
+     */
+    public long getSize() {
+        return cache.policy().eviction().map(e -> e.weightedSize().orElse(0L)).orElse(0L);
+    }
+
+    /**
+     * Returns the hit, miss and eviction counters of the cache.
+     *
+     * @return
+     */
+    public CacheStats getStats() {
+        return cache.stats();
+    }
+}
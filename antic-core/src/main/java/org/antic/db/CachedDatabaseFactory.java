@@ -0,0 +1,72 @@
+/**
+ * Copyright (c) 2019 The Antic Developers
+ *
+ * Distributed under the MIT software license, see the accompanying file
+ * LICENSE or https://opensource.org/licenses/mit-license.php
+ */
+package org.antic.db;
+
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * A database factory which puts a {@link CachedDatabase} in front of the
+ * databases with a positive cache budget.
+ */
+public class CachedDatabaseFactory implements DatabaseFactory {
+
+    private final EnumMap<DatabaseName, Database> databases = new EnumMap<>(DatabaseName.class);
+
+    private final DatabaseFactory factory;
+    private final Map<DatabaseName, Long> cacheSizes;
+
+    /**
+     * Creates a cached database factory.
+     *
+     * @param factory
+     *            the underlying database factory
+     * @param cacheSizes
+     *            the cache budget of each database, in bytes
+     */
+    public CachedDatabaseFactory(DatabaseFactory factory, Map<DatabaseName, Long> cacheSizes) {
+        this.factory = factory;
+        this.cacheSizes = cacheSizes;
+    }
+
+    @Override
+    public Database getDB(DatabaseName name) {
+        return databases.computeIfAbsent(name, k -> {
+            Database db = factory.getDB(k);
+            long size = cacheSizes.getOrDefault(k, 0L);
+            return size > 0 ? new CachedDatabase(db, size) : db;
+        });
+    }
+
+    /**
+     * Returns the opened databases which are cached.
+     *
+     * @return
+     */
+    public Map<DatabaseName, CachedDatabase> getCachedDatabases() {
+        Map<DatabaseName, CachedDatabase> map = new EnumMap<>(DatabaseName.class);
+        for (Map.Entry<DatabaseName, Database> e : databases.entrySet()) {
+            if (e.getValue() instanceof CachedDatabase) {
+                map.put(e.getKey(), (CachedDatabase) e.getValue());
+            }
+        }
+        return Collections.unmodifiableMap(map);
+    }
+
+    @Override
+    public void close() {
+        databases.clear();
+        factory.close();
+    }
+
+    @Override
+    public Path getDataDir() {
+        return factory.getDataDir();
+    }
+}
@@ -0,0 +1,57 @@
+/**
+ * Copyright (c) 2019 The Antic Developers
+ *
+ * Distributed under the MIT software license, see the accompanying file
+ * LICENSE or https://opensource.org/licenses/mit-license.php
+ */
+package org.antic.db;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * A database factory which opens each database with its configured storage
+ * engine. All the engines share the same data directory.
+ */
+public class CompositeDatabaseFactory implements DatabaseFactory {
+
+    private final EnumMap<DatabaseEngine, DatabaseFactory> factories = new EnumMap<>(DatabaseEngine.class);
+
+    private final File dataDir;
+    private final Map<DatabaseName, DatabaseEngine> engines;
+
+    /**
+     * Creates a database factory.
+     *
+     * @param dataDir
+     *            the data directory
+     * @param engines
+     *            the storage engine of each database, {@link DatabaseEngine#LEVELDB}
+     *            if absent
+     */
+    public CompositeDatabaseFactory(File dataDir, Map<DatabaseName, DatabaseEngine> engines) {
+        this.dataDir = dataDir;
+        this.engines = engines;
+    }
+
+    @Override
+    public Database getDB(DatabaseName name) {
+        DatabaseEngine engine = engines.getOrDefault(name, DatabaseEngine.LEVELDB);
+        return factories.computeIfAbsent(engine, e -> e.createFactory(dataDir)).getDB(name);
+    }
+
+    @Override
+    public void close() {
+        for (DatabaseFactory factory : factories.values()) {
+            factory.close();
+        }
+        factories.clear();
+    }
+
+    @Override
+    public Path getDataDir() {
+        return dataDir.toPath();
+    }
+}
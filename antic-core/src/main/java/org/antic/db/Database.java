@@ -55,7 +55,8 @@ public interface Database {
     void updateBatch(List<Pair<byte[], byte[]>> pairs);
 
     /**
-     * Returns all the keys.<br>
+     * Returns all the keys. The iterator reads the database as of its creation,
+     * the later writes are not visible.<br>
      * <br>
      * NOTE: be sure to close the iterator after iteration.
      * 
@@ -0,0 +1,44 @@
+/**
+ * Copyright (c) 2019 The Antic Developers
+ *
+ * Distributed under the MIT software license, see the accompanying file
+ * LICENSE or https://opensource.org/licenses/mit-license.php
+ */
+package org.antic.db;
+
+import java.io.File;
+
+/**
+ * Storage engines which a {@link Database} can be backed by.
+ */
+public enum DatabaseEngine {
+
+    /**
+     * LevelDB, one database directory for each {@link DatabaseName}.
+     */
+    LEVELDB {
+        @Override
+        public DatabaseFactory createFactory(File dataDir) {
+            return new LeveldbDatabase.LeveldbFactory(dataDir);
+        }
+    },
+
+    /**
+     * RocksDB, one database with a column family for each {@link DatabaseName}.
+     */
+    ROCKSDB {
+        @Override
+        public DatabaseFactory createFactory(File dataDir) {
+            return new RocksdbDatabase.RocksdbFactory(dataDir);
+        }
+    };
+
+    /**
+     * Creates a database factory of this engine.
+     *
+     * @param dataDir
+     *            the data directory
+     * @return
+     */
+    public abstract DatabaseFactory createFactory(File dataDir);
+}
@@ -0,0 +1,362 @@
+/**
+ * Copyright (c) 2019 The Antic Developers
+ * <p>
+ * Distributed under the MIT software license, see the accompanying file
+ * LICENSE or https://opensource.org/licenses/mit-license.php
+ */
+package org.antic.db;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map.Entry;
+
+import org.antic.db.exception.DatabaseException;
+import org.antic.util.ClosableIterator;
+import org.antic.util.SystemUtil;
+import org.apache.commons.lang3.tuple.Pair;
+import org.rocksdb.BlockBasedTableConfig;
+import org.rocksdb.BloomFilter;
+import org.rocksdb.Cache;
+import org.rocksdb.ColumnFamilyDescriptor;
+import org.rocksdb.ColumnFamilyHandle;
+import org.rocksdb.ColumnFamilyOptions;
+import org.rocksdb.CompressionType;
+import org.rocksdb.DBOptions;
+import org.rocksdb.LRUCache;
+import org.rocksdb.RocksDB;
+import org.rocksdb.RocksDBException;
+import org.rocksdb.RocksIterator;
+import org.rocksdb.RocksObject;
+import org.rocksdb.WriteBatch;
+import org.rocksdb.WriteOptions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A {@link Database} backed by one column family of a shared RocksDB instance.
+ */
+public class RocksdbDatabase implements Database {
+
+    private static final Logger logger = LoggerFactory.getLogger(RocksdbDatabase.class);
+
+    private final RocksDB db;
+    private final ColumnFamilyHandle handle;
+    private final WriteOptions writeOptions;
+    private final Path dataDir;
+
+    /**
+     * Creates a database view of the given column family. The RocksDB instance
+     * is owned and closed by its {@link RocksdbFactory}.
+     *
+     * @param db
+     * @param handle
+     * @param dataDir
+     */
+    protected RocksdbDatabase(RocksDB db, ColumnFamilyHandle handle, Path dataDir) {
+        this.db = db;
+        this.handle = handle;
+        this.writeOptions = new WriteOptions();
+        this.dataDir = dataDir;
+    }
+
+    @Override
+    public byte[] get(byte[] key) {
+        try {
+            return db.get(handle, key);
+        } catch (RocksDBException e) {
+            throw new DatabaseException(e);
+        }
+    }
+
+    @Override
+    public void put(byte[] key, byte[] value) {
+        try {
+            db.put(handle, writeOptions, key, value);
+        } catch (RocksDBException e) {
+            throw new DatabaseException(e);
+        }
+    }
+
+    @Override
+    public void delete(byte[] key) {
+        try {
+            db.delete(handle, writeOptions, key);
+        } catch (RocksDBException e) {
+            throw new DatabaseException(e);
+        }
+    }
+
+    @Override
+    public void updateBatch(List<Pair<byte[], byte[]>> pairs) {
+        try (WriteBatch batch = new WriteBatch()) {
+            for (Pair<byte[], byte[]> p : pairs) {
+                if (p.getValue() == null) {
+                    batch.delete(handle, p.getLeft());
+                } else {
+                    batch.put(handle, p.getLeft(), p.getRight());
+                }
+            }
+            db.write(writeOptions, batch);
+        } catch (RocksDBException e) {
+            logger.error("Failed to update batch", e);
+            SystemUtil.exitAsync(SystemUtil.Code.FAILED_TO_WRITE_BATCH_TO_DB);
+        }
+    }
+
+    /**
+     * Releases the resources of this column family view; the shared RocksDB
+     * instance is closed by the factory.
+     */
+    @Override
+    public void close() {
+        writeOptions.close();
+    }
+
+    /**
+     * Deletes all the keys of this column family, with one range tombstone
+     * between the first and the last key, and compacts the deleted range away.
+     */
+    @Override
+    public void destroy() {
+        try (RocksIterator itr = db.newIterator(handle)) {
+            itr.seekToFirst();
+            if (itr.isValid()) {
+                byte[] first = itr.key();
+                itr.seekToLast();
+                byte[] last = itr.key();
+
+                // the end of the range is exclusive
+                db.deleteRange(handle, writeOptions, first, last);
+                db.delete(handle, writeOptions, last);
+                db.compactRange(handle);
+            }
+        } catch (RocksDBException e) {
+            throw new DatabaseException(e);
+        }
+        close();
+    }
+
+    @Override
+    public Path getDataDir() {
+        return dataDir;
+    }
+
+    @Override
+    public ClosableIterator<Entry<byte[], byte[]>> iterator() {
+        return iterator(null);
+    }
+
+    @Override
+    public ClosableIterator<Entry<byte[], byte[]>> iterator(byte[] prefix) {
+
+        return new ClosableIterator<Entry<byte[], byte[]>>() {
+            final RocksIterator itr = db.newIterator(handle);
+
+            private ClosableIterator<Entry<byte[], byte[]>> initialize() {
+                if (prefix != null) {
+                    itr.seek(prefix);
+                } else {
+                    itr.seekToFirst();
+                }
+                return this;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return itr.isValid();
+            }
+
+            @Override
+            public Entry<byte[], byte[]> next() {
+                Entry<byte[], byte[]> entry = new SimpleImmutableEntry<>(itr.key(), itr.value());
+                itr.next();
+                return entry;
+            }
+
+            @Override
+            public void close() {
+                itr.close();
+            }
+        }.initialize();
+    }
+
+    /**
+     * Opens one RocksDB instance, in the <code>rocksdb</code> sub-directory,
+     * holding all the databases as column families. The column families share
+     * one block cache and are tuned by their access patterns.
+     */
+    public static class RocksdbFactory implements DatabaseFactory {
+
+        private static final String DIR_NAME = "rocksdb";
+
+        private static final long BLOCK_CACHE_SIZE = 256L * 1024L * 1024L;
+
+        /**
+         * Recent levels are compacted frequently and left uncompressed; the
+         * bottommost level is compressed with ZSTD.
+         */
+        private static final List<CompressionType> COMPRESSION_PER_LEVEL = Arrays.asList(
+                CompressionType.NO_COMPRESSION,
+                CompressionType.NO_COMPRESSION,
+                CompressionType.LZ4_COMPRESSION,
+                CompressionType.LZ4_COMPRESSION,
+                CompressionType.LZ4_COMPRESSION,
+                CompressionType.LZ4_COMPRESSION,
+                CompressionType.LZ4_COMPRESSION);
+
+        static {
+            RocksDB.loadLibrary();
+        }
+
+        private final EnumMap<DatabaseName, Database> databases = new EnumMap<>(DatabaseName.class);
+
+        /**
+         * Native resources to be released after the database is closed.
+         */
+        private final List<RocksObject> resources = new ArrayList<>();
+        private final List<ColumnFamilyHandle> handles = new ArrayList<>();
+
+        private final File dataDir;
+
+        private Cache blockCache;
+        private RocksDB db;
+
+        public RocksdbFactory(File dataDir) {
+            this.dataDir = dataDir;
+            open();
+        }
+
+        /**
+         * Opens the RocksDB instance with all the column families.
+         */
+        protected void open() {
+            File file = new File(dataDir.getAbsolutePath(), DIR_NAME);
+            if (!file.exists() && !file.mkdirs()) {
+                logger.error("Failed to create directory: {}", file);
+            }
+
+            blockCache = register(new LRUCache(BLOCK_CACHE_SIZE));
+            DBOptions options = register(createOptions());
+
+            List<ColumnFamilyDescriptor> descriptors = new ArrayList<>();
+            descriptors.add(new ColumnFamilyDescriptor(RocksDB.DEFAULT_COLUMN_FAMILY,
+                    register(new ColumnFamilyOptions())));
+            for (DatabaseName name : DatabaseName.values()) {
+                descriptors.add(new ColumnFamilyDescriptor(name.toString().toLowerCase(Locale.ROOT).getBytes(UTF_8),
+                        register(createColumnFamilyOptions(name))));
+            }
+
+            try {
+                db = RocksDB.open(options, file.getAbsolutePath(), descriptors, handles);
+            } catch (RocksDBException e) {
+                logger.error("Failed to open database", e);
+                SystemUtil.exitAsync(SystemUtil.Code.FAILED_TO_OPEN_DB);
+                return;
+            }
+
+            DatabaseName[] names = DatabaseName.values();
+            for (int i = 0; i < names.length; i++) {
+                // handle #0 is the default column family
+                databases.put(names[i], new RocksdbDatabase(db, handles.get(i + 1), file.toPath()));
+            }
+        }
+
+        /**
+         * Creates the database-wide options.
+         *
+         * @return
+         */
+        protected DBOptions createOptions() {
+            int threads = Math.max(2, Runtime.getRuntime().availableProcessors() / 2);
+
+            DBOptions options = new DBOptions();
+            options.setCreateIfMissing(true);
+            options.setCreateMissingColumnFamilies(true);
+            options.setParanoidChecks(true);
+            options.setMaxOpenFiles(512);
+            // compactions and flushes run on multiple threads
+            options.setIncreaseParallelism(threads);
+            options.setMaxBackgroundJobs(threads);
+
+            return options;
+        }
+
+        /**
+         * Creates the options of one column family.
+         *
+         * @param name
+         * @return
+         */
+        protected ColumnFamilyOptions createColumnFamilyOptions(DatabaseName name) {
+            BlockBasedTableConfig table = new BlockBasedTableConfig();
+            table.setBlockCache(blockCache);
+            table.setCacheIndexAndFilterBlocks(true);
+            table.setPinL0FilterAndIndexBlocksInCache(true);
+
+            ColumnFamilyOptions options = new ColumnFamilyOptions();
+            options.setLevelCompactionDynamicLevelBytes(true);
+            options.setCompressionPerLevel(COMPRESSION_PER_LEVEL);
+            options.setBottommostCompressionType(CompressionType.ZSTD_COMPRESSION);
+
+            if (name == DatabaseName.BLOCK) {
+                // append-mostly, large values read by block number
+                table.setBlockSize(64 * 1024);
+                options.setWriteBufferSize(64L * 1024L * 1024L);
+            } else {
+                // point lookups by hash or address
+                table.setBlockSize(16 * 1024);
+                table.setFilterPolicy(register(new BloomFilter(10, false)));
+                table.setWholeKeyFiltering(true);
+                options.setWriteBufferSize(32L * 1024L * 1024L);
+            }
+            options.setTableFormatConfig(table);
+
+            return options;
+        }
+
+        private <T extends RocksObject> T register(T resource) {
+            resources.add(resource);
+            return resource;
+        }
+
+        @Override
+        public Database getDB(DatabaseName name) {
+            return databases.get(name);
+        }
+
+        @Override
+        public void close() {
+            for (Database database : databases.values()) {
+                database.close();
+            }
+            databases.clear();
+
+            // handles must be closed before the database, options after
+            for (ColumnFamilyHandle handle : handles) {
+                handle.close();
+            }
+            handles.clear();
+            if (db != null) {
+                db.close();
+                db = null;
+            }
+            for (RocksObject resource : resources) {
+                resource.close();
+            }
+            resources.clear();
+        }
+
+        @Override
+        public Path getDataDir() {
+            return dataDir.toPath();
+        }
+    }
+}
@@ -0,0 +1,188 @@
+/**
+ * Copyright (c) 2019 The Antic Developers
+ *
+ * Distributed under the MIT software license, see the accompanying file
+ * LICENSE or https://opensource.org/licenses/mit-license.php
+ */
+package org.antic.db;
+
+import java.nio.file.Path;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.NavigableMap;
+import java.util.NoSuchElementException;
+import java.util.TreeMap;
+
+import org.antic.util.ByteArray;
+import org.antic.util.ClosableIterator;
+import org.apache.commons.lang3.tuple.Pair;
+
+/**
+ * A database view which stages all updates in memory and writes them to the
+ * underlying database with one single batch when {@link #flush()} is called.
+ * <br>
+ * <br>
+ * Reads see the staged updates first, and iterators merge the staged updates,
+ * kept in key order, over the ones of the underlying database. This class is
+ * not thread-safe.
+ */
+public class StagedDatabase implements Database {
+
+    private final Database db;
+
+    /**
+     * Staged updates, or deletes if the value is null.
+     */
+    private final NavigableMap<ByteArray, byte[]> updates = new TreeMap<>();
+
+    public StagedDatabase(Database db) {
+        this.db = db;
+    }
+
+    @Override
+    public byte[] get(byte[] key) {
+        ByteArray k = ByteArray.of(key);
+        return updates.containsKey(k) ? updates.get(k) : db.get(key);
+    }
+
+    @Override
+    public void put(byte[] key, byte[] value) {
+        updates.put(ByteArray.of(key), value);
+    }
+
+    @Override
+    public void delete(byte[] key) {
+        updates.put(ByteArray.of(key), null);
+    }
+
+    @Override
+    public void updateBatch(List<Pair<byte[], byte[]>> pairs) {
+        for (Pair<byte[], byte[]> p : pairs) {
+            updates.put(ByteArray.of(p.getLeft()), p.getRight());
+        }
+    }
+
+    /**
+     * Writes all the staged updates to the underlying database in one batch.
+     */
+    public void flush() {
+        if (updates.isEmpty()) {
+            return;
+        }
+
+        List<Pair<byte[], byte[]>> pairs = new ArrayList<>(updates.size());
+        for (Entry<ByteArray, byte[]> e : updates.entrySet()) {
+            pairs.add(Pair.of(e.getKey().getData(), e.getValue()));
+        }
+        db.updateBatch(pairs);
+        updates.clear();
+    }
+
+    /**
+     * Returns the number of staged updates.
+     *
+     * @return
+     */
+    public int size() {
+        return updates.size();
+    }
+
+    @Override
+    public ClosableIterator<Entry<byte[], byte[]>> iterator() {
+        return iterator(null);
+    }
+
+    @Override
+    public ClosableIterator<Entry<byte[], byte[]>> iterator(byte[] prefix) {
+        // the staged updates at the time of the call
+        NavigableMap<ByteArray, byte[]> staged = new TreeMap<>(
+                prefix == null ? updates : updates.tailMap(ByteArray.of(prefix), true));
+
+        return new ClosableIterator<Entry<byte[], byte[]>>() {
+            final ClosableIterator<Entry<byte[], byte[]>> base = db.iterator(prefix);
+            final Iterator<Entry<ByteArray, byte[]>> stagedItr = staged.entrySet().iterator();
+
+            Entry<byte[], byte[]> nextBase = advanceBase();
+            Entry<ByteArray, byte[]> nextStaged = advanceStaged();
+            Entry<byte[], byte[]> next = advance();
+
+            private Entry<byte[], byte[]> advanceBase() {
+                return base.hasNext() ? base.next() : null;
+            }
+
+            private Entry<ByteArray, byte[]> advanceStaged() {
+                return stagedItr.hasNext() ? stagedItr.next() : null;
+            }
+
+            private Entry<byte[], byte[]> advance() {
+                while (nextBase != null || nextStaged != null) {
+                    int cmp = nextBase == null ? 1
+                            : nextStaged == null ? -1
+                                    : ByteArray.of(nextBase.getKey()).compareTo(nextStaged.getKey());
+
+                    if (cmp < 0) {
+                        Entry<byte[], byte[]> e = nextBase;
+                        nextBase = advanceBase();
+                        return e;
+                    }
+
+                    // the staged update overrides the underlying entry
+                    Entry<ByteArray, byte[]> e = nextStaged;
+                    nextStaged = advanceStaged();
+                    if (cmp == 0) {
+                        nextBase = advanceBase();
+                    }
+                    if (e.getValue() != null) {
+                        return new SimpleImmutableEntry<>(e.getKey().getData(), e.getValue());
+                    }
+                }
+                return null;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public Entry<byte[], byte[]> next() {
+                if (next == null) {
+                    throw new NoSuchElementException();
+                }
+                Entry<byte[], byte[]> e = next;
+                next = advance();
+                return e;
+            }
+
+            @Override
+            public void close() {
+                base.close();
+            }
+        };
+    }
+
+    /**
+     * Discards all the staged updates; the underlying database is left open.
+     */
+    @Override
+    public void close() {
+        updates.clear();
+    }
+
+    /**
+     * Discards all the staged updates and destroys the underlying database.
+     */
+    @Override
+    public void destroy() {
+        updates.clear();
+        db.destroy();
+    }
+
+    @Override
+    public Path getDataDir() {
+        return db.getDataDir();
+    }
+}
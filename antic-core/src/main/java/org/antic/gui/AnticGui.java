@@ -508,10 +508,11 @@ public class AnticGui extends Launcher {
                 .boxed()
                 .collect(Collectors.toMap(validators::get, i -> i));
         for (Delegate d : ds.getDelegates()) {
+            int rank = ds.getDelegateRank(d.getAddress());
             wds.add(validatorPositionMap.containsKey(d.getAddressString())
-                    ? new WalletDelegate(d, validatorPositionMap.containsKey(d.getAddressString()),
+                    ? new WalletDelegate(d, rank, validatorPositionMap.containsKey(d.getAddressString()),
                             validatorPositionMap.get(d.getAddressString()))
-                    : new WalletDelegate(d));
+                    : new WalletDelegate(d, rank));
         }
         model.setDelegates(wds);
 
@@ -22,12 +22,15 @@ public class WalletDelegate extends Delegate {
     private Boolean isValidator;
     private Integer validatorPosition;
 
-    public WalletDelegate(Delegate d) {
-        this(d, false, null);
+    private int rank;
+
+    public WalletDelegate(Delegate d, int rank) {
+        this(d, rank, false, null);
     }
 
-    public WalletDelegate(Delegate d, Boolean isValidator, Integer validatorPosition) {
+    public WalletDelegate(Delegate d, int rank, Boolean isValidator, Integer validatorPosition) {
         super(d.getAddress(), d.getName(), d.getRegisteredAt(), d.getVotes());
+        this.rank = rank;
         this.isValidator = isValidator;
         this.validatorPosition = validatorPosition;
     }
@@ -76,4 +79,13 @@ public class WalletDelegate extends Delegate {
     public int getValidatorPosition() {
         return validatorPosition;
     }
+
+    /**
+     * Returns the rank of this delegate, starting from 0.
+     *
+     * @return
+     */
+    public int getRank() {
+        return rank;
+    }
 }
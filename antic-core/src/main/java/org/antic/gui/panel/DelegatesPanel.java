@@ -316,7 +316,7 @@ public class DelegatesPanel extends JPanel implements ActionListener {
 
             switch (column) {
             case 0:
-                return SwingUtil.formatNumber(row + 1);
+                return SwingUtil.formatNumber(d.getRank() + 1);
             case 1:
                 return d.getNameString();
             case 2:
@@ -392,13 +392,6 @@ public class DelegatesPanel extends JPanel implements ActionListener {
      */
     protected void refreshDelegates() {
         List<WalletDelegate> delegates = model.getDelegates();
-        delegates.sort((d1, d2) -> {
-            if (d1.getVotes() != d2.getVotes()) {
-                return d2.getVotes().compareTo(d1.getVotes());
-            }
-
-            return d1.getNameString().compareTo(d2.getNameString());
-        });
 
         WalletAccount acc = getSelectedAccount();
         if (acc != null) {
@@ -16,6 +16,7 @@ import org.slf4j.LoggerFactory;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelOption;
 import io.netty.channel.FixedRecvByteBufAllocator;
+import io.netty.channel.WriteBufferWaterMark;
 import io.netty.channel.socket.nio.NioSocketChannel;
 
 public class AnticChannelInitializer extends ChannelInitializer<NioSocketChannel> {
@@ -76,6 +77,9 @@ public class AnticChannelInitializer extends ChannelInitializer<NioSocketChannel
             ch.config().setOption(ChannelOption.SO_RCVBUF, bufferSize);
             ch.config().setOption(ChannelOption.SO_BACKLOG, 1024);
 
+            // pause the message queue while a few frames are pending to be sent
+            ch.config().setWriteBufferWaterMark(new WriteBufferWaterMark(2 * bufferSize, 8 * bufferSize));
+
             // notify disconnection to channel manager
             ch.closeFuture().addListener(future -> {
                 if (!isDiscoveryMode()) {
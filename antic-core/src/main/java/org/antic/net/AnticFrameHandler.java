@@ -14,6 +14,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.ByteToMessageCodec;
 
@@ -32,6 +33,7 @@ public class AnticFrameHandler extends ByteToMessageCodec<Frame> {
         // check version
         if (frame.getVersion() != Frame.VERSION) {
             logger.error("Invalid frame version: {}", frame.getVersion());
+            frame.release();
             return;
         }
 
@@ -39,17 +41,18 @@ public class AnticFrameHandler extends ByteToMessageCodec<Frame> {
         int bodySize = frame.getBodySize();
         if (bodySize < 0 || bodySize > config.netMaxFrameBodySize()) {
             logger.error("Invalid frame body size: {}", bodySize);
+            frame.release();
             return;
         }
 
-        // create a buffer
-        ByteBuf buf = out.alloc().buffer(Frame.HEADER_SIZE + bodySize);
-        frame.writeHeader(buf);
-        buf.writeBytes(frame.getBody());
+        // prepend the header to the body, without copying the body
+        ByteBuf header = ctx.alloc().buffer(Frame.HEADER_SIZE);
+        frame.writeHeader(header);
+        ByteBuf buf = Unpooled.wrappedBuffer(header, frame.getBody());
 
         // NOTE: write() operation does not flush automatically
 
-        // write to context
+        // write to context, which releases the buffer once written
         ctx.write(buf);
     }
 
@@ -78,10 +81,8 @@ public class AnticFrameHandler extends ByteToMessageCodec<Frame> {
             // reset reader index if not available
             in.readerIndex(readerIndex);
         } else {
-            // read body
-            byte[] body = new byte[bodySize];
-            in.readBytes(body);
-            frame.setBody(body);
+            // read body, as a slice of the network buffer
+            frame.setBody(in.readRetainedSlice(bodySize));
 
             // deliver
             out.add(frame);
@@ -7,9 +7,12 @@
 package org.antic.net;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.lang3.tuple.Pair;
@@ -21,12 +24,21 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.xerial.snappy.Snappy;
 
-import com.github.benmanes.caffeine.cache.Cache;
-import com.github.benmanes.caffeine.cache.Caffeine;
-
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.CompositeByteBuf;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.MessageToMessageCodec;
 
+/**
+ * Encodes messages into frames and decodes frames into messages.
+ * <br>
+ * <br>
+ * Packet data is kept in pooled, reference-counted buffers: chunks are
+ * reassembled in a composite buffer, compressed and decompressed in direct
+ * buffers, and frames are slices of the compressed packet. The message body is
+ * the only copy of the packet data on heap.
+ */
 public class AnticMessageHandler extends MessageToMessageCodec<Frame, Message> {
 
     private static final Logger logger = LoggerFactory.getLogger(AnticMessageHandler.class);
@@ -35,8 +47,20 @@ public class AnticMessageHandler extends MessageToMessageCodec<Frame, Message> {
 
     private static final byte COMPRESS_TYPE = Frame.COMPRESS_SNAPPY;
 
-    private final Cache<Integer, Pair<List<Frame>, AtomicInteger>> incompletePackets = Caffeine.newBuilder()
-            .maximumSize(MAX_PACKETS).build();
+    // the frames of incomplete packets, which are released when evicted
+    private final Map<Integer, Pair<List<Frame>, AtomicInteger>> incompletePackets = new LinkedHashMap<
+            Integer, Pair<List<Frame>, AtomicInteger>>() {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, Pair<List<Frame>, AtomicInteger>> eldest) {
+            if (size() > MAX_PACKETS) {
+                release(eldest.getValue().getLeft());
+                return true;
+            }
+            return false;
+        }
+    };
 
     private final Config config;
 
@@ -53,35 +77,44 @@ public class AnticMessageHandler extends MessageToMessageCodec<Frame, Message> {
     @Override
     protected void encode(ChannelHandlerContext ctx, Message msg, List<Object> out) throws Exception {
         byte[] data = msg.getBody();
-        byte[] dataCompressed = data;
+        if (data.length > config.netMaxPacketSize()) {
+            logger.error("Invalid packet size, max = {}, actual = {}", config.netMaxPacketSize(), data.length);
+            return;
+        }
 
+        ByteBuf dataCompressed;
         switch (COMPRESS_TYPE) {
         case Frame.COMPRESS_SNAPPY:
-            dataCompressed = Snappy.compress(data);
+            dataCompressed = compress(ctx.alloc(), data);
             break;
         case Frame.COMPRESS_NONE:
+            dataCompressed = ctx.alloc().buffer(data.length).writeBytes(data);
             break;
         default:
             logger.error("Unsupported compress type: " + COMPRESS_TYPE);
             return;
         }
 
-        byte packetType = msg.getCode().toByte();
-        int packetId = count.incrementAndGet();
-        int packetSize = dataCompressed.length;
+        try {
+            byte packetType = msg.getCode().toByte();
+            int packetId = count.incrementAndGet();
+            int packetSize = dataCompressed.readableBytes();
 
-        if (data.length > config.netMaxPacketSize() || dataCompressed.length > config.netMaxPacketSize()) {
-            logger.error("Invalid packet size, max = {}, actual = {}", config.netMaxPacketSize(), packetSize);
-            return;
-        }
+            if (packetSize > config.netMaxPacketSize()) {
+                logger.error("Invalid packet size, max = {}, actual = {}", config.netMaxPacketSize(), packetSize);
+                return;
+            }
 
-        int limit = config.netMaxFrameBodySize();
-        int total = (dataCompressed.length - 1) / limit + 1;
-        for (int i = 0; i < total; i++) {
-            byte[] body = new byte[(i < total - 1) ? limit : dataCompressed.length % limit];
-            System.arraycopy(dataCompressed, i * limit, body, 0, body.length);
+            // frames are slices of the compressed packet
+            int limit = config.netMaxFrameBodySize();
+            while (dataCompressed.isReadable()) {
+                int bodySize = Math.min(limit, dataCompressed.readableBytes());
+                ByteBuf body = dataCompressed.readRetainedSlice(bodySize);
 
-            out.add(new Frame(Frame.VERSION, COMPRESS_TYPE, packetType, packetId, packetSize, body.length, body));
+                out.add(new Frame(Frame.VERSION, COMPRESS_TYPE, packetType, packetId, packetSize, bodySize, body));
+            }
+        } finally {
+            dataCompressed.release();
         }
     }
 
@@ -92,10 +125,12 @@ public class AnticMessageHandler extends MessageToMessageCodec<Frame, Message> {
         if (frame.isChunked()) {
             synchronized (incompletePackets) {
                 int packetId = frame.getPacketId();
-                Pair<List<Frame>, AtomicInteger> pair = incompletePackets.getIfPresent(packetId);
+                Pair<List<Frame>, AtomicInteger> pair = incompletePackets.get(packetId);
                 if (pair == null) {
                     int packetSize = frame.getPacketSize();
                     if (packetSize < 0 || packetSize > config.netMaxPacketSize()) {
+                        frame.release();
+
                         // this will kill the connection
                         throw new IOException("Invalid packet size: " + packetSize);
                     }
@@ -107,16 +142,16 @@ public class AnticMessageHandler extends MessageToMessageCodec<Frame, Message> {
                 pair.getLeft().add(frame);
                 int remaining = pair.getRight().addAndGet(-frame.getBodySize());
                 if (remaining == 0) {
-                    decodedMsg = decodeMessage(pair.getLeft());
-
                     // remove complete packets from cache
-                    incompletePackets.invalidate(packetId);
+                    incompletePackets.remove(packetId);
+
+                    decodedMsg = decodeMessage(ctx.alloc(), pair.getLeft());
                 } else if (remaining < 0) {
                     throw new IOException("Packet remaining size went to negative");
                 }
             }
         } else {
-            decodedMsg = decodeMessage(Collections.singletonList(frame));
+            decodedMsg = decodeMessage(ctx.alloc(), Collections.singletonList(frame));
         }
 
         if (decodedMsg != null) {
@@ -124,49 +159,133 @@ public class AnticMessageHandler extends MessageToMessageCodec<Frame, Message> {
         }
     }
 
+    @Override
+    public void handlerRemoved(ChannelHandlerContext ctx) throws Exception {
+        synchronized (incompletePackets) {
+            for (Pair<List<Frame>, AtomicInteger> pair : incompletePackets.values()) {
+                release(pair.getLeft());
+            }
+            incompletePackets.clear();
+        }
+
+        super.handlerRemoved(ctx);
+    }
+
     /**
-     * Decode message from the frames.
+     * Decode message from the frames, and releases the frames.
      * 
+     * @param alloc
+     *            The buffer allocator
      * @param frames
      *            The message frames
      * @return The decoded message, or NULL if the message code is unknown
      * @throws MessageException
      */
-    protected Message decodeMessage(List<Frame> frames) throws MessageException {
+    protected Message decodeMessage(ByteBufAllocator alloc, List<Frame> frames) throws MessageException {
         if (frames == null || frames.isEmpty()) {
             throw new MessageException("Frames can't be null or empty");
         }
         Frame head = frames.get(0);
 
         byte packetType = head.getPacketType();
-        int packetSize = head.getPacketSize();
 
-        byte[] data = new byte[packetSize];
-        int pos = 0;
-        for (Frame frame : frames) {
-            System.arraycopy(frame.getBody(), 0, data, pos, frame.getBodySize());
-            pos += frame.getBodySize();
+        // reassemble the frame bodies without copying
+        ByteBuf data;
+        if (frames.size() == 1) {
+            data = head.getBody();
+        } else {
+            CompositeByteBuf composite = alloc.compositeBuffer(frames.size());
+            for (Frame frame : frames) {
+                composite.addComponent(true, frame.getBody());
+            }
+            data = composite;
         }
 
-        switch (head.getCompressType()) {
-        case Frame.COMPRESS_SNAPPY:
-            try {
-                // check uncompressed length to avoid OOM vulnerability
-                int length = Snappy.uncompressedLength(data);
-                if (length > config.netMaxPacketSize()) {
-                    throw new MessageException("Uncompressed data length is too big: " + length);
+        try {
+            byte[] body;
+            switch (head.getCompressType()) {
+            case Frame.COMPRESS_SNAPPY:
+                try {
+                    body = uncompress(alloc, data);
+                } catch (IOException e) {
+                    throw new MessageException(e);
                 }
-                data = Snappy.uncompress(data);
-            } catch (IOException e) {
-                throw new MessageException(e);
+                break;
+            case Frame.COMPRESS_NONE:
+                body = new byte[data.readableBytes()];
+                data.readBytes(body);
+                break;
+            default:
+                throw new MessageException("Unsupported compress type: " + head.getCompressType());
             }
-            break;
-        case Frame.COMPRESS_NONE:
-            break;
-        default:
-            throw new MessageException("Unsupported compress type: " + head.getCompressType());
+
+            return messageFactory.create(packetType, body);
+        } finally {
+            data.release();
         }
+    }
 
-        return messageFactory.create(packetType, data);
+    /**
+     * Compresses data into a direct buffer.
+     *
+     * @param alloc
+     * @param data
+     * @return
+     * @throws IOException
+     */
+    protected ByteBuf compress(ByteBufAllocator alloc, byte[] data) throws IOException {
+        ByteBuf src = alloc.directBuffer(data.length).writeBytes(data);
+        ByteBuf dst = alloc.directBuffer(Snappy.maxCompressedLength(data.length));
+        try {
+            int length = Snappy.compress(src.nioBuffer(), dst.nioBuffer(0, dst.capacity()));
+            return dst.writerIndex(length);
+        } catch (IOException | RuntimeException e) {
+            dst.release();
+            throw e;
+        } finally {
+            src.release();
+        }
+    }
+
+    /**
+     * Uncompresses data through direct buffers, into the message body.
+     *
+     * @param alloc
+     * @param data
+     * @return
+     * @throws IOException
+     * @throws MessageException
+     */
+    protected byte[] uncompress(ByteBufAllocator alloc, ByteBuf data) throws IOException, MessageException {
+        // snappy requires a single direct buffer
+        ByteBuf src = (data.isDirect() && data.nioBufferCount() == 1) ? data.retainedDuplicate()
+                : alloc.directBuffer(data.readableBytes()).writeBytes(data, data.readerIndex(), data.readableBytes());
+        try {
+            ByteBuffer compressed = src.nioBuffer();
+
+            // check uncompressed length to avoid OOM vulnerability
+            int length = Snappy.uncompressedLength(compressed);
+            if (length < 0 || length > config.netMaxPacketSize()) {
+                throw new MessageException("Uncompressed data length is too big: " + length);
+            }
+
+            ByteBuf dst = alloc.directBuffer(length);
+            try {
+                int n = Snappy.uncompress(compressed, dst.nioBuffer(0, length));
+                byte[] body = new byte[n];
+                dst.getBytes(0, body);
+                return body;
+            } finally {
+                dst.release();
+            }
+        } finally {
+            src.release();
+        }
+    }
+
+    private static void release(List<Frame> frames) {
+        for (Frame frame : frames) {
+            frame.release();
+        }
     }
-}
\ No newline at end of file
+}
@@ -13,10 +13,13 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -31,6 +34,8 @@ import org.antic.core.BlockHeader;
 import org.antic.core.BlockPart;
 import org.antic.core.Blockchain;
 import org.antic.core.PendingManager;
+import org.antic.core.SnapshotManager;
+import org.antic.core.StateSnapshot;
 import org.antic.core.SyncManager;
 import org.antic.net.NodeManager.Node;
 import org.antic.net.msg.Message;
@@ -42,7 +47,12 @@ import org.antic.net.msg.consensus.BlockPartsMessage;
 import org.antic.net.msg.consensus.GetBlockHeaderMessage;
 import org.antic.net.msg.consensus.GetBlockMessage;
 import org.antic.net.msg.consensus.GetBlockPartsMessage;
+import org.antic.net.msg.consensus.GetBlockRangeMessage;
+import org.antic.net.msg.consensus.GetStateChunkMessage;
+import org.antic.net.msg.consensus.GetStateSnapshotMessage;
 import org.antic.net.msg.consensus.NewHeightMessage;
+import org.antic.net.msg.consensus.StateChunkMessage;
+import org.antic.net.msg.consensus.StateSnapshotMessage;
 import org.antic.net.msg.p2p.DisconnectMessage;
 import org.antic.net.msg.p2p.GetNodesMessage;
 import org.antic.net.msg.p2p.NodesMessage;
@@ -53,6 +63,7 @@ import org.antic.net.msg.p2p.handshake.v2.HelloMessage;
 import org.antic.net.msg.p2p.handshake.v2.InitMessage;
 import org.antic.net.msg.p2p.handshake.v2.WorldMessage;
 import org.antic.util.Bytes;
+import org.antic.util.SimpleEncoder;
 import org.antic.util.SystemUtil;
 import org.antic.util.TimeUtil;
 import org.antic.util.exception.UnreachableException;
@@ -79,6 +90,43 @@ public class AnticP2pHandler extends SimpleChannelInboundHandler<Message> {
                 }
             });
 
+    /**
+     * The max number of block requests of a peer being served at once.
+     */
+    private static final int MAX_SERVING_REQUESTS_PER_PEER = 64;
+
+    /**
+     * The max number of block requests waiting to be served.
+     */
+    private static final int MAX_QUEUED_SERVING_REQUESTS = 4096;
+
+    /**
+     * The max number of blocks served for one GET_BLOCK_RANGE request.
+     */
+    public static final int MAX_BLOCK_RANGE = 128;
+
+    /**
+     * The number of blocks of a GET_BLOCK_RANGE request read at a time; the next
+     * ones are read once these have been written out.
+     */
+    private static final int BLOCK_RANGE_CHUNK = 16;
+
+    // Serves block requests off the event loop
+    private static final ThreadPoolExecutor servingExec = new ThreadPoolExecutor(
+            Math.max(2, Runtime.getRuntime().availableProcessors() / 2),
+            Math.max(2, Runtime.getRuntime().availableProcessors() / 2),
+            0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(MAX_QUEUED_SERVING_REQUESTS),
+            new ThreadFactory() {
+                private final AtomicInteger cnt = new AtomicInteger(0);
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "p2p-serve-" + cnt.getAndIncrement());
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+
     private final Channel channel;
     private final Config config;
     private final Blockchain chain;
@@ -87,11 +135,15 @@ public class AnticP2pHandler extends SimpleChannelInboundHandler<Message> {
     private final NodeManager nodeMgr;
     private final PeerClient client;
     private final SyncManager sync;
+    private final SnapshotManager snapshotMgr;
     private final BftManager bft;
     private final MessageQueue msgQueue;
 
     private AtomicBoolean isHandshakeDone = new AtomicBoolean(false);
 
+    // The number of block requests of this peer being served
+    private final AtomicInteger servingRequests = new AtomicInteger(0);
+
     private ScheduledFuture<?> getNodes = null;
     private ScheduledFuture<?> pingPong = null;
 
@@ -117,6 +169,7 @@ public class AnticP2pHandler extends SimpleChannelInboundHandler<Message> {
         this.client = kernel.getClient();
 
         this.sync = kernel.getSyncManager();
+        this.snapshotMgr = kernel.getSnapshotManager();
         this.bft = kernel.getBftManager();
 
         this.msgQueue = channel.getMessageQueue();
@@ -180,6 +233,14 @@ public class AnticP2pHandler extends SimpleChannelInboundHandler<Message> {
         super.channelActive(ctx);
     }
 
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+        // resume the message queue once the outbound buffer drains
+        msgQueue.onWritabilityChanged();
+
+        super.channelWritabilityChanged(ctx);
+    }
+
     @Override
     public void channelInactive(ChannelHandlerContext ctx) throws Exception {
         logger.debug("P2P handler inactive, remoteIp = {}", channel.getRemoteIp());
@@ -261,6 +322,11 @@ public class AnticP2pHandler extends SimpleChannelInboundHandler<Message> {
         case BLOCK_HEADER:
         case GET_BLOCK_PARTS:
         case BLOCK_PARTS:
+        case GET_BLOCK_RANGE:
+        case GET_STATE_SNAPSHOT:
+        case STATE_SNAPSHOT:
+        case GET_STATE_CHUNK:
+        case STATE_CHUNK:
             onSync(msg);
             break;
 
@@ -269,6 +335,9 @@ public class AnticP2pHandler extends SimpleChannelInboundHandler<Message> {
         case BFT_NEW_VIEW:
         case BFT_PROPOSAL:
         case BFT_VOTE:
+        case BFT_COMPACT_PROPOSAL:
+        case BFT_GET_PROPOSAL_TRANSACTIONS:
+        case BFT_PROPOSAL_TRANSACTIONS:
             onBft(msg);
             break;
 
@@ -466,36 +535,37 @@ public class AnticP2pHandler extends SimpleChannelInboundHandler<Message> {
         }
         case GET_BLOCK_PARTS: {
             GetBlockPartsMessage m = (GetBlockPartsMessage) msg;
-            long number = m.getNumber();
+            serve(() -> onGetBlockParts(m.getNumber(), m.getParts()));
+            break;
+        }
+        case GET_BLOCK_RANGE: {
+            GetBlockRangeMessage m = (GetBlockRangeMessage) msg;
+            long from = m.getFrom();
+            int count = Math.min(m.getCount(), MAX_BLOCK_RANGE);
             int parts = m.getParts();
 
-            List<byte[]> partsSerialized = new ArrayList<>();
-            Block block = chain.getBlock(number);
-            for (BlockPart part : BlockPart.decode(parts)) {
-                switch (part) {
-                case HEADER:
-                    partsSerialized.add(block.getEncodedHeader());
-                    break;
-                case TRANSACTIONS:
-                    partsSerialized.add(block.getEncodedTransactions());
-                    break;
-                case RESULTS:
-                    partsSerialized.add(block.getEncodedResults());
-                    break;
-                case VOTES:
-                    partsSerialized.add(block.getEncodedVotes());
-                    break;
-                default:
-                    throw new UnreachableException();
-                }
-            }
-
-            channel.getMessageQueue().sendMessage(new BlockPartsMessage(number, parts, partsSerialized));
+            serve(() -> onGetBlockRange(from, from + count, parts));
+            break;
+        }
+        case GET_STATE_SNAPSHOT: {
+            GetStateSnapshotMessage m = (GetStateSnapshotMessage) msg;
+            serve(() -> onGetStateSnapshot(m.getNumber()));
+            break;
+        }
+        case GET_STATE_CHUNK: {
+            GetStateChunkMessage m = (GetStateChunkMessage) msg;
+            serve(() -> {
+                byte[] chunk = snapshotMgr.getChunk(m.getNumber(), m.getIndex());
+                msgQueue.sendMessage(new StateChunkMessage(m.getNumber(), m.getIndex(),
+                        (chunk == null) ? Bytes.EMPTY_BYTES : chunk));
+            });
             break;
         }
         case BLOCK:
         case BLOCK_HEADER:
-        case BLOCK_PARTS: {
+        case BLOCK_PARTS:
+        case STATE_SNAPSHOT:
+        case STATE_CHUNK: {
             sync.onMessage(channel, msg);
             break;
         }
@@ -504,6 +574,112 @@ public class AnticP2pHandler extends SimpleChannelInboundHandler<Message> {
         }
     }
 
+    /**
+     * Sends the stored parts of a block, without decoding the block.
+     *
+     * @param number
+     * @param parts
+     * @return whether the parts were sent
+     */
+    protected boolean onGetBlockParts(long number, int parts) {
+        List<byte[]> partsSerialized = new ArrayList<>();
+        for (BlockPart part : BlockPart.decode(parts)) {
+            byte[] bytes = chain.getBlockPart(number, part);
+            if (bytes == null) {
+                logger.debug("Requested block parts not found: number = {}", number);
+                return false;
+            }
+            partsSerialized.add(bytes);
+        }
+
+        return msgQueue.sendMessage(new BlockPartsMessage(number, parts, partsSerialized));
+    }
+
+    /**
+     * Sends the manifest of an exported snapshot, and its block encoded as by
+     * {@link Block#toBytes()} from the stored parts, without decoding the block.
+     *
+     * @param number
+     */
+    protected void onGetStateSnapshot(long number) {
+        StateSnapshot snapshot = snapshotMgr.getSnapshot(number);
+
+        byte[] block = null;
+        if (snapshot != null) {
+            SimpleEncoder enc = new SimpleEncoder();
+            for (BlockPart part : BlockPart.values()) {
+                byte[] bytes = chain.getBlockPart(number, part);
+                if (bytes == null) {
+                    enc = null;
+                    break;
+                }
+                enc.writeBytes(bytes);
+            }
+            block = (enc == null) ? null : enc.toBytes();
+        }
+
+        msgQueue.sendMessage((block == null)
+                ? new StateSnapshotMessage(number, Bytes.EMPTY_BYTES, Bytes.EMPTY_BYTES)
+                : new StateSnapshotMessage(number, snapshot.toBytes(), block));
+    }
+
+    /**
+     * Streams a range of blocks, stopping at the first missing one. A chunk of
+     * blocks is read and queued at a time, and the rest of the range is served
+     * once the message queue has drained, so that a range request holds no more
+     * than one chunk in memory.
+     *
+     * @param from
+     *            the first block number
+     * @param to
+     *            the block number after the last
+     * @param parts
+     */
+    protected void onGetBlockRange(long from, long to, int parts) {
+        long end = Math.min(to, from + BLOCK_RANGE_CHUNK);
+        for (long n = from; n < end; n++) {
+            if (!onGetBlockParts(n, parts)) {
+                return;
+            }
+        }
+
+        if (end < to) {
+            msgQueue.runWhenIdle(() -> serve(() -> onGetBlockRange(end, to, parts)));
+        }
+    }
+
+    /**
+     * Serves a block request on the serving executor. Requests beyond the quota
+     * of the peer, or beyond the capacity of the executor, are dropped, and will
+     * be retried by the peer after its download timeout.
+     *
+     * @param task
+     */
+    protected void serve(Runnable task) {
+        if (servingRequests.incrementAndGet() > MAX_SERVING_REQUESTS_PER_PEER) {
+            servingRequests.decrementAndGet();
+            logger.debug("Dropping block request beyond quota, remoteIp = {}", channel.getRemoteIp());
+            return;
+        }
+
+        try {
+            servingExec.execute(() -> {
+                try {
+                    if (channel.isActive()) {
+                        task.run();
+                    }
+                } catch (Exception e) {
+                    logger.warn("Failed to serve block request, remoteIp = {}", channel.getRemoteIp(), e);
+                } finally {
+                    servingRequests.decrementAndGet();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            servingRequests.decrementAndGet();
+            logger.debug("Dropping block request, serving queue is full, remoteIp = {}", channel.getRemoteIp());
+        }
+    }
+
     protected void onBft(Message msg) {
         if (!isHandshakeDone.get()) {
             return;
@@ -36,7 +36,17 @@ public enum Capability {
     /**
      * This client supports the LIGHT protocol.
      */
-    LIGHT;
+    LIGHT,
+
+    /**
+     * This client supports compact BFT proposals.
+     */
+    COMPACT_PROPOSAL,
+
+    /**
+     * This client serves ranged block requests.
+     */
+    BLOCK_RANGE;
 
     public static Capability of(String name) {
         try {
@@ -20,6 +20,9 @@ import org.antic.net.filter.AnticIpFilter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
 /**
  * Channel Manager.
  * 
@@ -35,6 +38,11 @@ public class ChannelManager {
     protected ConcurrentHashMap<InetSocketAddress, Channel> channels = new ConcurrentHashMap<>();
     protected ConcurrentHashMap<String, Channel> activeChannels = new ConcurrentHashMap<>();
 
+    /**
+     * The performance statistics of recently connected peers, by peer id.
+     */
+    protected Cache<String, PeerStats> peerStats = Caffeine.newBuilder().maximumSize(4096).build();
+
     protected final AnticIpFilter ipFilter;
 
     public ChannelManager(Kernel kernel) {
@@ -154,6 +162,7 @@ public class ChannelManager {
      * @param peer
      */
     public void onChannelActive(Channel channel, Peer peer) {
+        peer.setStats(peerStats.get(peer.getPeerId(), k -> new PeerStats()));
         channel.setActive(peer);
         activeChannels.put(peer.getPeerId(), channel);
     }
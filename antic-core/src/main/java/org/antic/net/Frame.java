@@ -16,6 +16,10 @@ import io.netty.buffer.ByteBuf;
  * <li><code>HEADER := VERSION + COMPRESS_TYPE + PACKET_TYPE + PACKET_ID + PACKET_SIZE + BODY_SIZE</code></li>
  * <li><code>BODY := BINARY_DATA</code></li>
  * </ul>
+ * 
+ * The body is a reference-counted buffer, typically a slice of the network
+ * buffer or of the compressed packet. Whoever consumes the frame is
+ * responsible for releasing it.
  */
 public class Frame {
 
@@ -33,10 +37,10 @@ public class Frame {
     protected final int packetSize; /* packet size, 4 bytes */
     protected final int bodySize; /* body size, 4 bytes */
 
-    protected byte[] body;
+    protected ByteBuf body;
 
     public Frame(short version, byte compressType, byte packetType, int packetId, int packetSize, int bodySize,
-            byte[] body) {
+            ByteBuf body) {
         this.version = version;
         this.compressType = compressType;
         this.packetType = packetType;
@@ -76,7 +80,7 @@ public class Frame {
      * 
      * @return
      */
-    public byte[] getBody() {
+    public ByteBuf getBody() {
         return body;
     }
 
@@ -85,10 +89,20 @@ public class Frame {
      * 
      * @param body
      */
-    public void setBody(byte[] body) {
+    public void setBody(ByteBuf body) {
         this.body = body;
     }
 
+    /**
+     * Releases the frame body, if any.
+     */
+    public void release() {
+        if (body != null) {
+            body.release();
+            body = null;
+        }
+    }
+
     /**
      * Returns whether the packet is chunked.
      * 
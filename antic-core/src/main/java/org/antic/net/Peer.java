@@ -55,6 +55,7 @@ public class Peer {
 
     private long latestBlockNumber;
     private long latency;
+    private PeerStats stats = new PeerStats();
 
     /**
      * Create a new Peer instance.
@@ -177,6 +178,24 @@ public class Peer {
         this.latency = latency;
     }
 
+    /**
+     * Returns the performance statistics of this peer.
+     *
+     * @return
+     */
+    public PeerStats getStats() {
+        return stats;
+    }
+
+    /**
+     * Sets the performance statistics of this peer.
+     *
+     * @param stats
+     */
+    public void setStats(PeerStats stats) {
+        this.stats = stats;
+    }
+
     @Override
     public String toString() {
         return getPeerId() + "@" + ip + ":" + port;
@@ -0,0 +1,179 @@
+/**
+ * Copyright (c) 2019 The Antic Developers
+ *
+ * Distributed under the MIT software license, see the accompanying file
+ * LICENSE or https://opensource.org/licenses/mit-license.php
+ */
+package org.antic.net;
+
+/**
+ * The performance of a peer as a source of blocks: response latency,
+ * throughput, timeouts and invalid blocks. Kept by the {@link ChannelManager}
+ * by peer id, so that it survives reconnections.
+ * <br>
+ * <br>
+ * Latency and throughput are exponentially weighted averages. Recent timeouts
+ * decay with each completed request, while invalid blocks are never forgotten.
+ */
+public class PeerStats {
+
+    /**
+     * The assumed throughput of an unknown peer, in blocks per second.
+     */
+    private static final double INITIAL_BLOCKS_PER_SECOND = 8.0;
+
+    /**
+     * The lowest throughput estimate, in blocks per second.
+     */
+    private static final double MIN_BLOCKS_PER_SECOND = 0.5;
+
+    /**
+     * The weight of a new sample in the averages.
+     */
+    private static final double ALPHA = 0.5;
+
+    /**
+     * The time ranged requests are not sent after one is ignored, doubled with
+     * each ignored request in a row, in milliseconds.
+     */
+    private static final long RANGE_BACKOFF = 30_000L;
+    private static final long MAX_RANGE_BACKOFF = 30L * 60L * 1000L;
+
+    private double latency = 0;
+    private double blocksPerSecond = INITIAL_BLOCKS_PER_SECOND;
+    private double bytesPerSecond = 0;
+
+    private int timeouts = 0;
+    private double recentTimeouts = 0;
+    private int invalidBlocks = 0;
+
+    private long lastCompleted = 0;
+    private int rangesIgnored = 0;
+    private long rangeRetryAt = 0;
+
+    /**
+     * Records the time between a request and its first response, from a peer
+     * with no other pending request.
+     *
+     * @param millis
+     */
+    public synchronized void onResponse(long millis) {
+        latency = (latency == 0) ? millis : (1 - ALPHA) * latency + ALPHA * millis;
+    }
+
+    /**
+     * Records a completed request.
+     *
+     * @param blocks
+     *            the number of blocks received
+     * @param bytes
+     *            the number of bytes received
+     * @param requestedAt
+     *            the time of the request
+     * @param now
+     *            the current time
+     */
+    public synchronized void onCompleted(int blocks, long bytes, long requestedAt, long now) {
+        // requests are pipelined, so a request starts when the previous one completes
+        long elapsed = Math.max(1, now - Math.max(requestedAt, lastCompleted));
+        blocksPerSecond = Math.max(MIN_BLOCKS_PER_SECOND,
+                (1 - ALPHA) * blocksPerSecond + ALPHA * blocks * 1000.0 / elapsed);
+        bytesPerSecond = (1 - ALPHA) * bytesPerSecond + ALPHA * bytes * 1000.0 / elapsed;
+        recentTimeouts /= 2;
+        lastCompleted = now;
+    }
+
+    /**
+     * Records a request which has timed out.
+     */
+    public synchronized void onTimeout() {
+        timeouts++;
+        recentTimeouts++;
+        blocksPerSecond = Math.max(MIN_BLOCKS_PER_SECOND, blocksPerSecond / 2);
+    }
+
+    /**
+     * Records an invalid block received from the peer.
+     */
+    public synchronized void onInvalidBlock() {
+        invalidBlocks++;
+    }
+
+    /**
+     * Returns the expected time to receive a number of blocks, in milliseconds.
+     *
+     * @param blocks
+     * @return
+     */
+    public synchronized long getExpectedTime(int blocks) {
+        return (long) (latency + blocks * 1000.0 / blocksPerSecond);
+    }
+
+    /**
+     * Returns the score of this peer as a block source, the higher the better.
+     *
+     * @return
+     */
+    public synchronized double getScore() {
+        return 1000.0 / getExpectedTime(1) / (1 + recentTimeouts) / (1 + 4 * invalidBlocks);
+    }
+
+    public synchronized double getLatency() {
+        return latency;
+    }
+
+    public synchronized double getBlocksPerSecond() {
+        return blocksPerSecond;
+    }
+
+    public synchronized double getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+
+    public synchronized int getTimeouts() {
+        return timeouts;
+    }
+
+    public synchronized int getInvalidBlocks() {
+        return invalidBlocks;
+    }
+
+    /**
+     * Returns whether ranged block requests are deferred, after the peer has
+     * ignored the last ones, which happens to a healthy peer under load.
+     *
+     * @param now
+     *            the current time
+     * @return
+     */
+    public synchronized boolean isRangeDeferred(long now) {
+        return now < rangeRetryAt;
+    }
+
+    /**
+     * Records a ranged request which has expired without any block received.
+     *
+     * @param now
+     *            the current time
+     */
+    public synchronized void onRangeIgnored(long now) {
+        long backoff = Math.min(MAX_RANGE_BACKOFF, RANGE_BACKOFF << Math.min(rangesIgnored, 16));
+        rangesIgnored++;
+        rangeRetryAt = now + backoff;
+    }
+
+    /**
+     * Records a ranged request which the peer has served.
+     */
+    public synchronized void onRangeServed() {
+        rangesIgnored = 0;
+        rangeRetryAt = 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "PeerStats [latency=" + Math.round(latency) + "ms, blocksPerSecond=" + Math.round(blocksPerSecond)
+                + ", bytesPerSecond=" + Math.round(bytesPerSecond) + ", timeouts=" + timeouts + ", invalidBlocks="
+                + invalidBlocks + "]";
+    }
+}
@@ -101,6 +101,32 @@ public enum MessageCode {
      */
     BLOCK_PARTS(0x35),
 
+    /**
+     * [0x36] Request parts of consecutive blocks from the peer, answered with one
+     * BLOCK_PARTS message per block.
+     */
+    GET_BLOCK_RANGE(0x36),
+
+    /**
+     * [0x37] Request the manifest of a state snapshot from the peer.
+     */
+    GET_STATE_SNAPSHOT(0x37),
+
+    /**
+     * [0x38] Response containing the manifest of a state snapshot and its block.
+     */
+    STATE_SNAPSHOT(0x38),
+
+    /**
+     * [0x39] Request a chunk of a state snapshot from the peer.
+     */
+    GET_STATE_CHUNK(0x39),
+
+    /**
+     * [0x3a] Response containing a chunk of a state snapshot.
+     */
+    STATE_CHUNK(0x3a),
+
     // =======================================
     // [0x40, 0x4f] Reserved for BFT
     // =======================================
@@ -123,7 +149,23 @@ public enum MessageCode {
     /**
      * [0x43] BFT vote message.
      */
-    BFT_VOTE(0x43);
+    BFT_VOTE(0x43),
+
+    /**
+     * [0x44] BFT proposal message, with the transactions replaced by short ids.
+     */
+    BFT_COMPACT_PROPOSAL(0x44),
+
+    /**
+     * [0x45] Request the transactions of a compact proposal that are missing
+     * locally.
+     */
+    BFT_GET_PROPOSAL_TRANSACTIONS(0x45),
+
+    /**
+     * [0x46] Response containing the requested proposal transactions.
+     */
+    BFT_PROPOSAL_TRANSACTIONS(0x46);
 
     private static final MessageCode[] map = new MessageCode[256];
 
@@ -10,12 +10,20 @@ import org.antic.crypto.Hex;
 import org.antic.net.msg.consensus.BlockHeaderMessage;
 import org.antic.net.msg.consensus.BlockMessage;
 import org.antic.net.msg.consensus.BlockPartsMessage;
+import org.antic.net.msg.consensus.CompactProposalMessage;
 import org.antic.net.msg.consensus.GetBlockHeaderMessage;
 import org.antic.net.msg.consensus.GetBlockMessage;
 import org.antic.net.msg.consensus.GetBlockPartsMessage;
+import org.antic.net.msg.consensus.GetBlockRangeMessage;
+import org.antic.net.msg.consensus.GetProposalTransactionsMessage;
+import org.antic.net.msg.consensus.GetStateChunkMessage;
+import org.antic.net.msg.consensus.GetStateSnapshotMessage;
 import org.antic.net.msg.consensus.NewHeightMessage;
 import org.antic.net.msg.consensus.NewViewMessage;
 import org.antic.net.msg.consensus.ProposalMessage;
+import org.antic.net.msg.consensus.ProposalTransactionsMessage;
+import org.antic.net.msg.consensus.StateChunkMessage;
+import org.antic.net.msg.consensus.StateSnapshotMessage;
 import org.antic.net.msg.consensus.VoteMessage;
 import org.antic.net.msg.p2p.DisconnectMessage;
 import org.antic.net.msg.p2p.GetNodesMessage;
@@ -91,6 +99,16 @@ public class MessageFactory {
                 return new GetBlockPartsMessage(body);
             case BLOCK_PARTS:
                 return new BlockPartsMessage(body);
+            case GET_BLOCK_RANGE:
+                return new GetBlockRangeMessage(body);
+            case GET_STATE_SNAPSHOT:
+                return new GetStateSnapshotMessage(body);
+            case STATE_SNAPSHOT:
+                return new StateSnapshotMessage(body);
+            case GET_STATE_CHUNK:
+                return new GetStateChunkMessage(body);
+            case STATE_CHUNK:
+                return new StateChunkMessage(body);
 
             case BFT_NEW_HEIGHT:
                 return new NewHeightMessage(body);
@@ -100,6 +118,12 @@ public class MessageFactory {
                 return new ProposalMessage(body);
             case BFT_VOTE:
                 return new VoteMessage(body);
+            case BFT_COMPACT_PROPOSAL:
+                return new CompactProposalMessage(body);
+            case BFT_GET_PROPOSAL_TRANSACTIONS:
+                return new GetProposalTransactionsMessage(body);
+            case BFT_PROPOSAL_TRANSACTIONS:
+                return new ProposalTransactionsMessage(body);
 
             default:
                 throw new UnreachableException();
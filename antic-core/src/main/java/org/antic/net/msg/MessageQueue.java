@@ -6,12 +6,10 @@
  */
 package org.antic.net.msg;
 
+import java.util.EnumMap;
+import java.util.Map;
 import java.util.Queue;
 import java.util.concurrent.ConcurrentLinkedQueue;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ScheduledFuture;
-import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -26,26 +24,47 @@ import io.netty.channel.ChannelHandlerContext;
 
 /**
  * This class contains the logic for sending messages.
+ * <br>
+ * <br>
+ * Messages are written on the event loop of the channel as soon as they are
+ * added, for as long as the channel is writable, and flushed in batches. Once
+ * the outbound buffer of the channel exceeds its high water mark, messages are
+ * kept in the queue until the channel becomes writable again, see
+ * {@link #onWritabilityChanged()}.
+ * <br>
+ * <br>
+ * Producers that generate messages lazily, such as the serving of block
+ * ranges, can wait for the queue to drain with {@link #runWhenIdle(Runnable)}.
+ * <br>
+ * <br>
+ * Messages of the codes listed in {@link Config#netMessageRateLimits()} are
+ * dropped once the rate limit of their code is reached. The queue size limit
+ * only applies to peers that stop reading.
  */
 public class MessageQueue {
 
     private static final Logger logger = LoggerFactory.getLogger(MessageQueue.class);
 
-    private static final ScheduledExecutorService timer = Executors.newScheduledThreadPool(4, new ThreadFactory() {
-        private final AtomicInteger cnt = new AtomicInteger(0);
-
-        public Thread newThread(Runnable r) {
-            return new Thread(r, "msg-" + cnt.getAndIncrement());
-        }
-    });
+    /**
+     * The max number of messages written between two flushes.
+     */
+    private static final int FLUSH_BATCH_SIZE = 64;
 
     private final Config config;
 
     private final Queue<Message> queue = new ConcurrentLinkedQueue<>();
     private final Queue<Message> prioritized = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger size = new AtomicInteger(0);
+
+    // tasks waiting for the queue to drain
+    private final Queue<Runnable> idleTasks = new ConcurrentLinkedQueue<>();
+
+    private final Map<MessageCode, RateLimit> rateLimits = new EnumMap<>(MessageCode.class);
 
-    private ChannelHandlerContext ctx;
-    private ScheduledFuture<?> timerTask;
+    private volatile ChannelHandlerContext ctx;
+
+    // whether a drain task is scheduled on the event loop
+    private final AtomicBoolean isScheduled = new AtomicBoolean(false);
 
     private AtomicBoolean isClosed = new AtomicBoolean(false);
 
@@ -56,6 +75,10 @@ public class MessageQueue {
      */
     public MessageQueue(Config config) {
         this.config = config;
+
+        for (Map.Entry<MessageCode, Integer> e : config.netMessageRateLimits().entrySet()) {
+            rateLimits.put(e.getKey(), new RateLimit(e.getValue()));
+        }
     }
 
     /**
@@ -65,20 +88,17 @@ public class MessageQueue {
      */
     public synchronized void activate(ChannelHandlerContext ctx) {
         this.ctx = ctx;
-        this.timerTask = timer.scheduleAtFixedRate(() -> {
-            try {
-                nudgeQueue();
-            } catch (Exception t) {
-                logger.error("Exception in MessageQueue", t);
-            }
-        }, 10, 10, TimeUnit.MILLISECONDS);
+        schedule();
     }
 
     /**
      * Deactivates this message queue.
      */
     public synchronized void deactivate() {
-        this.timerTask.cancel(false);
+        queue.clear();
+        prioritized.clear();
+        idleTasks.clear();
+        size.set(0);
     }
 
     /**
@@ -117,6 +137,12 @@ public class MessageQueue {
      *         false
      */
     public boolean sendMessage(Message msg) {
+        RateLimit limit = rateLimits.get(msg.getCode());
+        if (limit != null && !limit.tryAcquire()) {
+            logger.trace("Dropping rate-limited message: {}", msg);
+            return false;
+        }
+
         if (size() >= config.netMaxMessageQueueSize()) {
             disconnect(ReasonCode.MESSAGE_QUEUE_FULL);
             return false;
@@ -127,34 +153,115 @@ public class MessageQueue {
         } else {
             queue.add(msg);
         }
+        size.incrementAndGet();
+
+        schedule();
         return true;
     }
 
+    /**
+     * Runs a task on the event loop once all the queued messages have been
+     * written out and the channel is writable. The task must not block.
+     *
+     * @param task
+     */
+    public void runWhenIdle(Runnable task) {
+        idleTasks.add(task);
+        schedule();
+    }
+
     /**
      * Returns the number of messages in queue.
      *
      * @return
      */
     public int size() {
-        return queue.size() + prioritized.size();
+        return size.get();
     }
 
-    protected void nudgeQueue() {
-        // 1000 / 10 * 5 = 500 messages per second
-        int n = Math.min(5, size());
-        if (n == 0) {
-            return;
+    /**
+     * Resumes writing when the channel becomes writable again. Must be called on
+     * the event loop of the channel.
+     */
+    public void onWritabilityChanged() {
+        if (ctx != null && ctx.channel().isWritable()) {
+            drain();
         }
+    }
 
-        // write out n messages
-        for (int i = 0; i < n; i++) {
-            Message msg = !prioritized.isEmpty() ? prioritized.poll() : queue.poll();
+    /**
+     * Schedules a drain on the event loop, unless one is already pending.
+     */
+    protected void schedule() {
+        ChannelHandlerContext c = ctx;
+        if (c != null && isScheduled.compareAndSet(false, true)) {
+            c.executor().execute(() -> {
+                isScheduled.set(false);
+                try {
+                    drain();
+                } catch (Exception e) {
+                    logger.error("Exception in MessageQueue", e);
+                }
+            });
+        }
+    }
+
+    /**
+     * Writes out the queued messages while the channel is writable.
+     */
+    protected void drain() {
+        int written = 0;
+        while (ctx.channel().isWritable()) {
+            Message msg = prioritized.poll();
+            if (msg == null && (msg = queue.poll()) == null) {
+                break;
+            }
+            size.decrementAndGet();
 
             logger.trace("Wiring message: {}", msg);
             ctx.write(msg).addListener(ChannelFutureListener.FIRE_EXCEPTION_ON_FAILURE);
+
+            if (++written % FLUSH_BATCH_SIZE == 0) {
+                ctx.flush();
+            }
+        }
+
+        if (written % FLUSH_BATCH_SIZE != 0) {
+            ctx.flush();
         }
 
-        // flush
-        ctx.flush();
+        if (size() == 0 && ctx.channel().isWritable()) {
+            Runnable task;
+            while ((task = idleTasks.poll()) != null) {
+                task.run();
+            }
+        }
+    }
+
+    /**
+     * A token bucket allowing a number of messages per second, with bursts of up
+     * to one second.
+     */
+    private static class RateLimit {
+        private final int rate;
+        private double tokens;
+        private long lastRefill = System.nanoTime();
+
+        RateLimit(int rate) {
+            this.rate = rate;
+            this.tokens = rate;
+        }
+
+        synchronized boolean tryAcquire() {
+            long now = System.nanoTime();
+            tokens = Math.min(rate, tokens + (double) (now - lastRefill) * rate / TimeUnit.SECONDS.toNanos(1));
+            lastRefill = now;
+
+            if (tokens >= 1) {
+                tokens -= 1;
+                return true;
+            }
+            return false;
+        }
     }
 }
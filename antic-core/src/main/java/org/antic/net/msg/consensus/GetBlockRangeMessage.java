@@ -0,0 +1,61 @@
+/**
+ * Copyright (c) 2019 The Antic Developers
+ *
+ * Distributed under the MIT software license, see the accompanying file
+ * LICENSE or https://opensource.org/licenses/mit-license.php
+ */
+package org.antic.net.msg.consensus;
+
+import org.antic.net.msg.Message;
+import org.antic.net.msg.MessageCode;
+import org.antic.util.SimpleDecoder;
+import org.antic.util.SimpleEncoder;
+
+public class GetBlockRangeMessage extends Message {
+
+    private final long from;
+    private final int count;
+    private final int parts;
+
+    public GetBlockRangeMessage(long from, int count, int parts) {
+        super(MessageCode.GET_BLOCK_RANGE, BlockPartsMessage.class);
+
+        this.from = from;
+        this.count = count;
+        this.parts = parts;
+
+        SimpleEncoder enc = new SimpleEncoder();
+        enc.writeLong(from);
+        enc.writeInt(count);
+        enc.writeInt(parts);
+        this.body = enc.toBytes();
+    }
+
+    public GetBlockRangeMessage(byte[] body) {
+        super(MessageCode.GET_BLOCK_RANGE, BlockPartsMessage.class);
+
+        SimpleDecoder dec = new SimpleDecoder(body);
+        this.from = dec.readLong();
+        this.count = dec.readInt();
+        this.parts = dec.readInt();
+
+        this.body = body;
+    }
+
+    public long getFrom() {
+        return from;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public int getParts() {
+        return parts;
+    }
+
+    @Override
+    public String toString() {
+        return "GetBlockRangeMessage [from=" + from + ", count=" + count + ", parts=" + parts + "]";
+    }
+}
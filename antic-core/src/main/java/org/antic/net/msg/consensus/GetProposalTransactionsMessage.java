@@ -0,0 +1,72 @@
+/**
+ * Copyright (c) 2019 The Antic Developers
+ *
+ * Distributed under the MIT software license, see the accompanying file
+ * LICENSE or https://opensource.org/licenses/mit-license.php
+ */
+package org.antic.net.msg.consensus;
+
+import org.antic.net.msg.Message;
+import org.antic.net.msg.MessageCode;
+import org.antic.util.SimpleDecoder;
+import org.antic.util.SimpleEncoder;
+
+public class GetProposalTransactionsMessage extends Message {
+
+    private final long height;
+    private final int view;
+    private final int[] indices;
+
+    public GetProposalTransactionsMessage(long height, int view, int[] indices) {
+        super(MessageCode.BFT_GET_PROPOSAL_TRANSACTIONS, ProposalTransactionsMessage.class);
+
+        this.height = height;
+        this.view = view;
+        this.indices = indices;
+
+        SimpleEncoder enc = new SimpleEncoder();
+        enc.writeLong(height);
+        enc.writeInt(view);
+        enc.writeInt(indices.length);
+        for (int i : indices) {
+            enc.writeInt(i);
+        }
+        this.body = enc.toBytes();
+    }
+
+    public GetProposalTransactionsMessage(byte[] body) {
+        super(MessageCode.BFT_GET_PROPOSAL_TRANSACTIONS, ProposalTransactionsMessage.class);
+
+        SimpleDecoder dec = new SimpleDecoder(body);
+        this.height = dec.readLong();
+        this.view = dec.readInt();
+        int n = dec.readInt();
+        if (n < 0 || n > body.length / 4) {
+            throw new IllegalArgumentException("Invalid number of indices: " + n);
+        }
+        this.indices = new int[n];
+        for (int i = 0; i < n; i++) {
+            indices[i] = dec.readInt();
+        }
+
+        this.body = body;
+    }
+
+    public long getHeight() {
+        return height;
+    }
+
+    public int getView() {
+        return view;
+    }
+
+    public int[] getIndices() {
+        return indices;
+    }
+
+    @Override
+    public String toString() {
+        return "GetProposalTransactionsMessage [height=" + height + ", view=" + view + ", # indices="
+                + indices.length + "]";
+    }
+}
@@ -0,0 +1,53 @@
+/**
+ * Copyright (c) 2019 The Antic Developers
+ *
+ * Distributed under the MIT software license, see the accompanying file
+ * LICENSE or https://opensource.org/licenses/mit-license.php
+ */
+package org.antic.net.msg.consensus;
+
+import org.antic.net.msg.Message;
+import org.antic.net.msg.MessageCode;
+import org.antic.util.SimpleDecoder;
+import org.antic.util.SimpleEncoder;
+
+public class GetStateChunkMessage extends Message {
+
+    private final long number;
+    private final int index;
+
+    public GetStateChunkMessage(long number, int index) {
+        super(MessageCode.GET_STATE_CHUNK, StateChunkMessage.class);
+
+        this.number = number;
+        this.index = index;
+
+        SimpleEncoder enc = new SimpleEncoder();
+        enc.writeLong(number);
+        enc.writeInt(index);
+        this.body = enc.toBytes();
+    }
+
+    public GetStateChunkMessage(byte[] body) {
+        super(MessageCode.GET_STATE_CHUNK, StateChunkMessage.class);
+
+        SimpleDecoder dec = new SimpleDecoder(body);
+        this.number = dec.readLong();
+        this.index = dec.readInt();
+
+        this.body = body;
+    }
+
+    public long getNumber() {
+        return number;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    @Override
+    public String toString() {
+        return "GetStateChunkMessage [number=" + number + ", index=" + index + "]";
+    }
+}
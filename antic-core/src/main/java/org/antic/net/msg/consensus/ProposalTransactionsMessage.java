@@ -0,0 +1,85 @@
+/**
+ * Copyright (c) 2019 The Antic Developers
+ *
+ * Distributed under the MIT software license, see the accompanying file
+ * LICENSE or https://opensource.org/licenses/mit-license.php
+ */
+package org.antic.net.msg.consensus;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.antic.core.Transaction;
+import org.antic.net.msg.Message;
+import org.antic.net.msg.MessageCode;
+import org.antic.util.SimpleDecoder;
+import org.antic.util.SimpleEncoder;
+
+public class ProposalTransactionsMessage extends Message {
+
+    private final long height;
+    private final int view;
+    private final int[] indices;
+    private final List<Transaction> transactions;
+
+    public ProposalTransactionsMessage(long height, int view, int[] indices, List<Transaction> transactions) {
+        super(MessageCode.BFT_PROPOSAL_TRANSACTIONS, null);
+
+        this.height = height;
+        this.view = view;
+        this.indices = indices;
+        this.transactions = transactions;
+
+        SimpleEncoder enc = new SimpleEncoder();
+        enc.writeLong(height);
+        enc.writeInt(view);
+        enc.writeInt(indices.length);
+        for (int i = 0; i < indices.length; i++) {
+            enc.writeInt(indices[i]);
+            enc.writeBytes(transactions.get(i).toBytes());
+        }
+        this.body = enc.toBytes();
+    }
+
+    public ProposalTransactionsMessage(byte[] body) {
+        super(MessageCode.BFT_PROPOSAL_TRANSACTIONS, null);
+
+        SimpleDecoder dec = new SimpleDecoder(body);
+        this.height = dec.readLong();
+        this.view = dec.readInt();
+        int n = dec.readInt();
+        if (n < 0 || n > body.length / 4) {
+            throw new IllegalArgumentException("Invalid number of transactions: " + n);
+        }
+        this.indices = new int[n];
+        this.transactions = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            indices[i] = dec.readInt();
+            transactions.add(Transaction.fromBytes(dec.readBytes()));
+        }
+
+        this.body = body;
+    }
+
+    public long getHeight() {
+        return height;
+    }
+
+    public int getView() {
+        return view;
+    }
+
+    public int[] getIndices() {
+        return indices;
+    }
+
+    public List<Transaction> getTransactions() {
+        return transactions;
+    }
+
+    @Override
+    public String toString() {
+        return "ProposalTransactionsMessage [height=" + height + ", view=" + view + ", # txs="
+                + transactions.size() + "]";
+    }
+}
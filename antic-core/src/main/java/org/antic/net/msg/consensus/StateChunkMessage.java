@@ -0,0 +1,69 @@
+/**
+ * Copyright (c) 2019 The Antic Developers
+ *
+ * Distributed under the MIT software license, see the accompanying file
+ * LICENSE or https://opensource.org/licenses/mit-license.php
+ */
+package org.antic.net.msg.consensus;
+
+import org.antic.net.msg.Message;
+import org.antic.net.msg.MessageCode;
+import org.antic.util.SimpleDecoder;
+import org.antic.util.SimpleEncoder;
+
+public class StateChunkMessage extends Message {
+
+    private final long number;
+    private final int index;
+    private final byte[] data;
+
+    /**
+     * Creates a response with a chunk of a snapshot, empty if the chunk is not
+     * available.
+     *
+     * @param number
+     * @param index
+     * @param data
+     */
+    public StateChunkMessage(long number, int index, byte[] data) {
+        super(MessageCode.STATE_CHUNK, null);
+
+        this.number = number;
+        this.index = index;
+        this.data = data;
+
+        SimpleEncoder enc = new SimpleEncoder();
+        enc.writeLong(number);
+        enc.writeInt(index);
+        enc.writeBytes(data);
+        this.body = enc.toBytes();
+    }
+
+    public StateChunkMessage(byte[] body) {
+        super(MessageCode.STATE_CHUNK, null);
+
+        SimpleDecoder dec = new SimpleDecoder(body);
+        this.number = dec.readLong();
+        this.index = dec.readInt();
+        this.data = dec.readBytes();
+
+        this.body = body;
+    }
+
+    public long getNumber() {
+        return number;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public byte[] getData() {
+        return data;
+    }
+
+    @Override
+    public String toString() {
+        return "StateChunkMessage [number=" + number + ", index=" + index + ", data=" + data.length + " bytes]";
+    }
+}
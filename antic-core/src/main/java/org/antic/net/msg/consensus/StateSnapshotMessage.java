@@ -0,0 +1,69 @@
+/**
+ * Copyright (c) 2019 The Antic Developers
+ *
+ * Distributed under the MIT software license, see the accompanying file
+ * LICENSE or https://opensource.org/licenses/mit-license.php
+ */
+package org.antic.net.msg.consensus;
+
+import org.antic.net.msg.Message;
+import org.antic.net.msg.MessageCode;
+import org.antic.util.SimpleDecoder;
+import org.antic.util.SimpleEncoder;
+
+public class StateSnapshotMessage extends Message {
+
+    private final long number;
+    private final byte[] manifest;
+    private final byte[] block;
+
+    /**
+     * Creates a response with the manifest of a snapshot and its block, both
+     * empty if the snapshot is not available.
+     *
+     * @param number
+     * @param manifest
+     * @param block
+     */
+    public StateSnapshotMessage(long number, byte[] manifest, byte[] block) {
+        super(MessageCode.STATE_SNAPSHOT, null);
+
+        this.number = number;
+        this.manifest = manifest;
+        this.block = block;
+
+        SimpleEncoder enc = new SimpleEncoder();
+        enc.writeLong(number);
+        enc.writeBytes(manifest);
+        enc.writeBytes(block);
+        this.body = enc.toBytes();
+    }
+
+    public StateSnapshotMessage(byte[] body) {
+        super(MessageCode.STATE_SNAPSHOT, null);
+
+        SimpleDecoder dec = new SimpleDecoder(body);
+        this.number = dec.readLong();
+        this.manifest = dec.readBytes();
+        this.block = dec.readBytes();
+
+        this.body = body;
+    }
+
+    public long getNumber() {
+        return number;
+    }
+
+    public byte[] getManifest() {
+        return manifest;
+    }
+
+    public byte[] getBlock() {
+        return block;
+    }
+
+    @Override
+    public String toString() {
+        return "StateSnapshotMessage [number=" + number + ", manifest=" + manifest.length + " bytes]";
+    }
+}
@@ -9,10 +9,11 @@ package org.antic.tools;
 import org.antic.core.Amount;
 import org.antic.core.state.Account;
 import org.antic.crypto.Hex;
+import org.antic.db.CompositeDatabaseFactory;
 import org.antic.db.Database;
+import org.antic.db.DatabaseEngine;
 import org.antic.db.DatabaseFactory;
 import org.antic.db.DatabaseName;
-import org.antic.db.LeveldbDatabase;
 import org.antic.util.Bytes;
 import org.antic.util.ClosableIterator;
 
@@ -23,7 +24,9 @@ import java.io.PrintStream;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.EnumMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.stream.LongStream;
 
@@ -38,7 +41,8 @@ public class DatabaseIntegrityChecker {
             return;
         }
 
-        DatabaseFactory dbFactory = new LeveldbDatabase.LeveldbFactory(new File(args[0]));
+        File dataDir = new File(args[0]);
+        DatabaseFactory dbFactory = new CompositeDatabaseFactory(dataDir, detectEngines(dataDir));
         PrintStream out = System.out;
         if (args.length >= 2) {
             out = new PrintStream(new FileOutputStream(args[1]), true, StandardCharsets.UTF_8.name());
@@ -117,4 +121,23 @@ public class DatabaseIntegrityChecker {
 
         dbFactory.close();
     }
+
+    /**
+     * Detects the storage engine of each database from the layout of the data
+     * directory: LevelDB keeps one directory per database, while RocksDB keeps
+     * all of them in the <code>rocksdb</code> directory.
+     *
+     * @param dataDir
+     * @return
+     */
+    private static Map<DatabaseName, DatabaseEngine> detectEngines(File dataDir) {
+        boolean hasRocksdb = new File(dataDir, "rocksdb").isDirectory();
+
+        Map<DatabaseName, DatabaseEngine> engines = new EnumMap<>(DatabaseName.class);
+        for (DatabaseName name : DatabaseName.values()) {
+            boolean hasLeveldb = new File(dataDir, name.toString().toLowerCase(Locale.ROOT)).isDirectory();
+            engines.put(name, hasRocksdb && !hasLeveldb ? DatabaseEngine.ROCKSDB : DatabaseEngine.LEVELDB);
+        }
+        return engines;
+    }
 }
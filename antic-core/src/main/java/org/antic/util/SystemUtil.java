@@ -69,6 +69,7 @@ public class SystemUtil {
         public static final int FAILED_TO_OPEN_DB = 51;
         public static final int FAILED_TO_REPAIR_DB = 52;
         public static final int FAILED_TO_WRITE_BATCH_TO_DB = 53;
+        public static final int INCONSISTENT_DB = 54;
 
         // upgrade
         public static final int HARDWARE_UPGRADE_NEEDED = 71;
@@ -70,6 +70,21 @@ public class DataWord implements Comparable<DataWord> {
         return new DataWord(data, false);
     }
 
+    /**
+     * Creates a DataWord instance from the 32 bytes at the given offset.
+     *
+     * @param src
+     * @param offset
+     * @return
+     */
+    public static DataWord of(byte[] src, int offset) {
+        return new DataWord(Arrays.copyOfRange(src, offset, offset + SIZE), false);
+    }
+
+    public static DataWord of(UInt256 num) {
+        return new DataWord(num.toBytes(), false);
+    }
+
     public static DataWord of(String hex) {
         return new DataWord(HexUtil.fromHexString(hex), false);
     }
@@ -108,6 +123,18 @@ public class DataWord implements Comparable<DataWord> {
         return data.clone();
     }
 
+    /**
+     * Copies the underlying bytes into an array.
+     *
+     * @param dest
+     *            the destination array
+     * @param offset
+     *            the offset in the destination array
+     */
+    public void copyTo(byte[] dest, int offset) {
+        System.arraycopy(data, 0, dest, offset, SIZE);
+    }
+
     /**
      * Returns the last 20 bytes.
      *
@@ -135,6 +162,15 @@ public class DataWord implements Comparable<DataWord> {
         return new BigInteger(data);
     }
 
+    /**
+     * Returns a mutable copy of this value.
+     *
+     * @return
+     */
+    public UInt256 toUInt256() {
+        return UInt256.of(data);
+    }
+
     /**
      * Converts this DataWord to an integer, checking for lost information. If this
      * DataWord is out of the possible range, then an ArithmeticException is thrown.
@@ -187,6 +223,16 @@ public class DataWord implements Comparable<DataWord> {
         return (data[0] & 0x80) != 0;
     }
 
+    /**
+     * Returns whether this value is less than the given non-negative integer.
+     *
+     * @param num
+     * @return
+     */
+    public boolean isLessThan(int num) {
+        return bytesOccupied() <= 4 && (data[SIZE - 4] & 0x80) == 0 && intValue() < num;
+    }
+
     public DataWord and(DataWord w2) {
         byte[] buffer = new byte[SIZE];
         for (int i = 0; i < this.data.length; ++i) {
@@ -236,17 +282,14 @@ public class DataWord implements Comparable<DataWord> {
     }
 
     public DataWord mul(DataWord word) {
-        BigInteger result = value().multiply(word.value());
-
-        return of(result.and(MAX_VALUE));
+        return of(toUInt256().mul(word.toUInt256()));
     }
 
     public DataWord div(DataWord word) {
         if (word.isZero()) {
             return ZERO;
         } else {
-            BigInteger result = value().divide(word.value());
-            return of(result.and(MAX_VALUE));
+            return of(toUInt256().div(word.toUInt256()));
         }
     }
 
@@ -254,27 +297,23 @@ public class DataWord implements Comparable<DataWord> {
         if (word.isZero()) {
             return ZERO;
         } else {
-            BigInteger result = sValue().divide(word.sValue());
-            return of(result.and(MAX_VALUE));
+            return of(toUInt256().sdiv(word.toUInt256()));
         }
     }
 
     public DataWord sub(DataWord word) {
-        BigInteger result = value().subtract(word.value());
-        return of(result.and(MAX_VALUE));
+        return of(toUInt256().sub(word.toUInt256()));
     }
 
     public DataWord exp(DataWord word) {
-        BigInteger result = value().modPow(word.value(), TWO_POW_256);
-        return of(result);
+        return of(toUInt256().exp(word.toUInt256()));
     }
 
     public DataWord mod(DataWord word) {
         if (word.isZero()) {
             return ZERO;
         } else {
-            BigInteger result = value().mod(word.value());
-            return of(result.and(MAX_VALUE));
+            return of(toUInt256().mod(word.toUInt256()));
         }
     }
 
@@ -282,10 +321,7 @@ public class DataWord implements Comparable<DataWord> {
         if (word.isZero()) {
             return ZERO;
         } else {
-            BigInteger result = sValue().abs().mod(word.sValue().abs());
-            result = (sValue().signum() == -1) ? result.negate() : result;
-
-            return of(result.and(MAX_VALUE));
+            return of(toUInt256().smod(word.toUInt256()));
         }
     }
 
@@ -293,8 +329,7 @@ public class DataWord implements Comparable<DataWord> {
         if (word2.isZero()) {
             return ZERO;
         } else {
-            BigInteger result = value().add(word1.value()).mod(word2.value());
-            return of(result.and(MAX_VALUE));
+            return of(toUInt256().addmod(word1.toUInt256(), word2.toUInt256()));
         }
     }
 
@@ -302,8 +337,7 @@ public class DataWord implements Comparable<DataWord> {
         if (this.isZero() || word1.isZero() || word2.isZero()) {
             return ZERO;
         } else {
-            BigInteger result = value().multiply(word1.value()).mod(word2.value());
-            return of(result.and(MAX_VALUE));
+            return of(toUInt256().mulmod(word1.toUInt256(), word2.toUInt256()));
         }
     }
 
@@ -313,7 +347,7 @@ public class DataWord implements Comparable<DataWord> {
         }
 
         byte[] buffer = data.clone();
-        byte mask = this.sValue().testBit((k * 8) + 7) ? (byte) 0xff : 0;
+        byte mask = (data[31 - k] & 0x80) != 0 ? (byte) 0xff : 0;
         for (int i = 31; i > k; i--) {
             buffer[31 - i] = mask;
         }
@@ -338,10 +372,10 @@ public class DataWord implements Comparable<DataWord> {
      * @return this << arg
      */
     public DataWord shiftLeft(DataWord arg) {
-        if (arg.value().compareTo(BigInteger.valueOf(SIZE * 8)) > 0) {
+        if (!arg.isLessThan(SIZE * 8)) {
             return ZERO;
         } else {
-            return DataWord.of(value().shiftLeft(arg.intValue()).and(MAX_VALUE));
+            return of(toUInt256().shiftLeft(arg.intValue()));
         }
     }
 
@@ -352,10 +386,10 @@ public class DataWord implements Comparable<DataWord> {
      * @return this >>> arg
      */
     public DataWord shiftRight(DataWord arg) {
-        if (arg.value().compareTo(BigInteger.valueOf(SIZE * 8)) > 0) {
+        if (!arg.isLessThan(SIZE * 8)) {
             return ZERO;
         } else {
-            return DataWord.of(value().shiftRight(arg.intValue()).and(MAX_VALUE));
+            return of(toUInt256().shiftRight(arg.intValue()));
         }
     }
 
@@ -366,14 +400,14 @@ public class DataWord implements Comparable<DataWord> {
      * @return this >> arg
      */
     public DataWord shiftRightSigned(DataWord arg) {
-        if (arg.value().compareTo(BigInteger.valueOf(SIZE * 8)) > 0) {
+        if (!arg.isLessThan(SIZE * 8)) {
             if (this.isNegative()) {
                 return DataWord.ONE.negate();
             } else {
                 return DataWord.ZERO;
             }
         } else {
-            return DataWord.of(sValue().shiftRight(arg.intValue()).and(MAX_VALUE));
+            return of(toUInt256().shiftRightSigned(arg.intValue()));
         }
     }
 
@@ -400,6 +434,19 @@ public class DataWord implements Comparable<DataWord> {
         return org.bouncycastle.util.Arrays.compareUnsigned(this.data, o.data);
     }
 
+    /**
+     * Compares two DataWords as signed integers, in two's complement.
+     *
+     * @param o
+     * @return
+     */
+    public int compareToSigned(DataWord o) {
+        if (isNegative() != o.isNegative()) {
+            return isNegative() ? -1 : 1;
+        }
+        return compareTo(o);
+    }
+
     @Override
     public String toString() {
         return HexUtil.toHexString(data);
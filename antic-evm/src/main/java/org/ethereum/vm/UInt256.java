@@ -0,0 +1,688 @@
+/**
+ * Copyright (c) [2019] [ The Antic Developers ]
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.ethereum.vm;
+
+/**
+ * A mutable 256-bit integer of four 64-bit limbs, which implements the
+ * arithmetic of {@link DataWord} without BigInteger.
+ * <br>
+ * <br>
+ * The operations update this instance in place and return it, so that the
+ * interpreter can reuse an instance as a scratch value. Values are unsigned,
+ * except for the signed operations, which read them as two's complement. All
+ * results are truncated to 256 bits, and a division by zero results in zero.
+ *
+ * @ImplNote UInt256 objects are NOT thread-safe.
+ */
+public final class UInt256 {
+
+    private static final long MASK = 0xffffffffL;
+
+    // the limbs, least significant first
+    private long u0;
+    private long u1;
+    private long u2;
+    private long u3;
+
+    public UInt256() {
+    }
+
+    public UInt256(UInt256 other) {
+        set(other);
+    }
+
+    /**
+     * Creates an instance from the 32-byte big-endian representation.
+     *
+     * @param data
+     * @return
+     */
+    public static UInt256 of(byte[] data) {
+        return new UInt256().set(data);
+    }
+
+    /**
+     * Sets this value from the 32-byte big-endian representation.
+     *
+     * @param data
+     * @return this
+     */
+    public UInt256 set(byte[] data) {
+        if (data.length != DataWord.SIZE) {
+            throw new IllegalArgumentException("Input data must be " + DataWord.SIZE + " bytes");
+        }
+
+        u3 = getLong(data, 0);
+        u2 = getLong(data, 8);
+        u1 = getLong(data, 16);
+        u0 = getLong(data, 24);
+        return this;
+    }
+
+    /**
+     * Sets this value to the unsigned value of a long.
+     *
+     * @param value
+     * @return this
+     */
+    public UInt256 set(long value) {
+        u0 = value;
+        u1 = u2 = u3 = 0;
+        return this;
+    }
+
+    public UInt256 set(UInt256 other) {
+        u0 = other.u0;
+        u1 = other.u1;
+        u2 = other.u2;
+        u3 = other.u3;
+        return this;
+    }
+
+    /**
+     * Returns the 32-byte big-endian representation.
+     *
+     * @return
+     */
+    public byte[] toBytes() {
+        byte[] data = new byte[DataWord.SIZE];
+        putLong(data, 0, u3);
+        putLong(data, 8, u2);
+        putLong(data, 16, u1);
+        putLong(data, 24, u0);
+        return data;
+    }
+
+    public boolean isZero() {
+        return (u0 | u1 | u2 | u3) == 0;
+    }
+
+    public boolean isNegative() {
+        return u3 < 0;
+    }
+
+    /**
+     * Returns whether this value is less than the given non-negative long.
+     *
+     * @param value
+     * @return
+     */
+    public boolean isLessThan(long value) {
+        return (u1 | u2 | u3) == 0 && u0 >= 0 && u0 < value;
+    }
+
+    /**
+     * Returns the value as a long, or {@link Long#MAX_VALUE} in case of overflow.
+     *
+     * @return
+     */
+    public long longValueSafe() {
+        return (u1 | u2 | u3) == 0 && u0 >= 0 ? u0 : Long.MAX_VALUE;
+    }
+
+    /**
+     * Compares two values as unsigned integers.
+     *
+     * @param other
+     * @return
+     */
+    public int compareTo(UInt256 other) {
+        if (u3 != other.u3) {
+            return Long.compareUnsigned(u3, other.u3);
+        }
+        if (u2 != other.u2) {
+            return Long.compareUnsigned(u2, other.u2);
+        }
+        if (u1 != other.u1) {
+            return Long.compareUnsigned(u1, other.u1);
+        }
+        return Long.compareUnsigned(u0, other.u0);
+    }
+
+    public UInt256 and(UInt256 other) {
+        u0 &= other.u0;
+        u1 &= other.u1;
+        u2 &= other.u2;
+        u3 &= other.u3;
+        return this;
+    }
+
+    public UInt256 or(UInt256 other) {
+        u0 |= other.u0;
+        u1 |= other.u1;
+        u2 |= other.u2;
+        u3 |= other.u3;
+        return this;
+    }
+
+    public UInt256 xor(UInt256 other) {
+        u0 ^= other.u0;
+        u1 ^= other.u1;
+        u2 ^= other.u2;
+        u3 ^= other.u3;
+        return this;
+    }
+
+    public UInt256 not() {
+        u0 = ~u0;
+        u1 = ~u1;
+        u2 = ~u2;
+        u3 = ~u3;
+        return this;
+    }
+
+    /**
+     * Negates this value, in two's complement.
+     *
+     * @return this
+     */
+    public UInt256 negate() {
+        not();
+        u0++;
+        if (u0 == 0) {
+            u1++;
+            if (u1 == 0) {
+                u2++;
+                if (u2 == 0) {
+                    u3++;
+                }
+            }
+        }
+        return this;
+    }
+
+    public UInt256 add(UInt256 other) {
+        long r0 = u0 + other.u0;
+        long c = Long.compareUnsigned(r0, u0) < 0 ? 1 : 0;
+        long s = u1 + other.u1;
+        long r1 = s + c;
+        c = (Long.compareUnsigned(s, u1) < 0 || Long.compareUnsigned(r1, s) < 0) ? 1 : 0;
+        s = u2 + other.u2;
+        long r2 = s + c;
+        c = (Long.compareUnsigned(s, u2) < 0 || Long.compareUnsigned(r2, s) < 0) ? 1 : 0;
+        u3 = u3 + other.u3 + c;
+        u2 = r2;
+        u1 = r1;
+        u0 = r0;
+        return this;
+    }
+
+    public UInt256 sub(UInt256 other) {
+        long r0 = u0 - other.u0;
+        long b = Long.compareUnsigned(u0, other.u0) < 0 ? 1 : 0;
+        long d = u1 - other.u1;
+        long r1 = d - b;
+        b = (Long.compareUnsigned(u1, other.u1) < 0 || Long.compareUnsigned(d, b) < 0) ? 1 : 0;
+        d = u2 - other.u2;
+        long r2 = d - b;
+        b = (Long.compareUnsigned(u2, other.u2) < 0 || Long.compareUnsigned(d, b) < 0) ? 1 : 0;
+        u3 = u3 - other.u3 - b;
+        u2 = r2;
+        u1 = r1;
+        u0 = r0;
+        return this;
+    }
+
+    public UInt256 mul(UInt256 other) {
+        int[] a = toDigits(8);
+        int[] b = other.toDigits(8);
+        int[] r = new int[8];
+        for (int i = 0; i < 8; i++) {
+            long ai = a[i] & MASK;
+            if (ai == 0) {
+                continue;
+            }
+            long carry = 0;
+            for (int j = 0; j < 8 - i; j++) {
+                long t = ai * (b[j] & MASK) + (r[i + j] & MASK) + carry;
+                r[i + j] = (int) t;
+                carry = t >>> 32;
+            }
+        }
+        return setDigits(r);
+    }
+
+    public UInt256 div(UInt256 other) {
+        if (other.isZero()) {
+            return set(0);
+        }
+        int[] q = new int[8];
+        divmod(toDigits(8), other.toDigits(8), q, null);
+        return setDigits(q);
+    }
+
+    public UInt256 mod(UInt256 other) {
+        if (other.isZero()) {
+            return set(0);
+        }
+        int[] r = new int[8];
+        divmod(toDigits(8), other.toDigits(8), null, r);
+        return setDigits(r);
+    }
+
+    /**
+     * Signed division, truncated toward zero.
+     *
+     * @param other
+     * @return this
+     */
+    public UInt256 sdiv(UInt256 other) {
+        if (other.isZero()) {
+            return set(0);
+        }
+        boolean isNegative = isNegative() ^ other.isNegative();
+        abs().div(new UInt256(other).abs());
+        return isNegative ? negate() : this;
+    }
+
+    /**
+     * Signed modulo, which takes the sign of the dividend.
+     *
+     * @param other
+     * @return this
+     */
+    public UInt256 smod(UInt256 other) {
+        if (other.isZero()) {
+            return set(0);
+        }
+        boolean isNegative = isNegative();
+        abs().mod(new UInt256(other).abs());
+        return isNegative ? negate() : this;
+    }
+
+    /**
+     * Computes (this + other) % m, without truncating the sum.
+     *
+     * @param other
+     * @param m
+     * @return this
+     */
+    public UInt256 addmod(UInt256 other, UInt256 m) {
+        if (m.isZero()) {
+            return set(0);
+        }
+        int[] a = toDigits(9);
+        int[] b = other.toDigits(9);
+        long carry = 0;
+        for (int i = 0; i < 9; i++) {
+            long t = (a[i] & MASK) + (b[i] & MASK) + carry;
+            a[i] = (int) t;
+            carry = t >>> 32;
+        }
+        int[] r = new int[8];
+        divmod(a, m.toDigits(8), null, r);
+        return setDigits(r);
+    }
+
+    /**
+     * Computes (this * other) % m, without truncating the product.
+     *
+     * @param other
+     * @param m
+     * @return this
+     */
+    public UInt256 mulmod(UInt256 other, UInt256 m) {
+        if (m.isZero()) {
+            return set(0);
+        }
+        int[] a = toDigits(8);
+        int[] b = other.toDigits(8);
+        int[] p = new int[16];
+        for (int i = 0; i < 8; i++) {
+            long ai = a[i] & MASK;
+            if (ai == 0) {
+                continue;
+            }
+            long carry = 0;
+            for (int j = 0; j < 8; j++) {
+                long t = ai * (b[j] & MASK) + (p[i + j] & MASK) + carry;
+                p[i + j] = (int) t;
+                carry = t >>> 32;
+            }
+            p[i + 8] = (int) carry;
+        }
+        int[] r = new int[8];
+        divmod(p, m.toDigits(8), null, r);
+        return setDigits(r);
+    }
+
+    /**
+     * Computes this ** exponent, truncated to 256 bits.
+     *
+     * @param exponent
+     * @return this
+     */
+    public UInt256 exp(UInt256 exponent) {
+        UInt256 base = new UInt256(this);
+        set(1);
+
+        int bits = exponent.bitLength();
+        for (int i = 0; i < bits; i++) {
+            if (exponent.testBit(i)) {
+                mul(base);
+            }
+            if (i < bits - 1) {
+                base.mul(base);
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Extends the sign of the k-th lowest byte, for k in [0, 31].
+     *
+     * @param k
+     * @return this
+     */
+    public UInt256 signExtend(int k) {
+        if (k < 0 || k > 31) {
+            throw new IndexOutOfBoundsException();
+        }
+
+        int bit = k * 8 + 7;
+        boolean isSet = testBit(bit);
+        for (int i = bit + 1; i < 256; i += 64 - (i & 63)) {
+            // the mask of bits [i, end of the limb)
+            long mask = -1L << (i & 63);
+            setLimb(i >>> 6, isSet ? getLimb(i >>> 6) | mask : getLimb(i >>> 6) & ~mask);
+        }
+        return this;
+    }
+
+    /**
+     * Shifts left, by any number of bits.
+     *
+     * @param n
+     * @return this
+     */
+    public UInt256 shiftLeft(int n) {
+        if (n >= 256) {
+            return set(0);
+        }
+        int limbs = n >>> 6;
+        int bits = n & 63;
+        for (int i = 3; i >= 0; i--) {
+            int src = i - limbs;
+            long hi = src >= 0 ? getLimb(src) : 0;
+            long lo = src > 0 ? getLimb(src - 1) : 0;
+            setLimb(i, bits == 0 ? hi : (hi << bits) | (lo >>> (64 - bits)));
+        }
+        return this;
+    }
+
+    /**
+     * Shifts right, filling with zeros.
+     *
+     * @param n
+     * @return this
+     */
+    public UInt256 shiftRight(int n) {
+        return shiftRight(n, 0);
+    }
+
+    /**
+     * Shifts right, filling with the sign bit.
+     *
+     * @param n
+     * @return this
+     */
+    public UInt256 shiftRightSigned(int n) {
+        return shiftRight(n, isNegative() ? -1L : 0);
+    }
+
+    private UInt256 shiftRight(int n, long fill) {
+        if (n >= 256) {
+            u0 = u1 = u2 = u3 = fill;
+            return this;
+        }
+        int limbs = n >>> 6;
+        int bits = n & 63;
+        for (int i = 0; i < 4; i++) {
+            int src = i + limbs;
+            long lo = src < 4 ? getLimb(src) : fill;
+            long hi = src + 1 < 4 ? getLimb(src + 1) : fill;
+            setLimb(i, bits == 0 ? lo : (lo >>> bits) | (hi << (64 - bits)));
+        }
+        return this;
+    }
+
+    public boolean testBit(int n) {
+        return (getLimb(n >>> 6) & (1L << (n & 63))) != 0;
+    }
+
+    public int bitLength() {
+        for (int i = 3; i >= 0; i--) {
+            long limb = getLimb(i);
+            if (limb != 0) {
+                return i * 64 + 64 - Long.numberOfLeadingZeros(limb);
+            }
+        }
+        return 0;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof UInt256)) {
+            return false;
+        }
+        UInt256 other = (UInt256) o;
+        return u0 == other.u0 && u1 == other.u1 && u2 == other.u2 && u3 == other.u3;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(u0 ^ u1 ^ u2 ^ u3);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%016x%016x%016x%016x", u3, u2, u1, u0);
+    }
+
+    private UInt256 abs() {
+        return isNegative() ? negate() : this;
+    }
+
+    private long getLimb(int i) {
+        switch (i) {
+        case 0:
+            return u0;
+        case 1:
+            return u1;
+        case 2:
+            return u2;
+        default:
+            return u3;
+        }
+    }
+
+    private void setLimb(int i, long value) {
+        switch (i) {
+        case 0:
+            u0 = value;
+            break;
+        case 1:
+            u1 = value;
+            break;
+        case 2:
+            u2 = value;
+            break;
+        default:
+            u3 = value;
+            break;
+        }
+    }
+
+    /**
+     * Returns the 32-bit digits of this value, least significant first.
+     */
+    private int[] toDigits(int length) {
+        int[] digits = new int[length];
+        digits[0] = (int) u0;
+        digits[1] = (int) (u0 >>> 32);
+        digits[2] = (int) u1;
+        digits[3] = (int) (u1 >>> 32);
+        digits[4] = (int) u2;
+        digits[5] = (int) (u2 >>> 32);
+        digits[6] = (int) u3;
+        digits[7] = (int) (u3 >>> 32);
+        return digits;
+    }
+
+    private UInt256 setDigits(int[] digits) {
+        u0 = (digits[0] & MASK) | ((long) digits[1] << 32);
+        u1 = (digits[2] & MASK) | ((long) digits[3] << 32);
+        u2 = (digits[4] & MASK) | ((long) digits[5] << 32);
+        u3 = (digits[6] & MASK) | ((long) digits[7] << 32);
+        return this;
+    }
+
+    private static int length(int[] digits) {
+        int n = digits.length;
+        while (n > 0 && digits[n - 1] == 0) {
+            n--;
+        }
+        return n;
+    }
+
+    /**
+     * Divides two unsigned integers of 32-bit digits, least significant first,
+     * with the algorithm D of Knuth (TAOCP vol. 2, 4.3.1).
+     *
+     * @param u
+     *            the dividend
+     * @param v
+     *            the divisor, not zero
+     * @param q
+     *            the quotient, or null if not needed
+     * @param r
+     *            the remainder, or null if not needed
+     */
+    private static void divmod(int[] u, int[] v, int[] q, int[] r) {
+        int m = length(u);
+        int n = length(v);
+
+        if (m < n) {
+            if (r != null) {
+                System.arraycopy(u, 0, r, 0, m);
+            }
+            return;
+        }
+
+        // single digit divisor
+        if (n == 1) {
+            long d = v[0] & MASK;
+            long k = 0;
+            for (int j = m - 1; j >= 0; j--) {
+                long t = (k << 32) | (u[j] & MASK);
+                if (q != null) {
+                    q[j] = (int) Long.divideUnsigned(t, d);
+                }
+                k = Long.remainderUnsigned(t, d);
+            }
+            if (r != null) {
+                r[0] = (int) k;
+            }
+            return;
+        }
+
+        // normalize, so that the top digit of the divisor has its high bit set
+        int s = Integer.numberOfLeadingZeros(v[n - 1]);
+        int[] vn = new int[n];
+        for (int i = n - 1; i > 0; i--) {
+            vn[i] = (v[i] << s) | (s == 0 ? 0 : v[i - 1] >>> (32 - s));
+        }
+        vn[0] = v[0] << s;
+
+        int[] un = new int[m + 1];
+        un[m] = s == 0 ? 0 : u[m - 1] >>> (32 - s);
+        for (int i = m - 1; i > 0; i--) {
+            un[i] = (u[i] << s) | (s == 0 ? 0 : u[i - 1] >>> (32 - s));
+        }
+        un[0] = u[0] << s;
+
+        long vTop = vn[n - 1] & MASK;
+        long vNext = vn[n - 2] & MASK;
+        for (int j = m - n; j >= 0; j--) {
+            // estimate the quotient digit, which is at most 2 too large
+            long num = ((un[j + n] & MASK) << 32) | (un[j + n - 1] & MASK);
+            long qhat = Long.divideUnsigned(num, vTop);
+            long rhat = Long.remainderUnsigned(num, vTop);
+            while (qhat > MASK
+                    || Long.compareUnsigned(qhat * vNext, (rhat << 32) | (un[j + n - 2] & MASK)) > 0) {
+                qhat--;
+                rhat += vTop;
+                if (rhat > MASK) {
+                    break;
+                }
+            }
+
+            // multiply and subtract
+            long borrow = 0;
+            long t;
+            for (int i = 0; i < n; i++) {
+                long p = qhat * (vn[i] & MASK);
+                t = (un[i + j] & MASK) - borrow - (p & MASK);
+                un[i + j] = (int) t;
+                borrow = (p >>> 32) - (t >> 32);
+            }
+            t = (un[j + n] & MASK) - borrow;
+            un[j + n] = (int) t;
+
+            // add back if the estimate was one too large
+            if (t < 0) {
+                qhat--;
+                long carry = 0;
+                for (int i = 0; i < n; i++) {
+                    t = (un[i + j] & MASK) + (vn[i] & MASK) + carry;
+                    un[i + j] = (int) t;
+                    carry = t >>> 32;
+                }
+                un[j + n] += (int) carry;
+            }
+
+            if (q != null) {
+                q[j] = (int) qhat;
+            }
+        }
+
+        // unnormalize the remainder
+        if (r != null) {
+            for (int i = 0; i < n; i++) {
+                r[i] = (un[i] >>> s) | (s == 0 ? 0 : un[i + 1] << (32 - s));
+            }
+        }
+    }
+
+    private static long getLong(byte[] data, int offset) {
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value = (value << 8) | (data[offset + i] & 0xff);
+        }
+        return value;
+    }
+
+    private static void putLong(byte[] data, int offset, long value) {
+        for (int i = 7; i >= 0; i--) {
+            data[offset + i] = (byte) value;
+            value >>>= 8;
+        }
+    }
+}
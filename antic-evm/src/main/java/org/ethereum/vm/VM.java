@@ -23,12 +23,18 @@ import static org.ethereum.vm.OpCode.REVERT;
 import static org.ethereum.vm.util.ByteArrayUtil.EMPTY_BYTE_ARRAY;
 import static org.ethereum.vm.util.VMUtil.getSizeInWords;
 
-import java.math.BigInteger;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
 import java.util.List;
+import java.util.function.BinaryOperator;
+import java.util.function.Consumer;
+import java.util.function.UnaryOperator;
 
 import org.ethereum.vm.chainspec.Spec;
 import org.ethereum.vm.program.Program;
+import org.ethereum.vm.program.ProgramPreprocess;
 import org.ethereum.vm.program.Stack;
 import org.ethereum.vm.program.exception.ExceptionFactory;
 import org.ethereum.vm.program.exception.ReturnDataCopyIllegalBoundsException;
@@ -75,13 +81,17 @@ public class VM {
 
     private static final Logger logger = LoggerFactory.getLogger(VM.class);
 
-    private static final BigInteger THIRTY_TWO = BigInteger.valueOf(32);
+    // theoretical limit, used to keep the memory arithmetic within a long
+    private static final long MAX_MEM_SIZE = Integer.MAX_VALUE;
 
-    // theoretical limit, used to reduce expensive BigInt arithmetic
-    private static final BigInteger MAX_MEM_SIZE = BigInteger.valueOf(Integer.MAX_VALUE);
+    // whether to run the reference implementation only, for diagnosis
+    private static final boolean isReference = Boolean.getBoolean("vm.reference");
 
     private final Spec spec;
 
+    // the handlers of the optimized interpreter, by opcode
+    private Handler[] handlers;
+
     public VM() {
         this(Spec.DEFAULT);
     }
@@ -90,16 +100,16 @@ public class VM {
         this.spec = spec;
     }
 
-    private long calcMemGas(FeeSchedule feeSchedule, long oldMemSize, BigInteger newMemSize, long copySize) {
+    private long calcMemGas(FeeSchedule feeSchedule, long oldMemSize, long newMemSize, long copySize) {
         long gasCost = 0;
 
         // avoid overflows
-        if (newMemSize.compareTo(MAX_MEM_SIZE) > 0) {
+        if (newMemSize > MAX_MEM_SIZE) {
             throw ExceptionFactory.gasOverflow(newMemSize, MAX_MEM_SIZE);
         }
 
         // memory gas calc
-        long memoryUsage = (newMemSize.longValue() + 31) / 32 * 32;
+        long memoryUsage = (newMemSize + 31) / 32 * 32;
         if (memoryUsage > oldMemSize) {
             long memWords = (memoryUsage / 32);
             long memWordsOld = (oldMemSize / 32);
@@ -121,6 +131,18 @@ public class VM {
     }
 
     public void step(Program program) {
+        step(program, false);
+    }
+
+    /**
+     * Executes one operation.
+     *
+     * @param program
+     * @param isCharged
+     *            whether the static gas of the operation is charged already, see
+     *            {@link ProgramPreprocess#getBlockGas(int)}
+     */
+    protected void step(Program program, boolean isCharged) {
         try {
             OpCode op = OpCode.code(program.getCurrentOp());
             if (op == null) {
@@ -296,11 +318,11 @@ public class VM {
                     gasCost += feeSchedule.getVT_CALL();
 
                 int opOff = op.callHasValue() ? 4 : 3;
-                BigInteger in = memNeeded(stack.get(stack.size() - opOff),
+                long in = memNeeded(stack.get(stack.size() - opOff),
                         stack.get(stack.size() - opOff - 1)); // in offset+size
-                BigInteger out = memNeeded(stack.get(stack.size() - opOff - 2),
+                long out = memNeeded(stack.get(stack.size() - opOff - 2),
                         stack.get(stack.size() - opOff - 3)); // out offset+size
-                gasCost += calcMemGas(feeSchedule, oldMemSize, in.max(out), 0);
+                gasCost += calcMemGas(feeSchedule, oldMemSize, Math.max(in, out), 0);
 
                 if (gasCost > program.getGasLeft()) {
                     throw ExceptionFactory.notEnoughOpGas(op, gasCost, program.getGasLeft());
@@ -327,10 +349,12 @@ public class VM {
             case LOG4:
                 int nTopics = op.val() - OpCode.LOG0.val();
 
-                BigInteger dataSize = stack.get(stack.size() - 2).value();
-                BigInteger dataCost = dataSize.multiply(BigInteger.valueOf(feeSchedule.getLOG_DATA_GAS()));
-                if (BigInteger.valueOf(program.getGasLeft()).compareTo(dataCost) < 0) {
-                    throw ExceptionFactory.notEnoughOpGas(op, dataCost.longValue(), program.getGasLeft());
+                long dataSize = stack.get(stack.size() - 2).longValueSafe();
+                long dataCost = dataSize > program.getGasLeft() / feeSchedule.getLOG_DATA_GAS()
+                        ? Long.MAX_VALUE
+                        : dataSize * feeSchedule.getLOG_DATA_GAS();
+                if (program.getGasLeft() < dataCost) {
+                    throw ExceptionFactory.notEnoughOpGas(op, dataCost, program.getGasLeft());
                 }
 
                 gasCost = feeSchedule.getLOG_GAS() +
@@ -348,7 +372,9 @@ public class VM {
                 break;
             }
 
-            program.spendGas(gasCost, op.name());
+            if (!isCharged || !ProgramPreprocess.hasStaticGas(op)) {
+                program.spendGas(gasCost, op.name());
+            }
 
             // Execute operation
             switch (op) {
@@ -433,11 +459,9 @@ public class VM {
                 break;
             case SIGNEXTEND: {
                 DataWord word1 = program.stackPop();
-                BigInteger k = word1.value();
-
-                if (k.compareTo(THIRTY_TWO) < 0) {
+                if (word1.isLessThan(32)) {
                     DataWord word2 = program.stackPop();
-                    DataWord result = word2.signExtend(k.byteValue());
+                    DataWord result = word2.signExtend((byte) word1.intValue());
                     program.stackPush(result);
                 }
                 program.step();
@@ -455,7 +479,7 @@ public class VM {
                 DataWord word1 = program.stackPop();
                 DataWord word2 = program.stackPop();
 
-                DataWord result = (word1.value().compareTo(word2.value()) < 0) ? DataWord.ONE : DataWord.ZERO;
+                DataWord result = (word1.compareTo(word2) < 0) ? DataWord.ONE : DataWord.ZERO;
                 program.stackPush(result);
                 program.step();
             }
@@ -464,7 +488,7 @@ public class VM {
                 DataWord word1 = program.stackPop();
                 DataWord word2 = program.stackPop();
 
-                DataWord result = (word1.sValue().compareTo(word2.sValue()) < 0) ? DataWord.ONE : DataWord.ZERO;
+                DataWord result = (word1.compareToSigned(word2) < 0) ? DataWord.ONE : DataWord.ZERO;
                 program.stackPush(result);
                 program.step();
             }
@@ -473,7 +497,7 @@ public class VM {
                 DataWord word1 = program.stackPop();
                 DataWord word2 = program.stackPop();
 
-                DataWord result = (word1.sValue().compareTo(word2.sValue()) > 0) ? DataWord.ONE : DataWord.ZERO;
+                DataWord result = (word1.compareToSigned(word2) > 0) ? DataWord.ONE : DataWord.ZERO;
                 program.stackPush(result);
                 program.step();
             }
@@ -482,7 +506,7 @@ public class VM {
                 DataWord word1 = program.stackPop();
                 DataWord word2 = program.stackPop();
 
-                DataWord result = (word1.value().compareTo(word2.value()) > 0) ? DataWord.ONE : DataWord.ZERO;
+                DataWord result = (word1.compareTo(word2) > 0) ? DataWord.ONE : DataWord.ZERO;
                 program.stackPush(result);
                 program.step();
             }
@@ -535,7 +559,7 @@ public class VM {
                 DataWord word1 = program.stackPop();
                 DataWord word2 = program.stackPop();
                 final DataWord result;
-                if (word1.value().compareTo(THIRTY_TWO) < 0) {
+                if (word1.isLessThan(32)) {
                     byte tmp = word2.getByte(word1.intValue());
                     result = DataWord.of(tmp);
                 } else {
@@ -719,16 +743,7 @@ public class VM {
                 int codeOffset = program.stackPop().intValueSafe();
                 int lengthData = program.stackPop().intValueSafe();
 
-                int sizeToBeCopied = (long) codeOffset + lengthData > fullCode.length
-                        ? (fullCode.length < codeOffset ? 0 : fullCode.length - codeOffset)
-                        : lengthData;
-
-                byte[] codeCopy = new byte[lengthData];
-
-                if (codeOffset < fullCode.length)
-                    System.arraycopy(fullCode, codeOffset, codeCopy, 0, sizeToBeCopied);
-
-                program.memorySave(memOffset, lengthData, codeCopy);
+                program.memoryCopy(memOffset, lengthData, fullCode, codeOffset);
                 program.step();
             }
                 break;
@@ -999,10 +1014,10 @@ public class VM {
             case PUSH30:
             case PUSH31:
             case PUSH32: {
-                program.step();
                 int nPush = op.val() - PUSH1.val() + 1;
 
-                byte[] data = program.sweep(nPush);
+                DataWord data = program.getProgramPreprocess().getPushValue(program.getPC());
+                program.setPC(program.getPC() + 1 + nPush);
 
                 program.stackPush(data);
             }
@@ -1108,19 +1123,248 @@ public class VM {
     }
 
     public void play(Program program) {
+        execute(program, this::playFrame);
+    }
+
+    private void playFrame(Program program) {
         try {
-            while (!program.isStopped()) {
+            while (!program.isStopped() && program.getCallee() == null) {
                 this.step(program);
             }
 
         } catch (RuntimeException e) {
             program.setException(e);
-        } catch (StackOverflowError soe) {
-            logger.error("\n !!! StackOverflowError: update your java run command with -Xss2M !!!\n", soe);
-            System.exit(-1);
         }
     }
 
+    /**
+     * Executes a program with the optimized interpreter, with the same results as
+     * {@link #play(Program)}, which remains the reference implementation.
+     * <br>
+     * <br>
+     * The code runs by basic blocks, see {@link ProgramPreprocess}. The static
+     * gas and the stack bounds of a block are checked once at its start, and the
+     * operations are dispatched through a table of handlers, where the ones with
+     * dynamic gas or rarely used fall back to {@link #step(Program)}. The gas is
+     * thus charged earlier than by the reference implementation, but never
+     * before an operation which observes it. A block which would break the stack
+     * bounds or run out of gas is run by the reference implementation, to fail
+     * at the same operation with the same exception.
+     *
+     * @param program
+     */
+    public void run(Program program) {
+        if (isReference) {
+            play(program);
+        } else {
+            execute(program, this::runFrame);
+        }
+    }
+
+    /**
+     * Executes a program and its sub-calls, with the call frames on a stack
+     * instead of recursive invocations, so that the depth of the calls is not
+     * limited by the stack size of the thread.
+     * <br>
+     * <br>
+     * A frame runs until it stops, or until it leaves a sub-call pending, see
+     * {@link Program#getCallee()}. The program of the sub-call then runs as a
+     * new frame, and the caller resumes with its result once it stops.
+     *
+     * @param program
+     * @param interpreter
+     *            runs a frame until it stops or calls
+     */
+    private void execute(Program program, Consumer<Program> interpreter) {
+        Deque<Program> callers = new ArrayDeque<>();
+        Program frame = program;
+
+        while (true) {
+            interpreter.accept(frame);
+
+            Program callee = frame.getCallee();
+            if (callee != null) {
+                callers.push(frame);
+                frame = callee;
+            } else if (callers.isEmpty()) {
+                break;
+            } else {
+                frame = callers.pop();
+                try {
+                    frame.resume();
+                } catch (RuntimeException e) {
+                    frame.spendAllGas();
+                    frame.resetFutureRefund();
+                    frame.stop();
+                    frame.setException(e);
+                }
+            }
+        }
+    }
+
+    private void runFrame(Program program) {
+        try {
+            ProgramPreprocess code = program.getProgramPreprocess();
+            Stack stack = program.getStack();
+            Handler[] table = getHandlers();
+
+            while (!program.isStopped() && program.getCallee() == null) {
+                int pc = program.getPC();
+                int size = stack.size();
+                boolean isStart = code.isBlockStart(pc);
+                int end = isStart ? code.getBlockEnd(pc) : 0;
+                boolean isChecked = isStart
+                        && size >= code.getBlockStackMin(pc)
+                        && size + code.getBlockStackGrowth(pc) <= Stack.MAX_SIZE
+                        && program.getGasLeft() >= code.getBlockGas(pc);
+
+                if (isChecked) {
+                    program.spendGas(code.getBlockGas(pc), "basic block");
+                }
+
+                // runs until the end of the block, or a jump
+                int opPc;
+                do {
+                    opPc = program.getPC();
+                    if (isChecked) {
+                        table[program.getCurrentOp() & 0xff].execute(program);
+                    } else {
+                        step(program);
+                    }
+                } while (!program.isStopped() && program.getPC() > opPc && program.getPC() < end);
+            }
+        } catch (RuntimeException e) {
+            program.spendAllGas();
+            program.resetFutureRefund();
+            program.stop();
+            program.setException(e);
+        }
+    }
+
+    private Handler[] getHandlers() {
+        if (handlers == null) {
+            handlers = createHandlers();
+        }
+        return handlers;
+    }
+
+    /**
+     * Creates the handlers of the optimized interpreter, which execute an
+     * operation whose stack bounds and static gas are checked already.
+     *
+     * @return
+     */
+    private Handler[] createHandlers() {
+        Handler[] table = new Handler[256];
+        Arrays.fill(table, (Handler) program -> step(program, true));
+
+        binary(table, OpCode.ADD, DataWord::add);
+        binary(table, OpCode.MUL, DataWord::mul);
+        binary(table, OpCode.SUB, DataWord::sub);
+        binary(table, OpCode.DIV, DataWord::div);
+        binary(table, OpCode.SDIV, DataWord::sDiv);
+        binary(table, OpCode.MOD, DataWord::mod);
+        binary(table, OpCode.SMOD, DataWord::sMod);
+        binary(table, OpCode.LT, (w1, w2) -> w1.compareTo(w2) < 0 ? DataWord.ONE : DataWord.ZERO);
+        binary(table, OpCode.GT, (w1, w2) -> w1.compareTo(w2) > 0 ? DataWord.ONE : DataWord.ZERO);
+        binary(table, OpCode.SLT, (w1, w2) -> w1.compareToSigned(w2) < 0 ? DataWord.ONE : DataWord.ZERO);
+        binary(table, OpCode.SGT, (w1, w2) -> w1.compareToSigned(w2) > 0 ? DataWord.ONE : DataWord.ZERO);
+        binary(table, OpCode.EQ, (w1, w2) -> w1.equals(w2) ? DataWord.ONE : DataWord.ZERO);
+        binary(table, OpCode.AND, DataWord::and);
+        binary(table, OpCode.OR, DataWord::or);
+        binary(table, OpCode.XOR, DataWord::xor);
+        binary(table, OpCode.BYTE,
+                (w1, w2) -> w1.isLessThan(32) ? DataWord.of(w2.getByte(w1.intValue())) : DataWord.ZERO);
+        if (spec.eip145()) {
+            binary(table, OpCode.SHL, (w1, w2) -> w2.shiftLeft(w1));
+            binary(table, OpCode.SHR, (w1, w2) -> w2.shiftRight(w1));
+            binary(table, OpCode.SAR, (w1, w2) -> w2.shiftRightSigned(w1));
+        }
+        unary(table, OpCode.ISZERO, w -> w.isZero() ? DataWord.ONE : DataWord.ZERO);
+        unary(table, OpCode.NOT, DataWord::bnot);
+
+        table[OpCode.ADDMOD.val() & 0xff] = program -> {
+            Stack stack = program.getStack();
+            stack.push(stack.pop().addmod(stack.pop(), stack.pop()));
+            program.step();
+        };
+        table[OpCode.MULMOD.val() & 0xff] = program -> {
+            Stack stack = program.getStack();
+            stack.push(stack.pop().mulmod(stack.pop(), stack.pop()));
+            program.step();
+        };
+        table[OpCode.POP.val() & 0xff] = program -> {
+            program.getStack().pop();
+            program.step();
+        };
+        table[OpCode.JUMPDEST.val() & 0xff] = Program::step;
+        table[OpCode.JUMP.val() & 0xff] = program -> {
+            program.setPC(program.verifyJumpDest(program.getStack().pop()));
+        };
+        table[OpCode.JUMPI.val() & 0xff] = program -> {
+            DataWord pos = program.getStack().pop();
+            DataWord cond = program.getStack().pop();
+            if (!cond.isZero()) {
+                program.setPC(program.verifyJumpDest(pos));
+            } else {
+                program.step();
+            }
+        };
+        table[OpCode.PC.val() & 0xff] = program -> {
+            program.getStack().push(DataWord.of(program.getPC()));
+            program.step();
+        };
+
+        for (int i = 0; i < 32; i++) {
+            int n = i + 1;
+            table[(OpCode.PUSH1.val() & 0xff) + i] = program -> {
+                DataWord data = program.getProgramPreprocess().getPushValue(program.getPC());
+                program.setPC(program.getPC() + 1 + n);
+                program.getStack().push(data);
+            };
+        }
+        for (int i = 0; i < 16; i++) {
+            int n = i + 1;
+            table[(OpCode.DUP1.val() & 0xff) + i] = program -> {
+                Stack stack = program.getStack();
+                stack.push(stack.get(stack.size() - n));
+                program.step();
+            };
+            table[(OpCode.SWAP1.val() & 0xff) + i] = program -> {
+                Stack stack = program.getStack();
+                stack.swap(stack.size() - 1, stack.size() - n - 1);
+                program.step();
+            };
+        }
+
+        return table;
+    }
+
+    private static void unary(Handler[] table, OpCode op, UnaryOperator<DataWord> f) {
+        table[op.val() & 0xff] = program -> {
+            Stack stack = program.getStack();
+            stack.push(f.apply(stack.pop()));
+            program.step();
+        };
+    }
+
+    private static void binary(Handler[] table, OpCode op, BinaryOperator<DataWord> f) {
+        table[op.val() & 0xff] = program -> {
+            Stack stack = program.getStack();
+            DataWord word1 = stack.pop();
+            DataWord word2 = stack.pop();
+            stack.push(f.apply(word1, word2));
+            program.step();
+        };
+    }
+
+    /**
+     * Executes an operation of the optimized interpreter.
+     */
+    private interface Handler {
+        void execute(Program program);
+    }
+
     /**
      * Utility to calculate new total memory size needed for an operation. <br/>
      * Basically just offset + size, unless size is 0, in which case the result is
@@ -1131,8 +1375,15 @@ public class VM {
      * @param size
      *            number of bytes needed
      * @return offset + size, unless size is 0. In that case memNeeded is also 0.
+     *         Saturates at {@link Long#MAX_VALUE}, beyond any memory limit.
      */
-    private static BigInteger memNeeded(DataWord offset, DataWord size) {
-        return size.isZero() ? BigInteger.ZERO : offset.value().add(size.value());
+    private static long memNeeded(DataWord offset, DataWord size) {
+        if (size.isZero()) {
+            return 0;
+        }
+
+        long o = offset.longValueSafe();
+        long s = size.longValueSafe();
+        return o > Long.MAX_VALUE - s ? Long.MAX_VALUE : o + s;
     }
 }
\ No newline at end of file
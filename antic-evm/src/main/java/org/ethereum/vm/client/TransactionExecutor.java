@@ -25,6 +25,7 @@ import java.util.ArrayList;
 
 import org.ethereum.vm.DataWord;
 import org.ethereum.vm.OpCode;
+import org.ethereum.vm.VM;
 import org.ethereum.vm.chainspec.Spec;
 import org.ethereum.vm.program.Program;
 import org.ethereum.vm.program.ProgramResult;
@@ -153,6 +154,12 @@ public class TransactionExecutor {
                     outDataSize);
         }
 
+        // run the code of the callee, if any
+        if (program.getCallee() != null) {
+            new VM(spec).run(program.getCallee());
+            invokeResult = program.resume();
+        }
+
         // [3] post-invocation processing
         if (invokeResult.getException() == null && !invokeResult.isRevert()) {
             // commit deleted accounts
@@ -18,20 +18,29 @@
 package org.ethereum.vm.program;
 
 import static java.lang.Math.ceil;
+import static java.lang.Math.max;
 import static java.lang.Math.min;
 import static org.ethereum.vm.util.ByteArrayUtil.EMPTY_BYTE_ARRAY;
 
-import java.util.LinkedList;
-import java.util.List;
+import java.util.Arrays;
 
 import org.ethereum.vm.DataWord;
 
+/**
+ * Program memory, a contiguous buffer which grows geometrically.
+ * <br>
+ * <br>
+ * The size visible to the program, {@link #size()}, is a multiple of the word
+ * size and may be less than the capacity of the buffer. The bytes beyond the
+ * visible size are always zero.
+ */
 public class Memory {
 
-    private static final int CHUNK_SIZE = 1024;
     private static final int WORD_SIZE = 32;
+    private static final int MIN_CAPACITY = 1024;
+    private static final int MAX_CAPACITY = Integer.MAX_VALUE - 8;
 
-    private List<byte[]> chunks = new LinkedList<>();
+    private byte[] buffer = EMPTY_BYTE_ARRAY;
     private int softSize;
 
     public byte[] read(int address, int size) {
@@ -40,27 +49,7 @@ public class Memory {
         }
 
         extend(address, size);
-        byte[] data = new byte[size];
-
-        int chunkIndex = address / CHUNK_SIZE;
-        int chunkOffset = address % CHUNK_SIZE;
-
-        int toGrab = data.length;
-        int start = 0;
-
-        while (toGrab > 0) {
-            int copied = grabMax(chunkIndex, chunkOffset, toGrab, data, start);
-
-            // read next chunk from the start
-            ++chunkIndex;
-            chunkOffset = 0;
-
-            // mark remind
-            toGrab -= copied;
-            start += copied;
-        }
-
-        return data;
+        return Arrays.copyOfRange(buffer, address, address + size);
     }
 
     public void write(int address, byte[] data, int dataSize, boolean limited) {
@@ -76,9 +65,6 @@ public class Memory {
             extend(address, dataSize);
         }
 
-        int chunkIndex = address / CHUNK_SIZE;
-        int chunkOffset = address % CHUNK_SIZE;
-
         int toCapture;
         if (limited) {
             toCapture = (address + dataSize > softSize) ? softSize - address : dataSize;
@@ -86,18 +72,46 @@ public class Memory {
             toCapture = dataSize;
         }
 
-        int start = 0;
-        while (toCapture > 0) {
-            int captured = captureMax(chunkIndex, chunkOffset, toCapture, data, start);
+        if (toCapture > 0) {
+            System.arraycopy(data, 0, buffer, address, toCapture);
+        }
+    }
 
-            // capture next chunk
-            ++chunkIndex;
-            chunkOffset = 0;
+    /**
+     * Writes a word, extending the memory if needed.
+     *
+     * @param address
+     * @param word
+     */
+    public void write(int address, DataWord word) {
+        extend(address, WORD_SIZE);
+        word.copyTo(buffer, address);
+    }
 
-            // mark remind
-            toCapture -= captured;
-            start += captured;
+    /**
+     * Copies a range of a byte array, extending the memory if needed. The bytes
+     * beyond the end of the source are written as zeros.
+     *
+     * @param address
+     *            the memory address
+     * @param size
+     *            the number of bytes to write
+     * @param src
+     *            the source
+     * @param srcOffset
+     *            the offset in the source
+     */
+    public void copy(int address, int size, byte[] src, int srcOffset) {
+        if (size <= 0) {
+            return;
+        }
+
+        extend(address, size);
+        int available = srcOffset < src.length ? min(size, src.length - srcOffset) : 0;
+        if (available > 0) {
+            System.arraycopy(src, srcOffset, buffer, address, available);
         }
+        Arrays.fill(buffer, address + available, address + size, (byte) 0);
     }
 
     public void extendAndWrite(int address, int allocSize, byte[] data) {
@@ -112,12 +126,12 @@ public class Memory {
 
         final int newSize = address + size;
 
-        int toAllocate = newSize - internalSize();
-        if (toAllocate > 0) {
-            addChunks((int) ceil((double) toAllocate / CHUNK_SIZE));
+        if (newSize > buffer.length) {
+            int capacity = (int) min(MAX_CAPACITY, max(2L * buffer.length, MIN_CAPACITY));
+            buffer = Arrays.copyOf(buffer, max(newSize, capacity));
         }
 
-        toAllocate = newSize - softSize;
+        int toAllocate = newSize - softSize;
         if (toAllocate > 0) {
             toAllocate = (int) ceil((double) toAllocate / WORD_SIZE) * WORD_SIZE;
             softSize += toAllocate;
@@ -125,18 +139,13 @@ public class Memory {
     }
 
     public DataWord readWord(int address) {
-        return DataWord.of(read(address, 32));
+        extend(address, WORD_SIZE);
+        return DataWord.of(buffer, address);
     }
 
     // just access expecting all data valid
     public byte readByte(int address) {
-
-        int chunkIndex = address / CHUNK_SIZE;
-        int chunkOffset = address % CHUNK_SIZE;
-
-        byte[] chunk = chunks.get(chunkIndex);
-
-        return chunk[chunkOffset];
+        return buffer[address];
     }
 
     public int size() {
@@ -144,35 +153,6 @@ public class Memory {
     }
 
     public int internalSize() {
-        return chunks.size() * CHUNK_SIZE;
-    }
-
-    public List<byte[]> getChunks() {
-        return new LinkedList<>(chunks);
-    }
-
-    private int captureMax(int chunkIndex, int chunkOffset, int size, byte[] src, int srcPos) {
-
-        byte[] chunk = chunks.get(chunkIndex);
-        int toCapture = min(size, chunk.length - chunkOffset);
-
-        System.arraycopy(src, srcPos, chunk, chunkOffset, toCapture);
-        return toCapture;
-    }
-
-    private int grabMax(int chunkIndex, int chunkOffset, int size, byte[] dest, int destPos) {
-
-        byte[] chunk = chunks.get(chunkIndex);
-        int toGrab = min(size, chunk.length - chunkOffset);
-
-        System.arraycopy(chunk, chunkOffset, dest, destPos, toGrab);
-
-        return toGrab;
-    }
-
-    private void addChunks(int num) {
-        for (int i = 0; i < num; ++i) {
-            chunks.add(new byte[CHUNK_SIZE]);
-        }
+        return buffer.length;
     }
 }
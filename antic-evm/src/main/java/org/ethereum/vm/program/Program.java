@@ -27,6 +27,7 @@ import static org.ethereum.vm.util.ByteArrayUtil.nullToEmpty;
 
 import java.math.BigInteger;
 import java.util.Arrays;
+import java.util.function.Function;
 
 import org.ethereum.vm.DataWord;
 import org.ethereum.vm.MessageCall;
@@ -57,16 +58,12 @@ public class Program {
     private static final Logger logger = LoggerFactory.getLogger(Program.class);
 
     /**
-     * This attribute defines the number of recursive calls allowed in the EVM Note:
-     * For the JVM to reach this level without a StackOverflow exception, ethereumj
-     * may need to be started with a JVM argument to increase the stack size. For
-     * example: -Xss10m
+     * This attribute defines the number of nested calls allowed in the EVM. The
+     * call frames are kept on the heap, see {@link VM#run(Program)}, so that this
+     * level is reached without increasing the stack size of the JVM.
      */
     private static final int MAX_DEPTH = 1024;
 
-    // Max size for stack checks
-    private static final int MAX_STACKSIZE = 1024;
-
     private ProgramInvokeFactory programInvokeFactory = new ProgramInvokeFactoryImpl();
     private ProgramInvoke invoke;
     private ProgramResult result;
@@ -84,6 +81,10 @@ public class Program {
     private int pc;
     private boolean stopped;
 
+    // the pending sub-call, and how to apply its result
+    private Program callee;
+    private Function<ProgramResult, ProgramResult> onReturn;
+
     public Program(byte[] ops, ProgramInvoke programInvoke, Spec spec) {
         this.ops = nullToEmpty(ops);
         this.invoke = programInvoke;
@@ -103,7 +104,7 @@ public class Program {
 
     public ProgramPreprocess getProgramPreprocess() {
         if (preprocessed == null) {
-            preprocessed = ProgramPreprocess.compile(ops);
+            preprocessed = ProgramPreprocess.of(ops);
         }
         return preprocessed;
     }
@@ -186,6 +187,46 @@ public class Program {
         setPC(pc + 1);
     }
 
+    /**
+     * Returns the program of the pending sub-call, which has to run before this
+     * program resumes, see {@link #resume()}.
+     *
+     * @return the program, or null if no sub-call is pending
+     */
+    public Program getCallee() {
+        return callee;
+    }
+
+    /**
+     * Applies the result of the pending sub-call, once its program has run.
+     *
+     * @return the result of the sub-call
+     */
+    public ProgramResult resume() {
+        Program p = callee;
+        Function<ProgramResult, ProgramResult> f = onReturn;
+        callee = null;
+        onReturn = null;
+
+        return f.apply(p.getResult());
+    }
+
+    /**
+     * Leaves a sub-call pending until its program has run, see
+     * {@link #getCallee()}.
+     *
+     * @param program
+     *            the program of the sub-call
+     * @param f
+     *            how to apply the result of the sub-call
+     * @return null, as the result is not known yet
+     */
+    private ProgramResult call(Program program, Function<ProgramResult, ProgramResult> f) {
+        callee = program;
+        onReturn = f;
+        return null;
+    }
+
     public byte[] sweep(int n) {
 
         if (pc + n > ops.length)
@@ -218,8 +259,8 @@ public class Program {
     }
 
     public void verifyStackOverflow(int argsReqs, int returnReqs) {
-        if ((stack.size() - argsReqs + returnReqs) > MAX_STACKSIZE) {
-            throw ExceptionFactory.tooLargeStack((stack.size() - argsReqs + returnReqs), MAX_STACKSIZE);
+        if ((stack.size() - argsReqs + returnReqs) > Stack.MAX_SIZE) {
+            throw ExceptionFactory.tooLargeStack((stack.size() - argsReqs + returnReqs), Stack.MAX_SIZE);
         }
     }
 
@@ -228,7 +269,7 @@ public class Program {
     }
 
     public void memorySave(DataWord addrB, DataWord value) {
-        memory.write(addrB.intValue(), value.getData(), value.getData().length, false);
+        memory.write(addrB.intValue(), value);
     }
 
     public void memorySaveLimited(int addr, byte[] data, int dataSize) {
@@ -259,6 +300,23 @@ public class Program {
         memory.extendAndWrite(addr, allocSize, value);
     }
 
+    /**
+     * Copies a range of a byte array into memory, padded with zeros beyond the end
+     * of the array.
+     *
+     * @param addr
+     *            is the offset address
+     * @param size
+     *            size of memory to write
+     * @param src
+     *            the source array
+     * @param srcOffset
+     *            the offset in the source array
+     */
+    public void memoryCopy(int addr, int size, byte[] src, int srcOffset) {
+        memory.copy(addr, size, src, srcOffset);
+    }
+
     public DataWord memoryLoad(DataWord addr) {
         return memory.readWord(addr.intValue());
     }
@@ -308,6 +366,9 @@ public class Program {
 
     /**
      * Create contract for {@link OpCode#CREATE}
+     *
+     * @return the result of the call, or null if the code of the callee has to
+     *         run first, see {@link #getCallee()}
      */
     public ProgramResult createContract(DataWord value, DataWord memStart, DataWord memSize, long gas) {
         resetReturnDataBuffer();
@@ -325,13 +386,14 @@ public class Program {
         byte[] contractAddress = HashUtil.calcNewAddress(senderAddress, nonce);
         byte[] programCode = memoryChunk(memStart.intValue(), memSize.intValue());
 
-        ProgramResult callResult = createContractImpl(value, programCode, contractAddress, gas);
-        setReturnDataBuffer(callResult.getReturnData());
-        return callResult;
+        return createContractImpl(value, programCode, contractAddress, gas);
     }
 
     /**
      * Create contract for {@link OpCode#CREATE2}
+     *
+     * @return the result of the call, or null if the code of the callee has to
+     *         run first, see {@link #getCallee()}
      */
     public ProgramResult createContract2(DataWord value, DataWord memStart, DataWord memSize, DataWord salt, long gas) {
         resetReturnDataBuffer();
@@ -348,14 +410,15 @@ public class Program {
         byte[] programCode = memoryChunk(memStart.intValue(), memSize.intValue());
         byte[] contractAddress = HashUtil.calcSaltAddress(senderAddress, programCode, salt.getData());
 
-        ProgramResult callResult = createContractImpl(value, programCode, contractAddress, gas);
-        setReturnDataBuffer(callResult.getReturnData());
-        return callResult;
+        return createContractImpl(value, programCode, contractAddress, gas);
     }
 
     /**
      * Call a contract for {@link OpCode#CALL}, {@link OpCode#CALLCODE} or
      * {@link OpCode#DELEGATECALL}.
+     *
+     * @return the result of the call, or null if the code of the callee has to
+     *         run first, see {@link #getCallee()}
      */
     public ProgramResult callContract(OpCode type, long gas, DataWord codeAddress, DataWord value, DataWord inDataOffs,
             DataWord inDataSize, DataWord outDataOffs, DataWord outDataSize) {
@@ -375,9 +438,7 @@ public class Program {
                 outDataOffs, outDataSize);
         PrecompiledContract contract = spec.getPrecompiledContracts().getContractForAddress(codeAddress);
 
-        ProgramResult callResult = callContractImpl(msg, contract);
-        setReturnDataBuffer(callResult.getReturnData());
-        return callResult;
+        return callContractImpl(msg, contract);
     }
 
     /**
@@ -419,11 +480,12 @@ public class Program {
         }
 
         // [6] EXECUTE THE CODE
-        ProgramResult result;
+        Function<ProgramResult, ProgramResult> onReturn = result -> createContractDone(result, newAddress, track,
+                internalTx);
         if (contractAlreadyExists) {
-            result = ProgramResult.createExceptionResult(gas,
+            return onReturn.apply(ProgramResult.createExceptionResult(gas,
                     new BytecodeExecutionException("Account already exists: 0x"
-                            + HexUtil.toHexString(newAddress)));
+                            + HexUtil.toHexString(newAddress))));
         } else if (isNotEmpty(programCode)) {
             ProgramInvoke programInvoke = programInvokeFactory.createProgramInvoke(this,
                     getOwnerAddress(),
@@ -436,12 +498,17 @@ public class Program {
                     false);
             Program program = new Program(programCode, programInvoke, spec);
 
-            new VM(spec).play(program);
-            result = program.getResult();
+            return call(program, onReturn);
         } else {
-            result = ProgramResult.createEmptyResult(gas);
+            return onReturn.apply(ProgramResult.createEmptyResult(gas));
         }
+    }
 
+    /**
+     * Completes a contract creation once its code has run.
+     */
+    private ProgramResult createContractDone(ProgramResult result, byte[] newAddress, Repository track,
+            InternalTransaction internalTx) {
         // [7] SAVE THE CONTRACT CODE
         if (result.getException() == null && !result.isRevert()) {
             byte[] code = result.getReturnData();
@@ -497,6 +564,7 @@ public class Program {
         // [10] MERGE RESULT INTO PARENT
         getResult().merge(result);
 
+        setReturnDataBuffer(result.getReturnData());
         return result;
     }
 
@@ -533,6 +601,8 @@ public class Program {
         }
 
         // [6] EXECUTE THE CODE
+        Function<ProgramResult, ProgramResult> onReturn = result -> callContractDone(result, msg, contextAddress,
+                track, internalTx);
         ProgramResult result;
         if (contract != null) {
             long requiredGas = contract.getGasForData(data);
@@ -580,13 +650,21 @@ public class Program {
                         this.invoke.getBlockStore(),
                         msg.getType().callIsStatic() || isStaticCall());
                 Program program = new Program(programCode, programInvoke, spec);
-                new VM(spec).play(program);
-                result = program.getResult();
+
+                return call(program, onReturn);
             } else {
                 result = ProgramResult.createEmptyResult(msg.getGas());
             }
         }
 
+        return onReturn.apply(result);
+    }
+
+    /**
+     * Completes an internal call once its code has run.
+     */
+    private ProgramResult callContractDone(ProgramResult result, MessageCall msg, byte[] contextAddress,
+            Repository track, InternalTransaction internalTx) {
         // [7] POST EXECUTION PROCESSING
         if (result.getException() == null && !result.isRevert()) {
             // commit changes
@@ -627,6 +705,7 @@ public class Program {
         // [9] MERGE RESULT INTO PARENT
         getResult().merge(result);
 
+        setReturnDataBuffer(result.getReturnData());
         return result;
     }
 
@@ -17,9 +17,14 @@
  */
 package org.ethereum.vm.program;
 
-import java.util.HashSet;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Set;
 
+import org.ethereum.vm.DataWord;
 import org.ethereum.vm.OpCode;
 
 /**
@@ -27,34 +32,266 @@ import org.ethereum.vm.OpCode;
  *
  * Features included:
  * <ul>
- * <li>Collect the list of JUMP destinations</li>
+ * <li>Collect the list of JUMP destinations, as a bitmap</li>
+ * <li>Decode the immediate values of the PUSH operations</li>
+ * <li>Split the code into basic blocks, with the sum of their static gas and
+ * their stack requirements</li>
  * </ul>
+ *
+ * The analysis of a code is shared by all the programs running it, see
+ * {@link #of(byte[])}.
  */
 public class ProgramPreprocess {
-    private Set<Integer> jumpdest = new HashSet<>();
+
+    /**
+     * The approximate size of the analysis of one byte of code, in bytes.
+     */
+    private static final int BYTES_PER_OP = 40;
+
+    /**
+     * The max approximate size of the cached analyses, in bytes.
+     */
+    private static final long MAX_CACHE_SIZE = 64L * 1024 * 1024;
+
+    /**
+     * The operations whose gas cost is not their tier alone, see
+     * {@link org.ethereum.vm.VM#step(Program)}.
+     */
+    private static final Set<OpCode> DYNAMIC_GAS = EnumSet.of(
+            OpCode.STOP, OpCode.SUICIDE, OpCode.SSTORE, OpCode.SLOAD, OpCode.BALANCE,
+            OpCode.MSTORE, OpCode.MLOAD, OpCode.MSTORE8, OpCode.RETURN, OpCode.REVERT, OpCode.SHA3,
+            OpCode.CALLDATACOPY, OpCode.RETURNDATACOPY, OpCode.CODECOPY, OpCode.EXTCODESIZE,
+            OpCode.EXTCODECOPY, OpCode.EXTCODEHASH, OpCode.CALL, OpCode.CALLCODE, OpCode.DELEGATECALL,
+            OpCode.STATICCALL, OpCode.CREATE, OpCode.CREATE2, OpCode.LOG0, OpCode.LOG1, OpCode.LOG2,
+            OpCode.LOG3, OpCode.LOG4, OpCode.EXP);
+
+    /**
+     * The operations which end a basic block: the ones which leave it, the ones
+     * which observe the gas left, and the ones which may fail after spending their
+     * gas, so that the gas of the operations after them is never charged before
+     * them.
+     */
+    private static final Set<OpCode> BLOCK_END = EnumSet.of(
+            OpCode.STOP, OpCode.JUMP, OpCode.JUMPI, OpCode.RETURN, OpCode.REVERT, OpCode.SUICIDE,
+            OpCode.GAS, OpCode.CALL, OpCode.CALLCODE, OpCode.DELEGATECALL, OpCode.STATICCALL,
+            OpCode.CREATE, OpCode.CREATE2, OpCode.SSTORE, OpCode.LOG0, OpCode.LOG1, OpCode.LOG2,
+            OpCode.LOG3, OpCode.LOG4, OpCode.RETURNDATACOPY);
+
+    /**
+     * The operations which start a basic block besides JUMPDEST: the ones which
+     * are invalid before a fork, and fail before spending any gas, see
+     * {@link org.ethereum.vm.VM#step(Program)}. As the analysis doesn't depend
+     * on the spec, their gas is thus never charged with the one of the
+     * operations before them.
+     */
+    private static final Set<OpCode> BLOCK_START = EnumSet.of(
+            OpCode.SHL, OpCode.SHR, OpCode.SAR, OpCode.EXTCODEHASH, OpCode.CREATE2);
+
+    private static final Map<Key, ProgramPreprocess> cache = new LinkedHashMap<>(256, 0.75f, true);
+    private static long cacheSize = 0;
+
+    private final long[] jumpdest;
+    private final DataWord[] pushValues;
+
+    // the end of the block, exclusive, and its static gas, at the start of a block
+    private final int[] blockEnds;
+    private final int[] blockGas;
+
+    // the min stack size at the start of a block, and its max growth within it
+    private final int[] blockStackMin;
+    private final int[] blockStackGrowth;
+
+    private ProgramPreprocess(int length) {
+        this.jumpdest = new long[(length + 63) >>> 6];
+        this.pushValues = new DataWord[length];
+        this.blockEnds = new int[length];
+        this.blockGas = new int[length];
+        this.blockStackMin = new int[length];
+        this.blockStackGrowth = new int[length];
+    }
 
     public boolean hasJumpDest(int pc) {
-        return jumpdest.contains(pc);
+        return pc >= 0 && pc < pushValues.length && (jumpdest[pc >>> 6] & (1L << pc)) != 0;
+    }
+
+    /**
+     * Returns the immediate value of the PUSH operation at the given pc, padded
+     * with zeros beyond the end of the code.
+     *
+     * @param pc
+     * @return the value, or null if the operation at pc is not a PUSH
+     */
+    public DataWord getPushValue(int pc) {
+        return pushValues[pc];
+    }
+
+    /**
+     * Returns whether a basic block starts at the given pc.
+     *
+     * @param pc
+     * @return
+     */
+    public boolean isBlockStart(int pc) {
+        return pc >= 0 && pc < blockEnds.length && blockEnds[pc] != 0;
+    }
+
+    /**
+     * Returns the end of the basic block starting at the given pc, which is the pc
+     * after its last operation.
+     *
+     * @param pc
+     * @return
+     */
+    public int getBlockEnd(int pc) {
+        return blockEnds[pc];
+    }
+
+    /**
+     * Returns the sum of the tiers of the operations of the basic block starting
+     * at the given pc, excluding the ones of {@link #hasStaticGas(OpCode)} false.
+     *
+     * @param pc
+     * @return
+     */
+    public int getBlockGas(int pc) {
+        return blockGas[pc];
+    }
+
+    /**
+     * Returns the min stack size for the operations of the basic block starting
+     * at the given pc not to underflow.
+     *
+     * @param pc
+     * @return
+     */
+    public int getBlockStackMin(int pc) {
+        return blockStackMin[pc];
+    }
+
+    /**
+     * Returns the max growth of the stack within the basic block starting at the
+     * given pc.
+     *
+     * @param pc
+     * @return
+     */
+    public int getBlockStackGrowth(int pc) {
+        return blockStackGrowth[pc];
+    }
+
+    /**
+     * Returns whether the gas cost of an operation is its tier alone.
+     *
+     * @param op
+     * @return
+     */
+    public static boolean hasStaticGas(OpCode op) {
+        return !DYNAMIC_GAS.contains(op);
+    }
+
+    /**
+     * Returns the analysis of a code, from the cache if it was analyzed before.
+     *
+     * @param ops
+     * @return
+     */
+    public static ProgramPreprocess of(byte[] ops) {
+        Key key = new Key(ops);
+        synchronized (cache) {
+            ProgramPreprocess ret = cache.get(key);
+            if (ret != null) {
+                return ret;
+            }
+        }
+
+        ProgramPreprocess ret = compile(ops);
+        synchronized (cache) {
+            if (cache.put(key, ret) == null) {
+                cacheSize += (long) ops.length * BYTES_PER_OP;
+            }
+
+            Iterator<Key> itr = cache.keySet().iterator();
+            while (cacheSize > MAX_CACHE_SIZE && itr.hasNext()) {
+                cacheSize -= (long) itr.next().ops.length * BYTES_PER_OP;
+                itr.remove();
+            }
+        }
+        return ret;
     }
 
     public static ProgramPreprocess compile(byte[] ops) {
-        ProgramPreprocess ret = new ProgramPreprocess();
+        ProgramPreprocess ret = new ProgramPreprocess(ops.length);
 
+        int blockStart = 0;
+        int delta = 0; // the stack size change since the start of the block
         for (int i = 0; i < ops.length; ++i) {
             OpCode op = OpCode.code(ops[i]);
+
+            // a JUMPDEST, or an operation invalid before a fork, starts a new block
+            if ((op == OpCode.JUMPDEST || (op != null && BLOCK_START.contains(op))) && i > blockStart) {
+                ret.blockEnds[blockStart] = i;
+                blockStart = i;
+                delta = 0;
+            }
+
             if (op == null) {
+                // an invalid operation ends the block
+                ret.blockEnds[blockStart] = i + 1;
+                blockStart = i + 1;
+                delta = 0;
                 continue;
             }
 
             if (op.equals(OpCode.JUMPDEST)) {
-                ret.jumpdest.add(i);
+                ret.jumpdest[i >>> 6] |= 1L << i;
             }
 
+            if (hasStaticGas(op)) {
+                ret.blockGas[blockStart] += op.getTier().asInt();
+            }
+            ret.blockStackMin[blockStart] = Math.max(ret.blockStackMin[blockStart], op.require() - delta);
+            delta += op.ret() - op.require();
+            ret.blockStackGrowth[blockStart] = Math.max(ret.blockStackGrowth[blockStart], delta);
+
             if (op.asInt() >= OpCode.PUSH1.asInt() && op.asInt() <= OpCode.PUSH32.asInt()) {
-                i += op.asInt() - OpCode.PUSH1.asInt() + 1;
+                int n = op.asInt() - OpCode.PUSH1.asInt() + 1;
+                ret.pushValues[i] = DataWord.of(Arrays.copyOfRange(ops, i + 1, i + 1 + n));
+                i += n;
+            }
+
+            if (BLOCK_END.contains(op)) {
+                ret.blockEnds[blockStart] = i + 1;
+                blockStart = i + 1;
+                delta = 0;
             }
         }
+        if (blockStart < ops.length) {
+            ret.blockEnds[blockStart] = ops.length;
+        }
 
         return ret;
     }
+
+    /**
+     * A cache key comparing the code by content.
+     */
+    private static final class Key {
+        private final byte[] ops;
+        private final int hash;
+
+        Key(byte[] ops) {
+            this.ops = ops;
+            this.hash = Arrays.hashCode(ops);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key && hash == ((Key) o).hash && Arrays.equals(ops, ((Key) o).ops);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
 }
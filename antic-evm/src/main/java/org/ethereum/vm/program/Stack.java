@@ -17,47 +17,71 @@
  */
 package org.ethereum.vm.program;
 
+import java.util.Arrays;
+
 import org.ethereum.vm.DataWord;
+import org.ethereum.vm.program.exception.ExceptionFactory;
 
 /**
- * Program runtime stack.
+ * Program runtime stack, a fixed array of {@link #MAX_SIZE} slots.
+ *
+ * @ImplNote Stack objects are NOT thread-safe; a program is executed by a
+ *           single thread.
  */
 public class Stack {
 
-    private java.util.Stack<DataWord> stack = new java.util.Stack<>();
+    /**
+     * The max number of items.
+     */
+    public static final int MAX_SIZE = 1024;
+
+    private final DataWord[] items = new DataWord[MAX_SIZE];
+    private int size;
 
-    public synchronized DataWord pop() {
-        return stack.pop();
+    public DataWord pop() {
+        if (size == 0) {
+            throw ExceptionFactory.tooSmallStack(1, 0);
+        }
+        DataWord item = items[--size];
+        items[size] = null;
+        return item;
     }
 
     public void push(DataWord item) {
-        stack.push(item);
+        if (size == MAX_SIZE) {
+            throw ExceptionFactory.tooLargeStack(size + 1, MAX_SIZE);
+        }
+        items[size++] = item;
     }
 
     public void swap(int from, int to) {
         if (isAccessible(from) && isAccessible(to) && (from != to)) {
-            DataWord tmp = stack.get(from);
-            stack.set(from, stack.set(to, tmp));
+            DataWord tmp = items[from];
+            items[from] = items[to];
+            items[to] = tmp;
         }
     }
 
     public DataWord peek() {
-        return stack.peek();
+        return get(size - 1);
     }
 
     public DataWord get(int index) {
-        return stack.get(index);
+        if (!isAccessible(index)) {
+            throw new ArrayIndexOutOfBoundsException(index);
+        }
+        return items[index];
     }
 
     public int size() {
-        return stack.size();
+        return size;
     }
 
     private boolean isAccessible(int from) {
-        return from >= 0 && from < stack.size();
+        return from >= 0 && from < size;
     }
 
     public DataWord[] toArray() {
-        return stack.toArray(new DataWord[0]);
+        return Arrays.copyOf(items, size);
     }
 }
@@ -40,6 +40,10 @@ public class ExceptionFactory {
                 limit.longValue());
     }
 
+    public static OutOfGasException gasOverflow(long actual, long limit) {
+        return new OutOfGasException("Gas value overflow: actual[%d], limit[%d];", actual, limit);
+    }
+
     public static IllegalOperationException invalidOpCode(byte opCode) {
         return new IllegalOperationException("Invalid operation code: opCode[%s];",
                 HexUtil.toHexString(new byte[] { opCode }));
@@ -17,7 +17,6 @@
  */
 package org.ethereum.vm.program.invoke;
 
-import java.math.BigInteger;
 import java.util.Objects;
 
 import org.ethereum.vm.DataWord;
@@ -134,12 +133,11 @@ public class ProgramInvokeImpl implements ProgramInvoke {
     public DataWord getDataValue(DataWord indexData) {
         byte[] data = getData();
 
-        BigInteger indexBI = indexData.value();
-        if (indexBI.compareTo(BigInteger.valueOf(data.length)) >= 0) {
+        if (!indexData.isLessThan(data.length)) {
             return DataWord.ZERO;
         }
 
-        int idx = indexBI.intValue();
+        int idx = indexData.intValue();
         int size = Math.min(data.length - idx, DataWord.SIZE);
 
         byte[] buffer = new byte[DataWord.SIZE];
@@ -159,17 +157,14 @@ public class ProgramInvokeImpl implements ProgramInvoke {
     public byte[] getDataCopy(DataWord offsetData, DataWord lengthData) {
         byte[] data = getData();
 
-        BigInteger offsetBI = offsetData.value();
-        BigInteger lengthBI = lengthData.value();
-
-        if (offsetBI.compareTo(BigInteger.valueOf(data.length)) >= 0) {
+        if (!offsetData.isLessThan(data.length)) {
             return new byte[0];
         }
 
-        int offset = offsetBI.intValue();
+        int offset = offsetData.intValue();
         int size = data.length - offset;
-        if (lengthBI.compareTo(BigInteger.valueOf(size)) < 0) {
-            size = lengthBI.intValue();
+        if (lengthData.isLessThan(size)) {
+            size = lengthData.intValue();
         }
 
         byte[] buffer = new byte[size];
@@ -0,0 +1,224 @@
+/**
+ * Copyright (c) [2019] [ The Antic Developers ]
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.ethereum.vm;
+
+import static org.junit.Assert.assertEquals;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.BinaryOperator;
+import java.util.function.UnaryOperator;
+
+import org.junit.Test;
+
+/**
+ * Checks the {@link UInt256} arithmetic against BigInteger, on edge cases and
+ * on random operands.
+ */
+public class UInt256Test {
+
+    private static final BigInteger TWO_POW_256 = BigInteger.ONE.shiftLeft(256);
+    private static final BigInteger TWO_POW_255 = BigInteger.ONE.shiftLeft(255);
+
+    private static final int RANDOM_OPERANDS = 200;
+
+    private final List<BigInteger> operands = new ArrayList<>();
+
+    public UInt256Test() {
+        BigInteger[] edges = {
+                BigInteger.ZERO,
+                BigInteger.ONE,
+                BigInteger.valueOf(2),
+                BigInteger.valueOf(3),
+                BigInteger.ONE.shiftLeft(32).subtract(BigInteger.ONE),
+                BigInteger.ONE.shiftLeft(64).subtract(BigInteger.ONE),
+                BigInteger.ONE.shiftLeft(64),
+                BigInteger.ONE.shiftLeft(128).subtract(BigInteger.ONE),
+                BigInteger.ONE.shiftLeft(128),
+                TWO_POW_255.subtract(BigInteger.ONE),
+                TWO_POW_255,
+                TWO_POW_255.add(BigInteger.ONE),
+                TWO_POW_256.subtract(BigInteger.valueOf(2)),
+                TWO_POW_256.subtract(BigInteger.ONE)
+        };
+        for (BigInteger edge : edges) {
+            operands.add(edge);
+        }
+
+        Random random = new Random(256);
+        for (int i = 0; i < RANDOM_OPERANDS; i++) {
+            // random values of random bit lengths, half of them negative
+            BigInteger value = new BigInteger(1 + random.nextInt(256), random);
+            operands.add(random.nextBoolean() ? value : TWO_POW_256.subtract(value).mod(TWO_POW_256));
+        }
+    }
+
+    @Test
+    public void testAdd() {
+        checkBinary("add", UInt256::add, BigInteger::add);
+    }
+
+    @Test
+    public void testSub() {
+        checkBinary("sub", UInt256::sub, BigInteger::subtract);
+    }
+
+    @Test
+    public void testMul() {
+        checkBinary("mul", UInt256::mul, BigInteger::multiply);
+    }
+
+    @Test
+    public void testDiv() {
+        checkBinary("div", UInt256::div, (a, b) -> b.signum() == 0 ? BigInteger.ZERO : a.divide(b));
+    }
+
+    @Test
+    public void testMod() {
+        checkBinary("mod", UInt256::mod, (a, b) -> b.signum() == 0 ? BigInteger.ZERO : a.mod(b));
+    }
+
+    @Test
+    public void testSdiv() {
+        checkBinary("sdiv", UInt256::sdiv,
+                (a, b) -> b.signum() == 0 ? BigInteger.ZERO : signed(a).divide(signed(b)));
+    }
+
+    @Test
+    public void testSmod() {
+        // the result takes the sign of the dividend
+        checkBinary("smod", UInt256::smod,
+                (a, b) -> b.signum() == 0 ? BigInteger.ZERO : signed(a).remainder(signed(b)));
+    }
+
+    @Test
+    public void testAddmod() {
+        checkTernary("addmod", UInt256::addmod, (a, b, m) -> a.add(b).mod(m));
+    }
+
+    @Test
+    public void testMulmod() {
+        checkTernary("mulmod", UInt256::mulmod, (a, b, m) -> a.multiply(b).mod(m));
+    }
+
+    @Test
+    public void testExp() {
+        checkBinary("exp", UInt256::exp, (a, b) -> a.modPow(b, TWO_POW_256));
+    }
+
+    @Test
+    public void testSignExtend() {
+        for (BigInteger a : operands) {
+            for (int k = 0; k < 32; k++) {
+                int bits = 8 * (k + 1);
+                BigInteger low = a.mod(BigInteger.ONE.shiftLeft(bits));
+                BigInteger expected = low.testBit(bits - 1) ? low.subtract(BigInteger.ONE.shiftLeft(bits)) : low;
+                int n = k;
+                check("signextend " + k, a, null, u -> u.signExtend(n), expected);
+            }
+        }
+    }
+
+    @Test
+    public void testShifts() {
+        for (BigInteger a : operands) {
+            for (int n : shifts()) {
+                check("shl " + n, a, null, u -> u.shiftLeft(n), n >= 256 ? BigInteger.ZERO : a.shiftLeft(n));
+                check("shr " + n, a, null, u -> u.shiftRight(n), n >= 256 ? BigInteger.ZERO : a.shiftRight(n));
+                check("sar " + n, a, null, u -> u.shiftRightSigned(n), signed(a).shiftRight(Math.min(n, 256)));
+            }
+        }
+    }
+
+    @Test
+    public void testCompare() {
+        for (BigInteger a : operands) {
+            for (BigInteger b : operands) {
+                assertEquals("compare " + a + ", " + b, Integer.signum(a.compareTo(b)),
+                        Integer.signum(of(a).compareTo(of(b))));
+            }
+        }
+    }
+
+    @Test
+    public void testNegateAndNot() {
+        for (BigInteger a : operands) {
+            check("negate", a, null, UInt256::negate, a.negate());
+            check("not", a, null, UInt256::not, a.not());
+        }
+    }
+
+    private interface TernaryOperator<T> {
+        T apply(T a, T b, T c);
+    }
+
+    private void checkBinary(String op, BinaryOperator<UInt256> actual, BinaryOperator<BigInteger> expected) {
+        for (BigInteger a : operands) {
+            for (BigInteger b : operands) {
+                UInt256 other = of(b);
+                check(op, a, b, u -> actual.apply(u, other), expected.apply(a, b));
+                assertEquals(op + " modified the operand", b, toBigInteger(other));
+            }
+        }
+    }
+
+    private void checkTernary(String op, TernaryOperator<UInt256> actual, TernaryOperator<BigInteger> expected) {
+        Random random = new Random(op.hashCode());
+        for (BigInteger a : operands) {
+            for (BigInteger b : operands) {
+                BigInteger m = operands.get(random.nextInt(operands.size()));
+                check(op + " mod " + m, a, b, u -> actual.apply(u, of(b), of(m)),
+                        m.signum() == 0 ? BigInteger.ZERO : expected.apply(a, b, m));
+            }
+        }
+    }
+
+    private static void check(String op, BigInteger a, BigInteger b, UnaryOperator<UInt256> actual,
+            BigInteger expected) {
+        UInt256 u = of(a);
+        UInt256 result = actual.apply(u);
+        String message = op + "(" + a + (b == null ? "" : ", " + b) + ")";
+        assertEquals(message, expected.mod(TWO_POW_256), toBigInteger(result));
+        assertEquals(message + " didn't update in place", result, u);
+    }
+
+    private static int[] shifts() {
+        int[] shifts = new int[300];
+        for (int i = 0; i < shifts.length; i++) {
+            shifts[i] = i;
+        }
+        return shifts;
+    }
+
+    private static UInt256 of(BigInteger value) {
+        byte[] bytes = value.mod(TWO_POW_256).toByteArray();
+        byte[] data = new byte[DataWord.SIZE];
+        int length = Math.min(bytes.length, DataWord.SIZE);
+        System.arraycopy(bytes, bytes.length - length, data, DataWord.SIZE - length, length);
+        return UInt256.of(data);
+    }
+
+    private static BigInteger toBigInteger(UInt256 value) {
+        return new BigInteger(1, value.toBytes());
+    }
+
+    private static BigInteger signed(BigInteger value) {
+        return value.testBit(255) ? value.subtract(TWO_POW_256) : value;
+    }
+}
@@ -0,0 +1,219 @@
+/**
+ * Copyright (c) [2019] [ The Antic Developers ]
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.ethereum.vm;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.ethereum.vm.chainspec.ConstantinopleSpec;
+import org.ethereum.vm.chainspec.Spec;
+import org.ethereum.vm.client.BlockStore;
+import org.ethereum.vm.client.Repository;
+import org.ethereum.vm.program.Program;
+import org.ethereum.vm.program.invoke.ProgramInvoke;
+import org.ethereum.vm.program.invoke.ProgramInvokeImpl;
+import org.ethereum.vm.util.HexUtil;
+import org.junit.Test;
+
+/**
+ * Checks that {@link VM#run(Program)} has the same results as the reference
+ * implementation {@link VM#play(Program)}, on edge cases and on random code,
+ * before and after the operations added by Constantinople.
+ */
+public class VMTest {
+
+    private static final int RANDOM_PROGRAMS = 20_000;
+
+    /**
+     * The operations of the random code, which don't access the repository.
+     * JUMP, JUMPI and JUMPDEST are repeated to get more jumps to valid
+     * destinations.
+     */
+    private static final int[] OPS = {
+            // arithmetic, comparison and bitwise operations
+            0x01, 0x02, 0x03, 0x04, 0x05, 0x06, 0x07, 0x08, 0x09, 0x0a, 0x0b,
+            0x10, 0x11, 0x12, 0x13, 0x14, 0x15, 0x16, 0x17, 0x18, 0x19, 0x1a, 0x1b, 0x1c, 0x1d,
+            // SHA3 and the environment
+            0x20, 0x30, 0x32, 0x33, 0x34, 0x35, 0x36, 0x37, 0x38, 0x39, 0x3a, 0x3d, 0x3e, 0x42, 0x43, 0x45,
+            // stack, memory and flow operations
+            0x50, 0x51, 0x52, 0x53, 0x56, 0x57, 0x58, 0x59, 0x5a, 0x5b,
+            0x56, 0x57, 0x5b, 0x5b,
+            0x80, 0x81, 0x82, 0x83, 0x8f, 0x90, 0x91, 0x92, 0x9f,
+            // STOP, RETURN, REVERT and INVALID
+            0x00, 0xf3, 0xfd, 0xfe
+    };
+
+    private static final Spec[] SPECS = { Spec.DEFAULT, new ConstantinopleSpec() };
+
+    private final Repository repository = mock(Repository.class);
+    private final BlockStore blockStore = mock(BlockStore.class);
+
+    @Test
+    public void testEdgeCases() {
+        String[] codes = {
+                // empty code
+                "",
+                // a lone JUMPDEST, STOP
+                "5b", "00",
+                // stack underflow
+                "01", "6001" + "01", "6001" + "80" + "01" + "01",
+                // DUP16 and SWAP16 with a short stack
+                "600160026003" + "8f", "600160026003" + "9f",
+                // JUMP into the data of a PUSH, and to a JUMPDEST
+                "6003" + "56" + "605b" + "00", "6004" + "56" + "00" + "00" + "5b" + "600100",
+                // JUMPI taken and not taken, to an invalid destination
+                "6001" + "6010" + "57" + "00", "6000" + "6010" + "57" + "00",
+                // a jump beyond the code
+                "61ffff" + "56",
+                // truncated PUSH32 at the end of the code
+                "7f0102",
+                // undefined opcodes
+                "0c", "fe", "ef",
+                // huge memory offset
+                "6001" + "7f" + repeat("ff", 32) + "52",
+                "6001" + "63ffffffff" + "52",
+                // memory expansion, and RETURN of the memory
+                "6042" + "61" + "0400" + "52" + "6020" + "61" + "0400" + "f3",
+                // REVERT with data
+                "60aa" + "6000" + "53" + "6001" + "6000" + "fd",
+                // SHA3 of the expanded memory
+                "6040" + "6000" + "20",
+                // CODECOPY and CALLDATACOPY beyond the end
+                "6020" + "6000" + "6000" + "39" + "6020" + "6000" + "f3",
+                "6020" + "6010" + "6000" + "37" + "6020" + "6000" + "f3",
+                // an operation added by Constantinople after a memory expansion
+                "6001" + "61" + "0400" + "52" + "6001" + "6001" + "1b" + "6001" + "01",
+                // RETURNDATACOPY beyond the return data, with operations after it
+                "6020" + "6000" + "6000" + "3e" + "6001" + "6001" + "01",
+                // signed arithmetic of -2^255 and -1
+                "7f8" + repeat("0", 63) + "7f" + repeat("ff", 32) + "05",
+                // a loop decrementing a counter, until out of gas or done
+                "6064" + "5b" + "6001" + "90" + "03" + "80" + "6002" + "57" + "00",
+                // an infinite loop
+                "5b" + "6000" + "56",
+                // GAS and PC observed after cheap operations
+                "6001" + "6002" + "01" + "5a" + "58" + "00",
+                // stack overflow
+                repeat("6001", 1025)
+        };
+
+        for (String code : codes) {
+            for (long gas : new long[] { 0, 1, 2, 3, 5, 21, 100, 1_000, 100_000 }) {
+                check(HexUtil.fromHexString(code), gas);
+            }
+        }
+
+        // out of gas at every possible operation of a program
+        byte[] code = HexUtil.fromHexString("6042" + "6000" + "52" + "6001" + "6002" + "02" + "5a" + "6020"
+                + "6000" + "f3");
+        for (long gas = 0; gas < 100; gas++) {
+            check(code, gas);
+        }
+    }
+
+    @Test
+    public void testRandomCode() {
+        Random random = new Random(1024);
+        for (int i = 0; i < RANDOM_PROGRAMS; i++) {
+            byte[] code = random.nextInt(10) == 0 ? randomBytes(random) : randomCode(random);
+            long gas = random.nextBoolean() ? random.nextInt(600) : 100_000;
+            check(code, gas);
+        }
+    }
+
+    private void check(byte[] code, long gas) {
+        for (Spec spec : SPECS) {
+            check(spec, code, gas);
+        }
+    }
+
+    private void check(Spec spec, byte[] code, long gas) {
+        Program expected = newProgram(spec, code, gas);
+        Program actual = newProgram(spec, code, gas);
+        new VM(spec).play(expected);
+        new VM(spec).run(actual);
+
+        String message = spec.getClass().getSimpleName() + ", code = " + HexUtil.toHexString(code) + ", gas = "
+                + gas;
+        RuntimeException e = expected.getResult().getException();
+        RuntimeException a = actual.getResult().getException();
+        assertEquals(message, e == null ? null : e.getClass(), a == null ? null : a.getClass());
+        assertEquals(message, expected.getResult().getGasUsed(), actual.getResult().getGasUsed());
+        assertEquals(message, expected.getResult().isRevert(), actual.getResult().isRevert());
+        assertArrayEquals(message, expected.getResult().getReturnData(), actual.getResult().getReturnData());
+        if (e == null) {
+            assertEquals(message, Arrays.asList(expected.getStack().toArray()),
+                    Arrays.asList(actual.getStack().toArray()));
+            assertArrayEquals(message, expected.getMemory(), actual.getMemory());
+        }
+    }
+
+    private Program newProgram(Spec spec, byte[] code, long gas) {
+        DataWord zero = DataWord.ZERO;
+        ProgramInvoke invoke = new ProgramInvokeImpl(DataWord.of(1), DataWord.of(2), DataWord.of(3), gas,
+                DataWord.of(4), DataWord.of(5), HexUtil.fromHexString("0102030405"), zero, zero,
+                DataWord.of(1_500_000_000L), DataWord.of(100), zero, DataWord.of(1_000_000), repository,
+                repository, blockStore, 0, false);
+        return new Program(code, invoke, spec);
+    }
+
+    /**
+     * Generates code of random operations, after a few small pushes, with pushes
+     * of random lengths whose data are often jump destinations in the code.
+     *
+     * @param random
+     * @return
+     */
+    private static byte[] randomCode(Random random) {
+        int length = 16 + 1 + random.nextInt(120);
+        byte[] code = new byte[length];
+        for (int i = 0; i < 16; i += 2) {
+            code[i] = 0x60;
+            code[i + 1] = (byte) random.nextInt(random.nextBoolean() ? 40 : 256);
+        }
+        for (int i = 16; i < length; i++) {
+            if (random.nextInt(10) < 3) {
+                int n = random.nextInt(random.nextInt(10) == 0 ? 32 : 3);
+                code[i] = (byte) (0x60 + n);
+                for (int j = 0; j <= n && i + 1 < length; j++) {
+                    code[++i] = (byte) (random.nextInt(4) == 0 ? random.nextInt(length) : random.nextInt());
+                }
+            } else {
+                code[i] = (byte) OPS[random.nextInt(OPS.length)];
+            }
+        }
+        return code;
+    }
+
+    private static byte[] randomBytes(Random random) {
+        byte[] code = new byte[random.nextInt(64)];
+        random.nextBytes(code);
+        return code;
+    }
+
+    private static String repeat(String s, int n) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < n; i++) {
+            sb.append(s);
+        }
+        return sb.toString();
+    }
+}